@@ -25,16 +25,29 @@ dependencies {
     implementation("org.apache.logging.log4j", "log4j-core", "2.25.1")
     implementation("me.carleslc.Simple-YAML", "Simple-Yaml", "1.8.3")
     implementation("com.fasterxml.jackson.core", "jackson-databind", "2.16.1")
-    implementation("com.github.Ryzeon", "discord-html-transcripts", "2.1")
 
     compileOnly("org.projectlombok", "lombok", "1.18.40")
     annotationProcessor("org.projectlombok", "lombok", "1.18.40")
+
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter", "junit-jupiter")
+    testRuntimeOnly("org.junit.platform", "junit-platform-launcher")
+    testImplementation("org.eclipse.jetty.http2", "jetty-http2-server", "12.0.16")
+    testImplementation("org.openjdk.jol", "jol-core", "0.17")
+    testCompileOnly("org.projectlombok", "lombok", "1.18.40")
+    testAnnotationProcessor("org.projectlombok", "lombok", "1.18.40")
 }
 
 tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
 }
 
+tasks.test {
+    useJUnitPlatform()
+    // JOL attaches itself to measure object sizes, records can't be measured without it
+    jvmArgs("-Djdk.attach.allowAttachSelf=true", "-XX:+EnableDynamicAgentLoading")
+}
+
 tasks.withType<ShadowJar> {
     manifest {
         attributes["Main-Class"] = "eu.greev.dcbot.Main"
@@ -1,5 +1,6 @@
 package eu.greev.dcbot;
 
+import eu.greev.dcbot.scheduler.BackupScheduler;
 import eu.greev.dcbot.scheduler.DailyScheduler;
 import eu.greev.dcbot.scheduler.HourlyScheduler;
 import eu.greev.dcbot.scheduler.RatingStatsScheduler;
@@ -11,11 +12,21 @@ import eu.greev.dcbot.ticketsystem.interactions.commands.*;
 import eu.greev.dcbot.ticketsystem.interactions.modals.RatingModal;
 import eu.greev.dcbot.ticketsystem.interactions.modals.TicketConfirmMessageModal;
 import eu.greev.dcbot.ticketsystem.interactions.modals.TicketModal;
+import eu.greev.dcbot.ticketsystem.service.AnalyticsExport;
+import eu.greev.dcbot.ticketsystem.service.AutoAssigner;
+import eu.greev.dcbot.ticketsystem.service.ChangeJournal;
+import eu.greev.dcbot.ticketsystem.service.DatabaseBackup;
+import eu.greev.dcbot.ticketsystem.service.OutboxData;
+import eu.greev.dcbot.ticketsystem.service.OutboxDispatcher;
 import eu.greev.dcbot.ticketsystem.service.RatingData;
+import eu.greev.dcbot.ticketsystem.service.RetentionJob;
+import eu.greev.dcbot.ticketsystem.service.SearchIndex;
 import eu.greev.dcbot.ticketsystem.service.SupporterSettingsData;
 import eu.greev.dcbot.ticketsystem.service.TicketData;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
+import eu.greev.dcbot.ticketsystem.service.TranscriptBackfill;
 import eu.greev.dcbot.ticketsystem.service.XpService;
+import eu.greev.dcbot.tools.NdjsonExport;
 import eu.greev.dcbot.utils.Config;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -26,8 +37,10 @@ import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.entities.channel.concrete.Category;
 import net.dv8tion.jda.api.exceptions.InvalidTokenException;
+import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.api.interactions.commands.build.SubcommandData;
 import net.dv8tion.jda.api.interactions.commands.build.SubcommandGroupData;
@@ -53,11 +66,12 @@ import java.util.stream.Collectors;
 @SuppressWarnings({"squid:S1192"}) // String literals should not be duplicated
 @Slf4j
 public class Main {
-    public static final Map<String, Interaction> INTERACTIONS = new HashMap<>();
+    public static final InteractionRouter INTERACTIONS = new InteractionRouter();
     public static final List<ICategory> CATEGORIES = new ArrayList<>();
     public static final Map<ICategory, List<Category>> OVERFLOW_CHANNEL_CATEGORIES = new HashMap<>();
     public static final List<Category> OVERFLOW_UNCLAIMED_CHANNEL_CATEGORIES = new ArrayList<>();
     public static final List<Category> OVERFLOW_PENDING_RATING_CATEGORIES = new ArrayList<>();
+    public static final String DATABASE_URL = "jdbc:sqlite:./Tickets/tickets.db";
     @Getter
     private static String createCommandId;
     @Getter
@@ -68,6 +82,10 @@ public class Main {
 
     public static void main(String[] args) throws InterruptedException, IOException {
         PropertyConfigurator.configure(Main.class.getClassLoader().getResourceAsStream("log4j2.properties"));
+        if (args.length > 0 && args[0].equals("export-ndjson")) {
+            NdjsonExport.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         JDA jda = null;
 
         File file = new File("./Tickets/config.yml");
@@ -86,10 +104,22 @@ public class Main {
             System.exit(1);
         }
 
+        initDatasource(config);
+
+        // replay changes which didn't reach the database before the last stop, before anything can change a ticket
+        ChangeJournal journal = new ChangeJournal(new File("./Tickets/journal"));
+        journal.replay(jdbi);
+
+        // the auto-assignment only picks supporters who are online
+        boolean autoAssign = !config.getAutoAssignMode().equalsIgnoreCase("off");
+        List<CacheFlag> disabledCaches = new ArrayList<>(List.of(CacheFlag.ACTIVITY, CacheFlag.VOICE_STATE, CacheFlag.EMOJI, CacheFlag.STICKER, CacheFlag.CLIENT_STATUS, CacheFlag.SCHEDULED_EVENTS));
+        if (!autoAssign) {
+            disabledCaches.add(CacheFlag.ONLINE_STATUS);
+        }
         try {
             jda = JDABuilder.create(config.getToken(),
                             List.of(GatewayIntent.MESSAGE_CONTENT, GatewayIntent.GUILD_MEMBERS, GatewayIntent.GUILD_MESSAGES, GatewayIntent.GUILD_PRESENCES))
-                    .disableCache(CacheFlag.ACTIVITY, CacheFlag.VOICE_STATE, CacheFlag.EMOJI, CacheFlag.STICKER, CacheFlag.CLIENT_STATUS, CacheFlag.ONLINE_STATUS, CacheFlag.SCHEDULED_EVENTS)
+                    .disableCache(disabledCaches)
                     .setActivity(Activity.listening(" ticket commands."))
                     .setChunkingFilter(ChunkingFilter.ALL).setMemberCachePolicy(MemberCachePolicy.ALL)
                     .setStatus(OnlineStatus.ONLINE)
@@ -100,14 +130,14 @@ public class Main {
         }
         jda.awaitReady();
 
-        initDatasource();
-
-        TicketData ticketData = new TicketData(jda, jdbi);
+        TicketData ticketData = new TicketData(jda, jdbi, journal);
         RatingData ratingData = new RatingData(jdbi);
         SupporterSettingsData supporterSettingsData = new SupporterSettingsData(jdbi);
-        TicketService ticketService = new TicketService(jda, config, jdbi, ticketData);
         XpService xpService = new XpService(config, supporterSettingsData);
-        jda.addEventListener(new TicketListener(ticketService, config, jda, xpService));
+        OutboxDispatcher outboxDispatcher = new OutboxDispatcher(new OutboxData(jdbi), jda, xpService);
+        TicketService ticketService = new TicketService(jda, config, jdbi, ticketData, xpService, supporterSettingsData, outboxDispatcher);
+        Runtime.getRuntime().addShutdownHook(new Thread(ticketService::shutdown, "shutdown-flush"));
+        jda.addEventListener(new TicketListener(ticketService, config, jda));
 
         registerCategory(new General(), config, ticketService, ticketData);
         registerCategory(new Report(), config, ticketService, ticketData);
@@ -118,6 +148,15 @@ public class Main {
         registerCategory(new Security(), config, ticketService, ticketData);
 
         ticketService.loadOverflowCategories();
+        ticketService.getTicketQueue().start();
+        ticketService.getDuplicateIndex().start();
+
+        if (autoAssign) {
+            AutoAssigner autoAssigner = new AutoAssigner(config, jda, ticketService);
+            jda.addEventListener(autoAssigner);
+            ticketService.setAutoAssigner(autoAssigner);
+            autoAssigner.start();
+        }
 
         SlashCommandData ticketCommand = Commands.slash("ticket", "Manage the ticket system");
         jda.updateCommands().addCommands(ticketCommand
@@ -154,6 +193,24 @@ public class Main {
                 .addSubcommands(new SubcommandData("rating-stats", "Show rating statistics"))
                 .addSubcommands(new SubcommandData("debug-stats", "Preview daily/weekly/monthly stats")
                         .addOption(OptionType.STRING, "type", "Report type: daily, weekly, monthly", true))
+                .addSubcommands(new SubcommandData("export", "Export closed tickets as gzipped NDJSON")
+                        .addOption(OptionType.STRING, "from", "First day (yyyy-MM-dd)", true)
+                        .addOption(OptionType.STRING, "to", "Day after the last day (yyyy-MM-dd)", true))
+                .addSubcommands(new SubcommandData("find", "List tickets by supporter, category, status or close date")
+                        .addOption(OptionType.USER, "supporter", "The supporter of the tickets", false)
+                        .addOptions(new OptionData(OptionType.STRING, "category", "The category of the tickets", false)
+                                .addChoices(CATEGORIES.stream().map(c -> new Command.Choice(c.getLabel(), c.getId())).toList()))
+                        .addOptions(new OptionData(OptionType.STRING, "status", "The status of the tickets", false)
+                                .addChoice("open", TicketData.Status.OPEN.name())
+                                .addChoice("waiting", TicketData.Status.WAITING.name())
+                                .addChoice("closed", TicketData.Status.CLOSED.name()))
+                        .addOption(OptionType.STRING, "from", "Closed on or after this day (yyyy-MM-dd)", false)
+                        .addOption(OptionType.STRING, "to", "Closed before this day (yyyy-MM-dd)", false)
+                        .addOptions(new OptionData(OptionType.STRING, "reason", "Part of the close message", false)
+                                .setMaxLength(200)))
+                .addSubcommands(new SubcommandData("search", "Search the transcripts of all tickets")
+                        .addOptions(new OptionData(OptionType.STRING, "query", "The words to search for, end a word with * to search for words starting with it", true)
+                                .setMaxLength(200)))
                 .addSubcommands(new SubcommandData("set-privacy", "Toggle ob deine XP/Ratings öffentlich angezeigt werden")
                         .addOption(OptionType.STRING, "mode", "visible oder hidden", true))
         ).queue(s -> s.getFirst().getSubcommands().forEach(c -> {
@@ -165,10 +222,11 @@ public class Main {
                 })
         );
 
-        new HourlyScheduler(config, ticketService, ticketData, jda, xpService).start();
-        new DailyScheduler(config, jda, ticketData, ticketService).start();
+        new HourlyScheduler(config, ticketService, ticketData, jda).start();
+        new DailyScheduler(config, jda, ticketData, ticketService, new RetentionJob(config, jdbi, ticketData.getArchiveData(), jda)).start();
         ratingStatsScheduler = new RatingStatsScheduler(config, ratingData, ticketData, jda, supporterSettingsData);
         ratingStatsScheduler.start();
+        new BackupScheduler(config, new DatabaseBackup(jdbi)).start();
 
         EmbedBuilder missingPerm = new EmbedBuilder().setColor(Color.RED)
                 .addField("❌ **Missing permission**", "You are not permitted to use this command!", false);
@@ -177,7 +235,9 @@ public class Main {
                 .addField("❌ **Wrong channel**", "You have to use this command in a ticket!", false);
 
         registerInteraction("claim", new TicketClaim(jda, config, wrongChannel, missingPerm, ticketService));
-        registerInteraction("close", new TicketClose(jda, config, wrongChannel, missingPerm, ticketService));
+        TicketClose ticketClose = new TicketClose(jda, config, wrongChannel, missingPerm, ticketService);
+        registerInteraction("close", ticketClose);
+        registerInteraction(ComponentId.CLOSE_CONFIRM, ticketClose);
         registerInteraction("force-close", new ForceClose(config, ticketService, missingPerm, wrongChannel, jda));
 
         registerInteraction("ticket-confirm", new TicketConfirm(ticketService));
@@ -186,7 +246,7 @@ public class Main {
         registerInteraction("setup", new Setup(config, ticketService, missingPerm, jda));
         registerInteraction("info", new LoadTicket(config, ticketService, missingPerm, jda));
         registerInteraction("get-tickets", new GetTickets(config, ticketService, missingPerm, jda));
-        registerInteraction("stats", new Stats(config, ticketService, missingPerm, jda));
+        registerInteraction("stats", new Stats(config, ticketService, missingPerm, jda, outboxDispatcher));
         registerInteraction("add", new AddMember(config, jda, ticketService, wrongChannel, missingPerm));
         registerInteraction("remove", new RemoveMember(config, ticketService, missingPerm, wrongChannel, jda));
         registerInteraction("transfer", new Transfer(config, ticketService, missingPerm, wrongChannel, jda));
@@ -194,13 +254,13 @@ public class Main {
         registerInteraction("set-waiting", new SetWaiting(config, ticketService, missingPerm, wrongChannel, jda));
 
         registerInteraction("nevermind", new TicketNevermind(ticketService, config));
-        registerInteraction("transcript", new GetTranscript(config, ticketService));
+        registerInteraction(ComponentId.TRANSCRIPT, new GetTranscript(config, ticketService));
 
         registerInteraction("thread add", new ThreadAdd(config, ticketService, wrongChannel, missingPerm, jda));
         registerInteraction("thread join", new ThreadJoin(config, ticketService, wrongChannel, missingPerm, jda));
 
-        registerInteraction("tickets-forwards", new TicketsForward(ticketService));
-        registerInteraction("tickets-backwards", new TicketsBackwards(ticketService));
+        registerInteraction(ComponentId.TICKETS_FORWARDS, new TicketsForward(ticketService));
+        registerInteraction(ComponentId.TICKETS_BACKWARDS, new TicketsBackwards(ticketService));
 
         registerInteraction("set-claim-emoji", new SetClaimEmoji(config, ticketService, missingPerm, jda));
         registerInteraction("list-claim-emojis", new ListClaimEmojis(config, ticketService, missingPerm, jda));
@@ -208,27 +268,58 @@ public class Main {
         registerInteraction("clean-up", new Cleanup(config, ticketService, missingPerm, jda));
 
         registerInteraction("ticket-confirm-rating", new TicketConfirmRating(ticketService, config));
-        registerInteraction("rating-select", new RatingSelect(ticketService));
-        registerInteraction("rating-modal", new RatingModal(ticketService, ratingData, config, jda, xpService, supporterSettingsData));
-        registerInteraction("rating-skip", new RatingSkip(ticketService, config, jda, xpService, supporterSettingsData));
+        registerInteraction(ComponentId.RATING_SELECT, new RatingSelect(ticketService));
+        registerInteraction(ComponentId.RATING_MODAL, new RatingModal(ticketService, ratingData, config, jda));
+        registerInteraction(ComponentId.RATING_SKIP, new RatingSkip(ticketService, config, jda));
         registerInteraction("rating-stats", new RatingStats(config, ticketService, missingPerm, jda, ratingData));
         registerInteraction("debug-stats", new DebugStats(config, ticketService, missingPerm, jda));
         registerInteraction("set-privacy", new SetPrivacy(config, ticketService, missingPerm, jda, supporterSettingsData));
+        registerInteraction("find", new FindTickets(config, ticketService, missingPerm, jda));
+        registerInteraction(ComponentId.FIND_NEXT, new FindNext(config, ticketService));
+        registerInteraction("search", new SearchTickets(config, ticketService, missingPerm, jda, ticketData.getSearchIndex()));
+        registerInteraction(ComponentId.SEARCH_PAGE, new SearchPage(config, ticketData.getSearchIndex()));
+        registerInteraction("export", new ExportTickets(config, ticketService, missingPerm, jda, new AnalyticsExport(AnalyticsExport.readOnly(DATABASE_URL))));
+
+        INTERACTIONS.compile(ticketCommand.getName());
+        outboxDispatcher.start();
+        ticketService.getClosePipeline().resumePending();
+        new TranscriptBackfill(ticketService, ticketData, config, jda).start();
+        ticketData.getSearchIndex().startBackfill();
 
         log.info("Started: {}", OffsetDateTime.now(ZoneId.systemDefault()));
 
     }
 
-    private static void initDatasource() {
+    private static void initDatasource(Config config) {
         // Set SQLite temp directory to avoid permission issues with C:\Windows\TEMP
         String sqliteTempDir = new File("./Tickets/temp").getAbsolutePath();
         new File(sqliteTempDir).mkdirs();
         System.setProperty("org.sqlite.tmpdir", sqliteTempDir);
 
         SQLiteDataSource ds = new SQLiteDataSource();
-        ds.setUrl("jdbc:sqlite:./Tickets/tickets.db");
+        ds.setUrl(DATABASE_URL);
+        // readers like the analytics export don't block writes
+        ds.setJournalMode("WAL");
         jdbi = Jdbi.create(ds);
 
+        // freed pages can only be given back with incremental auto vacuum, a new database gets it right away,
+        // switching an existing one needs a full vacuum which rewrites the whole file
+        jdbi.useHandle(h -> {
+            if (h.createQuery("PRAGMA auto_vacuum").mapTo(Integer.class).one() == 2) return;
+            boolean empty = h.createQuery("SELECT COUNT(*) FROM sqlite_master").mapTo(Integer.class).one() == 0;
+            if (empty) {
+                h.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            } else if (config.isVacuumOnStartup()) {
+                log.warn("Rewriting the database to enable incremental auto vacuum, this can take a while on large databases");
+                long start = System.nanoTime();
+                h.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                h.execute("VACUUM");
+                log.info("Enabled incremental auto vacuum in {}s", "%.1f".formatted((System.nanoTime() - start) / 1e9));
+            } else {
+                log.info("Incremental auto vacuum is off, space freed by the retention stays in the database file until vacuumOnStartup is set");
+            }
+        });
+
         String setup = "";
         try (InputStream in = Main.class.getClassLoader().getResourceAsStream("dbsetup.sql")) {
             setup = new BufferedReader(new InputStreamReader(in)).lines().collect(Collectors.joining("\n"));
@@ -274,6 +365,52 @@ public class Main {
             // Column already exists, ignore
         }
 
+        // Migration: Add participants column if it doesn't exist
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE tickets ADD COLUMN participants VARCHAR DEFAULT NULL").execute());
+            log.info("Added participants column to tickets table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+
+        // Migration: Add transcriptVersion column if it doesn't exist
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE tickets ADD COLUMN transcriptVersion INTEGER DEFAULT 0 NOT NULL").execute());
+            log.info("Added transcriptVersion column to tickets table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+
+        // Migration: Add archivedIn column if it doesn't exist
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE tickets ADD COLUMN archivedIn VARCHAR DEFAULT NULL").execute());
+            log.info("Added archivedIn column to tickets table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+
+        // Migration: Add transcriptPurgedAt column if it doesn't exist
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE tickets ADD COLUMN transcriptPurgedAt BIGINT DEFAULT NULL").execute());
+            log.info("Added transcriptPurgedAt column to tickets table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+
+        // Migration: Add message author columns if they don't exist
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE messages ADD COLUMN authorID BIGINT DEFAULT 0 NOT NULL").execute());
+            log.info("Added authorID column to messages table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+        try {
+            jdbi.withHandle(h -> h.createUpdate("ALTER TABLE messages ADD COLUMN isBot BOOL DEFAULT 0 NOT NULL").execute());
+            log.info("Added isBot column to messages table");
+        } catch (Exception e) {
+            // Column already exists, ignore
+        }
+
         // Migration: Remove supporterRemindersSent column if it exists (replaced by lastSupporterMessageAt)
         try {
             jdbi.withHandle(h -> h.createUpdate("ALTER TABLE tickets DROP COLUMN supporterRemindersSent").execute());
@@ -281,10 +418,16 @@ public class Main {
         } catch (Exception e) {
             // Column doesn't exist, ignore
         }
+
+        // Migration: Rebuild the tickets table with typed columns if it still has string ids and timestamps
+        TicketData.upgradeSchema(jdbi);
+
+        // after the migrations, the triggers read the current columns
+        SearchIndex.setup(jdbi);
     }
 
     private static void registerInteraction(String identifier, Interaction interaction) {
-        INTERACTIONS.put(identifier, interaction);
+        INTERACTIONS.register(identifier, interaction);
     }
 
     private static void registerCategory(ICategory category, Config config, TicketService ticketService, TicketData ticketData) {
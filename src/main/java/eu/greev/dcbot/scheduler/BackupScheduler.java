@@ -0,0 +1,50 @@
+package eu.greev.dcbot.scheduler;
+
+import eu.greev.dcbot.ticketsystem.service.DatabaseBackup;
+import eu.greev.dcbot.utils.Config;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@AllArgsConstructor
+public class BackupScheduler {
+    // gives the start some room before the first backup
+    private static final long MIN_DELAY_MINUTES = 5;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private Config config;
+    private DatabaseBackup databaseBackup;
+
+    /**
+     * Schedules the backups. The first one is due an interval after the newest backup, so a bot restarted more often
+     * than that still backs up.
+     */
+    public void start() {
+        if (config.getBackupIntervalHours() <= 0) return;
+        long interval = TimeUnit.HOURS.toMinutes(config.getBackupIntervalHours());
+        Instant newest = databaseBackup.newestBackup();
+        long due = newest == null ? 0 : interval - Duration.between(newest, Instant.now()).toMinutes();
+        long delay = Math.clamp(due, MIN_DELAY_MINUTES, interval);
+        log.info("Next database backup in {} minutes", delay);
+        scheduler.scheduleAtFixedRate(this::run, delay, interval, TimeUnit.MINUTES);
+    }
+
+    private void run() {
+        try {
+            for (File backup : databaseBackup.backup(config.getBackupKeep())) {
+                if (!DatabaseBackup.verify(backup)) {
+                    log.error("Backup {} is damaged", backup.getName());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Could not back up the database", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package eu.greev.dcbot.scheduler;
 
+import eu.greev.dcbot.ticketsystem.service.RetentionJob;
 import eu.greev.dcbot.ticketsystem.service.TicketData;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
@@ -24,6 +25,7 @@ public class DailyScheduler {
     private JDA jda;
     private TicketData ticketData;
     private TicketService ticketService;
+    private RetentionJob retentionJob;
 
     public void start() {
         scheduler.scheduleAtFixedRate(this::run, getInitialDelay(), 1, TimeUnit.DAYS);
@@ -39,6 +41,21 @@ public class DailyScheduler {
     private void run() {
         log.info("Running daily category consolidation...");
         ticketService.consolidateCategoriesAndCleanup();
+        try {
+            ticketService.archiveClosedTickets();
+        } catch (Exception e) {
+            log.error("Could not archive closed tickets", e);
+        }
+        try {
+            retentionJob.run();
+        } catch (Exception e) {
+            log.error("Could not apply transcript retention", e);
+        }
+        try {
+            ticketData.getSearchIndex().merge();
+        } catch (Exception e) {
+            log.error("Could not merge the search index", e);
+        }
 
         if (config.getLogChannel() != 0) {
             EmbedBuilder embedBuilder = new EmbedBuilder()
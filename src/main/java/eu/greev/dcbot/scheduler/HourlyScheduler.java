@@ -1,9 +1,9 @@
 package eu.greev.dcbot.scheduler;
 
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
 import eu.greev.dcbot.ticketsystem.service.TicketData;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
-import eu.greev.dcbot.ticketsystem.service.XpService;
 import eu.greev.dcbot.utils.Config;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,7 +33,6 @@ public class HourlyScheduler {
     private TicketService ticketService;
     private TicketData ticketData;
     private JDA jda;
-    private XpService xpService;
 
     public void start() {
         scheduler.scheduleAtFixedRate(this::run, getInitialDelay(), 1, TimeUnit.HOURS);
@@ -75,9 +74,8 @@ public class HourlyScheduler {
                             .isBefore(Instant.now());
 
             if (shouldClose) {
-                // Award XP (async - sends full ticket data, no rating since auto-closed)
-                xpService.awardTicketXp(ticket, null);
-                ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Automatic close due to inactivity");
+                // Award XP without rating since auto-closed
+                ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Automatic close due to inactivity", CloseJob.builder().awardXp(true));
                 autoClosures++;
             } else if (shouldRemind) {
                 EmbedBuilder builder = new EmbedBuilder()
@@ -131,10 +129,9 @@ public class HourlyScheduler {
                                 .isBefore(Instant.now());
 
                 if (shouldAutoCloseRating) {
-                    // Award XP (async - sends full ticket data, no rating since auto-closed)
-                    xpService.awardTicketXp(ticket, null);
+                    // Award XP without rating since auto-closed
                     ticket.setPendingRatingSince(null);
-                    ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Closed without rating (no response)");
+                    ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Closed without rating (no response)", CloseJob.builder().awardXp(true));
                     ratingAutoClosures++;
                 } else if (shouldRemindRating) {
                     EmbedBuilder reminderEmbed = new EmbedBuilder()
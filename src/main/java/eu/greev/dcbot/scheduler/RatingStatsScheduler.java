@@ -1,10 +1,12 @@
 package eu.greev.dcbot.scheduler;
 
 import eu.greev.dcbot.ticketsystem.service.RatingData;
+import eu.greev.dcbot.ticketsystem.service.SlaData;
 import eu.greev.dcbot.ticketsystem.service.SupporterRatingStatsHelper;
 import eu.greev.dcbot.ticketsystem.service.SupporterSettingsData;
 import eu.greev.dcbot.ticketsystem.service.TicketData;
 import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.QuantileSketch;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
@@ -18,12 +20,14 @@ import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class RatingStatsScheduler {
@@ -246,6 +250,7 @@ public class RatingStatsScheduler {
 
         builder.setFooter(config.getServerName(), config.getServerLogo());
         embeds.add(builder.build());
+        buildSlaReport(7, Color.BLUE).ifPresent(embeds::add);
         return embeds;
     }
 
@@ -293,9 +298,80 @@ public class RatingStatsScheduler {
 
         builder.setFooter(config.getServerName(), config.getServerLogo());
         embeds.add(builder.build());
+        buildSlaReport(30, Color.MAGENTA).ifPresent(embeds::add);
         return embeds;
     }
 
+    /**
+     * Percentiles of the response and resolution times of the {@code days} days before today, merged from the daily
+     * sketches.
+     */
+    private Optional<MessageEmbed> buildSlaReport(int days, Color color) {
+        try {
+            SlaData slaData = ticketData.getSlaData();
+            EmbedBuilder builder = new EmbedBuilder()
+                    .setColor(color)
+                    .setTitle("⏱️ Reaktionszeiten")
+                    .setDescription("p50 · p90 · p99 der letzten " + days + " Tage");
+
+            for (SlaData.Metric metric : SlaData.Metric.values()) {
+                QuantileSketch all = slaData.merged(metric, SlaData.Dimension.ALL, days).get("");
+                if (all == null) continue;
+
+                StringBuilder value = new StringBuilder("**Gesamt:** ").append(formatPercentiles(all));
+                slaData.merged(metric, SlaData.Dimension.CATEGORY, days).entrySet().stream()
+                        .sorted(Map.Entry.<String, QuantileSketch>comparingByValue(Comparator.comparingLong(QuantileSketch::count)).reversed())
+                        .forEach(e -> value.append("\n").append(e.getKey()).append(": ").append(formatPercentiles(e.getValue())));
+                builder.addField(metricName(metric), value.toString(), false);
+            }
+            if (builder.getFields().isEmpty()) {
+                return Optional.empty();
+            }
+
+            String supporters = slaData.merged(SlaData.Metric.TIME_TO_CLAIM, SlaData.Dimension.SUPPORTER, days).entrySet().stream()
+                    .filter(e -> !supporterSettingsData.isHideStats(e.getKey()))
+                    .sorted(Map.Entry.<String, QuantileSketch>comparingByValue(Comparator.comparingLong(QuantileSketch::count)).reversed())
+                    .limit(10)
+                    .map(e -> getUserMention(e.getKey()) + ": " + formatPercentiles(e.getValue()))
+                    .collect(Collectors.joining("\n"));
+            if (!supporters.isEmpty()) {
+                builder.addField("Zeit bis Claim pro Supporter", supporters, false);
+            }
+
+            builder.setFooter(config.getServerName(), config.getServerLogo());
+            return Optional.of(builder.build());
+        } catch (Exception e) {
+            log.error("Could not build the SLA report", e);
+            return Optional.empty();
+        }
+    }
+
+    private static String metricName(SlaData.Metric metric) {
+        return switch (metric) {
+            case FIRST_RESPONSE -> "💬 Erste Antwort";
+            case TIME_TO_CLAIM -> "🙋 Zeit bis Claim";
+            case RESOLUTION -> "✅ Lösungszeit";
+        };
+    }
+
+    private static String formatPercentiles(QuantileSketch sketch) {
+        return "%s · %s · %s (%dx)".formatted(formatDuration(sketch.quantile(0.5)), formatDuration(sketch.quantile(0.9)),
+                formatDuration(sketch.quantile(0.99)), sketch.count());
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        if (seconds < 3600) {
+            return seconds / 60 + "m";
+        }
+        if (seconds < 86400) {
+            return "%dh %dm".formatted(seconds / 3600, seconds % 3600 / 60);
+        }
+        return "%dd %dh".formatted(seconds / 86400, seconds % 86400 / 3600);
+    }
+
     private String formatTicketStats(Map<String, Integer> ticketsBySupporter, int limit) {
         StringBuilder sb = new StringBuilder();
         int count = 0;
@@ -2,10 +2,9 @@ package eu.greev.dcbot.ticketsystem;
 
 import eu.greev.dcbot.Main;
 import eu.greev.dcbot.ticketsystem.categories.ICategory;
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
-import eu.greev.dcbot.ticketsystem.interactions.TicketClose;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
-import eu.greev.dcbot.ticketsystem.service.XpService;
 import eu.greev.dcbot.utils.Config;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -47,7 +46,6 @@ public class TicketListener extends ListenerAdapter {
     private final TicketService ticketService;
     private final Config config;
     private final JDA jda;
-    private final XpService xpService;
 
     @Override
     public void onChannelUpdateArchived(ChannelUpdateArchivedEvent event) {
@@ -74,10 +72,9 @@ public class TicketListener extends ListenerAdapter {
             ticket.getTextChannel().sendMessage(messageBuilder.build()).queue();
 
             if (ticket.isPendingRating()) {
-                // Award XP (async - sends full ticket data, no rating since member left)
-                xpService.awardTicketXp(ticket, null);
+                // Award XP without rating since member left
                 ticket.setPendingRatingSince(null);
-                ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Closed without rating (member left the server)");
+                ticketService.closeTicket(ticket, false, jda.getGuildById(config.getServerId()).getSelfMember(), "Closed without rating (member left the server)", CloseJob.builder().awardXp(true));
             }
         }
     }
@@ -113,57 +110,25 @@ public class TicketListener extends ListenerAdapter {
     @Override
     public void onButtonInteraction(@NotNull ButtonInteractionEvent event) {
         if (event.getButton().getId() == null) return;
-        String buttonId = event.getButton().getId();
-
-        if (buttonId.startsWith("close-confirm-")) {
-            String[] parts = buttonId.split("-");
-            if (parts.length == 3) {
-                try {
-                    int ticketId = Integer.parseInt(parts[2]);
-                    ((TicketClose) Main.INTERACTIONS.get("close")).executeClose(event, ticketId);
-                } catch (NumberFormatException e) {
-                    event.reply("Invalid button.").setEphemeral(true).queue();
-                }
-            }
-            return;
-        }
-
-        if (buttonId.startsWith("rating-skip-")) {
-            Main.INTERACTIONS.get("rating-skip").execute(event);
-            return;
-        }
-
-        if (buttonId.startsWith("rating-") && !buttonId.equals("ticket-confirm-rating")) {
-            Main.INTERACTIONS.get("rating-select").execute(event);
-            return;
-        }
-
-        Main.INTERACTIONS.get(buttonId).execute(event);
+        Main.INTERACTIONS.dispatchComponent(event, event.getButton().getId());
     }
 
     @Override
     public void onModalInteraction(ModalInteractionEvent event) {
-        String modalId = event.getModalId();
-
-        if (modalId.startsWith("rating-modal-")) {
-            Main.INTERACTIONS.get("rating-modal").execute(event);
-            return;
-        }
-
-        Main.INTERACTIONS.get(modalId).execute(event);
+        Main.INTERACTIONS.dispatchComponent(event, event.getModalId());
     }
 
     @Override
     public void onStringSelectInteraction(StringSelectInteractionEvent event) {
         if (event.getSelectMenu().getId() == null || !event.getSelectMenu().getId().equals("ticket-create-topic"))
             return;
-        Main.INTERACTIONS.get(event.getSelectedOptions().get(0).getValue()).execute(event);
+        Main.INTERACTIONS.dispatchComponent(event, event.getSelectedOptions().get(0).getValue());
     }
 
     @Override
     public void onSlashCommandInteraction(@NotNull SlashCommandInteractionEvent event) {
         if (!event.getName().equals("ticket") || !isValidSlashEvent(event)) return;
-        Main.INTERACTIONS.get((event.getSubcommandGroup() == null ? "" : event.getSubcommandGroup() + " ") + event.getSubcommandName()).execute(event);
+        Main.INTERACTIONS.dispatchCommand(event);
     }
 
     /*
@@ -234,10 +199,12 @@ public class TicketListener extends ListenerAdapter {
                     if (member.getRoles().stream().map(Role::getIdLong).toList().contains(config.getStaffId())) {
                         event.getMessage().delete().queue();
 
+                        String queue = ticketService.getTicketQueue().describe(ticket.getId());
                         EmbedBuilder builder = new EmbedBuilder()
                                 .setColor(Color.RED)
                                 .setTitle("Please do not ping staff members!")
-                                .setDescription("\uD83C\uDDEC\uD83C\uDDE7 A member of our staff will assist you shortly, thank you for your patience.\n\n\uD83C\uDDE9\uD83C\uDDEA Ein Teammitglied wird sich in Kürze um dein Ticket kümmern, vielen Dank für deine Geduld.")
+                                .setDescription("\uD83C\uDDEC\uD83C\uDDE7 A member of our staff will assist you shortly, thank you for your patience.\n\n\uD83C\uDDE9\uD83C\uDDEA Ein Teammitglied wird sich in Kürze um dein Ticket kümmern, vielen Dank für deine Geduld."
+                                        + (queue != null ? "\n\n⏳ " + queue + "." : ""))
                                 .setFooter(config.getServerName(), config.getServerLogo());
 
                         event.getChannel().sendMessageEmbeds(builder.build()).queue();
@@ -247,11 +214,12 @@ public class TicketListener extends ListenerAdapter {
             }
         }
 
-        if (event.getMember() != null && event.getMember().getRoles().stream().map(Role::getIdLong).toList().contains(config.getStaffId())) {
+        boolean isStaffMessage = event.getMember() != null && event.getMember().getRoles().stream().map(Role::getIdLong).toList().contains(config.getStaffId());
+        if (isStaffMessage) {
             ticket.setLastSupporterMessageAt(Instant.now().getEpochSecond());
         }
 
-        ticket.getTranscript().addMessage(event.getMessage(), ticket.getId());
+        ticketService.recordMessage(ticket, event.getMessage(), isStaffMessage);
     }
 
     @Override
@@ -61,4 +61,9 @@ public class Bug implements  ICategory {
 
         return map;
     }
+
+    @Override
+    public boolean detectsDuplicates() {
+        return true;
+    }
 }
@@ -51,4 +51,9 @@ public class CrashReport implements ICategory {
         map.put("Description", event.getValue("description").getAsString());
         return map;
     }
+
+    @Override
+    public boolean detectsDuplicates() {
+        return true;
+    }
 }
@@ -19,4 +19,8 @@ public interface ICategory {
     default boolean isSensitive() {
         return false;
     }
+
+    default boolean detectsDuplicates() {
+        return false;
+    }
 }
@@ -0,0 +1,29 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Builder
+public class CloseJob {
+    private int ticketId;
+    @Builder.Default private CloseStage stage = CloseStage.FINALIZE_STATE;
+    private String closerId;
+    private String message;
+    private boolean awardXp;
+    @Builder.Default private RatingOutcome ratingOutcome = RatingOutcome.NONE;
+    private Integer rating;
+    private String ratingMessage;
+    private String transcriptUrl;
+    private int attempts;
+    private String lastError;
+    private long createdAt;
+
+    public enum RatingOutcome {
+        NONE,
+        RATED,
+        SKIPPED
+    }
+}
@@ -0,0 +1,17 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+/**
+ * Stages of a ticket close, executed in declaration order.
+ */
+public enum CloseStage {
+    FINALIZE_STATE,
+    RENDER_TRANSCRIPT,
+    NOTIFY,
+    AWARD_XP,
+    DELETE_CHANNEL,
+    DONE;
+
+    public CloseStage next() {
+        return this == DONE ? DONE : values()[ordinal() + 1];
+    }
+}
@@ -1,6 +1,8 @@
 package eu.greev.dcbot.ticketsystem.entities;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -9,9 +11,36 @@ import java.util.List;
 public class Message implements TranscriptEntity {
     private final long id;
     private final String originalContent;
-    private final String author;
+    /**
+     * Discord id of the author, {@code 0} for log entries and negative for authors only known by name. The names are
+     * kept once per author by the transcript.
+     */
+    private final long authorId;
     private final long timestamp;
-    private final int ticketId;
-    private List<Edit> edits = new ArrayList<>();
+    private boolean isBot;
     private boolean isDeleted;
-}
\ No newline at end of file
+    /** {@code null} until the first edit, most messages are never edited. */
+    private List<Edit> edits;
+    /** Whether the message has a row in the database, new messages are inserted with the next flush. */
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private volatile boolean stored;
+
+    public List<Edit> getEdits() {
+        return edits == null ? List.of() : edits;
+    }
+
+    public void addEdit(Edit edit) {
+        if (edits == null) {
+            edits = new ArrayList<>(2);
+        }
+        edits.add(edit);
+    }
+
+    /**
+     * @return whether this is a log entry, which is stored in the logs table
+     */
+    public boolean isLog() {
+        return id == 0 && authorId == 0;
+    }
+}
@@ -0,0 +1,34 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Builder
+public class OutboxEntry {
+    private long id;
+    private final String idempotencyKey;
+    private final Kind kind;
+    /** User id for {@link Kind#DM}, channel id for {@link Kind#CHANNEL_EMBED}, empty for {@link Kind#XP_AWARD} */
+    private final String target;
+    private final String payload;
+    @Builder.Default private Status status = Status.PENDING;
+    private int attempts;
+    private long nextAttemptAt;
+    private String lastError;
+    private long createdAt;
+
+    public enum Kind {
+        DM,
+        CHANNEL_EMBED,
+        XP_AWARD
+    }
+
+    public enum Status {
+        PENDING,
+        SENT,
+        DEAD
+    }
+}
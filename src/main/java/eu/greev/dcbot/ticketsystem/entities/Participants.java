@@ -0,0 +1,59 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Who wrote in a ticket, updated with every message and stored as JSON with the ticket.
+ * Bots aren't tracked.
+ */
+@Getter
+@Setter
+public class Participants {
+    private Set<Long> authorIds = new LinkedHashSet<>();
+    private Long firstStaffReplyAt;
+    private int ownerMessages;
+    private int staffMessages;
+    private int otherMessages;
+    /** Set when something changed since the last save, counts are only saved with the next flush. */
+    @JsonIgnore
+    private volatile boolean dirty;
+
+    /**
+     * Counts a message of the author.
+     *
+     * @return true if the author wrote for the first time, which should be saved right away
+     */
+    public synchronized boolean record(long authorId, Role role, long timestamp) {
+        switch (role) {
+            case OWNER -> ownerMessages++;
+            case STAFF -> {
+                staffMessages++;
+                if (firstStaffReplyAt == null) {
+                    firstStaffReplyAt = timestamp;
+                }
+            }
+            case OTHER -> otherMessages++;
+        }
+        dirty = true;
+        return authorIds.add(authorId);
+    }
+
+    /**
+     * @return whether anyone except the owner wrote in the ticket
+     */
+    @JsonIgnore
+    public synchronized boolean hasHelperReplied() {
+        return staffMessages + otherMessages > 0;
+    }
+
+    public enum Role {
+        OWNER,
+        STAFF,
+        OTHER
+    }
+}
@@ -1,12 +0,0 @@
-package eu.greev.dcbot.ticketsystem.entities;
-
-import lombok.Data;
-
-@Data
-public class ScrollEntity {
-    private final long handlerId;
-    private final long userId;
-    private int currentPage = 1;
-    private final int maxPage;
-    private final long timeCreated;
-}
\ No newline at end of file
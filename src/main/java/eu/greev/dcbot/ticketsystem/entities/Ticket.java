@@ -16,6 +16,8 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Builder(toBuilder = true)
@@ -42,16 +44,29 @@ public class Ticket {
     @Getter private Instant pendingRatingSince;
     @Getter private int ratingRemindersSent;
     @Getter private Long lastSupporterMessageAt;
+    @Getter @Builder.Default private Participants participants = new Participants();
+    /** Month of the archive holding the transcript, {@code null} while it is in the hot database. */
+    @Getter private String archivedIn;
     private final TicketData ticketData;
+    // a snapshot is taken and journaled under the first lock, so the newest journaled snapshot is the newest state,
+    // writes read the state when they run and under the second one, so an older state can't overwrite a newer one
+    private final Object journalLock = new Object();
+    private final Object writeLock = new Object();
     private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(10);
 
     public Ticket setOwner(User owner) {
+        if (this.owner != null && owner != null && this.owner.getIdLong() != owner.getIdLong()) {
+            recordEvent(TicketEvent.Type.OWNER_CHANGED, owner);
+        }
         this.owner = owner;
         this.save();
         return this;
     }
 
     public Ticket setSupporter(User supporter) {
+        if (supporter != null && (this.supporter == null || this.supporter.getIdLong() != supporter.getIdLong())) {
+            recordEvent(this.supporter == null ? TicketEvent.Type.CLAIMED : TicketEvent.Type.TRANSFERRED, supporter);
+        }
         this.supporter = supporter;
         this.save();
         return this;
@@ -64,6 +79,9 @@ public class Ticket {
     }
 
     public Ticket setOpen(boolean isOpen) {
+        if (this.isOpen && !isOpen) {
+            recordEvent(TicketEvent.Type.CLOSED, closer);
+        }
         this.isOpen = isOpen;
         this.save();
         return this;
@@ -82,6 +100,9 @@ public class Ticket {
     }
 
     public Ticket setWaiting(boolean isWaiting) {
+        if (this.isWaiting != isWaiting) {
+            recordEvent(isWaiting ? TicketEvent.Type.WAITING : TicketEvent.Type.RESUMED, null);
+        }
         this.isWaiting = isWaiting;
         this.save();
         return this;
@@ -124,22 +145,107 @@ public class Ticket {
     }
 
     public Ticket addInvolved(String involved) {
-        if (!this.involved.contains(involved)) {
+        long segment;
+        synchronized (journalLock) {
+            if (this.involved.contains(involved)) return this;
             this.involved.add(involved);
-            this.save();
+            segment = ticketData.journalMember(id, Long.parseLong(involved), TicketData.MemberRole.INVOLVED);
         }
+        submit(() -> writeMember(involved, segment));
         return this;
     }
 
     public Ticket removeInvolved(String involved) {
-        if (this.involved.remove(involved)) {
-            this.save();
+        long segment;
+        synchronized (journalLock) {
+            if (!this.involved.remove(involved)) return this;
+            segment = ticketData.journalMember(id, Long.parseLong(involved), null);
         }
+        submit(() -> writeMember(involved, segment));
         return this;
     }
 
+    private void writeMember(String involved, long segment) {
+        synchronized (writeLock) {
+            // writes the membership when it runs, so an add and a remove running out of order end with the newest one
+            boolean member;
+            synchronized (journalLock) {
+                member = this.involved.contains(involved);
+            }
+            if (member) {
+                ticketData.addMember(id, Long.parseLong(involved), TicketData.MemberRole.INVOLVED);
+            } else {
+                ticketData.removeMember(id, Long.parseLong(involved));
+            }
+        }
+        ticketData.getJournal().release(segment);
+    }
+
     public void save() {
-        EXECUTOR.execute(() -> ticketData.saveTicket(this));
+        // journaled right away, so the write survives a crash while it waits in the executor
+        long segment = journal();
+        submit(() -> write(segment));
+    }
+
+    /**
+     * Like {@link #save()}, but the ticket is in the database when it returns.
+     */
+    public void saveNow() {
+        write(journal());
+    }
+
+    private long journal() {
+        synchronized (journalLock) {
+            return ticketData.journalTicket(this);
+        }
+    }
+
+    private void write(long segment) {
+        synchronized (writeLock) {
+            ticketData.saveTicket(this);
+        }
+        ticketData.getJournal().release(segment);
+    }
+
+    private void recordEvent(TicketEvent.Type type, User user) {
+        if (id == 0) return;
+        ticketData.getEventData().record(TicketEvent.now(id, type, user != null ? user.getIdLong() : null));
+    }
+
+    public void saveParticipants() {
+        long segment;
+        synchronized (journalLock) {
+            segment = ticketData.journalParticipants(this);
+        }
+        submit(() -> {
+            synchronized (writeLock) {
+                ticketData.saveParticipants(this);
+            }
+            ticketData.getJournal().release(segment);
+        });
+    }
+
+    private static void submit(Runnable write) {
+        try {
+            EXECUTOR.execute(write);
+        } catch (RejectedExecutionException e) {
+            // the queued saves were awaited for the shutdown, later ones are written right away
+            write.run();
+        }
+    }
+
+    /**
+     * Waits for the queued ticket saves, only used when the bot shuts down. Saves after that are written right away.
+     */
+    public static void awaitPendingSaves(long timeout, TimeUnit unit) {
+        EXECUTOR.shutdown();
+        try {
+            if (!EXECUTOR.awaitTermination(timeout, unit)) {
+                log.warn("Not all ticket saves finished in time, they are replayed from the journal with the next start");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -156,6 +262,9 @@ public class Ticket {
     }
 
     public Ticket setPendingRatingSince(Instant pendingRatingSince) {
+        if ((this.pendingRatingSince == null) != (pendingRatingSince == null)) {
+            recordEvent(pendingRatingSince != null ? TicketEvent.Type.PENDING_RATING : TicketEvent.Type.RATING_ENDED, null);
+        }
         this.pendingRatingSince = pendingRatingSince;
         this.save();
         return this;
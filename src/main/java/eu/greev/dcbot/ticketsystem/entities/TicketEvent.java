@@ -0,0 +1,34 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+import java.time.Instant;
+
+/**
+ * A state change of a ticket, appended to {@code ticket_events}.
+ *
+ * @param userId the user of the event, see {@link Type}, {@code null} if there is none
+ * @param time   epoch seconds
+ */
+public record TicketEvent(int ticketId, Type type, Long userId, long time) {
+
+    public static TicketEvent now(int ticketId, Type type, Long userId) {
+        return new TicketEvent(ticketId, type, userId, Instant.now().getEpochSecond());
+    }
+
+    public enum Type {
+        /** By the owner. */
+        CREATED,
+        /** By the supporter. */
+        CLAIMED,
+        /** To the new supporter. */
+        TRANSFERRED,
+        /** To the new owner. */
+        OWNER_CHANGED,
+        WAITING,
+        RESUMED,
+        PENDING_RATING,
+        /** Rated, skipped or given up on. */
+        RATING_ENDED,
+        /** By the closer. */
+        CLOSED
+    }
+}
@@ -0,0 +1,52 @@
+package eu.greev.dcbot.ticketsystem.entities;
+
+import eu.greev.dcbot.ticketsystem.service.TicketData;
+
+/**
+ * The state of a ticket as a projection of its {@link TicketEvent}s, stored in {@code ticket_state}.
+ *
+ * @param since       epoch seconds of the last status change, {@code null} if it is from before the events
+ * @param lastEventId the newest event applied, older ones are skipped when the events are replayed
+ */
+public record TicketState(int ticketId, TicketData.Status status, Long owner, Long supporter, Long closer,
+                          boolean pendingRating, Long since, long lastEventId) {
+
+    /**
+     * The state before the first event.
+     */
+    public static TicketState initial(int ticketId) {
+        return new TicketState(ticketId, TicketData.Status.OPEN, null, null, null, false, null, 0);
+    }
+
+    public TicketState apply(long eventId, TicketEvent event) {
+        TicketData.Status status = this.status;
+        Long owner = this.owner;
+        Long supporter = this.supporter;
+        Long closer = this.closer;
+        boolean pendingRating = this.pendingRating;
+        Long since = this.since;
+        switch (event.type()) {
+            case CREATED -> {
+                status = TicketData.Status.OPEN;
+                owner = event.userId();
+                since = event.time();
+            }
+            case CLAIMED, TRANSFERRED -> supporter = event.userId();
+            case OWNER_CHANGED -> owner = event.userId();
+            case WAITING, RESUMED -> {
+                if (status != TicketData.Status.CLOSED) {
+                    status = event.type() == TicketEvent.Type.WAITING ? TicketData.Status.WAITING : TicketData.Status.OPEN;
+                    since = event.time();
+                }
+            }
+            case PENDING_RATING -> pendingRating = true;
+            case RATING_ENDED -> pendingRating = false;
+            case CLOSED -> {
+                status = TicketData.Status.CLOSED;
+                closer = event.userId();
+                since = event.time();
+            }
+        }
+        return new TicketState(ticketId, status, owner, supporter, closer, pendingRating, since, eventId);
+    }
+}
@@ -0,0 +1,157 @@
+package eu.greev.dcbot.ticketsystem.interactions;
+
+import java.util.Arrays;
+
+/**
+ * Typed custom id of a button, select option or modal.
+ * <p>
+ * The encoded form is {@code <version>:<route>[:<arg>...]} where every argument is a base 36 long,
+ * e.g. {@code 1:rating-select:5:2n9}. Ids without arguments are encoded as the bare route, so static
+ * components like {@code claim} keep their old id. Ids sent before this format existed are still decoded.
+ */
+public final class ComponentId {
+    public static final char VERSION = '1';
+    public static final int MAX_LENGTH = 100; // Discord limit for custom ids
+
+    public static final String CLOSE_CONFIRM = "close-confirm";
+    public static final String RATING_SELECT = "rating-select";
+    public static final String RATING_SKIP = "rating-skip";
+    public static final String RATING_MODAL = "rating-modal";
+    public static final String TRANSCRIPT = "transcript";
+    public static final String TICKETS_FORWARDS = "tickets-forwards";
+    public static final String TICKETS_BACKWARDS = "tickets-backwards";
+    public static final String SEARCH_PAGE = "search-page";
+    public static final String FIND_NEXT = "find-next";
+
+    private static final char SEPARATOR = ':';
+    private static final int RADIX = 36;
+    private static final long[] NO_ARGS = new long[0];
+
+    private final String route;
+    private final long[] args;
+
+    private ComponentId(String route, long[] args) {
+        this.route = route;
+        this.args = args;
+    }
+
+    public static ComponentId of(String route, long... args) {
+        if (route.isEmpty() || route.indexOf(SEPARATOR) != -1) {
+            throw new IllegalArgumentException("Invalid route: " + route);
+        }
+        return new ComponentId(route, args.length == 0 ? NO_ARGS : args.clone());
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public int size() {
+        return args.length;
+    }
+
+    public boolean hasArgs() {
+        return args.length != 0;
+    }
+
+    public long getLong(int index) {
+        return args[index];
+    }
+
+    public int getInt(int index) {
+        return Math.toIntExact(args[index]);
+    }
+
+    public String encode() {
+        if (args.length == 0) {
+            return route;
+        }
+        StringBuilder builder = new StringBuilder(2 + route.length() + args.length * 8)
+                .append(VERSION).append(SEPARATOR).append(route);
+        for (long arg : args) {
+            builder.append(SEPARATOR).append(Long.toString(arg, RADIX));
+        }
+        if (builder.length() > MAX_LENGTH) {
+            throw new IllegalStateException("Component id exceeds " + MAX_LENGTH + " characters: " + builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes a raw custom id.
+     *
+     * @return the decoded id or {@code null} if the id is malformed
+     */
+    public static ComponentId decode(String raw) {
+        if (raw == null || raw.isEmpty()) {
+            return null;
+        }
+        if (raw.length() > 2 && raw.charAt(0) == VERSION && raw.charAt(1) == SEPARATOR) {
+            return decodeVersioned(raw);
+        }
+        return decodeLegacy(raw);
+    }
+
+    private static ComponentId decodeVersioned(String raw) {
+        int routeEnd = raw.indexOf(SEPARATOR, 2);
+        if (routeEnd == -1) {
+            return new ComponentId(raw.substring(2), NO_ARGS);
+        }
+
+        int count = 0;
+        for (int i = routeEnd; i < raw.length(); i++) {
+            if (raw.charAt(i) == SEPARATOR) count++;
+        }
+
+        long[] args = new long[count];
+        int start = routeEnd + 1;
+        try {
+            for (int i = 0; i < count; i++) {
+                int end = raw.indexOf(SEPARATOR, start);
+                if (end == -1) end = raw.length();
+                args[i] = Long.parseLong(raw, start, end, RADIX);
+                start = end + 1;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new ComponentId(raw.substring(2, routeEnd), args);
+    }
+
+    /*
+     * Formats used before ids were versioned: close-confirm-<id>, rating-skip-<id>, rating-modal-<stars>-<id>
+     * and rating-<stars>-<id>. Everything else was a plain route without arguments.
+     */
+    private static ComponentId decodeLegacy(String raw) {
+        try {
+            if (raw.startsWith("close-confirm-")) {
+                return new ComponentId(CLOSE_CONFIRM, new long[]{parseDecimal(raw, 14, raw.length())});
+            }
+            if (raw.startsWith("rating-skip-")) {
+                return new ComponentId(RATING_SKIP, new long[]{parseDecimal(raw, 12, raw.length())});
+            }
+            if (raw.startsWith("rating-modal-")) {
+                int split = raw.indexOf('-', 13);
+                if (split == -1) return null;
+                return new ComponentId(RATING_MODAL, new long[]{parseDecimal(raw, 13, split), parseDecimal(raw, split + 1, raw.length())});
+            }
+            if (raw.startsWith("rating-") && raw.length() > 7 && Character.isDigit(raw.charAt(7))) {
+                int split = raw.indexOf('-', 7);
+                if (split == -1) return null;
+                return new ComponentId(RATING_SELECT, new long[]{parseDecimal(raw, 7, split), parseDecimal(raw, split + 1, raw.length())});
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new ComponentId(raw, NO_ARGS);
+    }
+
+    private static long parseDecimal(String raw, int start, int end) {
+        return Long.parseLong(raw, start, end, 10);
+    }
+
+    @Override
+    public String toString() {
+        return route + Arrays.toString(args);
+    }
+}
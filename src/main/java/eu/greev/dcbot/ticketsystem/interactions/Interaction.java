@@ -4,4 +4,12 @@ import net.dv8tion.jda.api.events.Event;
 
 public interface Interaction {
     void execute(Event evt);
+
+    /**
+     * Called by the {@link InteractionRouter} for components. Interactions whose component id carries
+     * arguments override this, all others just ignore the decoded id.
+     */
+    default void execute(Event evt, ComponentId id) {
+        execute(evt);
+    }
 }
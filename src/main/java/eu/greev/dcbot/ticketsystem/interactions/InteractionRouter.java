@@ -0,0 +1,67 @@
+package eu.greev.dcbot.ticketsystem.interactions;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.callbacks.IReplyCallback;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dispatches slash commands and components to their {@link Interaction}.
+ * <p>
+ * Interactions are registered while the bot starts and {@link #compile(String)} then freezes them into
+ * immutable lookup tables, so dispatching an event is a single map lookup.
+ */
+@Slf4j
+public class InteractionRouter {
+    private final Map<String, Interaction> registrations = new HashMap<>();
+    private volatile Map<String, Interaction> components = Map.of();
+    private volatile Map<String, Interaction> commands = Map.of();
+
+    public void register(String identifier, Interaction interaction) {
+        if (registrations.putIfAbsent(identifier, interaction) != null) {
+            throw new IllegalStateException("Interaction " + identifier + " is already registered");
+        }
+    }
+
+    /**
+     * Builds the lookup tables. Slash commands are keyed by their full command name,
+     * e.g. {@code ticket thread add} for the identifier {@code thread add}.
+     */
+    public void compile(String commandName) {
+        Map<String, Interaction> commandRoutes = new HashMap<>();
+        registrations.forEach((identifier, interaction) -> commandRoutes.put(commandName + " " + identifier, interaction));
+
+        components = Map.copyOf(registrations);
+        commands = Map.copyOf(commandRoutes);
+        log.info("Compiled {} interaction routes", registrations.size());
+    }
+
+    public Interaction get(String route) {
+        return components.get(route);
+    }
+
+    public void dispatchComponent(Event event, String rawId) {
+        ComponentId id = ComponentId.decode(rawId);
+        Interaction interaction = id == null ? null : components.get(id.getRoute());
+        if (interaction == null) {
+            log.debug("No interaction registered for component id {}", rawId);
+            if (id == null && event instanceof IReplyCallback callback) {
+                callback.reply("Invalid button.").setEphemeral(true).queue();
+            }
+            return;
+        }
+        interaction.execute(event, id);
+    }
+
+    public void dispatchCommand(SlashCommandInteractionEvent event) {
+        Interaction interaction = commands.get(event.getFullCommandName());
+        if (interaction == null) {
+            log.debug("No interaction registered for command {}", event.getFullCommandName());
+            return;
+        }
+        interaction.execute(event);
+    }
+}
@@ -9,7 +9,6 @@ import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.Category;
 import net.dv8tion.jda.api.events.Event;
@@ -21,7 +20,6 @@ import net.dv8tion.jda.api.interactions.components.buttons.Button;
 
 import java.awt.*;
 import java.time.Instant;
-import java.util.List;
 
 /**
  * Handles ticket closing with mandatory rating flow.
@@ -54,6 +52,15 @@ public class TicketClose implements Interaction {
         }
     }
 
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        if (id.getRoute().equals(ComponentId.CLOSE_CONFIRM) && evt instanceof ButtonInteractionEvent event) {
+            executeClose(event, id.getInt(0));
+            return;
+        }
+        execute(evt);
+    }
+
     private void handleClose(IReplyCallback event) {
         if (config.getServerName() == null) {
             EmbedBuilder error = new EmbedBuilder()
@@ -78,7 +85,7 @@ public class TicketClose implements Interaction {
         boolean isStaff = event.getMember().getRoles().contains(jda.getRoleById(config.getStaffId()));
         boolean isAdmin = event.getMember().hasPermission(Permission.ADMINISTRATOR);
         boolean isOwner = event.getUser().getIdLong() == ticket.getOwner().getIdLong();
-        boolean canOwnerClose = isOwner && !hasHelperReplied(ticket);
+        boolean canOwnerClose = isOwner && !ticket.getParticipants().hasHelperReplied();
 
         if (!config.isDevMode() && !isStaff && !isAdmin && !canOwnerClose) {
             event.replyEmbeds(missingPerm.setFooter(config.getServerName(), config.getServerLogo()).build()).setEphemeral(true).queue();
@@ -103,7 +110,7 @@ public class TicketClose implements Interaction {
                     .setDescription("This ticket has no supporter assigned.\nIt will be closed without a rating request.")
                     .setFooter(config.getServerName(), config.getServerLogo());
             event.replyEmbeds(confirmation.build())
-                    .addActionRow(Button.danger("close-confirm-" + ticket.getId(), "Close Ticket"))
+                    .addActionRow(Button.danger(ComponentId.of(ComponentId.CLOSE_CONFIRM, ticket.getId()).encode(), "Close Ticket"))
                     .setEphemeral(true)
                     .queue();
         } else {
@@ -117,7 +124,7 @@ public class TicketClose implements Interaction {
                             "• The ticket will be deleted after the rating")
                     .setFooter(config.getServerName(), config.getServerLogo());
             event.replyEmbeds(confirmation.build())
-                    .addActionRow(Button.danger("close-confirm-" + ticket.getId(), "Close & Request Rating"))
+                    .addActionRow(Button.danger(ComponentId.of(ComponentId.CLOSE_CONFIRM, ticket.getId()).encode(), "Close & Request Rating"))
                     .setEphemeral(true)
                     .queue();
         }
@@ -214,14 +221,14 @@ public class TicketClose implements Interaction {
             ticket.getOwner().openPrivateChannel()
                     .flatMap(channel -> channel.sendMessageEmbeds(ratingEmbed.build())
                             .addActionRow(
-                                    Button.secondary("rating-1-" + ticket.getId(), "⭐"),
-                                    Button.secondary("rating-2-" + ticket.getId(), "⭐⭐"),
-                                    Button.primary("rating-3-" + ticket.getId(), "⭐⭐⭐"),
-                                    Button.primary("rating-4-" + ticket.getId(), "⭐⭐⭐⭐"),
-                                    Button.success("rating-5-" + ticket.getId(), "⭐⭐⭐⭐⭐")
+                                    Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 1, ticket.getId()).encode(), "⭐"),
+                                    Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 2, ticket.getId()).encode(), "⭐⭐"),
+                                    Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 3, ticket.getId()).encode(), "⭐⭐⭐"),
+                                    Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 4, ticket.getId()).encode(), "⭐⭐⭐⭐"),
+                                    Button.success(ComponentId.of(ComponentId.RATING_SELECT, 5, ticket.getId()).encode(), "⭐⭐⭐⭐⭐")
                             )
                             .addActionRow(
-                                    Button.danger("rating-skip-" + ticket.getId(), "No thanks")
+                                    Button.danger(ComponentId.of(ComponentId.RATING_SKIP, ticket.getId()).encode(), "No thanks")
                             ))
                     .queue(
                             success -> {
@@ -254,14 +261,14 @@ public class TicketClose implements Interaction {
         ticket.getTextChannel().sendMessage(ticket.getOwner().getAsMention())
                 .setEmbeds(ratingEmbed.build())
                 .addActionRow(
-                        Button.secondary("rating-1-" + ticket.getId(), "⭐"),
-                        Button.secondary("rating-2-" + ticket.getId(), "⭐⭐"),
-                        Button.primary("rating-3-" + ticket.getId(), "⭐⭐⭐"),
-                        Button.primary("rating-4-" + ticket.getId(), "⭐⭐⭐⭐"),
-                        Button.success("rating-5-" + ticket.getId(), "⭐⭐⭐⭐⭐")
+                        Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 1, ticket.getId()).encode(), "⭐"),
+                        Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 2, ticket.getId()).encode(), "⭐⭐"),
+                        Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 3, ticket.getId()).encode(), "⭐⭐⭐"),
+                        Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 4, ticket.getId()).encode(), "⭐⭐⭐⭐"),
+                        Button.success(ComponentId.of(ComponentId.RATING_SELECT, 5, ticket.getId()).encode(), "⭐⭐⭐⭐⭐")
                 )
                 .addActionRow(
-                        Button.danger("rating-skip-" + ticket.getId(), "Nein danke")
+                        Button.danger(ComponentId.of(ComponentId.RATING_SKIP, ticket.getId()).encode(), "Nein danke")
                 ).queue();
 
         EmbedBuilder confirmation = new EmbedBuilder()
@@ -270,28 +277,4 @@ public class TicketClose implements Interaction {
                 .addField("Ticket closed", "Could not send DM to ticket owner. Rating request has been sent in this channel.", false);
         hook.sendMessageEmbeds(confirmation.build()).setEphemeral(true).queue();
     }
-
-    /**
-     * Checks if any helper (non-owner, non-bot) has replied in the ticket.
-     */
-    private boolean hasHelperReplied(Ticket ticket) {
-        try {
-            List<Message> messages = ticket.getTextChannel().getIterableHistory()
-                    .takeAsync(100)
-                    .get();
-
-            for (Message message : messages) {
-                // Skip bots
-                if (message.getAuthor().isBot()) continue;
-                // Skip the ticket owner
-                if (message.getAuthor().getIdLong() == ticket.getOwner().getIdLong()) continue;
-                // Someone else wrote - helper has replied
-                return true;
-            }
-        } catch (Exception e) {
-            // If we can't check, assume helper has replied (safer)
-            return true;
-        }
-        return false;
-    }
 }
\ No newline at end of file
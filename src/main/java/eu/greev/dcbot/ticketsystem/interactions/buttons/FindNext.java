@@ -0,0 +1,45 @@
+package eu.greev.dcbot.ticketsystem.interactions.buttons;
+
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
+import eu.greev.dcbot.ticketsystem.interactions.commands.FindTickets;
+import eu.greev.dcbot.ticketsystem.service.TicketData;
+import eu.greev.dcbot.ticketsystem.service.TicketService;
+import eu.greev.dcbot.utils.Config;
+import lombok.AllArgsConstructor;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+
+import java.awt.*;
+
+@AllArgsConstructor
+public class FindNext extends AbstractButton {
+    private final Config config;
+    private final TicketService ticketService;
+
+    @Override
+    public void execute(Event evt) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        EmbedBuilder error = new EmbedBuilder()
+                .setColor(Color.RED)
+                .setDescription("❌ **This button expired, please use /ticket find again**");
+        event.replyEmbeds(error.build()).setEphemeral(true).queue();
+    }
+
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        TicketData.TicketFilter filter = event.getMessage().getEmbeds().isEmpty() ? null : FindTickets.filterOf(id, event.getMessage().getEmbeds().get(0));
+        if (filter == null) {
+            execute(evt);
+            return;
+        }
+
+        FindTickets.Page page = FindTickets.find(config, ticketService.getTicketData(), filter, FindTickets.cursorOf(id), FindTickets.pageOf(id));
+        if (page.next() != null) {
+            event.editMessageEmbeds(page.embed()).setActionRow(page.nextButton()).queue();
+        } else {
+            event.editMessageEmbeds(page.embed()).setComponents().queue();
+        }
+    }
+}
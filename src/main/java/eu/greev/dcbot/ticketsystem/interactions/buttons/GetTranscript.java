@@ -1,16 +1,21 @@
 package eu.greev.dcbot.ticketsystem.interactions.buttons;
 
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
 import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.utils.FileUpload;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 
+@Slf4j
 @AllArgsConstructor
 public class GetTranscript extends AbstractButton {
     private final Config config;
@@ -18,7 +23,19 @@ public class GetTranscript extends AbstractButton {
 
     @Override
     public void execute(Event evt) {
+        EmbedBuilder error = new EmbedBuilder()
+                .setColor(Color.RED)
+                .setDescription("❌ **This button expired, please use </ticket info:0> again**");
+        ((ButtonInteractionEvent) evt).replyEmbeds(error.build()).setEphemeral(true).queue();
+    }
+
+    @Override
+    public void execute(Event evt, ComponentId id) {
         ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        if (!id.hasArgs()) {
+            execute(evt);
+            return;
+        }
         if (config.getServerName() == null) {
             EmbedBuilder error = new EmbedBuilder()
                     .setColor(Color.RED)
@@ -26,7 +43,7 @@ public class GetTranscript extends AbstractButton {
             event.replyEmbeds(error.build()).setEphemeral(true).queue();
             return;
         }
-        int ticketID = Integer.parseInt(event.getMessage().getEmbeds().getFirst().getTitle().replace("Ticket #", ""));
+        int ticketID = id.getInt(0);
         Ticket ticket = ticketService.getTicketByTicketId(ticketID);
 
         if (ticket == null) {
@@ -48,8 +65,19 @@ public class GetTranscript extends AbstractButton {
             return;
         }
 
+        File transcript;
+        try {
+            transcript = ticketService.exportTranscript(ticket);
+        } catch (IOException e) {
+            log.error("Could not export transcript of ticket #{}", ticketID, e);
+            EmbedBuilder error = new EmbedBuilder()
+                    .setColor(Color.RED)
+                    .setDescription("❌ **Something went wrong, please report this to the Bot creator!**");
+            event.replyEmbeds(error.build()).setEphemeral(true).queue();
+            return;
+        }
         event.getUser().openPrivateChannel()
-                .flatMap(channel -> channel.sendFiles(FileUpload.fromData(ticket.getTranscript().toFile(ticketID))))
+                .flatMap(channel -> channel.sendFiles(FileUpload.fromData(transcript)))
                 .queue();
 
         EmbedBuilder builder = new EmbedBuilder()
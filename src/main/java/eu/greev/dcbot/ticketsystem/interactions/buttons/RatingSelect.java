@@ -1,6 +1,7 @@
 package eu.greev.dcbot.ticketsystem.interactions.buttons;
 
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.SupporterRatingStatsHelper;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import lombok.AllArgsConstructor;
@@ -16,28 +17,19 @@ public class RatingSelect extends AbstractButton {
 
     @Override
     public void execute(Event evt) {
-        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
-        String buttonId = event.getButton().getId();
-
-        if (buttonId == null || !buttonId.startsWith("rating-")) {
-            return;
-        }
+        ((ButtonInteractionEvent) evt).reply("Invalid rating button.").setEphemeral(true).queue();
+    }
 
-        String[] parts = buttonId.split("-");
-        if (parts.length != 3) {
-            event.reply("Invalid rating button.").setEphemeral(true).queue();
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        if (id.size() != 2) {
+            execute(evt);
             return;
         }
 
-        int stars;
-        int ticketId;
-        try {
-            stars = Integer.parseInt(parts[1]);
-            ticketId = Integer.parseInt(parts[2]);
-        } catch (NumberFormatException e) {
-            event.reply("Invalid rating button format.").setEphemeral(true).queue();
-            return;
-        }
+        int stars = id.getInt(0);
+        int ticketId = id.getInt(1);
 
         Ticket ticket = ticketService.getTicketByTicketId(ticketId);
         if (ticket == null) {
@@ -63,7 +55,7 @@ public class RatingSelect extends AbstractButton {
                 .setMaxLength(500)
                 .build();
 
-        Modal modal = Modal.create("rating-modal-" + stars + "-" + ticketId, "Submit Rating " + starDisplay)
+        Modal modal = Modal.create(ComponentId.of(ComponentId.RATING_MODAL, stars, ticketId).encode(), "Submit Rating " + starDisplay)
                 .addActionRow(message)
                 .build();
 
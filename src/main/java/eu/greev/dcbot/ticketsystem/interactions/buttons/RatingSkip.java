@@ -1,13 +1,14 @@
 package eu.greev.dcbot.ticketsystem.interactions.buttons;
 
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
-import eu.greev.dcbot.ticketsystem.service.SupporterSettingsData;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
-import eu.greev.dcbot.ticketsystem.service.XpService;
 import eu.greev.dcbot.utils.Config;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
@@ -19,39 +20,27 @@ public class RatingSkip extends AbstractButton {
     private final TicketService ticketService;
     private final Config config;
     private final JDA jda;
-    private final XpService xpService;
-    private final SupporterSettingsData supporterSettingsData;
 
-    public RatingSkip(TicketService ticketService, Config config, JDA jda, XpService xpService, SupporterSettingsData supporterSettingsData) {
+    public RatingSkip(TicketService ticketService, Config config, JDA jda) {
         this.ticketService = ticketService;
         this.config = config;
         this.jda = jda;
-        this.xpService = xpService;
-        this.supporterSettingsData = supporterSettingsData;
     }
 
     @Override
     public void execute(Event evt) {
-        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
-        String buttonId = event.getButton().getId();
-
-        if (buttonId == null || !buttonId.startsWith("rating-skip-")) {
-            return;
-        }
+        ((ButtonInteractionEvent) evt).reply("Invalid button.").setEphemeral(true).queue();
+    }
 
-        String[] parts = buttonId.split("-");
-        if (parts.length != 3) {
-            event.reply("Invalid button.").setEphemeral(true).queue();
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        if (id.size() != 1) {
+            execute(evt);
             return;
         }
 
-        int ticketId;
-        try {
-            ticketId = Integer.parseInt(parts[2]);
-        } catch (NumberFormatException e) {
-            event.reply("Invalid button format.").setEphemeral(true).queue();
-            return;
-        }
+        int ticketId = id.getInt(0);
 
         Ticket ticket = ticketService.getTicketByTicketId(ticketId);
         if (ticket == null) {
@@ -69,12 +58,6 @@ public class RatingSkip extends AbstractButton {
             return;
         }
 
-        // Generate transcript first to get URL for XP notification
-        String transcriptUrl = sendSkipNotification(ticket);
-
-        // Award XP with transcript URL (async - sends full ticket data, no rating since skipped)
-        xpService.awardTicketXp(ticket, null, transcriptUrl);
-
         // Reset pending rating state
         ticket.setPendingRatingSince(null);
 
@@ -87,48 +70,18 @@ public class RatingSkip extends AbstractButton {
 
         event.replyEmbeds(confirmation.build()).setEphemeral(true).queue();
 
-        // Close the ticket
-        Member pendingCloser = null;
-        if (ticket.getPendingCloser() != null) {
-            pendingCloser = jda.getGuildById(config.getServerId())
-                    .getMember(ticket.getPendingCloser());
-        }
-
-        if (pendingCloser != null) {
-            ticketService.closeTicket(ticket, false, pendingCloser, null, transcriptUrl);
-        } else {
-            Member owner = jda.getGuildById(config.getServerId()).getMember(ticket.getOwner());
-            if (owner != null) {
-                ticketService.closeTicket(ticket, false, owner, null, transcriptUrl);
-            }
-        }
+        // Transcript, skip notification and XP award (no rating since skipped) are handled by the close pipeline
+        ticketService.closeTicket(ticket, false, resolveCloser(ticket), null, CloseJob.builder()
+                .awardXp(true)
+                .ratingOutcome(CloseJob.RatingOutcome.SKIPPED));
     }
 
-    private String sendSkipNotification(Ticket ticket) {
-        // Generate transcript (will return null for sensitive categories)
-        String transcriptUrl = ticketService.sendTranscript(ticket);
-
-        if (config.getRatingNotificationChannels() == null || config.getRatingNotificationChannels().isEmpty()) {
-            return transcriptUrl;
+    private Member resolveCloser(Ticket ticket) {
+        Guild guild = jda.getGuildById(config.getServerId());
+        Member closer = ticket.getPendingCloser() == null ? null : guild.getMember(ticket.getPendingCloser());
+        if (closer == null) {
+            closer = guild.getMember(ticket.getOwner());
         }
-
-        // Check privacy setting for supporter
-        boolean hideStats = supporterSettingsData.isHideStats(ticket.getSupporter().getId());
-        String displayName = hideStats ? "Anonym" : ticket.getSupporter().getAsMention();
-        String thumbnailUrl = hideStats ? null : ticket.getSupporter().getEffectiveAvatarUrl();
-
-        EmbedBuilder notification = new EmbedBuilder()
-                .setColor(Color.GRAY)
-                .setTitle("Ticket #" + ticket.getId() + " closed")
-                .setDescription(displayName + " hat ein Ticket gelöst! *(Keine Bewertung)*")
-                .setFooter(config.getServerName(), config.getServerLogo());
-
-        if (thumbnailUrl != null) {
-            notification.setThumbnail(thumbnailUrl);
-        }
-
-        ticketService.appendTranscriptLinkAndSendCloseEmbed(transcriptUrl, ticket, notification);
-
-        return transcriptUrl;
+        return closer == null ? guild.getSelfMember() : closer;
     }
 }
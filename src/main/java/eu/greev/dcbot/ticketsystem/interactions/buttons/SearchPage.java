@@ -0,0 +1,42 @@
+package eu.greev.dcbot.ticketsystem.interactions.buttons;
+
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
+import eu.greev.dcbot.ticketsystem.interactions.commands.SearchTickets;
+import eu.greev.dcbot.ticketsystem.service.SearchIndex;
+import eu.greev.dcbot.utils.Config;
+import lombok.AllArgsConstructor;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+
+import java.awt.*;
+
+@AllArgsConstructor
+public class SearchPage extends AbstractButton {
+    private final Config config;
+    private final SearchIndex searchIndex;
+
+    @Override
+    public void execute(Event evt) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        EmbedBuilder error = new EmbedBuilder()
+                .setColor(Color.RED)
+                .setDescription("❌ **This button expired, please search again**");
+        event.replyEmbeds(error.build()).setEphemeral(true).queue();
+    }
+
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        ButtonInteractionEvent event = (ButtonInteractionEvent) evt;
+        String query = event.getMessage().getEmbeds().isEmpty() ? null : SearchTickets.queryOf(event.getMessage().getEmbeds().get(0));
+        if (id.size() != 1 || query == null) {
+            execute(evt);
+            return;
+        }
+
+        SearchTickets.Page page = SearchTickets.search(config, searchIndex, event.getMember(), query, id.getInt(0));
+        event.editMessageEmbeds(page.embed())
+                .setActionRow(page.buttons())
+                .queue();
+    }
+}
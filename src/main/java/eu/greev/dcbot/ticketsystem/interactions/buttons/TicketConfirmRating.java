@@ -1,6 +1,7 @@
 package eu.greev.dcbot.ticketsystem.interactions.buttons;
 
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
 import lombok.AllArgsConstructor;
@@ -81,11 +82,11 @@ public class TicketConfirmRating extends AbstractButton {
             ticket.getOwner().openPrivateChannel()
                     .flatMap(channel -> channel.sendMessageEmbeds(ratingEmbed.build())
                             .setActionRow(
-                                    Button.secondary("rating-1-" + ticket.getId(), "⭐"),
-                                    Button.secondary("rating-2-" + ticket.getId(), "⭐⭐"),
-                                    Button.primary("rating-3-" + ticket.getId(), "⭐⭐⭐"),
-                                    Button.primary("rating-4-" + ticket.getId(), "⭐⭐⭐⭐"),
-                                    Button.success("rating-5-" + ticket.getId(), "⭐⭐⭐⭐⭐")
+                                    Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 1, ticket.getId()).encode(), "⭐"),
+                                    Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 2, ticket.getId()).encode(), "⭐⭐"),
+                                    Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 3, ticket.getId()).encode(), "⭐⭐⭐"),
+                                    Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 4, ticket.getId()).encode(), "⭐⭐⭐⭐"),
+                                    Button.success(ComponentId.of(ComponentId.RATING_SELECT, 5, ticket.getId()).encode(), "⭐⭐⭐⭐⭐")
                             ))
                     .queue(
                             success -> {
@@ -118,11 +119,11 @@ public class TicketConfirmRating extends AbstractButton {
         ticket.getTextChannel().sendMessage(ticket.getOwner().getAsMention())
                 .setEmbeds(ratingEmbed.build())
                 .setActionRow(
-                        Button.secondary("rating-1-" + ticket.getId(), "⭐"),
-                        Button.secondary("rating-2-" + ticket.getId(), "⭐⭐"),
-                        Button.primary("rating-3-" + ticket.getId(), "⭐⭐⭐"),
-                        Button.primary("rating-4-" + ticket.getId(), "⭐⭐⭐⭐"),
-                        Button.success("rating-5-" + ticket.getId(), "⭐⭐⭐⭐⭐")
+                        Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 1, ticket.getId()).encode(), "⭐"),
+                        Button.secondary(ComponentId.of(ComponentId.RATING_SELECT, 2, ticket.getId()).encode(), "⭐⭐"),
+                        Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 3, ticket.getId()).encode(), "⭐⭐⭐"),
+                        Button.primary(ComponentId.of(ComponentId.RATING_SELECT, 4, ticket.getId()).encode(), "⭐⭐⭐⭐"),
+                        Button.success(ComponentId.of(ComponentId.RATING_SELECT, 5, ticket.getId()).encode(), "⭐⭐⭐⭐⭐")
                 ).queue();
 
         EmbedBuilder confirmation = new EmbedBuilder()
@@ -0,0 +1,95 @@
+package eu.greev.dcbot.ticketsystem.interactions.commands;
+
+import eu.greev.dcbot.ticketsystem.service.AnalyticsExport;
+import eu.greev.dcbot.ticketsystem.service.TicketService;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.utils.FileUpload;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Slf4j
+public class ExportTickets extends AbstractCommand {
+    // larger exports stay on the server, Discord rejects big attachments
+    private static final long MAX_ATTACHMENT_BYTES = 8L * 1024 * 1024;
+
+    private final AnalyticsExport analyticsExport;
+    // one export at a time, further ones wait for it
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ticket-export"));
+
+    public ExportTickets(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda, AnalyticsExport analyticsExport) {
+        super(config, ticketService, missingPerm, jda);
+        this.analyticsExport = analyticsExport;
+    }
+
+    @Override
+    public void execute(Event evt) {
+        SlashCommandInteractionEvent event = (SlashCommandInteractionEvent) evt;
+        if (!config.isDevMode() && !event.getMember().hasPermission(Permission.ADMINISTRATOR)) {
+            event.replyEmbeds(missingPerm.setFooter(config.getServerName(), config.getServerLogo()).build()).setEphemeral(true).queue();
+            return;
+        }
+
+        String fromDate = event.getOption("from").getAsString();
+        String toDate = event.getOption("to").getAsString();
+        long from;
+        long to;
+        try {
+            from = AnalyticsExport.parseDate(fromDate);
+            to = AnalyticsExport.parseDate(toDate);
+        } catch (DateTimeParseException e) {
+            EmbedBuilder error = new EmbedBuilder()
+                    .setColor(Color.RED)
+                    .setDescription("❌ **Dates have to look like 2024-01-31**");
+            event.replyEmbeds(error.build()).setEphemeral(true).queue();
+            return;
+        }
+
+        log.info("Ticket export {} - {} triggered by {}", fromDate, toDate, event.getUser().getName());
+        event.deferReply(true).queue(hook -> executor.execute(() -> export(hook, fromDate, toDate, from, to)));
+    }
+
+    private void export(InteractionHook hook, String fromDate, String toDate, long from, long to) {
+        File directory = new File("./Tickets/exports");
+        directory.mkdirs();
+        File file = new File(directory, "tickets-%s-%s-%d.ndjson.gz".formatted(fromDate, toDate, Instant.now().getEpochSecond()));
+
+        AnalyticsExport.Result result;
+        try {
+            result = analyticsExport.export(file, from, to, 0);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not export tickets {} - {}", fromDate, toDate, e);
+            hook.editOriginalEmbeds(new EmbedBuilder()
+                    .setColor(Color.RED)
+                    .setDescription("❌ **Export failed:** " + e.getMessage())
+                    .build()).queue();
+            return;
+        }
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setColor(Color.decode(config.getColor()))
+                .setTitle("Ticket export")
+                .setDescription("Closed tickets from **%s** until **%s**".formatted(fromDate, toDate))
+                .addField("Rows", "Tickets: **%d**\nMessages: **%d**\nEdits: **%d**\nLogs: **%d**\nRatings: **%d**".formatted(
+                        result.tickets(), result.messages(), result.edits(), result.logs(), result.ratings()), false)
+                .setFooter(config.getServerName(), config.getServerLogo());
+        if (file.length() > MAX_ATTACHMENT_BYTES) {
+            builder.addField("File", "Too large for Discord, saved as `%s` on the server".formatted(file.getPath()), false);
+            hook.editOriginalEmbeds(builder.build()).queue();
+        } else {
+            hook.editOriginalEmbeds(builder.build()).setFiles(FileUpload.fromData(file)).queue();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package eu.greev.dcbot.ticketsystem.interactions.commands;
+
+import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.categories.ICategory;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
+import eu.greev.dcbot.ticketsystem.service.AnalyticsExport;
+import eu.greev.dcbot.ticketsystem.service.TicketData;
+import eu.greev.dcbot.ticketsystem.service.TicketService;
+import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.TicketEmojis;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+
+import java.awt.*;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FindTickets extends AbstractCommand {
+    public static final int PAGE_SIZE = 10;
+    private static final String CLOSE_REASON = "Close reason";
+
+    public FindTickets(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda) {
+        super(config, ticketService, missingPerm, jda);
+    }
+
+    @Override
+    public void execute(Event evt) {
+        SlashCommandInteractionEvent event = (SlashCommandInteractionEvent) evt;
+        if (!hasStaffPermission(event.getMember())) {
+            event.replyEmbeds(missingPerm.setFooter(config.getServerName(), config.getServerLogo()).build()).setEphemeral(true).queue();
+            return;
+        }
+
+        TicketData.TicketFilter filter;
+        try {
+            OptionMapping supporter = event.getOption("supporter");
+            OptionMapping status = event.getOption("status");
+            OptionMapping from = event.getOption("from");
+            OptionMapping to = event.getOption("to");
+            OptionMapping reason = event.getOption("reason");
+            filter = new TicketData.TicketFilter(
+                    supporter != null ? supporter.getAsUser().getIdLong() : null,
+                    event.getOption("category") != null ? event.getOption("category").getAsString() : null,
+                    status != null ? TicketData.Status.valueOf(status.getAsString()) : null,
+                    from != null ? AnalyticsExport.parseDate(from.getAsString()) : null,
+                    to != null ? AnalyticsExport.parseDate(to.getAsString()) : null,
+                    reason != null ? reason.getAsString() : null);
+        } catch (DateTimeParseException e) {
+            EmbedBuilder error = new EmbedBuilder()
+                    .setColor(Color.RED)
+                    .setDescription("❌ **Dates have to look like 2024-01-31**");
+            event.replyEmbeds(error.build()).setEphemeral(true).queue();
+            return;
+        }
+
+        Page page = find(config, ticketService.getTicketData(), filter, null, 1);
+        if (page.next() != null) {
+            event.replyEmbeds(page.embed()).setActionRow(page.nextButton()).setEphemeral(true).queue();
+        } else {
+            event.replyEmbeds(page.embed()).setEphemeral(true).queue();
+        }
+    }
+
+    /**
+     * Lists one page of tickets. The filter and the cursor live in the id of the next button, only the close reason
+     * is text and read back from the embed.
+     */
+    public static Page find(Config config, TicketData ticketData, TicketData.TicketFilter filter, TicketData.Cursor after, int pageNumber) {
+        List<TicketData.TicketSummary> tickets = ticketData.findTickets(filter, after, PAGE_SIZE + 1);
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle("Tickets")
+                .setDescription(describe(filter) + "\nPage " + pageNumber)
+                .setFooter(config.getServerName(), config.getServerLogo())
+                .setColor(Color.decode(config.getColor()));
+        if (filter.closeReason() != null) {
+            builder.addField(CLOSE_REASON, filter.closeReason(), false);
+        }
+
+        if (tickets.isEmpty()) {
+            builder.setColor(Color.RED).setDescription(pageNumber == 1 ? "❌ **No ticket matches these filters**" : "You already are on the last page");
+            return new Page(builder.build(), null);
+        }
+
+        for (TicketData.TicketSummary ticket : tickets.subList(0, Math.min(tickets.size(), PAGE_SIZE))) {
+            ICategory category = Main.CATEGORIES.stream().filter(c -> c.getId().equals(ticket.category())).findFirst().orElse(null);
+            String name = category != null ? GetTickets.generateName(category, ticket.ticketId()) : ticket.category() + " # " + ticket.ticketId();
+            StringBuilder value = new StringBuilder()
+                    .append(ticket.isOpen() ? (ticket.isWaiting() ? "Waiting" : "Open") : "Closed")
+                    .append(" · Owner <@").append(ticket.owner()).append('>');
+            if (ticket.supporter() != null) {
+                value.append(" · Supporter <@").append(ticket.supporter()).append('>');
+            }
+            if (ticket.closedAt() != null) {
+                value.append("\nClosed <t:").append(ticket.closedAt()).append(":f>");
+            }
+            if (ticket.closeMessage() != null && !ticket.closeMessage().isBlank()) {
+                String message = ticket.closeMessage().length() > 200 ? ticket.closeMessage().substring(0, 200) + "…" : ticket.closeMessage();
+                value.append("\n> ").append(message.replace("\n", " "));
+            }
+            builder.addField(name, value.toString(), false);
+        }
+
+        ComponentId next = null;
+        if (tickets.size() > PAGE_SIZE) {
+            TicketData.Cursor cursor = TicketData.Cursor.of(filter, tickets.get(PAGE_SIZE - 1));
+            next = nextPageId(filter, cursor, pageNumber + 1);
+        }
+        return new Page(builder.build(), next);
+    }
+
+    private static ComponentId nextPageId(TicketData.TicketFilter filter, TicketData.Cursor cursor, int pageNumber) {
+        int category = filter.category() == null ? 0 : indexOfCategory(filter.category()) + 1;
+        return ComponentId.of(ComponentId.FIND_NEXT,
+                filter.supporter() == null ? 0 : filter.supporter(),
+                category,
+                filter.status() == null ? 0 : filter.status().ordinal() + 1,
+                filter.closedFrom() == null ? -1 : filter.closedFrom(),
+                filter.closedTo() == null ? -1 : filter.closedTo(),
+                cursor.key(),
+                cursor.ticketId(),
+                pageNumber);
+    }
+
+    /**
+     * @return the filter of a next button, {@code null} if the id doesn't carry one
+     */
+    public static TicketData.TicketFilter filterOf(ComponentId id, MessageEmbed embed) {
+        if (id.size() != 8) return null;
+        int category = id.getInt(1);
+        int status = id.getInt(2);
+        if (category > Main.CATEGORIES.size() || status > TicketData.Status.values().length) return null;
+        String closeReason = embed.getFields().stream()
+                .filter(field -> CLOSE_REASON.equals(field.getName()))
+                .map(MessageEmbed.Field::getValue)
+                .findFirst()
+                .orElse(null);
+        return new TicketData.TicketFilter(
+                id.getLong(0) == 0 ? null : id.getLong(0),
+                category == 0 ? null : Main.CATEGORIES.get(category - 1).getId(),
+                status == 0 ? null : TicketData.Status.values()[status - 1],
+                id.getLong(3) == -1 ? null : id.getLong(3),
+                id.getLong(4) == -1 ? null : id.getLong(4),
+                closeReason);
+    }
+
+    public static TicketData.Cursor cursorOf(ComponentId id) {
+        return new TicketData.Cursor(id.getLong(5), id.getInt(6));
+    }
+
+    public static int pageOf(ComponentId id) {
+        return id.getInt(7);
+    }
+
+    private static int indexOfCategory(String id) {
+        for (int i = 0; i < Main.CATEGORIES.size(); i++) {
+            if (Main.CATEGORIES.get(i).getId().equals(id)) return i;
+        }
+        return -1;
+    }
+
+    private static String describe(TicketData.TicketFilter filter) {
+        List<String> parts = new ArrayList<>();
+        if (filter.supporter() != null) parts.add("Supporter <@" + filter.supporter() + ">");
+        if (filter.category() != null) parts.add("Category **" + filter.category() + "**");
+        if (filter.status() != null) parts.add("Status **" + filter.status().name().toLowerCase() + "**");
+        if (filter.closedFrom() != null) parts.add("Closed from <t:" + filter.closedFrom() + ":d>");
+        if (filter.closedTo() != null) parts.add("Closed before <t:" + filter.closedTo() + ":d>");
+        return parts.isEmpty() ? "All tickets" : String.join(" · ", parts);
+    }
+
+    /**
+     * @param next the id of the next button, {@code null} on the last page
+     */
+    public record Page(MessageEmbed embed, ComponentId next) {
+        public Button nextButton() {
+            return Button.primary(next.encode(), TicketEmojis.FORWARDS.getEmoji());
+        }
+    }
+}
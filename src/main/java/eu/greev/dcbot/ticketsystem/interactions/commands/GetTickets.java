@@ -1,43 +1,26 @@
 package eu.greev.dcbot.ticketsystem.interactions.commands;
 
 import eu.greev.dcbot.ticketsystem.categories.ICategory;
-import eu.greev.dcbot.ticketsystem.entities.ScrollEntity;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.TicketEmojis;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.User;
-import net.dv8tion.jda.api.entities.emoji.Emoji;
 import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 
 import java.awt.*;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.TimeUnit;
 
 public class GetTickets extends AbstractCommand {
-    public static final List<ScrollEntity> PAGE_SCROLL_CACHE = new ArrayList<>();
     public static final int PAGE_SIZE = 25; // this value shouldn't be greater than 25 because of Discord limitations
 
     public GetTickets(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda) {
         super(config, ticketService, missingPerm, jda);
-
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                PAGE_SCROLL_CACHE.removeIf(entity -> Instant.now()
-                        .minus(12, ChronoUnit.HOURS)
-                        .isAfter(Instant.ofEpochMilli(entity.getTimeCreated()))
-                );
-            }
-        }, 0, TimeUnit.MINUTES.toMillis(5));
     }
 
     @Override
@@ -74,14 +57,26 @@ public class GetTickets extends AbstractCommand {
             builder.addField(generateName(ticket.getCategory(), tickets.get(i)), "", true);
         }
 
-        int maxPage = tickets.size() / PAGE_SIZE + (tickets.size() % PAGE_SIZE == 0 ? 0 : 1);
-        PAGE_SCROLL_CACHE.removeIf(e -> e.getHandlerId() == event.getMember().getIdLong());
-        ScrollEntity scrollEntity = new ScrollEntity(event.getMember().getIdLong(), user.getIdLong(), maxPage, Instant.now().toEpochMilli());
+        int maxPage = maxPage(tickets.size());
+
+        event.replyEmbeds(builder.setDescription("Page 1/%d".formatted(maxPage)).build())
+                .setActionRow(pageButtons(user.getIdLong(), 1))
+                .setEphemeral(true)
+                .queue();
+    }
+
+    public static int maxPage(int ticketCount) {
+        return ticketCount / PAGE_SIZE + (ticketCount % PAGE_SIZE == 0 ? 0 : 1);
+    }
 
-        event.replyEmbeds(builder.setDescription("Page 1/%d".formatted(maxPage)).build()).setActionRow(
-                Button.primary("tickets-backwards", Emoji.fromUnicode("◀️")),
-                Button.primary("tickets-forwards", Emoji.fromUnicode("▶️"))
-        ).setEphemeral(true).queue(s -> PAGE_SCROLL_CACHE.add(scrollEntity));
+    /**
+     * The scroll state (whose tickets and the shown page) lives in the button ids, so no cache is needed.
+     */
+    public static List<Button> pageButtons(long ownerId, int currentPage) {
+        return List.of(
+                Button.primary(ComponentId.of(ComponentId.TICKETS_BACKWARDS, ownerId, currentPage).encode(), TicketEmojis.BACKWARDS.getEmoji()),
+                Button.primary(ComponentId.of(ComponentId.TICKETS_FORWARDS, ownerId, currentPage).encode(), TicketEmojis.FORWARDS.getEmoji())
+        );
     }
 
     public static String generateName(ICategory category, int ticketId) {
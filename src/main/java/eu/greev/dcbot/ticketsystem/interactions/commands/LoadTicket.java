@@ -1,6 +1,7 @@
 package eu.greev.dcbot.ticketsystem.interactions.commands;
 
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -55,7 +56,7 @@ public class LoadTicket extends AbstractCommand {
             builder.addField("Involved", ticket.getInvolved().toString(), false);
 
         event.replyEmbeds(builder.build())
-                .setActionRow(Button.secondary("transcript", "Get transcript"))
+                .setActionRow(Button.secondary(ComponentId.of(ComponentId.TRANSCRIPT, ticketID).encode(), "Get transcript"))
                 .setEphemeral(true)
                 .queue();
     }
@@ -0,0 +1,103 @@
+package eu.greev.dcbot.ticketsystem.interactions.commands;
+
+import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.categories.ICategory;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
+import eu.greev.dcbot.ticketsystem.service.SearchIndex;
+import eu.greev.dcbot.ticketsystem.service.TicketService;
+import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.TicketEmojis;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+
+import java.awt.*;
+import java.util.List;
+
+public class SearchTickets extends AbstractCommand {
+    private static final String AUTHOR = "Transcript search";
+    private static final int MAX_SNIPPET = 900;
+
+    private final SearchIndex searchIndex;
+
+    public SearchTickets(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda, SearchIndex searchIndex) {
+        super(config, ticketService, missingPerm, jda);
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public void execute(Event evt) {
+        SlashCommandInteractionEvent event = (SlashCommandInteractionEvent) evt;
+        if (!hasStaffPermission(event.getMember())) {
+            event.replyEmbeds(missingPerm.setFooter(config.getServerName(), config.getServerLogo()).build()).setEphemeral(true).queue();
+            return;
+        }
+        String query = event.getOption("query").getAsString();
+        Page page = search(config, searchIndex, event.getMember(), query, 0);
+        if (page.hasNext() || page.page() > 0) {
+            event.replyEmbeds(page.embed()).setActionRow(page.buttons()).setEphemeral(true).queue();
+        } else {
+            event.replyEmbeds(page.embed()).setEphemeral(true).queue();
+        }
+    }
+
+    /**
+     * Searches one page of results. The query is kept as the embed title, so the page buttons only carry the page.
+     * Tickets of sensitive categories are only shown to administrators.
+     */
+    public static Page search(Config config, SearchIndex searchIndex, Member member, String query, int page) {
+        List<String> excluded = config.isDevMode() || member.hasPermission(Permission.ADMINISTRATOR)
+                ? List.of()
+                : Main.CATEGORIES.stream().filter(ICategory::isSensitive).map(ICategory::getId).toList();
+
+        long start = System.nanoTime();
+        List<SearchIndex.Hit> hits = searchIndex.search(query, page, excluded);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setAuthor(AUTHOR)
+                .setTitle(query)
+                .setFooter("%s · %d ms".formatted(config.getServerName(), millis), config.getServerLogo())
+                .setColor(Color.decode(config.getColor()));
+
+        if (hits.isEmpty()) {
+            builder.setColor(Color.RED).setDescription(page == 0 ? "❌ **No transcript matches your search**" : "You already are on the last page");
+            return new Page(builder.build(), page, false);
+        }
+
+        boolean hasNext = hits.size() > SearchIndex.PAGE_SIZE;
+        for (SearchIndex.Hit hit : hits.subList(0, Math.min(hits.size(), SearchIndex.PAGE_SIZE))) {
+            ICategory category = Main.CATEGORIES.stream().filter(c -> c.getId().equals(hit.category())).findFirst().orElse(null);
+            String name = category != null ? GetTickets.generateName(category, hit.ticketId()) : hit.category() + " # " + hit.ticketId();
+            String snippet = hit.snippet().length() > MAX_SNIPPET ? hit.snippet().substring(0, MAX_SNIPPET) + "…" : hit.snippet();
+            String time = hit.timeCreated() > 0 ? "\n<t:%d:f>".formatted(hit.timeCreated()) : "";
+            builder.addField(name + " · " + hit.kind(), snippet + time, false);
+        }
+        builder.setDescription("Page %d".formatted(page + 1));
+        return new Page(builder.build(), page, hasNext);
+    }
+
+    /**
+     * @return the query of a result embed, {@code null} if the embed isn't one
+     */
+    public static String queryOf(MessageEmbed embed) {
+        if (embed.getAuthor() == null || !AUTHOR.equals(embed.getAuthor().getName())) return null;
+        return embed.getTitle();
+    }
+
+    public record Page(MessageEmbed embed, int page, boolean hasNext) {
+        public List<Button> buttons() {
+            return List.of(
+                    Button.primary(ComponentId.of(ComponentId.SEARCH_PAGE, Math.max(0, page - 1)).encode(), TicketEmojis.BACKWARDS.getEmoji())
+                            .withDisabled(page == 0),
+                    Button.primary(ComponentId.of(ComponentId.SEARCH_PAGE, page + 1).encode(), TicketEmojis.FORWARDS.getEmoji())
+                            .withDisabled(!hasNext)
+            );
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package eu.greev.dcbot.ticketsystem.interactions.commands;
 
+import eu.greev.dcbot.ticketsystem.service.OutboxDispatcher;
 import eu.greev.dcbot.ticketsystem.service.TicketData;
+import eu.greev.dcbot.ticketsystem.service.TicketEventData;
 import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -11,13 +13,17 @@ import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEve
 
 import java.awt.*;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class Stats extends AbstractCommand {
-    public Stats(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda) {
+    private final OutboxDispatcher outboxDispatcher;
+
+    public Stats(Config config, TicketService ticketService, EmbedBuilder missingPerm, JDA jda, OutboxDispatcher outboxDispatcher) {
         super(config, ticketService, missingPerm, jda);
+        this.outboxDispatcher = outboxDispatcher;
     }
 
     @Override
@@ -56,14 +62,31 @@ public class Stats extends AbstractCommand {
 
         if (!nextTicketsForClosing.isEmpty()) {
             String longestWaiting = nextTicketsForClosing.entrySet().stream()
-                    .map(e -> "• <#%s>: <t:%d:R>".formatted(e.getKey(), Instant.parse(e.getValue()).getEpochSecond()))
+                    .map(e -> "• <#%s>: <t:%d:R>".formatted(e.getKey(), Long.parseLong(e.getValue())))
                     .collect(Collectors.joining("\n"));
             builder.addField("Longest waiting tickets", longestWaiting, false);
         }
 
+        TicketEventData.TimeInState timeInState = data.getEventData().timeInState(Instant.now().minus(30, ChronoUnit.DAYS).getEpochSecond());
+        builder.addField("Time in state (last 30 days)", "Until claimed: **%s** (%d)\nWaiting: **%s** (%d)\nPending rating: **%s** (%d)".formatted(
+                formatDuration(timeInState.toClaim().averageSeconds()), timeInState.toClaim().count(),
+                formatDuration(timeInState.waiting().averageSeconds()), timeInState.waiting().count(),
+                formatDuration(timeInState.pendingRating().averageSeconds()), timeInState.pendingRating().count()), false);
+
+        OutboxDispatcher.Stats outbox = outboxDispatcher.getStats();
+        builder.addField("Outbox", "Queued: **%d**\nDelivered last minute: **%d**\nDelivered since start: **%d**\nRetried: **%d**\nGiven up: **%d** (%d since start)"
+                .formatted(outbox.pending(), outbox.deliveredLastMinute(), outbox.delivered(), outbox.retried(), outbox.deadTotal(), outbox.died()), false);
+
         event.replyEmbeds(builder.build()).setEphemeral(true).queue();
     }
 
+    private static String formatDuration(long seconds) {
+        if (seconds < 3600) {
+            return "%dm".formatted(seconds / 60);
+        }
+        return "%dh %dm".formatted(seconds / 3600, seconds % 3600 / 60);
+    }
+
     private String getNameListFromUserId(Map<String, Integer> topClosers) {
         return topClosers.entrySet().stream()
                 .map(e -> Map.entry(Optional.ofNullable(jda.retrieveUserById(e.getKey()).complete()), e.getValue()))
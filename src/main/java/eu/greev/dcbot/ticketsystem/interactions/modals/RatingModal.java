@@ -1,13 +1,18 @@
 package eu.greev.dcbot.ticketsystem.interactions.modals;
 
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
 import eu.greev.dcbot.ticketsystem.entities.Rating;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.interactions.ComponentId;
 import eu.greev.dcbot.ticketsystem.interactions.Interaction;
-import eu.greev.dcbot.ticketsystem.service.*;
+import eu.greev.dcbot.ticketsystem.service.RatingData;
+import eu.greev.dcbot.ticketsystem.service.SupporterRatingStatsHelper;
+import eu.greev.dcbot.ticketsystem.service.TicketService;
 import eu.greev.dcbot.utils.Config;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.interaction.ModalInteractionEvent;
@@ -21,42 +26,29 @@ public class RatingModal implements Interaction {
     private final RatingData ratingData;
     private final Config config;
     private final JDA jda;
-    private final XpService xpService;
-    private final SupporterSettingsData supporterSettingsData;
 
-    public RatingModal(TicketService ticketService, RatingData ratingData, Config config, JDA jda, XpService xpService, SupporterSettingsData supporterSettingsData) {
+    public RatingModal(TicketService ticketService, RatingData ratingData, Config config, JDA jda) {
         this.ticketService = ticketService;
         this.ratingData = ratingData;
         this.config = config;
         this.jda = jda;
-        this.xpService = xpService;
-        this.supporterSettingsData = supporterSettingsData;
     }
 
     @Override
     public void execute(Event evt) {
-        ModalInteractionEvent event = (ModalInteractionEvent) evt;
-        String modalId = event.getModalId();
-
-        if (!modalId.startsWith("rating-modal-")) {
-            return;
-        }
+        ((ModalInteractionEvent) evt).reply("Invalid rating modal.").setEphemeral(true).queue();
+    }
 
-        String[] parts = modalId.split("-");
-        if (parts.length != 4) {
-            event.reply("Invalid rating modal.").setEphemeral(true).queue();
+    @Override
+    public void execute(Event evt, ComponentId id) {
+        ModalInteractionEvent event = (ModalInteractionEvent) evt;
+        if (id.size() != 2) {
+            execute(evt);
             return;
         }
 
-        int stars;
-        int ticketId;
-        try {
-            stars = Integer.parseInt(parts[2]);
-            ticketId = Integer.parseInt(parts[3]);
-        } catch (NumberFormatException e) {
-            event.reply("Invalid rating modal format.").setEphemeral(true).queue();
-            return;
-        }
+        int stars = id.getInt(0);
+        int ticketId = id.getInt(1);
 
         String message = event.getValue("rating-message") != null
                 ? event.getValue("rating-message").getAsString()
@@ -102,74 +94,22 @@ public class RatingModal implements Interaction {
 
         event.replyEmbeds(confirmation.build()).setEphemeral(true).queue();
 
-        // Generate transcript first to get URL for XP notification
-        String transcriptUrl = sendRatingNotification(ticket, stars, message);
-
-        // Award XP to the supporter with transcript URL (async - sends full ticket data)
-        xpService.awardTicketXp(ticket, stars, transcriptUrl);
-
         ticket.setPendingRatingSince(null);
 
-        Member pendingCloser = null;
-        if (ticket.getPendingCloser() != null) {
-            pendingCloser = jda.getGuildById(config.getServerId())
-                    .getMember(ticket.getPendingCloser());
-        }
-
-        if (pendingCloser != null) {
-            ticketService.closeTicket(ticket, false, pendingCloser, null, transcriptUrl);
-        } else {
-            Member owner = jda.getGuildById(config.getServerId()).getMember(ticket.getOwner());
-            if (owner != null) {
-                ticketService.closeTicket(ticket, false, owner, null, transcriptUrl);
-            }
-        }
-    }
-
-    private Color getRatingColor(int stars) {
-        if (stars >= 4) {
-            return Color.GREEN;
-        } else if (stars == 3) {
-            return Color.YELLOW;
-        } else {
-            return Color.RED;
-        }
+        // Transcript, rating notification and XP award are handled by the close pipeline
+        ticketService.closeTicket(ticket, false, resolveCloser(ticket), null, CloseJob.builder()
+                .awardXp(true)
+                .ratingOutcome(CloseJob.RatingOutcome.RATED)
+                .rating(stars)
+                .ratingMessage(message));
     }
 
-    private String sendRatingNotification(Ticket ticket, int stars, String message) {
-        String starDisplay = SupporterRatingStatsHelper.starDisplay(stars);
-        Color embedColor = getRatingColor(stars);
-
-        // Generate transcript (will return null for sensitive categories)
-        String transcriptUrl = ticketService.sendTranscript(ticket);
-
-        if (config.getRatingNotificationChannels() == null || config.getRatingNotificationChannels().isEmpty()) {
-            return transcriptUrl;
+    private Member resolveCloser(Ticket ticket) {
+        Guild guild = jda.getGuildById(config.getServerId());
+        Member closer = ticket.getPendingCloser() == null ? null : guild.getMember(ticket.getPendingCloser());
+        if (closer == null) {
+            closer = guild.getMember(ticket.getOwner());
         }
-
-        // Check privacy setting for supporter
-        boolean hideStats = supporterSettingsData.isHideStats(ticket.getSupporter().getId());
-        String displayName = hideStats ? "Anonym" : ticket.getSupporter().getAsMention();
-        String displayStars = hideStats ? "???" : stars + " Sterne";
-        String displayStarIcons = hideStats ? "★★★★★" : starDisplay;
-        String thumbnailUrl = hideStats ? null : ticket.getSupporter().getEffectiveAvatarUrl();
-        String feedback = (message != null && !message.isBlank()) ? message : "Kein Feedback";
-        String displayFeedback = hideStats ? "Versteckt" : feedback;
-
-        EmbedBuilder notification = new EmbedBuilder()
-                .setColor(embedColor)
-                .setTitle("Ticket #" + ticket.getId() + " closed")
-                .setDescription(displayName + " hat **" + displayStars + "** " + displayStarIcons + " erhalten und ein Ticket gelöst!")
-                .setFooter(config.getServerName(), config.getServerLogo());
-
-        if (thumbnailUrl != null) {
-            notification.setThumbnail(thumbnailUrl);
-        }
-
-        notification.addField("Feedback", displayFeedback, false);
-
-        ticketService.appendTranscriptLinkAndSendCloseEmbed(transcriptUrl, ticket, notification);
-
-        return transcriptUrl;
+        return closer == null ? guild.getSelfMember() : closer;
     }
 }
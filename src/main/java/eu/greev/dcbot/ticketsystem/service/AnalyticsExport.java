@@ -0,0 +1,225 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.mapper.CaseStrategy;
+import org.jdbi.v3.core.mapper.MapMappers;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports closed tickets with their messages, edits, logs and ratings as gzipped NDJSON for offline analysis.
+ * <p>
+ * Every line is one row with a {@code type} field. Tickets are exported in chunks ordered by ticket id, each table
+ * is streamed row by row within a chunk, so memory doesn't grow with the number of messages. The export runs on a
+ * read-only connection, with the database in WAL mode it doesn't hold back the bot's writes. After every chunk the
+ * last exported ticket id is written to {@code <file>.checkpoint}, pass it as {@code afterTicketId} to continue an
+ * interrupted export in a new file, an export continuing another one never overwrites a file. Transcripts of
+ * archived tickets are read from their {@link ArchiveData archive}.
+ */
+@Slf4j
+public class AnalyticsExport {
+    private static final int CHUNK_SIZE = 500;
+    private static final String CHUNK_TICKETS = "t.ticketID > ? AND t.ticketID <= ? AND t.closedAt >= ? AND t.closedAt < ?";
+
+    private final Jdbi jdbi;
+    private final ArchiveData archiveData;
+
+    public AnalyticsExport(Jdbi jdbi) {
+        this.jdbi = jdbi;
+        this.archiveData = new ArchiveData(jdbi);
+    }
+
+    /**
+     * @return a {@link Jdbi} on a read-only connection to the database
+     */
+    public static Jdbi readOnly(String url) {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl(url);
+        ds.setReadOnly(true);
+        return Jdbi.create(ds);
+    }
+
+    /**
+     * @param date {@code yyyy-MM-dd}
+     * @return the start of the day in UTC as epoch seconds
+     * @throws java.time.format.DateTimeParseException if the date isn't valid
+     */
+    public static long parseDate(String date) {
+        return LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+
+    /**
+     * Exports the tickets closed in {@code [from, to)}.
+     *
+     * @param from          epoch seconds, inclusive
+     * @param to            epoch seconds, exclusive
+     * @param afterTicketId only tickets with a higher id are exported
+     * @throws java.nio.file.FileAlreadyExistsException if the export continues another one and the file exists
+     */
+    public Result export(File file, long from, long to, int afterTicketId) throws IOException {
+        File checkpoint = new File(file.getPath() + ".checkpoint");
+        long[] counts = new long[RowType.values().length];
+        int lastTicketId = afterTicketId;
+
+        // the file of the interrupted export may be the one to continue from
+        OpenOption[] options = afterTicketId > 0 ? new OpenOption[]{StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE} : new OpenOption[0];
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath(), options), 64 * 1024, true);
+             JsonGenerator json = new JsonFactory().createGenerator(out).setRootValueSeparator(null)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            while (true) {
+                int start = lastTicketId;
+                Integer end = jdbi.withHandle(handle -> handle.createQuery("SELECT MAX(ticketID) FROM (SELECT ticketID FROM tickets t WHERE t.ticketID > ? AND t.closedAt >= ? AND t.closedAt < ? ORDER BY ticketID LIMIT ?)")
+                        .bind(0, start)
+                        .bind(1, from)
+                        .bind(2, to)
+                        .bind(3, CHUNK_SIZE)
+                        .mapTo(Integer.class)
+                        .findOne()
+                        .orElse(null));
+                if (end == null) break;
+
+                try {
+                    jdbi.useHandle(handle -> {
+                        handle.getConfig(MapMappers.class).setCaseChange(CaseStrategy.NOP);
+                        counts[RowType.TICKET.ordinal()] += stream(handle, json, RowType.TICKET, "SELECT t.* FROM tickets t WHERE " + CHUNK_TICKETS + " ORDER BY t.ticketID", start, end, from, to);
+                        counts[RowType.MESSAGE.ordinal()] += stream(handle, json, RowType.MESSAGE, "SELECT m.* FROM messages m JOIN tickets t ON t.ticketID = m.ticketID WHERE " + CHUNK_TICKETS + " ORDER BY m.ticketID, m.messageID", start, end, from, to);
+                        counts[RowType.EDIT.ordinal()] += stream(handle, json, RowType.EDIT, "SELECT m.ticketID, e.* FROM edits e JOIN messages m ON m.messageID = e.messageID JOIN tickets t ON t.ticketID = m.ticketID WHERE " + CHUNK_TICKETS + " ORDER BY m.ticketID, e.messageID, e.timeEdited", start, end, from, to);
+                        counts[RowType.LOG.ordinal()] += stream(handle, json, RowType.LOG, "SELECT l.* FROM logs l JOIN tickets t ON t.ticketID = l.ticketID WHERE " + CHUNK_TICKETS + " ORDER BY l.ticketID, CAST(l.timeCreated AS INTEGER)", start, end, from, to);
+                        counts[RowType.RATING.ordinal()] += stream(handle, json, RowType.RATING, "SELECT r.* FROM ratings r JOIN tickets t ON t.ticketID = r.ticketID WHERE " + CHUNK_TICKETS + " ORDER BY r.ticketID, r.ratingID", start, end, from, to);
+                    });
+                    List<Map.Entry<Integer, String>> archived = jdbi.withHandle(handle -> handle.createQuery("SELECT t.ticketID, t.archivedIn FROM tickets t WHERE " + CHUNK_TICKETS + " AND t.archivedIn IS NOT NULL ORDER BY t.ticketID")
+                            .bind(0, start)
+                            .bind(1, end)
+                            .bind(2, from)
+                            .bind(3, to)
+                            .map((r, columnNumber, ctx) -> Map.entry(r.getInt("ticketID"), r.getString("archivedIn")))
+                            .list());
+                    for (Map.Entry<Integer, String> ticket : archived) {
+                        archiveData.forEachEntry(ticket.getValue(), ticket.getKey(), entry -> writeArchived(json, ticket.getKey(), entry, counts));
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                // everything written so far can be decompressed, even if the export stops during the next chunk
+                json.flush();
+                out.flush();
+                lastTicketId = end;
+                Files.writeString(checkpoint.toPath(), String.valueOf(lastTicketId));
+                log.info("Exported tickets up to #{} ({} messages so far)", lastTicketId, counts[RowType.MESSAGE.ordinal()]);
+            }
+        }
+        return new Result(counts[RowType.TICKET.ordinal()], counts[RowType.MESSAGE.ordinal()], counts[RowType.EDIT.ordinal()],
+                counts[RowType.LOG.ordinal()], counts[RowType.RATING.ordinal()], lastTicketId);
+    }
+
+    private static long stream(Handle handle, JsonGenerator json, RowType type, String sql, int start, int end, long from, long to) {
+        long count = 0;
+        try (Stream<Map<String, Object>> rows = handle.createQuery(sql)
+                .bind(0, start)
+                .bind(1, end)
+                .bind(2, from)
+                .bind(3, to)
+                .setFetchSize(1000)
+                .mapToMap()
+                .stream()) {
+            Iterator<Map<String, Object>> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                write(json, type, iterator.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes an archived entry like the rows it was made of.
+     */
+    private static void writeArchived(JsonGenerator json, int ticketId, ArchiveData.ArchivedEntry entry, long[] counts) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        if (entry.log()) {
+            row.put("log", entry.content());
+            row.put("timeCreated", String.valueOf(entry.timestamp()));
+            row.put("ticketID", ticketId);
+            write(json, RowType.LOG, row);
+            counts[RowType.LOG.ordinal()]++;
+            return;
+        }
+        row.put("messageID", entry.id());
+        row.put("content", entry.content());
+        row.put("author", entry.author());
+        row.put("timeCreated", entry.timestamp());
+        row.put("isDeleted", entry.deleted() ? 1 : 0);
+        row.put("isEdited", entry.edits().isEmpty() ? 0 : 1);
+        row.put("authorID", entry.authorId());
+        row.put("isBot", entry.bot() ? 1 : 0);
+        row.put("ticketID", ticketId);
+        write(json, RowType.MESSAGE, row);
+        counts[RowType.MESSAGE.ordinal()]++;
+
+        for (ArchiveData.ArchivedEdit edit : entry.edits()) {
+            Map<String, Object> editRow = new LinkedHashMap<>();
+            editRow.put("ticketID", ticketId);
+            editRow.put("messageID", entry.id());
+            editRow.put("content", edit.content());
+            editRow.put("timeEdited", edit.timestamp());
+            write(json, RowType.EDIT, editRow);
+            counts[RowType.EDIT.ordinal()]++;
+        }
+    }
+
+    private static void write(JsonGenerator json, RowType type, Map<String, Object> row) {
+        try {
+            json.writeStartObject();
+            json.writeStringField("type", type.name().toLowerCase());
+            for (Map.Entry<String, Object> column : row.entrySet()) {
+                json.writeFieldName(column.getKey());
+                Object value = column.getValue();
+                if (value == null) {
+                    json.writeNull();
+                } else if (value instanceof Integer number) {
+                    json.writeNumber(number);
+                } else if (value instanceof Long number) {
+                    json.writeNumber(number);
+                } else if (value instanceof Double number) {
+                    json.writeNumber(number);
+                } else {
+                    json.writeString(value.toString());
+                }
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private enum RowType {
+        TICKET,
+        MESSAGE,
+        EDIT,
+        LOG,
+        RATING
+    }
+
+    public record Result(long tickets, long messages, long edits, long logs, long ratings, int lastTicketId) {}
+}
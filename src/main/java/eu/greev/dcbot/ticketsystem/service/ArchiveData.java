@@ -0,0 +1,254 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for the transcripts of long closed tickets.
+ * <p>
+ * The messages, edits and logs of a ticket are moved into the archive database of the month it was closed in,
+ * {@code ./Tickets/archive/yyyy-MM.db}, as one gzipped JSON array in the order they happened. The ticket row stays
+ * in the hot database with {@code archivedIn} set, so statistics and ratings keep working, and so do its search
+ * documents, so archived tickets can still be found. Archives are attached to the connection only while a transcript
+ * is moved or read.
+ */
+@Slf4j
+public class ArchiveData {
+    public static final File DIRECTORY = new File("./Tickets/archive");
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+
+    private final Jdbi jdbi;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ArchiveData(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Moves the transcripts of up to {@code limit} tickets closed before {@code closedBefore} into the archives.
+     * Tickets whose close is still in progress are left alone.
+     *
+     * @return the number of archived tickets
+     */
+    public int archiveClosedBefore(long closedBefore, int limit) {
+        Map<String, List<Integer>> byMonth = new LinkedHashMap<>();
+        jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID, closedAt FROM tickets WHERE isOpen = false AND closedAt < ? AND archivedIn IS NULL AND transcriptPurgedAt IS NULL " +
+                        "AND ticketID NOT IN (SELECT ticketID FROM close_jobs WHERE stage != 'DONE') ORDER BY ticketID LIMIT ?")
+                .bind(0, closedBefore)
+                .bind(1, limit)
+                .map((r, columnNumber, ctx) -> Map.entry(MONTH.format(Instant.ofEpochSecond(r.getLong("closedAt"))), r.getInt("ticketID")))
+                .list())
+                .forEach(e -> byMonth.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(e.getValue()));
+
+        int archived = 0;
+        for (Map.Entry<String, List<Integer>> month : byMonth.entrySet()) {
+            DIRECTORY.mkdirs();
+            archived += jdbi.withHandle(handle -> {
+                attach(handle, month.getKey());
+                try {
+                    // only takes effect while the archive is empty, so the retention job can shrink it later
+                    handle.execute("PRAGMA archive.auto_vacuum = INCREMENTAL");
+                    handle.execute("CREATE TABLE IF NOT EXISTS archive.transcripts (ticketID INTEGER PRIMARY KEY NOT NULL, entries INTEGER NOT NULL, transcript BLOB NOT NULL, archivedAt BIGINT NOT NULL)");
+                    int count = 0;
+                    for (int ticketId : month.getValue()) {
+                        archive(handle, ticketId, month.getKey());
+                        count++;
+                    }
+                    return count;
+                } finally {
+                    handle.execute("DETACH DATABASE archive");
+                }
+            });
+        }
+        return archived;
+    }
+
+    /**
+     * Transactions over attached databases aren't atomic in WAL mode, so the archive row is committed first.
+     * If the hot rows can't be removed afterward, the next run archives the ticket again and replaces the row.
+     */
+    private void archive(Handle handle, int ticketId, String month) {
+        int[] entries = {0};
+        byte[] transcript = compress(handle, ticketId, entries);
+
+        handle.useTransaction(h -> h.createUpdate("INSERT OR REPLACE INTO archive.transcripts (ticketID, entries, transcript, archivedAt) VALUES (?, ?, ?, ?)")
+                .bind(0, ticketId)
+                .bind(1, entries[0])
+                .bind(2, transcript)
+                .bind(3, Instant.now().getEpochSecond())
+                .execute());
+        handle.useTransaction(h -> {
+            h.createUpdate("DELETE FROM edits WHERE messageID IN (SELECT messageID FROM messages WHERE ticketID = ?)").bind(0, ticketId).execute();
+            h.createUpdate("DELETE FROM messages WHERE ticketID = ?").bind(0, ticketId).execute();
+            h.createUpdate("DELETE FROM logs WHERE ticketID = ?").bind(0, ticketId).execute();
+            h.createUpdate("UPDATE tickets SET archivedIn = ? WHERE ticketID = ?").bind(0, month).bind(1, ticketId).execute();
+        });
+    }
+
+    private byte[] compress(Handle handle, int ticketId, int[] entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonGenerator json = mapper.getFactory().createGenerator(new GZIPOutputStream(bytes));
+             Stream<TranscriptData.OrderedRow> rows = handle.createQuery(TranscriptData.SELECT_ORDERED)
+                     .bind(0, ticketId)
+                     .bind(1, ticketId)
+                     .map(TranscriptData.OrderedRow::map)
+                     .stream()) {
+            json.writeStartArray();
+            ArchivedEntry current = null;
+            for (Iterator<TranscriptData.OrderedRow> iterator = rows.iterator(); iterator.hasNext(); ) {
+                TranscriptData.OrderedRow row = iterator.next();
+                if (current != null && !row.isLog() && !current.log() && current.id() == row.id() && row.edit() != null) {
+                    current.edits().add(new ArchivedEdit(row.edit(), row.timeEdited()));
+                    continue;
+                }
+                if (current != null) {
+                    mapper.writeValue(json, current);
+                    entries[0]++;
+                }
+                current = new ArchivedEntry(row.isLog(), row.id(), row.author(), row.authorId(), row.isBot(), row.content(), row.timestamp(),
+                        row.isDeleted(), new ArrayList<>(row.edit() != null ? 2 : 0));
+                if (row.edit() != null) {
+                    current.edits().add(new ArchivedEdit(row.edit(), row.timeEdited()));
+                }
+            }
+            if (current != null) {
+                mapper.writeValue(json, current);
+                entries[0]++;
+            }
+            json.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the archived transcript of a ticket entry by entry, does nothing if it isn't in the archive.
+     */
+    public void forEachEntry(String month, int ticketId, Consumer<ArchivedEntry> consumer) {
+        if (!archiveFile(month).exists()) {
+            log.warn("Archive {} of ticket #{} is missing", month, ticketId);
+            return;
+        }
+        byte[] transcript = jdbi.withHandle(handle -> {
+            attach(handle, month);
+            try {
+                return handle.createQuery("SELECT transcript FROM archive.transcripts WHERE ticketID = ?")
+                        .bind(0, ticketId)
+                        .mapTo(byte[].class)
+                        .findOne()
+                        .orElse(null);
+            } finally {
+                handle.execute("DETACH DATABASE archive");
+            }
+        });
+        if (transcript == null) return;
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(transcript));
+             JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) return;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(mapper.readValue(parser, ArchivedEntry.class));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the archived transcripts of the tickets and their search documents and shrinks the archive.
+     *
+     * @return the reclaimed bytes
+     */
+    public long purge(String month, List<Integer> ticketIds) {
+        return jdbi.withHandle(handle -> {
+            long now = Instant.now().getEpochSecond();
+            if (!archiveFile(month).exists()) {
+                handle.useTransaction(h -> ticketIds.forEach(ticketId -> {
+                    SearchIndex.removeTranscript(h, ticketId);
+                    RetentionJob.markPurged(h, ticketId, now);
+                }));
+                return 0L;
+            }
+            attach(handle, month);
+            try {
+                handle.useTransaction(h -> {
+                    for (int ticketId : ticketIds) {
+                        h.createUpdate("DELETE FROM archive.transcripts WHERE ticketID = ?").bind(0, ticketId).execute();
+                    }
+                });
+                handle.useTransaction(h -> ticketIds.forEach(ticketId -> {
+                    SearchIndex.removeTranscript(h, ticketId);
+                    RetentionJob.markPurged(h, ticketId, now);
+                }));
+                return RetentionJob.incrementalVacuum(handle, "archive");
+            } finally {
+                handle.execute("DETACH DATABASE archive");
+            }
+        });
+    }
+
+    /**
+     * @param authorNames gets the names of the authors
+     */
+    List<Message> loadMessages(String month, int ticketId, AuthorNames authorNames) {
+        List<Message> messages = new ArrayList<>();
+        forEachEntry(month, ticketId, entry -> {
+            long authorId = entry.log() ? 0 : authorNames.add(entry.authorId(), entry.author());
+            Message message = new Message(entry.id(), entry.content(), authorId, entry.timestamp());
+            message.setBot(entry.bot());
+            message.setDeleted(entry.deleted());
+            message.setStored(true);
+            for (ArchivedEdit edit : entry.edits()) {
+                message.addEdit(new Edit(edit.content(), edit.timestamp(), entry.id()));
+            }
+            messages.add(message);
+        });
+        return messages;
+    }
+
+    private static void attach(Handle handle, String month) {
+        if (!month.matches("\\d{4}-\\d{2}")) {
+            throw new IllegalArgumentException("Invalid archive " + month);
+        }
+        handle.execute("ATTACH DATABASE ? AS archive", archiveFile(month).getPath());
+    }
+
+    private static File archiveFile(String month) {
+        return new File(DIRECTORY, month + ".db");
+    }
+
+    /**
+     * A message or log entry, {@code edits} are in the order they were made.
+     */
+    public record ArchivedEntry(boolean log, long id, String author, long authorId, boolean bot, String content, long timestamp,
+                                boolean deleted, List<ArchivedEdit> edits) {}
+
+    public record ArchivedEdit(String content, long timestamp) {}
+}
@@ -0,0 +1,50 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.utils.LongObjectMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Author names of a transcript by author id, a ticket has few authors but many messages, which only keep the id.
+ * <p>
+ * Authors only known by name, those of messages stored before author ids were recorded and the keys of info entries,
+ * get negative ids which are only valid within the transcript. Log entries have the id {@code 0} and no name.
+ * Not thread-safe, the transcript guards it.
+ */
+final class AuthorNames {
+    private final LongObjectMap<String> names = new LongObjectMap<>(4);
+    private final Map<String, Long> nameOnly = new HashMap<>();
+
+    /**
+     * Remembers the name of an author, a later name of the same id replaces it.
+     *
+     * @param authorId the Discord id, {@code 0} if only the name is known
+     * @return the id to keep in the message
+     */
+    long add(long authorId, String name) {
+        if (authorId != 0) {
+            if (name != null) {
+                names.put(authorId, name);
+            }
+            return authorId;
+        }
+        if (name == null || name.isEmpty()) return 0;
+
+        Long id = nameOnly.get(name);
+        if (id == null) {
+            id = -(nameOnly.size() + 1L);
+            nameOnly.put(name, id);
+            names.put(id, name);
+        }
+        return id;
+    }
+
+    /**
+     * @return the name to write out, empty for log entries and unknown authors
+     */
+    String get(long authorId) {
+        String name = names.get(authorId);
+        return name == null ? "" : name;
+    }
+}
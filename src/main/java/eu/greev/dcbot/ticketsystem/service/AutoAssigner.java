@@ -0,0 +1,319 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.categories.ICategory;
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.OnlineStatus;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateOnlineStatusEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers or assigns new tickets to the online supporter of their category with the fewest open tickets.
+ * <p>
+ * Every category keeps a min-heap of its online supporters by open tickets, ties go to whoever was picked longest
+ * ago. Picking a supporter, a claim, a close and a supporter going offline or losing the role update the heaps in
+ * O(log n). Transfers aren't seen, the open tickets are recounted from the cached tickets every few minutes.
+ */
+@Slf4j
+public class AutoAssigner extends ListenerAdapter {
+    private static final long RESYNC_MINUTES = 5;
+
+    private final Config config;
+    private final JDA jda;
+    private final TicketService ticketService;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, LoadHeap> heaps = new HashMap<>();
+    private final Map<Long, Integer> openTickets = new HashMap<>();
+    private final Map<Long, Long> lastPicked = new HashMap<>();
+
+    public AutoAssigner(Config config, JDA jda, TicketService ticketService) {
+        this.config = config;
+        this.jda = jda;
+        this.ticketService = ticketService;
+    }
+
+    public void start() {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                resync();
+            } catch (Exception e) {
+                log.error("Could not resync the auto-assignment", e);
+            }
+        }, 0, RESYNC_MINUTES, TimeUnit.MINUTES);
+        log.info("Auto-assignment started in {} mode", config.getAutoAssignMode());
+    }
+
+    /**
+     * Recounts the open tickets of all supporters and rebuilds the heaps from the online members.
+     */
+    public synchronized void resync() {
+        openTickets.clear();
+        for (Ticket ticket : ticketService.getOpenCachedTickets()) {
+            if (ticket.getSupporter() != null && !ticket.isPendingRating()) {
+                openTickets.merge(ticket.getSupporter().getIdLong(), 1, Integer::sum);
+            }
+        }
+
+        heaps.clear();
+        Guild guild = jda.getGuildById(config.getServerId());
+        if (guild == null) return;
+        for (ICategory category : Main.CATEGORIES) {
+            LoadHeap heap = new LoadHeap();
+            heaps.put(category.getId(), heap);
+            for (Role role : supporterRoles(guild, category)) {
+                for (Member member : guild.getMembersWithRoles(role)) {
+                    if (isAvailable(member)) {
+                        heap.upsert(member.getIdLong(), load(member.getIdLong()), lastPicked.getOrDefault(member.getIdLong(), 0L));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers or assigns a new ticket, unless every online supporter of its category is at the limit.
+     */
+    public void ticketCreated(Ticket ticket) {
+        Member supporter = pick(ticket.getCategory());
+        if (supporter == null) return;
+
+        if ("assign".equalsIgnoreCase(config.getAutoAssignMode())) {
+            if (!ticketService.claim(ticket, supporter.getUser(), false)) {
+                released(supporter.getIdLong());
+                return;
+            }
+            EmbedBuilder builder = new EmbedBuilder()
+                    .setFooter(config.getServerName(), config.getServerLogo())
+                    .setColor(Color.decode(config.getColor()))
+                    .setAuthor(supporter.getUser().getName(), null, supporter.getUser().getEffectiveAvatarUrl())
+                    .addField("✅ **Ticket assigned**", "Your ticket will be handled by " + supporter.getAsMention(), false);
+            ticket.getTextChannel().sendMessageEmbeds(builder.build()).queue();
+        } else {
+            // an offer doesn't count as an open ticket, only as picked
+            released(supporter.getIdLong());
+            EmbedBuilder builder = new EmbedBuilder()
+                    .setColor(Color.decode(config.getColor()))
+                    .setDescription("🙋 **You have the fewest open tickets right now, please claim %s**".formatted(ticket.getTextChannel().getAsMention()));
+            ticket.getThreadChannel().addThreadMember(supporter).queue();
+            ticket.getThreadChannel().sendMessage(supporter.getAsMention()).setEmbeds(builder.build()).queue();
+        }
+    }
+
+    private synchronized Member pick(ICategory category) {
+        LoadHeap heap = heaps.get(category.getId());
+        Guild guild = jda.getGuildById(config.getServerId());
+        while (heap != null && guild != null && heap.size() > 0) {
+            long id = heap.peek();
+            if (heap.peekLoad() >= config.getAutoAssignMaxOpen()) return null;
+            Member member = guild.getMemberById(id);
+            if (member == null || !isAvailable(member)) {
+                // missed the update, left the guild
+                removeEverywhere(id);
+                continue;
+            }
+            lastPicked.put(id, System.currentTimeMillis());
+            openTickets.merge(id, 1, Integer::sum);
+            updateEverywhere(id);
+            return member;
+        }
+        return null;
+    }
+
+    /**
+     * Called when a supporter claimed a ticket, {@code previous} is the supporter it had before, if any.
+     */
+    public synchronized void claimed(Long previous, long supporter) {
+        if (previous != null) {
+            released(previous);
+        }
+        openTickets.merge(supporter, 1, Integer::sum);
+        updateEverywhere(supporter);
+    }
+
+    /**
+     * Called when a ticket of the supporter was closed.
+     */
+    public synchronized void released(long supporter) {
+        openTickets.computeIfPresent(supporter, (id, count) -> count > 1 ? count - 1 : null);
+        updateEverywhere(supporter);
+    }
+
+    @Override
+    public void onUserUpdateOnlineStatus(@NotNull UserUpdateOnlineStatusEvent event) {
+        if (event.getGuild().getIdLong() == config.getServerId()) {
+            refresh(event.getMember());
+        }
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(@NotNull GuildMemberRoleAddEvent event) {
+        if (event.getGuild().getIdLong() == config.getServerId()) {
+            refresh(event.getMember());
+        }
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(@NotNull GuildMemberRoleRemoveEvent event) {
+        if (event.getGuild().getIdLong() == config.getServerId()) {
+            refresh(event.getMember());
+        }
+    }
+
+    private synchronized void refresh(Member member) {
+        long id = member.getIdLong();
+        boolean available = isAvailable(member);
+        for (ICategory category : Main.CATEGORIES) {
+            LoadHeap heap = heaps.get(category.getId());
+            if (heap == null) continue;
+            boolean eligible = available && supporterRoles(member.getGuild(), category).stream().anyMatch(member.getRoles()::contains);
+            if (eligible) {
+                heap.upsert(id, load(id), lastPicked.getOrDefault(id, 0L));
+            } else {
+                heap.remove(id);
+            }
+        }
+    }
+
+    private void updateEverywhere(long id) {
+        for (LoadHeap heap : heaps.values()) {
+            if (heap.contains(id)) {
+                heap.upsert(id, load(id), lastPicked.getOrDefault(id, 0L));
+            }
+        }
+    }
+
+    private void removeEverywhere(long id) {
+        for (LoadHeap heap : heaps.values()) {
+            heap.remove(id);
+        }
+    }
+
+    private int load(long id) {
+        return openTickets.getOrDefault(id, 0);
+    }
+
+    private boolean isAvailable(Member member) {
+        return !member.getUser().isBot() && member.getOnlineStatus() == OnlineStatus.ONLINE;
+    }
+
+    private List<Role> supporterRoles(Guild guild, ICategory category) {
+        List<Long> ids = config.getCategoryRoles().get(category.getId());
+        if (ids == null) {
+            Role staff = guild.getRoleById(config.getStaffId());
+            return staff == null ? List.of() : List.of(staff);
+        }
+        return ids.stream().map(guild::getRoleById).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Min-heap of supporters by open tickets, then by the time they were picked last. Knows the position of every
+     * supporter, so one can be updated or removed in O(log n).
+     */
+    static final class LoadHeap {
+        private long[] ids = new long[16];
+        private int[] loads = new int[16];
+        private long[] picked = new long[16];
+        private final Map<Long, Integer> positions = new HashMap<>();
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long id) {
+            return positions.containsKey(id);
+        }
+
+        long peek() {
+            return ids[0];
+        }
+
+        int peekLoad() {
+            return loads[0];
+        }
+
+        void upsert(long id, int load, long pickedAt) {
+            Integer position = positions.get(id);
+            if (position == null) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    loads = Arrays.copyOf(loads, size * 2);
+                    picked = Arrays.copyOf(picked, size * 2);
+                }
+                position = size++;
+            }
+            set(position, id, load, pickedAt);
+            siftDown(siftUp(position));
+        }
+
+        void remove(long id) {
+            Integer position = positions.remove(id);
+            if (position == null) return;
+            size--;
+            if (position == size) return;
+            set(position, ids[size], loads[size], picked[size]);
+            siftDown(siftUp(position));
+        }
+
+        private int siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (!less(position, parent)) break;
+                swap(position, parent);
+                position = parent;
+            }
+            return position;
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                int left = 2 * position + 1;
+                if (left < size && less(left, smallest)) smallest = left;
+                if (left + 1 < size && less(left + 1, smallest)) smallest = left + 1;
+                if (smallest == position) return;
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private boolean less(int a, int b) {
+            return loads[a] != loads[b] ? loads[a] < loads[b] : picked[a] < picked[b];
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            int load = loads[a];
+            long pickedAt = picked[a];
+            set(a, ids[b], loads[b], picked[b]);
+            set(b, id, load, pickedAt);
+        }
+
+        private void set(int position, long id, int load, long pickedAt) {
+            ids[position] = id;
+            loads[position] = load;
+            picked[position] = pickedAt;
+            positions.put(id, position);
+        }
+    }
+}
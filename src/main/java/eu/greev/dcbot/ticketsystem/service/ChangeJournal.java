@@ -0,0 +1,343 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.Message;
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of transcript changes, ticket events and ticket writes which aren't in the database yet.
+ * <p>
+ * Changes are appended to the current segment file in {@code ./Tickets/journal} when they happen and a background
+ * thread syncs the file to disk every few milliseconds, so many changes share one fsync. Segments are sealed before
+ * every transcript flush and deleted once their transcript changes are flushed and their ticket writes went through.
+ * Whatever is left after a crash is replayed into the database before the bot goes online.
+ * <p>
+ * A record is framed as {@code [length][crc32][json]}, a torn record at the end of a segment ends its replay.
+ */
+@Slf4j
+public class ChangeJournal {
+    private static final long SYNC_INTERVAL_MILLIS = 20;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "change-journal-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // ticket writes per segment which aren't in the database yet
+    private final Map<Long, AtomicInteger> pendingWrites = new ConcurrentHashMap<>();
+
+    private FileChannel channel;
+    private long segment;
+    private boolean unsynced;
+    // transcript changes of this and all older segments are in the database
+    private volatile long flushedSegment = -1;
+
+    public ChangeJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Applies the records left by the last run to the database, removes their segments and opens a new segment.
+     * Must be called once before anything is appended.
+     */
+    public void replay(Jdbi jdbi) throws IOException {
+        directory.mkdirs();
+        List<Long> segments = listSegments();
+        List<Entry> entries = new ArrayList<>();
+        for (long id : segments) {
+            readSegment(id, entries);
+        }
+
+        if (!entries.isEmpty()) {
+            TranscriptData transcriptData = new TranscriptData(jdbi, this);
+            TicketEventData eventData = new TicketEventData(jdbi, this);
+            // a ticket write is a snapshot of the whole row, only the newest one per ticket is applied so an older
+            // snapshot can't roll back what a newer one wrote
+            Map<Integer, Integer> newestTicket = new HashMap<>();
+            Map<Integer, Integer> newestParticipants = new HashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.type() == Type.TICKET) {
+                    newestTicket.put(entry.ticketId(), i);
+                    newestParticipants.put(entry.ticketId(), i);
+                } else if (entry.type() == Type.PARTICIPANTS) {
+                    newestParticipants.put(entry.ticketId(), i);
+                }
+            }
+            jdbi.useTransaction(handle -> {
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    switch (entry.type()) {
+                        case TICKET -> {
+                            if (newestTicket.get(entry.ticketId()) == i) {
+                                TicketData.replayTicket(handle, entry.ticketId(), entry.columns());
+                            }
+                        }
+                        case PARTICIPANTS -> {
+                            if (newestParticipants.get(entry.ticketId()) == i) {
+                                TicketData.updateParticipants(handle, entry.ticketId(), entry.content());
+                            }
+                        }
+                        case MEMBER_ADDED, MEMBER_REMOVED -> TicketData.replayMember(handle, entry);
+                        case EVENT -> eventData.replay(handle, entry);
+                        default -> transcriptData.replay(handle, entry);
+                    }
+                }
+            });
+            log.info("Replayed {} journaled changes from {} segments", entries.size(), segments.size());
+        }
+
+        for (long id : segments) {
+            Files.deleteIfExists(segmentPath(id));
+        }
+        synchronized (this) {
+            segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+            channel = openSegment(segment);
+        }
+        syncer.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a record. It is on disk after the next sync, at most {@value SYNC_INTERVAL_MILLIS}ms later.
+     *
+     * @return the segment of the record, or {@code -1} if it couldn't be written
+     */
+    public synchronized long append(Entry entry) {
+        try {
+            byte[] json = mapper.writeValueAsBytes(entry);
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            ByteBuffer buffer = ByteBuffer.allocate(8 + json.length)
+                    .putInt(json.length)
+                    .putInt((int) crc.getValue())
+                    .put(json)
+                    .flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unsynced = true;
+            return segment;
+        } catch (IOException e) {
+            log.error("Could not journal {} of ticket #{}", entry.type(), entry.ticketId(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Appends a ticket write, call {@link #release(long)} with the returned segment once it is in the database.
+     */
+    public synchronized long appendTicketWrite(Entry entry) {
+        long id = append(entry);
+        if (id >= 0) {
+            pendingWrites.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+        }
+        return id;
+    }
+
+    public void release(long segmentId) {
+        if (segmentId < 0) return;
+        AtomicInteger pending = pendingWrites.get(segmentId);
+        if (pending != null && pending.decrementAndGet() <= 0) {
+            deleteFinishedSegments();
+        }
+    }
+
+    /**
+     * Seals the current segment and starts a new one.
+     *
+     * @return the sealed segment, pass it to {@link #transcriptsFlushed(long)} after all transcripts were flushed
+     */
+    public synchronized long rotate() {
+        long sealed = segment;
+        try {
+            channel.force(false);
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            unsynced = false;
+        } catch (IOException e) {
+            log.error("Could not rotate journal segment {}", sealed, e);
+        }
+        return sealed;
+    }
+
+    public void transcriptsFlushed(long sealedSegment) {
+        flushedSegment = Math.max(flushedSegment, sealedSegment);
+        deleteFinishedSegments();
+    }
+
+    /**
+     * Syncs the journal and stops the background sync.
+     */
+    public synchronized void close() {
+        syncer.shutdownNow();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Could not close journal", e);
+        }
+    }
+
+    private void sync() {
+        FileChannel current;
+        synchronized (this) {
+            if (!unsynced) return;
+            unsynced = false;
+            current = channel;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // rotated in the meantime, which synced it already
+        } catch (IOException e) {
+            log.error("Could not sync journal", e);
+        }
+    }
+
+    private void deleteFinishedSegments() {
+        long current;
+        synchronized (this) {
+            current = segment;
+        }
+        for (long id : listSegments()) {
+            if (id >= current || id > flushedSegment) continue;
+            AtomicInteger pending = pendingWrites.get(id);
+            if (pending != null && pending.get() > 0) continue;
+            try {
+                Files.deleteIfExists(segmentPath(id));
+                pendingWrites.remove(id);
+            } catch (IOException e) {
+                log.warn("Could not delete journal segment {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    private void readSegment(long id, List<Entry> entries) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(id)));
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                log.warn("Journal segment {} ends with a torn record, skipping the rest", id);
+                return;
+            }
+            byte[] json = new byte[length];
+            buffer.get(json);
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Journal segment {} has a corrupt record, skipping the rest", id);
+                return;
+            }
+            entries.add(mapper.readValue(json, Entry.class));
+        }
+    }
+
+    private List<Long> listSegments() {
+        String[] names = directory.list((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (names == null) return List.of();
+        List<Long> segments = new ArrayList<>(names.length);
+        for (String name : names) {
+            try {
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+                // not a segment
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private FileChannel openSegment(long id) throws IOException {
+        return FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.toPath().resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    public enum Type {
+        MESSAGE,
+        LOG,
+        EDIT,
+        DELETE,
+        TICKET,
+        PARTICIPANTS,
+        MEMBER_ADDED,
+        MEMBER_REMOVED,
+        EVENT
+    }
+
+    /**
+     * A journaled change. Only the fields of its {@link Type} are set, events carry their id as {@code messageId}
+     * and like members their user as {@code authorId}.
+     */
+    public record Entry(Type type, int ticketId, long messageId, String content, String author, long authorId,
+                        boolean bot, long timestamp, List<Object> columns) {
+
+        /**
+         * @param author the name the message is written out with
+         */
+        public static Entry message(Message message, String author, int ticketId) {
+            // authors only known by name have an id within their transcript, which can't be stored
+            return new Entry(message.isLog() ? Type.LOG : Type.MESSAGE, ticketId, message.getId(), message.getOriginalContent(),
+                    author, Math.max(0, message.getAuthorId()), message.isBot(), message.getTimestamp(), null);
+        }
+
+        public static Entry edit(Edit edit) {
+            return new Entry(Type.EDIT, 0, edit.messageId(), edit.edit(), null, 0, false, edit.timeEdited(), null);
+        }
+
+        public static Entry delete(long messageId) {
+            return new Entry(Type.DELETE, 0, messageId, null, null, 0, false, 0, null);
+        }
+
+        static Entry ticket(int ticketId, List<Object> columns) {
+            return new Entry(Type.TICKET, ticketId, 0, null, null, 0, false, 0, columns);
+        }
+
+        static Entry participants(int ticketId, String json) {
+            return new Entry(Type.PARTICIPANTS, ticketId, 0, json, null, 0, false, 0, null);
+        }
+
+        static Entry memberAdded(int ticketId, long userId, String role, long addedAt) {
+            return new Entry(Type.MEMBER_ADDED, ticketId, 0, role, null, userId, false, addedAt, null);
+        }
+
+        static Entry memberRemoved(int ticketId, long userId) {
+            return new Entry(Type.MEMBER_REMOVED, ticketId, 0, null, null, userId, false, 0, null);
+        }
+
+        static Entry event(long eventId, TicketEvent event) {
+            return new Entry(Type.EVENT, event.ticketId(), eventId, event.type().name(), null, event.userId() == null ? 0 : event.userId(),
+                    false, event.time(), null);
+        }
+    }
+}
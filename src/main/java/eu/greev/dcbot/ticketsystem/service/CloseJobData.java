@@ -0,0 +1,90 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
+import eu.greev.dcbot.ticketsystem.entities.CloseStage;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+public class CloseJobData {
+    private final Jdbi jdbi;
+
+    public CloseJobData(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Persists a new close job.
+     *
+     * @return false if the ticket already has an unfinished close job
+     */
+    public boolean insertJob(CloseJob job) {
+        long now = Instant.now().getEpochSecond();
+        return jdbi.withHandle(handle -> handle.createUpdate(
+                        "INSERT INTO close_jobs (ticketID, stage, closerID, message, awardXp, ratingOutcome, rating, ratingMessage, createdAt, updatedAt) " +
+                                "VALUES (?,?,?,?,?,?,?,?,?,?) " +
+                                "ON CONFLICT(ticketID) DO UPDATE SET stage=excluded.stage, closerID=excluded.closerID, message=excluded.message, " +
+                                "awardXp=excluded.awardXp, ratingOutcome=excluded.ratingOutcome, rating=excluded.rating, ratingMessage=excluded.ratingMessage, " +
+                                "transcriptUrl=NULL, attempts=0, lastError=NULL, createdAt=excluded.createdAt, updatedAt=excluded.updatedAt " +
+                                "WHERE close_jobs.stage = 'DONE'")
+                .bind(0, job.getTicketId())
+                .bind(1, job.getStage().name())
+                .bind(2, job.getCloserId())
+                .bind(3, job.getMessage())
+                .bind(4, job.isAwardXp())
+                .bind(5, job.getRatingOutcome().name())
+                .bind(6, job.getRating())
+                .bind(7, job.getRatingMessage())
+                .bind(8, job.getCreatedAt())
+                .bind(9, now)
+                .execute() > 0);
+    }
+
+    public void updateJob(CloseJob job) {
+        jdbi.useHandle(handle -> updateJob(handle, job));
+    }
+
+    public void updateJob(Handle handle, CloseJob job) {
+        handle.createUpdate("UPDATE close_jobs SET stage=?, transcriptUrl=?, attempts=?, lastError=?, updatedAt=? WHERE ticketID=?")
+                .bind(0, job.getStage().name())
+                .bind(1, job.getTranscriptUrl())
+                .bind(2, job.getAttempts())
+                .bind(3, job.getLastError())
+                .bind(4, Instant.now().getEpochSecond())
+                .bind(5, job.getTicketId())
+                .execute();
+    }
+
+    public List<CloseJob> getUnfinishedJobs() {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT * FROM close_jobs WHERE stage != 'DONE' ORDER BY createdAt")
+                .map((rs, ctx) -> {
+                    int rating = rs.getInt("rating");
+                    boolean ratingWasNull = rs.wasNull();
+                    return CloseJob.builder()
+                            .ticketId(rs.getInt("ticketID"))
+                            .stage(CloseStage.valueOf(rs.getString("stage")))
+                            .closerId(rs.getString("closerID"))
+                            .message(rs.getString("message"))
+                            .awardXp(rs.getBoolean("awardXp"))
+                            .ratingOutcome(CloseJob.RatingOutcome.valueOf(rs.getString("ratingOutcome")))
+                            .rating(ratingWasNull ? null : rating)
+                            .ratingMessage(rs.getString("ratingMessage"))
+                            .transcriptUrl(rs.getString("transcriptUrl"))
+                            .attempts(rs.getInt("attempts"))
+                            .lastError(rs.getString("lastError"))
+                            .createdAt(rs.getLong("createdAt"))
+                            .build();
+                })
+                .list());
+    }
+
+    public int deleteFinishedJobs(int olderThanDays) {
+        long before = Instant.now().minus(olderThanDays, ChronoUnit.DAYS).getEpochSecond();
+        return jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM close_jobs WHERE stage = 'DONE' AND updatedAt < ?")
+                .bind(0, before)
+                .execute());
+    }
+}
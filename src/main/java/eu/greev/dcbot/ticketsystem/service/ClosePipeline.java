@@ -0,0 +1,287 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
+import eu.greev.dcbot.ticketsystem.entities.CloseStage;
+import eu.greev.dcbot.ticketsystem.entities.OutboxEntry;
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.User;
+import org.jdbi.v3.core.Jdbi;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes ticket closes in the background.
+ * <p>
+ * A close is persisted as a row in {@code close_jobs} and then walks through the {@link CloseStage}s. The
+ * stage is written back after every step, so a failing stage is retried with a backoff and a restart
+ * resumes the job where it stopped instead of leaving a half-closed ticket behind. A stage which keeps failing
+ * parks the job at that stage and is only tried once an hour, the later stages never run without it.
+ * <p>
+ * The transcript upload is the one step Discord can't take back. Its url is kept on the job once it is done, and a
+ * job which may have uploaded before a crash looks for the upload in the log channel before uploading again.
+ * <p>
+ * Messages and XP awards of a stage are written to the outbox in the same transaction as the stage
+ * advance and delivered by the {@link OutboxDispatcher}.
+ */
+@Slf4j
+public class ClosePipeline {
+    private static final int WORKERS = 4;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_SECONDS = 5;
+    private static final long MAX_BACKOFF_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+    private static final long PARK_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final long UPLOAD_TIMEOUT_SECONDS = TimeUnit.MINUTES.toSeconds(2);
+
+    private final TicketService ticketService;
+    private final Jdbi jdbi;
+    private final CloseJobData closeJobData;
+    private final OutboxDispatcher outboxDispatcher;
+    private final XpService xpService;
+    private final SupporterSettingsData supporterSettingsData;
+    private final Config config;
+    private final JDA jda;
+    private final ScheduledExecutorService workers = Executors.newScheduledThreadPool(WORKERS);
+    private final Set<Integer> running = ConcurrentHashMap.newKeySet();
+
+    public ClosePipeline(TicketService ticketService, Jdbi jdbi, CloseJobData closeJobData, OutboxDispatcher outboxDispatcher, XpService xpService, SupporterSettingsData supporterSettingsData, Config config, JDA jda) {
+        this.ticketService = ticketService;
+        this.jdbi = jdbi;
+        this.closeJobData = closeJobData;
+        this.outboxDispatcher = outboxDispatcher;
+        this.xpService = xpService;
+        this.supporterSettingsData = supporterSettingsData;
+        this.config = config;
+        this.jda = jda;
+    }
+
+    /**
+     * Persists the job and schedules it. Closing a ticket which is already being closed does nothing.
+     */
+    public void submit(CloseJob job) {
+        if (!closeJobData.insertJob(job)) {
+            log.debug("Ticket #{} is already being closed", job.getTicketId());
+            return;
+        }
+        schedule(job, 0);
+    }
+
+    /**
+     * Picks up all jobs which didn't finish before the last shutdown.
+     */
+    public void resumePending() {
+        int purged = closeJobData.deleteFinishedJobs(7);
+        List<CloseJob> jobs = closeJobData.getUnfinishedJobs();
+        if (!jobs.isEmpty() || purged > 0) {
+            log.info("Resuming {} unfinished ticket closes, purged {} finished close jobs", jobs.size(), purged);
+        }
+        jobs.forEach(job -> {
+            job.setAttempts(0);
+            schedule(job, 0);
+        });
+    }
+
+    private void schedule(CloseJob job, long delaySeconds) {
+        workers.schedule(() -> run(job), delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void run(CloseJob job) {
+        if (!running.add(job.getTicketId())) {
+            return;
+        }
+        boolean uploading = false;
+        try {
+            Ticket ticket = ticketService.getTicketByTicketId(job.getTicketId());
+            if (ticket == null) {
+                log.warn("Ticket #{} of close job at stage {} doesn't exist anymore, dropping job", job.getTicketId(), job.getStage());
+                job.setStage(CloseStage.DONE);
+                job.setLastError("Ticket not found");
+                closeJobData.updateJob(job);
+                return;
+            }
+            User closer = jda.retrieveUserById(job.getCloserId()).complete();
+
+            while (job.getStage() != CloseStage.DONE) {
+                List<OutboxEntry> effects = new ArrayList<>();
+                try {
+                    if (job.getStage() == CloseStage.RENDER_TRANSCRIPT && job.getTranscriptUrl() == null) {
+                        // the upload doesn't hold a worker, the job stays running and continues once it is done
+                        ticketService.findTranscriptUpload(ticket)
+                                .thenComposeAsync(url -> url != null ? CompletableFuture.completedFuture(url) : upload(ticket), workers)
+                                .orTimeout(UPLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                                .whenCompleteAsync((url, error) -> uploaded(job, url, error), workers);
+                        uploading = true;
+                        return;
+                    }
+                    execute(job.getStage(), job, ticket, closer, effects);
+                } catch (Exception e) {
+                    failed(job, e);
+                    return;
+                }
+                advance(job, effects);
+            }
+            log.debug("Finished closing ticket #{}", job.getTicketId());
+        } catch (Exception e) {
+            // e.g. the closer couldn't be retrieved or the stage couldn't be saved
+            failed(job, e);
+        } finally {
+            if (!uploading) {
+                running.remove(job.getTicketId());
+            }
+        }
+    }
+
+    private void uploaded(CloseJob job, String transcriptUrl, Throwable error) {
+        running.remove(job.getTicketId());
+        if (error != null) {
+            failed(job, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            return;
+        }
+        // kept on the job even if it can't be saved now, the retry doesn't upload again
+        job.setTranscriptUrl(transcriptUrl);
+        try {
+            advance(job, List.of());
+        } catch (Exception e) {
+            failed(job, e);
+            return;
+        }
+        run(job);
+    }
+
+    private CompletableFuture<String> upload(Ticket ticket) {
+        try {
+            return ticketService.sendTranscript(ticket);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Moves the job to the next stage, the job keeps its stage in memory if that can't be saved.
+     */
+    private void advance(CloseJob job, List<OutboxEntry> effects) {
+        CloseStage stage = job.getStage();
+        int attempts = job.getAttempts();
+        job.setStage(stage.next());
+        job.setAttempts(0);
+        try {
+            jdbi.useTransaction(handle -> {
+                outboxDispatcher.enqueue(handle, effects);
+                closeJobData.updateJob(handle, job);
+            });
+        } catch (RuntimeException e) {
+            job.setStage(stage);
+            job.setAttempts(attempts);
+            throw e;
+        }
+        if (!effects.isEmpty()) {
+            outboxDispatcher.wakeUp();
+        }
+    }
+
+    private void failed(CloseJob job, Throwable e) {
+        job.setAttempts(job.getAttempts() + 1);
+        job.setLastError(e.getClass().getSimpleName() + ": " + e.getMessage());
+
+        long backoff;
+        if (job.getAttempts() < MAX_ATTEMPTS) {
+            backoff = Math.min(MAX_BACKOFF_SECONDS, BASE_BACKOFF_SECONDS << (job.getAttempts() - 1));
+            log.warn("Close stage {} of ticket #{} failed (attempt {}/{}), retrying in {}s: {}", job.getStage(), job.getTicketId(), job.getAttempts(), MAX_ATTEMPTS, backoff, e.getMessage());
+        } else {
+            backoff = PARK_SECONDS;
+            if (job.getAttempts() == MAX_ATTEMPTS) {
+                log.error("Close stage {} of ticket #{} failed {} times, parking the job and retrying it every {}s", job.getStage(), job.getTicketId(), MAX_ATTEMPTS, PARK_SECONDS, e);
+            } else {
+                log.warn("Parked close stage {} of ticket #{} failed again: {}", job.getStage(), job.getTicketId(), e.getMessage());
+            }
+        }
+        try {
+            closeJobData.updateJob(job);
+        } catch (Exception saveError) {
+            log.error("Could not save the failed close job of ticket #{}", job.getTicketId(), saveError);
+        }
+        schedule(job, backoff);
+    }
+
+    private void execute(CloseStage stage, CloseJob job, Ticket ticket, User closer, List<OutboxEntry> effects) {
+        switch (stage) {
+            case FINALIZE_STATE -> ticketService.finalizeClosedState(ticket, job, closer);
+            // uploaded by run, only reached with the url of an upload which couldn't be saved yet
+            case RENDER_TRANSCRIPT -> {}
+            case NOTIFY -> {
+                effects.addAll(ticketService.closeNotifications(ticket, job, closer));
+                effects.addAll(ratingNotifications(ticket, job));
+            }
+            case AWARD_XP -> {
+                String request = job.isAwardXp() ? xpService.buildAwardRequest(ticket, job.getRating(), job.getTranscriptUrl()) : null;
+                if (request != null) {
+                    effects.add(OutboxDispatcher.xpAward("xp-award:%d:%d".formatted(ticket.getId(), job.getCreatedAt()), request));
+                }
+            }
+            case DELETE_CHANNEL -> ticketService.deleteTicketChannel(ticket);
+            case DONE -> {}
+        }
+    }
+
+    private List<OutboxEntry> ratingNotifications(Ticket ticket, CloseJob job) {
+        if (job.getRatingOutcome() == CloseJob.RatingOutcome.NONE || ticket.getSupporter() == null) {
+            return List.of();
+        }
+        if (config.getRatingNotificationChannels() == null || config.getRatingNotificationChannels().isEmpty()) {
+            return List.of();
+        }
+
+        // Check privacy setting for supporter
+        boolean hideStats = supporterSettingsData.isHideStats(ticket.getSupporter().getId());
+        String displayName = hideStats ? "Anonym" : ticket.getSupporter().getAsMention();
+        String thumbnailUrl = hideStats ? null : ticket.getSupporter().getEffectiveAvatarUrl();
+
+        EmbedBuilder notification = new EmbedBuilder()
+                .setTitle("Ticket #" + ticket.getId() + " closed")
+                .setFooter(config.getServerName(), config.getServerLogo());
+
+        if (job.getRatingOutcome() == CloseJob.RatingOutcome.RATED) {
+            int stars = job.getRating();
+            String message = job.getRatingMessage();
+            String displayStars = hideStats ? "???" : stars + " Sterne";
+            String displayStarIcons = hideStats ? "★★★★★" : SupporterRatingStatsHelper.starDisplay(stars);
+            String feedback = (message != null && !message.isBlank()) ? message : "Kein Feedback";
+
+            notification.setColor(getRatingColor(stars))
+                    .setDescription(displayName + " hat **" + displayStars + "** " + displayStarIcons + " erhalten und ein Ticket gelöst!")
+                    .addField("Feedback", hideStats ? "Versteckt" : feedback, false);
+        } else {
+            notification.setColor(Color.GRAY)
+                    .setDescription(displayName + " hat ein Ticket gelöst! *(Keine Bewertung)*");
+        }
+
+        if (thumbnailUrl != null) {
+            notification.setThumbnail(thumbnailUrl);
+        }
+
+        return ticketService.ratingNotifications(job.getTranscriptUrl(), ticket, job, notification);
+    }
+
+    private Color getRatingColor(int stars) {
+        if (stars >= 4) {
+            return Color.GREEN;
+        } else if (stars == 3) {
+            return Color.YELLOW;
+        } else {
+            return Color.RED;
+        }
+    }
+}
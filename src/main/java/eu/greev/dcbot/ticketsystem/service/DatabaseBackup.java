@@ -0,0 +1,194 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Jdbi;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Online backups of the database and its monthly {@link ArchiveData archives} while the bot keeps writing.
+ * <p>
+ * A backup is a consistent snapshot written with {@code VACUUM INTO}. In WAL mode it reads from a snapshot and
+ * never blocks writers, unlike the page-stepped backup API, which starts over whenever another connection writes.
+ * Every database is gzipped into {@code ./Tickets/backups}, the archives as
+ * {@code tickets-<time>-archive-<month>.db.gz} beside the main {@code tickets-<time>.db.gz}, and only the newest
+ * backups are kept.
+ */
+@Slf4j
+public class DatabaseBackup {
+    private static final String PREFIX = "tickets-";
+    private static final String ARCHIVE_INFIX = "-archive-";
+    private static final String SUFFIX = ".db.gz";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int TIME_LENGTH = 15;
+
+    private final Jdbi jdbi;
+    private final File directory;
+    private final File archiveDirectory;
+
+    public DatabaseBackup(Jdbi jdbi) {
+        this(jdbi, new File("./Tickets/backups"), ArchiveData.DIRECTORY);
+    }
+
+    DatabaseBackup(Jdbi jdbi, File directory, File archiveDirectory) {
+        this.jdbi = jdbi;
+        this.directory = directory;
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    /**
+     * Writes a compressed backup of the database and every archive, then deletes all but the newest {@code keep}
+     * backups.
+     *
+     * @return the backup files, the main database first
+     */
+    public List<File> backup(int keep) throws IOException {
+        directory.mkdirs();
+        String name = PREFIX + LocalDateTime.now().format(NAME_FORMAT);
+        List<File> files = new ArrayList<>();
+        files.add(snapshot(name, null));
+        File[] archives = archiveDirectory.listFiles((dir, file) -> file.endsWith(".db"));
+        if (archives != null) {
+            Arrays.sort(archives);
+            for (File archive : archives) {
+                files.add(snapshot(name + ARCHIVE_INFIX + archive.getName().substring(0, archive.getName().length() - 3), archive));
+            }
+        }
+
+        rotate(keep);
+        return files;
+    }
+
+    /**
+     * @param archive the archive to back up, {@code null} for the main database
+     */
+    private File snapshot(String name, File archive) throws IOException {
+        File snapshot = new File(directory, name + ".db.tmp");
+        File backup = new File(directory, name + SUFFIX);
+        Files.deleteIfExists(snapshot.toPath());
+
+        long start = System.nanoTime();
+        try {
+            jdbi.useHandle(handle -> {
+                if (archive == null) {
+                    handle.createUpdate("VACUUM INTO ?").bind(0, snapshot.getPath()).execute();
+                    return;
+                }
+                handle.execute("ATTACH DATABASE ? AS backup_archive", archive.getPath());
+                try {
+                    handle.createUpdate("VACUUM backup_archive INTO ?").bind(0, snapshot.getPath()).execute();
+                } finally {
+                    handle.execute("DETACH DATABASE backup_archive");
+                }
+            });
+            long snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+
+            Path temp = Files.createTempFile(directory.toPath(), name, ".tmp");
+            try (InputStream in = Files.newInputStream(snapshot.toPath());
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            Files.move(temp, backup.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            log.info("Backed up {} KiB to {} ({} KiB compressed) in {}ms, snapshot {}ms, {} MiB/s",
+                    snapshot.length() / 1024, backup.getName(), backup.length() / 1024, millis, snapshotMillis,
+                    "%.1f".formatted(snapshot.length() / (1024.0 * 1024.0) / (millis / 1000.0)));
+        } finally {
+            Files.deleteIfExists(snapshot.toPath());
+        }
+        return backup;
+    }
+
+    /**
+     * @return when the newest backup was written, {@code null} if there is none
+     */
+    public Instant newestBackup() {
+        File[] backups = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (backups == null) return null;
+        return Arrays.stream(backups)
+                .map(File::lastModified)
+                .max(Comparator.naturalOrder())
+                .map(Instant::ofEpochMilli)
+                .orElse(null);
+    }
+
+    private void rotate(int keep) {
+        File[] backups = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (backups == null) return;
+        // the time in the name sorts like the time, the archives belong to the backup of the same time
+        List<String> times = Arrays.stream(backups)
+                .map(file -> file.getName().substring(PREFIX.length(), PREFIX.length() + TIME_LENGTH))
+                .distinct()
+                .sorted()
+                .toList();
+        if (times.size() <= keep) return;
+        Set<String> old = new HashSet<>(times.subList(0, times.size() - Math.max(1, keep)));
+        for (File file : backups) {
+            if (!old.contains(file.getName().substring(PREFIX.length(), PREFIX.length() + TIME_LENGTH))) continue;
+            if (file.delete()) {
+                log.info("Deleted old backup {}", file.getName());
+            } else {
+                log.warn("Could not delete old backup {}", file.getName());
+            }
+        }
+    }
+
+    /**
+     * Restores the backup into a temporary file and checks it with {@code PRAGMA integrity_check}.
+     *
+     * @return {@code true} if the backup is intact
+     */
+    public static boolean verify(File backup) throws IOException {
+        Path restored = Files.createTempFile("ticket-backup-", ".db");
+        try {
+            try (InputStream in = backup.getName().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(backup.toPath())) : Files.newInputStream(backup.toPath());
+                 OutputStream out = Files.newOutputStream(restored)) {
+                in.transferTo(out);
+            }
+
+            SQLiteDataSource ds = new SQLiteDataSource();
+            ds.setUrl("jdbc:sqlite:" + restored);
+            List<String> problems = Jdbi.create(ds).withHandle(handle -> handle.createQuery("PRAGMA integrity_check")
+                    .mapTo(String.class)
+                    .list());
+            if (problems.size() != 1 || !problems.get(0).equals("ok")) {
+                problems.forEach(problem -> log.error("{}: {}", backup.getName(), problem));
+                return false;
+            }
+
+            Jdbi.create(ds).useHandle(handle -> {
+                if (backup.getName().contains(ARCHIVE_INFIX)) {
+                    log.info("{} is intact: {} archived transcripts", backup.getName(),
+                            handle.createQuery("SELECT COUNT(*) FROM transcripts").mapTo(Long.class).one());
+                } else {
+                    log.info("{} is intact: {} tickets, {} messages, {} ratings", backup.getName(),
+                            handle.createQuery("SELECT COUNT(*) FROM tickets").mapTo(Long.class).one(),
+                            handle.createQuery("SELECT COUNT(*) FROM messages").mapTo(Long.class).one(),
+                            handle.createQuery("SELECT COUNT(*) FROM ratings").mapTo(Long.class).one());
+                }
+            });
+            return true;
+        } finally {
+            Files.deleteIfExists(restored);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.categories.ICategory;
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
+import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.MinHash;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import org.jdbi.v3.core.Jdbi;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Finds earlier tickets with nearly the same info as a new one, in the categories which
+ * {@link ICategory#detectsDuplicates() detect duplicates}.
+ * <p>
+ * The info of the last {@value #MAX_TICKETS} of these tickets is kept as {@link MinHash} signatures. Each signature
+ * is cut into {@value #BANDS} bands of {@value #ROWS} slots and every band is a key of a hash table, so tickets
+ * sharing a band are the only candidates and a lookup doesn't depend on the number of tickets. Two tickets of
+ * similarity s share a band with probability 1 - (1 - s^{@value #ROWS})^{@value #BANDS}, about 0.9999 at the
+ * {@value #THRESHOLD} threshold and still 0.95 at 0.3, the candidates are then compared by their whole signature.
+ */
+@Slf4j
+public class DuplicateIndex {
+    private static final int BANDS = 32;
+    private static final int ROWS = MinHash.SIZE / BANDS;
+    private static final double THRESHOLD = 0.5;
+    private static final int MIN_SHINGLES = 10;
+    private static final int MAX_TICKETS = 5000;
+    private static final int MAX_MATCHES = 3;
+
+    private final Config config;
+    private final Jdbi jdbi;
+    private final Map<Integer, Indexed> tickets = new LinkedHashMap<>();
+    private final Map<Long, List<Integer>> buckets = new HashMap<>();
+    private final Set<Integer> openTickets = new HashSet<>();
+
+    public DuplicateIndex(Config config, Jdbi jdbi) {
+        this.config = config;
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Indexes the last tickets of the categories which detect duplicates.
+     */
+    public void start() {
+        List<String> categories = Main.CATEGORIES.stream().filter(ICategory::detectsDuplicates).map(ICategory::getId).toList();
+        if (categories.isEmpty()) return;
+        ObjectMapper mapper = new ObjectMapper();
+        String categoryIds;
+        try {
+            categoryIds = mapper.writeValueAsString(categories);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long start = System.nanoTime();
+        List<Loaded> loaded = jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID, info, owner, channelID, isOpen FROM tickets WHERE category IN (SELECT value FROM json_each(?)) ORDER BY ticketID DESC LIMIT ?")
+                .bind(0, categoryIds)
+                .bind(1, MAX_TICKETS)
+                .map((r, columnNumber, ctx) -> new Loaded(r.getInt("ticketID"), r.getString("info"), r.getLong("owner"), r.getLong("channelID"), r.getBoolean("isOpen")))
+                .list());
+
+        int indexed = 0;
+        synchronized (this) {
+            for (int i = loaded.size() - 1; i >= 0; i--) {
+                Loaded ticket = loaded.get(i);
+                Map<String, String> info;
+                try {
+                    info = mapper.readValue(ticket.info(), new TypeReference<>() {});
+                } catch (JsonProcessingException e) {
+                    continue;
+                }
+                int[] signature = MinHash.signature(textOf(info), MIN_SHINGLES);
+                if (signature == null) continue;
+                add(new Indexed(ticket.ticketId(), ticket.owner(), ticket.channelId(), signature), ticket.isOpen());
+                indexed++;
+            }
+        }
+        log.info("Indexed {} tickets for duplicate detection in {}ms", indexed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Indexes a new ticket and posts the tickets it likely duplicates in its thread. If one of them is an open ticket
+     * of the same owner, the owner is pointed to it.
+     */
+    public void ticketCreated(Ticket ticket) {
+        if (ticket.getCategory() == null || !ticket.getCategory().detectsDuplicates() || ticket.getInfo() == null) return;
+        int[] signature = MinHash.signature(textOf(ticket.getInfo()), MIN_SHINGLES);
+        if (signature == null) return;
+
+        long start = System.nanoTime();
+        List<Match> matches;
+        synchronized (this) {
+            matches = find(ticket.getId(), signature);
+            add(new Indexed(ticket.getId(), ticket.getOwner().getIdLong(), ticket.getTextChannel().getIdLong(), signature), true);
+        }
+        log.debug("Looked up duplicates of ticket #{} in {}µs", ticket.getId(), (System.nanoTime() - start) / 1_000);
+        if (matches.isEmpty()) return;
+
+        String lines = matches.stream()
+                .map(match -> (match.open() ? "<#" + match.channelId() + ">" : "Ticket `#" + match.ticketId() + "` (closed)")
+                        + " · " + Math.round(match.similarity() * 100) + "% similar")
+                .collect(Collectors.joining("\n"));
+        EmbedBuilder builder = new EmbedBuilder()
+                .setColor(Color.decode(config.getColor()))
+                .addField("🔁 **Possible duplicates**", lines, false);
+        ticket.getThreadChannel().sendMessageEmbeds(builder.build()).queue();
+
+        matches.stream()
+                .filter(match -> match.open() && match.owner() == ticket.getOwner().getIdLong())
+                .findFirst()
+                .ifPresent(match -> {
+                    EmbedBuilder hint = new EmbedBuilder()
+                            .setColor(Color.decode(config.getColor()))
+                            .setDescription("It looks like you already reported this in <#%d>. If it is the same problem, please continue there and close this ticket."
+                                    .formatted(match.channelId()));
+                    ticket.getTextChannel().sendMessageEmbeds(hint.build()).queue();
+                });
+    }
+
+    /**
+     * Closed tickets stay in the index, staff can still look up how they were solved.
+     */
+    public synchronized void onEvent(TicketEvent event) {
+        if (event.type() == TicketEvent.Type.CLOSED) {
+            openTickets.remove(event.ticketId());
+        }
+    }
+
+    /**
+     * Drops a ticket which was deleted, like an accidentally opened one.
+     */
+    public synchronized void remove(int ticketId) {
+        Indexed ticket = tickets.remove(ticketId);
+        if (ticket != null) {
+            unlink(ticket);
+        }
+    }
+
+    List<Match> find(int ticketId, int[] signature) {
+        Set<Integer> candidates = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            List<Integer> bucket = buckets.get(bandKey(signature, band));
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+        candidates.remove(ticketId);
+
+        List<Match> matches = new ArrayList<>();
+        for (int candidate : candidates) {
+            Indexed other = tickets.get(candidate);
+            double similarity = MinHash.similarity(signature, other.signature());
+            if (similarity >= THRESHOLD) {
+                matches.add(new Match(other.ticketId(), other.owner(), other.channelId(), openTickets.contains(other.ticketId()), similarity));
+            }
+        }
+        matches.sort(Comparator.comparingDouble(Match::similarity).reversed());
+        return matches.size() > MAX_MATCHES ? matches.subList(0, MAX_MATCHES) : matches;
+    }
+
+    void add(Indexed ticket, boolean open) {
+        remove(ticket.ticketId());
+        tickets.put(ticket.ticketId(), ticket);
+        for (int band = 0; band < BANDS; band++) {
+            buckets.computeIfAbsent(bandKey(ticket.signature(), band), k -> new ArrayList<>(1)).add(ticket.ticketId());
+        }
+        if (open) {
+            openTickets.add(ticket.ticketId());
+        }
+
+        if (tickets.size() > MAX_TICKETS) {
+            Iterator<Indexed> oldest = tickets.values().iterator();
+            Indexed evicted = oldest.next();
+            oldest.remove();
+            unlink(evicted);
+        }
+    }
+
+    private void unlink(Indexed ticket) {
+        openTickets.remove(ticket.ticketId());
+        for (int band = 0; band < BANDS; band++) {
+            long key = bandKey(ticket.signature(), band);
+            List<Integer> bucket = buckets.get(key);
+            if (bucket == null) continue;
+            bucket.remove((Integer) ticket.ticketId());
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = key * 0x9E3779B97F4A7C15L + signature[row];
+        }
+        return key;
+    }
+
+    private static String textOf(Map<String, String> info) {
+        return info.values().stream()
+                .filter(value -> value != null && !value.equals("N/A"))
+                .collect(Collectors.joining("\n"));
+    }
+
+    record Indexed(int ticketId, long owner, long channelId, int[] signature) {}
+
+    private record Loaded(int ticketId, String info, long owner, long channelId, boolean isOpen) {}
+
+    record Match(int ticketId, long owner, long channelId, boolean open, double similarity) {}
+}
@@ -0,0 +1,237 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Renders the HTML transcript of a ticket from the stored transcript instead of the channel history.
+ * <p>
+ * The transcript is rendered when the ticket is closed, after its last changes were saved. Messages, logs and edits
+ * are read with one ordered query like the {@link TranscriptExporter} does and written fragment by fragment into a
+ * file, so neither the cached messages nor the renderer hold a second copy of the transcript.
+ */
+@Slf4j
+public class HtmlTranscriptRenderer {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss 'UTC'").withZone(ZoneOffset.UTC);
+    private static final String STYLE = """
+            body{background:#36393e;color:#dcddde;font-family:"Helvetica Neue",Helvetica,Arial,sans-serif;font-size:15px;margin:0;padding:0 16px 16px}
+            header{display:flex;align-items:center;gap:12px;padding:16px 0;border-bottom:1px solid #4f545c;margin-bottom:8px}
+            header img{width:64px;height:64px;border-radius:50%}
+            header h1{font-size:20px;margin:0;color:#fff}
+            header p{margin:2px 0;color:#b9bbbe}
+            .msg{padding:4px 0}
+            .author{font-weight:600;color:#fff}
+            .time{color:#72767d;font-size:12px;margin-left:6px}
+            .content{white-space:pre-wrap;word-wrap:break-word}
+            .edits{color:#72767d;font-size:13px;margin-left:12px}
+            .deleted .content{text-decoration:line-through;color:#ed4245}
+            .log{color:#b9bbbe;font-style:italic;padding:4px 0}
+            .info{color:#b9bbbe;padding:2px 0}
+            footer{color:#72767d;font-size:12px;padding-top:12px;border-top:1px solid #4f545c;margin-top:8px}
+            """;
+
+    private final Config config;
+    private final Jdbi jdbi;
+    private final ArchiveData archiveData;
+    private final File directory;
+
+    public HtmlTranscriptRenderer(Config config, Jdbi jdbi, ArchiveData archiveData, File directory) {
+        this.config = config;
+        this.jdbi = jdbi;
+        this.archiveData = archiveData;
+        this.directory = directory;
+    }
+
+    /**
+     * Writes the stored transcript of the ticket into a temporary file, the caller deletes it once it is uploaded.
+     *
+     * @return the transcript file or {@code null} if the transcript has no entries
+     */
+    public File render(Ticket ticket) throws IOException {
+        String archivedIn = jdbi.withHandle(handle -> handle.createQuery("SELECT archivedIn FROM tickets WHERE ticketID = ?")
+                .bind(0, ticket.getId())
+                .mapTo(String.class)
+                .findOne()
+                .orElse(null));
+        directory.mkdirs();
+        Path file = Files.createTempFile(directory.toPath(), ticket.getId() + "-", ".html.tmp");
+        int entries;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeHeader(ticket, writer);
+            FragmentWriter fragments = new FragmentWriter(writer);
+            if (archivedIn != null) {
+                archiveData.forEachEntry(archivedIn, ticket.getId(), entry -> {
+                    if (entry.edits().isEmpty()) {
+                        fragments.row(new TranscriptData.OrderedRow(entry.log(), entry.id(), entry.author(), entry.authorId(), entry.bot(), entry.content(),
+                                entry.timestamp(), entry.deleted(), null, 0));
+                    }
+                    for (ArchiveData.ArchivedEdit edit : entry.edits()) {
+                        fragments.row(new TranscriptData.OrderedRow(entry.log(), entry.id(), entry.author(), entry.authorId(), entry.bot(), entry.content(),
+                                entry.timestamp(), entry.deleted(), edit.content(), edit.timestamp()));
+                    }
+                });
+            } else {
+                jdbi.useHandle(handle -> handle.createQuery(TranscriptData.SELECT_ORDERED)
+                        .bind(0, ticket.getId())
+                        .bind(1, ticket.getId())
+                        .setFetchSize(500)
+                        .map(TranscriptData.OrderedRow::map)
+                        .forEach(fragments::row));
+            }
+            fragments.finish();
+            entries = fragments.entries;
+            writer.append("<footer>")
+                    .append(String.valueOf(entries))
+                    .append(" entries - exported ")
+                    .append(formatTimestamp(Instant.now().getEpochSecond()))
+                    .append("</footer>\n</body></html>\n");
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(file);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        if (entries == 0) {
+            Files.delete(file);
+            return null;
+        }
+        log.debug("Rendered HTML transcript of ticket #{} with {} entries", ticket.getId(), entries);
+        return file.toFile();
+    }
+
+    private void writeHeader(Ticket ticket, Writer writer) throws IOException {
+        StringBuilder html = new StringBuilder(2048)
+                .append("<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\"><title>Ticket #")
+                .append(ticket.getId())
+                .append("</title><style>")
+                .append(STYLE)
+                .append("</style></head><body>\n<header>");
+        if (config.getServerLogo() != null && !config.getServerLogo().isBlank()) {
+            html.append("<img src=\"");
+            escape(html, config.getServerLogo());
+            html.append("\" alt=\"\">");
+        }
+        html.append("<div><h1>");
+        escape(html, config.getServerName() == null ? "" : config.getServerName());
+        html.append(" - Ticket #").append(ticket.getId()).append("</h1>");
+        if (ticket.getCategory() != null) {
+            html.append("<p>");
+            escape(html, ticket.getCategory().getLabel());
+            html.append("</p>");
+        }
+        if (ticket.getOwner() != null) {
+            html.append("<p>Owner: ");
+            escape(html, ticket.getOwner().getName());
+            html.append("</p>");
+        }
+        writer.append(html.append("</div></header>\n"));
+    }
+
+    private static String formatTimestamp(long timestamp) {
+        return TIME_FORMAT.format(Instant.ofEpochSecond(timestamp));
+    }
+
+    private static void escape(StringBuilder html, String text) {
+        if (text == null) return;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> html.append("&lt;");
+                case '>' -> html.append("&gt;");
+                case '&' -> html.append("&amp;");
+                case '"' -> html.append("&quot;");
+                case '\'' -> html.append("&#39;");
+                default -> html.append(c);
+            }
+        }
+    }
+
+    /**
+     * Joins the edit rows of a message into its fragment, only the message currently written is kept.
+     */
+    private static class FragmentWriter {
+        private final Writer writer;
+        private final StringBuilder html = new StringBuilder(256);
+        private long messageId;
+        private int entries;
+
+        FragmentWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        void row(TranscriptData.OrderedRow row) {
+            if (!row.isLog() && row.id() != 0 && row.id() == messageId && row.edit() != null) {
+                edit(row);
+                return;
+            }
+            finish();
+            entries++;
+            if (row.isLog()) {
+                html.append("<div class=\"log\"><span class=\"time\">")
+                        .append(formatTimestamp(row.timestamp()))
+                        .append("</span> ");
+                escape(html, row.content());
+                html.append("</div>\n");
+                return;
+            }
+            if (row.id() == 0 && row.author() != null && row.author().startsWith("Info-")) {
+                html.append("<div class=\"info\"><span class=\"author\">");
+                escape(html, row.author().substring(5));
+                html.append(":</span> ");
+                escape(html, row.content());
+                html.append("</div>\n");
+                return;
+            }
+            messageId = row.id();
+            html.append(row.isDeleted() ? "<div class=\"msg deleted\" id=\"m" : "<div class=\"msg\" id=\"m")
+                    .append(row.id())
+                    .append("\"><span class=\"author\">");
+            escape(html, row.author());
+            html.append("</span><span class=\"time\">")
+                    .append(formatTimestamp(row.timestamp()))
+                    .append("</span><div class=\"content\">");
+            escape(html, row.content());
+            html.append("</div>");
+            if (row.edit() != null) {
+                edit(row);
+            }
+        }
+
+        private void edit(TranscriptData.OrderedRow row) {
+            html.append("<div class=\"edits\">edited ")
+                    .append(formatTimestamp(row.timeEdited()))
+                    .append(": ");
+            escape(html, row.edit());
+            html.append("</div>");
+        }
+
+        void finish() {
+            if (html.isEmpty()) return;
+            if (messageId != 0) {
+                html.append("</div>\n");
+            }
+            try {
+                writer.append(html);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            html.setLength(0);
+            messageId = 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.OutboxEntry;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class OutboxData {
+    private final Jdbi jdbi;
+
+    public OutboxData(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Adds the entries within the transaction of the given handle. Entries whose idempotency key
+     * already exists are ignored, so a repeated state change doesn't repeat its side effects.
+     */
+    public void enqueue(Handle handle, List<OutboxEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long now = Instant.now().getEpochSecond();
+        PreparedBatch batch = handle.prepareBatch("INSERT OR IGNORE INTO outbox (idempotencyKey, kind, target, payload, status, attempts, nextAttemptAt, createdAt, updatedAt) VALUES (?,?,?,?,'PENDING',0,?,?,?)");
+        for (OutboxEntry entry : entries) {
+            batch.bind(0, entry.getIdempotencyKey())
+                    .bind(1, entry.getKind().name())
+                    .bind(2, entry.getTarget() == null ? "" : entry.getTarget())
+                    .bind(3, entry.getPayload())
+                    .bind(4, now)
+                    .bind(5, now)
+                    .bind(6, now)
+                    .add();
+        }
+        batch.execute();
+    }
+
+    /**
+     * @param excluded ids of entries which are still being delivered
+     */
+    public List<OutboxEntry> getDueEntries(int limit, Collection<Long> excluded) {
+        String excludedIds = excluded.stream().map(String::valueOf).collect(Collectors.joining(",", "[", "]"));
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT * FROM outbox WHERE status = 'PENDING' AND nextAttemptAt <= ? " +
+                        "AND id NOT IN (SELECT value FROM json_each(?)) ORDER BY nextAttemptAt, id LIMIT ?")
+                .bind(0, Instant.now().getEpochSecond())
+                .bind(1, excludedIds)
+                .bind(2, limit)
+                .map((rs, ctx) -> OutboxEntry.builder()
+                        .id(rs.getLong("id"))
+                        .idempotencyKey(rs.getString("idempotencyKey"))
+                        .kind(OutboxEntry.Kind.valueOf(rs.getString("kind")))
+                        .target(rs.getString("target"))
+                        .payload(rs.getString("payload"))
+                        .status(OutboxEntry.Status.valueOf(rs.getString("status")))
+                        .attempts(rs.getInt("attempts"))
+                        .nextAttemptAt(rs.getLong("nextAttemptAt"))
+                        .lastError(rs.getString("lastError"))
+                        .createdAt(rs.getLong("createdAt"))
+                        .build())
+                .list());
+    }
+
+    /**
+     * Writes the outcome of a dispatched batch in one transaction.
+     */
+    public void saveResults(List<OutboxEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long now = Instant.now().getEpochSecond();
+        jdbi.useTransaction(handle -> {
+            PreparedBatch batch = handle.prepareBatch("UPDATE outbox SET status=?, attempts=?, nextAttemptAt=?, lastError=?, updatedAt=? WHERE id=?");
+            for (OutboxEntry entry : entries) {
+                batch.bind(0, entry.getStatus().name())
+                        .bind(1, entry.getAttempts())
+                        .bind(2, entry.getNextAttemptAt())
+                        .bind(3, entry.getLastError())
+                        .bind(4, now)
+                        .bind(5, entry.getId())
+                        .add();
+            }
+            batch.execute();
+        });
+    }
+
+    public Map<OutboxEntry.Status, Integer> countByStatus() {
+        Map<OutboxEntry.Status, Integer> counts = new EnumMap<>(OutboxEntry.Status.class);
+        for (OutboxEntry.Status status : OutboxEntry.Status.values()) {
+            counts.put(status, 0);
+        }
+        jdbi.useHandle(handle -> handle.createQuery("SELECT status, COUNT(*) AS amount FROM outbox GROUP BY status")
+                .map((rs, ctx) -> Map.entry(rs.getString("status"), rs.getInt("amount")))
+                .forEach(e -> counts.put(OutboxEntry.Status.valueOf(e.getKey()), e.getValue())));
+        return counts;
+    }
+
+    public int deleteSentEntries(int olderThanDays) {
+        long before = Instant.now().minus(olderThanDays, ChronoUnit.DAYS).getEpochSecond();
+        return jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM outbox WHERE status = 'SENT' AND updatedAt < ?")
+                .bind(0, before)
+                .execute());
+    }
+}
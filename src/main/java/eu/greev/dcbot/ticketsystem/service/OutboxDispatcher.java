@@ -0,0 +1,313 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.OutboxEntry;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.utils.data.DataObject;
+import org.jdbi.v3.core.Handle;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the side effects stored in the {@code outbox} table.
+ * <p>
+ * Entries are written together with the state change causing them and delivered in batches by a single
+ * thread. Failed deliveries are retried with an exponential backoff, errors which can't be fixed by
+ * retrying (closed DMs, deleted channels, rejected requests) end the entry as {@link OutboxEntry.Status#DEAD}.
+ * <p>
+ * A delivery which outlasts its batch may still succeed, so it isn't retried. Its entry is leased for
+ * {@value #LEASE_SECONDS} seconds and the delivery saves its own result once it finishes. Entries which are still
+ * being delivered are never fetched again. A delivery which hangs for {@value #DELIVERY_TIMEOUT_SECONDS} seconds
+ * counts as failed, which ends its lease and retries it like any other failure.
+ */
+@Slf4j
+public class OutboxDispatcher {
+    private static final int BATCH_SIZE = 50;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long POLL_INTERVAL_SECONDS = 5;
+    private static final long BASE_BACKOFF_SECONDS = 5;
+    private static final long MAX_BACKOFF_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final long BATCH_TIMEOUT_SECONDS = 60;
+    private static final long LEASE_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+    private static final long DELIVERY_TIMEOUT_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+    private static final Set<ErrorResponse> PERMANENT_ERRORS = EnumSet.of(
+            ErrorResponse.CANNOT_SEND_TO_USER,
+            ErrorResponse.UNKNOWN_USER,
+            ErrorResponse.UNKNOWN_CHANNEL,
+            ErrorResponse.MISSING_ACCESS,
+            ErrorResponse.MISSING_PERMISSIONS
+    );
+
+    private final OutboxData outboxData;
+    private final JDA jda;
+    private final XpService xpService;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    /** Entries whose delivery was started and whose result isn't saved yet. */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    /** Entries which outlasted their batch, their delivery saves the result. */
+    private final Set<Long> leased = new HashSet<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dead = new AtomicLong();
+    // deliveries per second of the last minute, index is epochSecond % 60
+    private final long[] deliveredPerSecond = new long[60];
+    private final long[] bucketSecond = new long[60];
+
+    public OutboxDispatcher(OutboxData outboxData, JDA jda, XpService xpService) {
+        this.outboxData = outboxData;
+        this.jda = jda;
+        this.xpService = xpService;
+    }
+
+    public void start() {
+        int purged = outboxData.deleteSentEntries(7);
+        if (purged > 0) {
+            log.info("Purged {} delivered outbox entries", purged);
+        }
+        executor.scheduleWithFixedDelay(this::drain, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        executor.scheduleAtFixedRate(() -> outboxData.deleteSentEntries(7), 1, 24, TimeUnit.HOURS);
+    }
+
+    /**
+     * Stores the entries in the transaction of the handle. Call {@link #wakeUp()} after the commit.
+     */
+    public void enqueue(Handle handle, List<OutboxEntry> entries) {
+        outboxData.enqueue(handle, entries);
+    }
+
+    /**
+     * Delivers due entries now instead of waiting for the next poll.
+     */
+    public void wakeUp() {
+        executor.execute(this::drain);
+    }
+
+    public static OutboxEntry dm(String idempotencyKey, User user, MessageEmbed embed) {
+        return OutboxEntry.builder()
+                .idempotencyKey(idempotencyKey)
+                .kind(OutboxEntry.Kind.DM)
+                .target(user.getId())
+                .payload(embed.toData().toString())
+                .build();
+    }
+
+    public static OutboxEntry channelEmbed(String idempotencyKey, long channelId, MessageEmbed embed) {
+        return OutboxEntry.builder()
+                .idempotencyKey(idempotencyKey)
+                .kind(OutboxEntry.Kind.CHANNEL_EMBED)
+                .target(String.valueOf(channelId))
+                .payload(embed.toData().toString())
+                .build();
+    }
+
+    public static OutboxEntry xpAward(String idempotencyKey, String requestBody) {
+        return OutboxEntry.builder()
+                .idempotencyKey(idempotencyKey)
+                .kind(OutboxEntry.Kind.XP_AWARD)
+                .target("")
+                .payload(requestBody)
+                .build();
+    }
+
+    private void drain() {
+        try {
+            List<OutboxEntry> batch;
+            do {
+                batch = outboxData.getDueEntries(BATCH_SIZE, Set.copyOf(inFlight));
+                // whatever is left is still being delivered
+                if (dispatch(batch) == 0) break;
+            } while (batch.size() == BATCH_SIZE);
+        } catch (Exception e) {
+            log.error("Could not dispatch outbox entries", e);
+        }
+    }
+
+    /**
+     * @return the number of entries whose delivery was started
+     */
+    private int dispatch(List<OutboxEntry> due) {
+        List<OutboxEntry> batch = due.stream().filter(entry -> inFlight.add(entry.getId())).toList();
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Set<Long> settled = new HashSet<>();
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>(batch.size());
+        for (OutboxEntry entry : batch) {
+            deliveries.add(deliver(entry)
+                    .orTimeout(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .handle((success, error) -> {
+                        settle(entry, error == null ? null : unwrap(error), settled);
+                        return null;
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(deliveries.toArray(CompletableFuture[]::new)).get(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("Outbox batch didn't finish within {}s, unfinished entries are leased until they finish", BATCH_TIMEOUT_SECONDS);
+        }
+
+        synchronized (this) {
+            for (OutboxEntry entry : batch) {
+                if (!settled.contains(entry.getId())) {
+                    // still being sent, retrying it now could deliver it twice
+                    entry.setNextAttemptAt(Instant.now().getEpochSecond() + LEASE_SECONDS);
+                    leased.add(entry.getId());
+                }
+            }
+            outboxData.saveResults(batch);
+            batch.stream().filter(entry -> !leased.contains(entry.getId())).forEach(entry -> inFlight.remove(entry.getId()));
+        }
+        return batch.size();
+    }
+
+    /**
+     * Applies the result of a delivery. A delivery which outlasted its batch saves the result itself.
+     */
+    private synchronized void settle(OutboxEntry entry, Throwable error, Set<Long> settled) {
+        applyResult(entry, error);
+        settled.add(entry.getId());
+        if (leased.remove(entry.getId())) {
+            try {
+                outboxData.saveResults(List.of(entry));
+            } finally {
+                inFlight.remove(entry.getId());
+            }
+        }
+    }
+
+    private CompletableFuture<?> deliver(OutboxEntry entry) {
+        try {
+            return switch (entry.getKind()) {
+                case DM -> {
+                    MessageEmbed embed = EmbedBuilder.fromData(DataObject.fromJson(entry.getPayload())).build();
+                    yield jda.retrieveUserById(entry.getTarget())
+                            .flatMap(User::openPrivateChannel)
+                            .flatMap(channel -> channel.sendMessageEmbeds(embed))
+                            .submit();
+                }
+                case CHANNEL_EMBED -> {
+                    TextChannel channel = jda.getTextChannelById(entry.getTarget());
+                    if (channel == null) {
+                        yield CompletableFuture.failedFuture(new PermanentFailure("Channel " + entry.getTarget() + " not found"));
+                    }
+                    MessageEmbed embed = EmbedBuilder.fromData(DataObject.fromJson(entry.getPayload())).build();
+                    yield channel.sendMessageEmbeds(embed).submit();
+                }
+                case XP_AWARD -> xpService.sendAwardRequest(entry.getPayload(), entry.getIdempotencyKey())
+                        .thenAccept(status -> {
+                            if (status / 100 == 2) return;
+                            // the request itself was rejected, sending it again won't help
+                            if (status / 100 == 4 && status != 408 && status != 429) {
+                                throw new PermanentFailure("XP API responded with " + status);
+                            }
+                            throw new IllegalStateException("XP API responded with " + status);
+                        });
+            };
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private synchronized void applyResult(OutboxEntry entry, Throwable error) {
+        if (entry.getStatus() != OutboxEntry.Status.PENDING) {
+            return;
+        }
+        if (error == null) {
+            entry.setStatus(OutboxEntry.Status.SENT);
+            entry.setLastError(null);
+            delivered.incrementAndGet();
+            recordDelivery();
+            return;
+        }
+
+        entry.setAttempts(entry.getAttempts() + 1);
+        entry.setLastError(error.getClass().getSimpleName() + ": " + error.getMessage());
+
+        boolean permanent = error instanceof PermanentFailure
+                || (error instanceof ErrorResponseException e && PERMANENT_ERRORS.contains(e.getErrorResponse()));
+        if (permanent || entry.getAttempts() >= MAX_ATTEMPTS) {
+            entry.setStatus(OutboxEntry.Status.DEAD);
+            dead.incrementAndGet();
+            log.warn("Giving up on outbox entry {} ({}) after {} attempts: {}", entry.getIdempotencyKey(), entry.getKind(), entry.getAttempts(), entry.getLastError());
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF_SECONDS, BASE_BACKOFF_SECONDS << (entry.getAttempts() - 1));
+        backoff += ThreadLocalRandom.current().nextLong(backoff / 5 + 1);
+        entry.setNextAttemptAt(Instant.now().getEpochSecond() + backoff);
+        retried.incrementAndGet();
+        log.debug("Outbox entry {} failed (attempt {}), retrying in {}s: {}", entry.getIdempotencyKey(), entry.getAttempts(), backoff, entry.getLastError());
+    }
+
+    private void recordDelivery() {
+        long second = Instant.now().getEpochSecond();
+        int index = (int) (second % 60);
+        if (bucketSecond[index] != second) {
+            bucketSecond[index] = second;
+            deliveredPerSecond[index] = 0;
+        }
+        deliveredPerSecond[index]++;
+    }
+
+    private synchronized long deliveredLastMinute() {
+        long now = Instant.now().getEpochSecond();
+        long sum = 0;
+        for (int i = 0; i < 60; i++) {
+            if (now - bucketSecond[i] < 60) {
+                sum += deliveredPerSecond[i];
+            }
+        }
+        return sum;
+    }
+
+    public Stats getStats() {
+        Map<OutboxEntry.Status, Integer> counts = outboxData.countByStatus();
+        return new Stats(counts.get(OutboxEntry.Status.PENDING), counts.get(OutboxEntry.Status.DEAD),
+                deliveredLastMinute(), delivered.get(), retried.get(), dead.get());
+    }
+
+    /**
+     * @param pending            entries waiting for delivery
+     * @param deadTotal          entries which were given up, including previous runs
+     * @param deliveredLastMinute throughput of the last minute
+     * @param delivered          entries delivered since start
+     * @param retried            failed attempts since start which were scheduled again
+     * @param died               entries given up since start
+     */
+    public record Stats(int pending, int deadTotal, long deliveredLastMinute, long delivered, long retried, long died) {}
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static class PermanentFailure extends RuntimeException {
+        PermanentFailure(String message) {
+            super(message);
+        }
+    }
+}
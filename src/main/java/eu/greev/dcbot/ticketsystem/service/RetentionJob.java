@@ -0,0 +1,165 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.awt.*;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deletes the transcripts of tickets closed longer ago than the {@code retentionDays} of their category.
+ * The ticket rows are kept for the statistics.
+ * <p>
+ * Transcripts are deleted a few tickets per transaction with a short pause in between, so the bot's writes are
+ * only held back briefly. Afterward the freed pages are given back to the file system with
+ * {@code PRAGMA incremental_vacuum}, also in small steps.
+ */
+@Slf4j
+public class RetentionJob {
+    private static final int BATCH_SIZE = 50;
+    private static final int VACUUM_PAGES = 1000;
+    private static final long PAUSE_MILLIS = 50;
+
+    private final Config config;
+    private final Jdbi jdbi;
+    private final ArchiveData archiveData;
+    private final JDA jda;
+
+    public RetentionJob(Config config, Jdbi jdbi, ArchiveData archiveData, JDA jda) {
+        this.config = config;
+        this.jdbi = jdbi;
+        this.archiveData = archiveData;
+        this.jda = jda;
+    }
+
+    public void run() {
+        if (config.getRetentionDays().isEmpty()) return;
+        long start = System.nanoTime();
+        long[] rows = new long[3];
+        int tickets = 0;
+        int archived = 0;
+        long reclaimed = 0;
+
+        for (Map.Entry<String, Integer> retention : config.getRetentionDays().entrySet()) {
+            if (retention.getValue() == null || retention.getValue() <= 0) continue;
+            long closedBefore = Instant.now().minus(retention.getValue(), ChronoUnit.DAYS).getEpochSecond();
+
+            List<Expired> batch;
+            while (!(batch = findExpired(retention.getKey(), closedBefore)).isEmpty()) {
+                List<Integer> hot = new ArrayList<>();
+                Map<String, List<Integer>> byArchive = new LinkedHashMap<>();
+                for (Expired expired : batch) {
+                    if (expired.archivedIn() != null) {
+                        byArchive.computeIfAbsent(expired.archivedIn(), k -> new ArrayList<>()).add(expired.ticketId());
+                    } else {
+                        hot.add(expired.ticketId());
+                    }
+                }
+                purge(hot, rows);
+                for (Map.Entry<String, List<Integer>> archive : byArchive.entrySet()) {
+                    reclaimed += archiveData.purge(archive.getKey(), archive.getValue());
+                    archived += archive.getValue().size();
+                }
+                tickets += batch.size();
+                pause();
+            }
+        }
+        if (tickets == 0) return;
+
+        reclaimed += jdbi.withHandle(handle -> incrementalVacuum(handle, "main"));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Deleted the transcripts of {} tickets ({} archived): {} messages, {} edits, {} logs, reclaimed {} KiB in {}ms",
+                tickets, archived, rows[0], rows[1], rows[2], reclaimed / 1024, millis);
+        report(tickets, archived, rows, reclaimed);
+    }
+
+    private List<Expired> findExpired(String category, long closedBefore) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID, archivedIn FROM tickets WHERE category = ? AND isOpen = false AND closedAt < ? " +
+                        "AND transcriptPurgedAt IS NULL AND ticketID NOT IN (SELECT ticketID FROM close_jobs WHERE stage != 'DONE') ORDER BY ticketID LIMIT ?")
+                .bind(0, category)
+                .bind(1, closedBefore)
+                .bind(2, BATCH_SIZE)
+                .map((r, columnNumber, ctx) -> new Expired(r.getInt("ticketID"), r.getString("archivedIn")))
+                .list());
+    }
+
+    /**
+     * Deletes the hot transcripts of the tickets and marks them as purged, archived ones are marked by the archive.
+     */
+    private void purge(List<Integer> ticketIds, long[] rows) {
+        jdbi.useTransaction(handle -> {
+            long now = Instant.now().getEpochSecond();
+            for (int ticketId : ticketIds) {
+                rows[1] += handle.createUpdate("DELETE FROM edits WHERE messageID IN (SELECT messageID FROM messages WHERE ticketID = ?)").bind(0, ticketId).execute();
+                rows[0] += handle.createUpdate("DELETE FROM messages WHERE ticketID = ?").bind(0, ticketId).execute();
+                rows[2] += handle.createUpdate("DELETE FROM logs WHERE ticketID = ?").bind(0, ticketId).execute();
+                SearchIndex.removeTranscript(handle, ticketId);
+                markPurged(handle, ticketId, now);
+            }
+        });
+    }
+
+    static void markPurged(Handle handle, int ticketId, long purgedAt) {
+        handle.createUpdate("UPDATE tickets SET transcriptPurgedAt = ?, archivedIn = NULL, transcriptVersion = transcriptVersion + 1 WHERE ticketID = ?")
+                .bind(0, purgedAt)
+                .bind(1, ticketId)
+                .execute();
+    }
+
+    /**
+     * Gives the free pages of the schema back to the file system, {@value VACUUM_PAGES} pages per statement.
+     *
+     * @return the reclaimed bytes
+     */
+    static long incrementalVacuum(Handle handle, String schema) {
+        long pageSize = pragma(handle, schema, "page_size");
+        long before = pragma(handle, schema, "page_count");
+        long free = pragma(handle, schema, "freelist_count");
+        while (free > 0) {
+            handle.execute("PRAGMA " + schema + ".incremental_vacuum(" + VACUUM_PAGES + ")");
+            long remaining = pragma(handle, schema, "freelist_count");
+            if (remaining >= free) break; // auto_vacuum isn't incremental
+            free = remaining;
+        }
+        return (before - pragma(handle, schema, "page_count")) * pageSize;
+    }
+
+    private static long pragma(Handle handle, String schema, String pragma) {
+        return handle.createQuery("PRAGMA " + schema + "." + pragma).mapTo(Long.class).one();
+    }
+
+    private void report(int tickets, int archived, long[] rows, long reclaimed) {
+        if (config.getLogChannel() == 0) return;
+        TextChannel logChannel = jda.getTextChannelById(config.getLogChannel());
+        if (logChannel == null) return;
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle("Transcript retention")
+                .setColor(Color.decode(config.getColor()))
+                .setFooter(config.getServerName(), config.getServerLogo())
+                .addField("Tickets", "**%d** (%d archived)".formatted(tickets, archived), false)
+                .addField("Deleted rows", "Messages: **%d**\nEdits: **%d**\nLogs: **%d**".formatted(rows[0], rows[1], rows[2]), false)
+                .addField("Reclaimed", "**%.1f MiB**".formatted(reclaimed / (1024.0 * 1024.0)), false);
+        logChannel.sendMessageEmbeds(builder.build()).queue();
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Expired(int ticketId, String archivedIn) {}
+}
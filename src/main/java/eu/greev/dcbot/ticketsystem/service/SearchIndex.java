@@ -0,0 +1,312 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full-text search over messages, edits, logs and the info of tickets with an FTS5 index.
+ * <p>
+ * Every searchable text is a row in {@code search_docs}, {@code search_index} indexes them as an external content
+ * table. Triggers add a document whenever a message, edit, log or ticket is inserted and remove the documents of a
+ * message when it is deleted, so the journal replay and every other writer keep the index up to date without
+ * rebuilding it. Archived transcripts stay searchable, purging a transcript removes its documents and only the info
+ * of the ticket stays. Databases which existed before the index are filled ticket by ticket in the background.
+ */
+@Slf4j
+public class SearchIndex {
+    public static final int PAGE_SIZE = 10;
+    /** Only the newest matches are ranked, so words in most messages can't make a query slow. */
+    private static final int RANK_WINDOW = 2000;
+    /** Shorter prefixes expand to too many words. */
+    private static final int MIN_PREFIX = 3;
+    private static final int BACKFILL_TICKETS = 200;
+    private static final long PAUSE_MILLIS = 50;
+
+    private static final String[] SETUP = {
+            """
+            CREATE TABLE IF NOT EXISTS search_docs (
+                docID INTEGER PRIMARY KEY NOT NULL,
+                ticketID INTEGER NOT NULL,
+                kind VARCHAR NOT NULL,
+                ref BIGINT DEFAULT 0 NOT NULL,
+                timeCreated BIGINT DEFAULT 0 NOT NULL,
+                body VARCHAR NOT NULL
+            )""",
+            "CREATE INDEX IF NOT EXISTS idx_search_docs_ticket ON search_docs (ticketID, kind)",
+            "CREATE VIRTUAL TABLE IF NOT EXISTS search_index USING fts5(body, content='search_docs', content_rowid='docID', tokenize='unicode61 remove_diacritics 2')",
+            """
+            CREATE TRIGGER IF NOT EXISTS search_docs_insert AFTER INSERT ON search_docs BEGIN
+                INSERT INTO search_index(rowid, body) VALUES (new.docID, new.body);
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS search_docs_delete AFTER DELETE ON search_docs BEGIN
+                INSERT INTO search_index(search_index, rowid, body) VALUES ('delete', old.docID, old.body);
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS messages_search AFTER INSERT ON messages WHEN NOT new.isDeleted BEGIN
+                INSERT INTO search_docs(ticketID, kind, ref, timeCreated, body) VALUES (new.ticketID, 'message', new.messageID, new.timeCreated, new.content);
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS messages_search_delete AFTER UPDATE OF isDeleted ON messages WHEN new.isDeleted AND NOT old.isDeleted BEGIN
+                DELETE FROM search_docs WHERE ticketID = new.ticketID AND kind IN ('message', 'edit') AND ref = new.messageID;
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS edits_search AFTER INSERT ON edits BEGIN
+                INSERT INTO search_docs(ticketID, kind, ref, timeCreated, body)
+                SELECT ticketID, 'edit', new.messageID, new.timeEdited, new.content FROM messages WHERE messageID = new.messageID AND NOT isDeleted;
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS logs_search AFTER INSERT ON logs BEGIN
+                INSERT INTO search_docs(ticketID, kind, timeCreated, body) VALUES (new.ticketID, 'log', CAST(new.timeCreated AS INTEGER), new.log);
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS tickets_search_insert AFTER INSERT ON tickets BEGIN
+                INSERT INTO search_docs(ticketID, kind, body)
+                SELECT new.ticketID, 'info', body FROM (SELECT group_concat(value, char(10)) AS body FROM json_each(CASE WHEN json_valid(new.info) THEN new.info ELSE '{}' END))
+                WHERE body IS NOT NULL;
+            END""",
+            """
+            CREATE TRIGGER IF NOT EXISTS tickets_search_update AFTER UPDATE OF info ON tickets WHEN old.info IS NOT new.info BEGIN
+                DELETE FROM search_docs WHERE ticketID = new.ticketID AND kind = 'info';
+                INSERT INTO search_docs(ticketID, kind, body)
+                SELECT new.ticketID, 'info', body FROM (SELECT group_concat(value, char(10)) AS body FROM json_each(CASE WHEN json_valid(new.info) THEN new.info ELSE '{}' END))
+                WHERE body IS NOT NULL;
+            END""",
+            // holds the last indexed ticket while an existing database is indexed
+            "CREATE TABLE IF NOT EXISTS search_backfill (lastTicketID INTEGER NOT NULL)"
+    };
+
+    /**
+     * The newest {@value RANK_WINDOW} matches are found in rowid order without scoring them, bm25 only scores the
+     * matches from the oldest of them on, sorting by the bm25 score is faster than letting FTS5 sort by its rank. The
+     * page is cut there and only its documents are joined.
+     */
+    private static final String SEARCH = """
+            SELECT d.ticketID, d.kind, d.timeCreated, t.category, hits.snippet
+            FROM (SELECT rowid, bm25(search_index) AS score, snippet(search_index, 0, '**', '**', '…', 24) AS snippet
+                  FROM search_index
+                  WHERE search_index MATCH ?
+                    AND rowid >= (SELECT COALESCE(MIN(rowid), 0) FROM (SELECT rowid FROM search_index WHERE search_index MATCH ? ORDER BY rowid DESC LIMIT ?))
+                    AND NOT EXISTS (SELECT 1 FROM search_docs d JOIN tickets t ON t.ticketID = d.ticketID
+                                    WHERE d.docID = search_index.rowid AND t.category IN (SELECT value FROM json_each(?)))
+                  ORDER BY score
+                  LIMIT ? OFFSET ?) hits
+            JOIN search_docs d ON d.docID = hits.rowid
+            JOIN tickets t ON t.ticketID = d.ticketID
+            ORDER BY hits.score""";
+
+    private final Jdbi jdbi;
+    private final ArchiveData archiveData;
+
+    public SearchIndex(Jdbi jdbi, ArchiveData archiveData) {
+        this.jdbi = jdbi;
+        this.archiveData = archiveData;
+    }
+
+    /**
+     * Creates the index and its triggers. If the database already had tickets without an index, they are queued for
+     * {@link #backfill()}. Triggers from before deleted messages left the index are replaced, and the documents of
+     * the messages deleted until then are removed.
+     */
+    public static void setup(Jdbi jdbi) {
+        jdbi.useTransaction(handle -> {
+            boolean exists = handle.createQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = 'search_docs'").mapTo(Integer.class).one() > 0;
+            boolean keepsDeleted = handle.createQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name = 'messages_search' AND sql NOT LIKE '%isDeleted%'")
+                    .mapTo(Integer.class)
+                    .one() > 0;
+            if (keepsDeleted) {
+                handle.execute("DROP TRIGGER messages_search");
+                handle.execute("DROP TRIGGER IF EXISTS edits_search");
+            }
+            for (String statement : SETUP) {
+                handle.execute(statement);
+            }
+            if (keepsDeleted) {
+                int removed = handle.execute("DELETE FROM search_docs WHERE kind IN ('message', 'edit') AND ref IN (SELECT messageID FROM messages WHERE isDeleted)");
+                log.info("Removed {} documents of deleted messages from the search index", removed);
+            }
+            if (!exists) {
+                handle.execute("INSERT INTO search_backfill (lastTicketID) VALUES (0)");
+                log.info("Created the search index");
+            }
+        });
+    }
+
+    /**
+     * Indexes the tickets stored before the index existed, {@value BACKFILL_TICKETS} tickets per transaction.
+     * Documents the triggers already added for these tickets are replaced, so none is indexed twice. Archived
+     * transcripts are read from their archive.
+     */
+    public void backfill() {
+        Integer lastTicketId = jdbi.withHandle(handle -> handle.createQuery("SELECT lastTicketID FROM search_backfill")
+                .mapTo(Integer.class)
+                .findOne()
+                .orElse(null));
+        if (lastTicketId == null) return;
+
+        long start = System.nanoTime();
+        int maxTicketId = jdbi.withHandle(handle -> handle.createQuery("SELECT COALESCE(MAX(ticketID), 0) FROM tickets").mapTo(Integer.class).one());
+        long documents = 0;
+        while (lastTicketId < maxTicketId) {
+            int from = lastTicketId;
+            int to = from + BACKFILL_TICKETS;
+            List<Document> archived = loadArchived(from, to);
+            documents += jdbi.inTransaction(handle -> {
+                handle.createUpdate("DELETE FROM search_docs WHERE ticketID > ? AND ticketID <= ?").bind(0, from).bind(1, to).execute();
+                int count = handle.createUpdate("INSERT INTO search_docs(ticketID, kind, ref, timeCreated, body) " +
+                                "SELECT ticketID, 'message', messageID, timeCreated, content FROM messages WHERE ticketID > ? AND ticketID <= ? AND NOT isDeleted")
+                        .bind(0, from)
+                        .bind(1, to)
+                        .execute();
+                count += handle.createUpdate("INSERT INTO search_docs(ticketID, kind, ref, timeCreated, body) " +
+                                "SELECT m.ticketID, 'edit', e.messageID, e.timeEdited, e.content FROM edits e JOIN messages m ON m.messageID = e.messageID WHERE m.ticketID > ? AND m.ticketID <= ? AND NOT m.isDeleted")
+                        .bind(0, from)
+                        .bind(1, to)
+                        .execute();
+                count += handle.createUpdate("INSERT INTO search_docs(ticketID, kind, timeCreated, body) " +
+                                "SELECT ticketID, 'log', CAST(timeCreated AS INTEGER), log FROM logs WHERE ticketID > ? AND ticketID <= ?")
+                        .bind(0, from)
+                        .bind(1, to)
+                        .execute();
+                count += handle.createUpdate("INSERT INTO search_docs(ticketID, kind, body) " +
+                                "SELECT ticketID, 'info', body FROM (SELECT t.ticketID, (SELECT group_concat(value, char(10)) FROM json_each(CASE WHEN json_valid(t.info) THEN t.info ELSE '{}' END)) AS body " +
+                                "FROM tickets t WHERE t.ticketID > ? AND t.ticketID <= ?) WHERE body IS NOT NULL")
+                        .bind(0, from)
+                        .bind(1, to)
+                        .execute();
+                for (Document document : archived) {
+                    count += handle.createUpdate("INSERT INTO search_docs(ticketID, kind, ref, timeCreated, body) VALUES (?, ?, ?, ?, ?)")
+                            .bind(0, document.ticketId())
+                            .bind(1, document.kind())
+                            .bind(2, document.ref())
+                            .bind(3, document.timeCreated())
+                            .bind(4, document.body())
+                            .execute();
+                }
+                handle.createUpdate("UPDATE search_backfill SET lastTicketID = ?").bind(0, to).execute();
+                return count;
+            });
+            lastTicketId = to;
+            pause();
+        }
+        jdbi.useHandle(handle -> handle.execute("DELETE FROM search_backfill"));
+        log.info("Indexed {} documents of {} tickets for search in {}ms", documents, maxTicketId, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private List<Document> loadArchived(int from, int to) {
+        List<Document> documents = new ArrayList<>();
+        jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID, archivedIn FROM tickets WHERE ticketID > ? AND ticketID <= ? AND archivedIn IS NOT NULL")
+                        .bind(0, from)
+                        .bind(1, to)
+                        .map((r, columnNumber, ctx) -> Map.entry(r.getInt("ticketID"), r.getString("archivedIn")))
+                        .list())
+                .forEach(ticket -> archiveData.forEachEntry(ticket.getValue(), ticket.getKey(), entry -> {
+                    if (entry.log()) {
+                        documents.add(new Document(ticket.getKey(), "log", 0, entry.timestamp(), entry.content()));
+                        return;
+                    }
+                    if (entry.deleted()) return;
+                    documents.add(new Document(ticket.getKey(), "message", entry.id(), entry.timestamp(), entry.content()));
+                    for (ArchiveData.ArchivedEdit edit : entry.edits()) {
+                        documents.add(new Document(ticket.getKey(), "edit", entry.id(), edit.timestamp(), edit.content()));
+                    }
+                }));
+        return documents;
+    }
+
+    public void startBackfill() {
+        Thread thread = new Thread(() -> {
+            try {
+                backfill();
+            } catch (Exception e) {
+                log.error("Could not fill the search index, continuing with the next start", e);
+            }
+        }, "search-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Removes the messages, edits and logs of a ticket from the index, used when its transcript is deleted.
+     */
+    static void removeTranscript(Handle handle, int ticketId) {
+        handle.createUpdate("DELETE FROM search_docs WHERE ticketID = ? AND kind != 'info'")
+                .bind(0, ticketId)
+                .execute();
+    }
+
+    /**
+     * Merges some of the index segments, fewer segments keep the queries fast while the index grows.
+     */
+    public void merge() {
+        jdbi.useHandle(handle -> handle.execute("INSERT INTO search_index(search_index, rank) VALUES ('merge', 500)"));
+    }
+
+    /**
+     * Ranks the matches by relevance, archived tickets included. Words in more than {@value RANK_WINDOW} documents
+     * only rank their newest matches.
+     *
+     * @param page               the page, starting at 0
+     * @param excludedCategories ids of the categories whose tickets aren't shown
+     * @return the best matches of the page, ordered by relevance, one more than {@link #PAGE_SIZE} if there is a
+     *         next page
+     */
+    public List<Hit> search(String query, int page, Collection<String> excludedCategories) {
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) return List.of();
+        String excluded = excludedCategories.stream()
+                .map(id -> "\"" + id.replace("\\", "\\\\").replace("\"", "\\\"") + "\"")
+                .reduce((a, b) -> a + "," + b)
+                .map(ids -> "[" + ids + "]")
+                .orElse("[]");
+        return jdbi.withHandle(handle -> handle.createQuery(SEARCH)
+                .bind(0, match)
+                .bind(1, match)
+                .bind(2, RANK_WINDOW)
+                .bind(3, excluded)
+                .bind(4, PAGE_SIZE + 1)
+                .bind(5, page * PAGE_SIZE)
+                .map((r, columnNumber, ctx) -> new Hit(r.getInt("ticketID"), r.getString("kind"), r.getLong("timeCreated"),
+                        r.getString("category"), r.getString("snippet")))
+                .list());
+    }
+
+    /**
+     * Turns the user input into an FTS5 query which matches all words, every word is quoted so operators and
+     * special characters are searched as text. A trailing {@code *} after at least {@value MIN_PREFIX} characters
+     * keeps its meaning as prefix search.
+     */
+    static String toMatchExpression(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            String term = word.endsWith("*") ? word.substring(0, word.length() - 1) : word;
+            boolean prefix = word.endsWith("*") && term.codePointCount(0, term.length()) >= MIN_PREFIX;
+            if (term.isBlank()) continue;
+            terms.add("\"" + term.replace("\"", "\"\"") + "\"" + (prefix ? "*" : ""));
+        }
+        return String.join(" ", terms);
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param kind        {@code message}, {@code edit}, {@code log} or {@code info}
+     * @param timeCreated epoch seconds, {@code 0} for the ticket info
+     * @param snippet     the matching part of the text, matches in bold
+     */
+    public record Hit(int ticketId, String kind, long timeCreated, String category, String snippet) {}
+
+    private record Document(int ticketId, String kind, long ref, long timeCreated, String body) {}
+}
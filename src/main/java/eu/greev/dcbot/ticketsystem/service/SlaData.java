@@ -0,0 +1,122 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.utils.QuantileSketch;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response and resolution times as {@link QuantileSketch}es, one per day, metric and category or supporter.
+ * <p>
+ * Durations are collected in memory and merged into the stored sketches with every flush of the transcript changes,
+ * see {@link TicketService#flushChanges()}. A crash loses the durations of the last minutes, which the percentiles
+ * can do without. A report merges the sketches of the days it covers instead of going over the tickets.
+ */
+public class SlaData {
+    private final Jdbi jdbi;
+    private final Map<Key, QuantileSketch> pending = new HashMap<>();
+
+    protected SlaData(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Records a duration for all tickets and, if there are ones, the category and the supporter.
+     *
+     * @param at epoch seconds of the end of the duration, decides the day
+     */
+    public synchronized void record(Metric metric, String category, Long supporter, long seconds, long at) {
+        long day = LocalDate.ofInstant(Instant.ofEpochSecond(at), ZoneId.systemDefault()).toEpochDay();
+        pending.computeIfAbsent(new Key(metric, Dimension.ALL, day, ""), k -> new QuantileSketch()).add(seconds);
+        if (category != null) {
+            pending.computeIfAbsent(new Key(metric, Dimension.CATEGORY, day, category), k -> new QuantileSketch()).add(seconds);
+        }
+        if (supporter != null) {
+            pending.computeIfAbsent(new Key(metric, Dimension.SUPPORTER, day, String.valueOf(supporter)), k -> new QuantileSketch()).add(seconds);
+        }
+    }
+
+    /**
+     * Merges the recorded durations into the stored sketches. If that fails they are kept for the next flush.
+     */
+    public void flush() {
+        Map<Key, QuantileSketch> sketches;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            sketches = new HashMap<>(pending);
+            pending.clear();
+        }
+
+        try {
+            jdbi.useTransaction(handle -> {
+                for (Map.Entry<Key, QuantileSketch> entry : sketches.entrySet()) {
+                    Key key = entry.getKey();
+                    QuantileSketch sketch = handle.createQuery("SELECT sketch FROM sla_sketches WHERE metric = ? AND dimension = ? AND day = ? AND subject = ?")
+                            .bind(0, key.metric().name())
+                            .bind(1, key.dimension().name())
+                            .bind(2, key.day())
+                            .bind(3, key.subject())
+                            .mapTo(byte[].class)
+                            .findOne()
+                            .map(QuantileSketch::fromBytes)
+                            .orElseGet(QuantileSketch::new);
+                    sketch.merge(entry.getValue());
+                    handle.createUpdate("INSERT OR REPLACE INTO sla_sketches (metric, dimension, day, subject, sketch) VALUES (?, ?, ?, ?, ?)")
+                            .bind(0, key.metric().name())
+                            .bind(1, key.dimension().name())
+                            .bind(2, key.day())
+                            .bind(3, key.subject())
+                            .bind(4, sketch.toBytes())
+                            .execute();
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                sketches.forEach((key, sketch) -> pending.computeIfAbsent(key, k -> new QuantileSketch()).merge(sketch));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Merges the sketches of the {@code days} days before today, after flushing the recorded durations.
+     *
+     * @return the merged sketch per category or supporter, or one with the key {@code ""} for all tickets
+     */
+    public Map<String, QuantileSketch> merged(Metric metric, Dimension dimension, int days) {
+        flush();
+        long today = LocalDate.now().toEpochDay();
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT subject, sketch FROM sla_sketches WHERE metric = ? AND dimension = ? AND day >= ? AND day < ?")
+                .bind(0, metric.name())
+                .bind(1, dimension.name())
+                .bind(2, today - days)
+                .bind(3, today)
+                .reduceRows(new LinkedHashMap<>(), (map, row) -> {
+                    map.computeIfAbsent(row.getColumn("subject", String.class), k -> new QuantileSketch())
+                            .merge(QuantileSketch.fromBytes(row.getColumn("sketch", byte[].class)));
+                    return map;
+                }));
+    }
+
+    public enum Metric {
+        /** From the creation to the first staff message. */
+        FIRST_RESPONSE,
+        /** From the creation to the first claim. */
+        TIME_TO_CLAIM,
+        /** From the creation to the close. */
+        RESOLUTION
+    }
+
+    public enum Dimension {
+        ALL,
+        CATEGORY,
+        SUPPORTER
+    }
+
+    private record Key(Metric metric, Dimension dimension, long day, String subject) {}
+}
@@ -4,38 +4,203 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.entities.Message;
+import eu.greev.dcbot.ticketsystem.entities.Participants;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.JDA;
-import org.apache.logging.log4j.util.Strings;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.statement.Update;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+@Slf4j
 public class TicketData {
+    /** Layout of the tickets table, stored as {@code PRAGMA user_version}. */
+    public static final int SCHEMA_VERSION = 3;
+    private static final String INSERT_TICKET = "INSERT INTO tickets (channelID, threadID, category, info, isWaiting, owner, supporter, baseMessage, isOpen, waitingSince, remindersSent, closeMessage, closer, closedAt, pendingRatingSince, ratingRemindersSent, pendingCloser, lastSupporterMessageAt, participants) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String UPDATE_TICKET = "UPDATE tickets SET channelID=?, threadID=?, category=?, info=?, isWaiting=?, owner=?, supporter=?, baseMessage=?, isOpen=?, waitingSince=?, remindersSent=?, closeMessage=?, closer=?, closedAt=?, pendingRatingSince=?, ratingRemindersSent=?, pendingCloser=?, lastSupporterMessageAt=?, participants=? WHERE ticketID =?";
+    private static final String INSERT_MEMBER = "INSERT OR IGNORE INTO ticket_members (ticketID, userID, role, addedAt) VALUES (?, ?, ?, ?)";
+
+    // journaled ticket columns from before the involved users moved to ticket_members, with the involved list at 7,
+    // its user and channel ids, then its timestamps
+    private static final int LEGACY_COLUMN_COUNT = 20;
+    private static final int LEGACY_INVOLVED_COLUMN = 7;
+    private static final int[] LEGACY_ID_COLUMNS = {0, 1, 5, 6, 13, 17};
+    private static final int[] LEGACY_TIME_COLUMNS = {10, 15};
+
+    private static final String[] TICKET_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS idx_tickets_supporter ON tickets (supporter, closedAt)",
+            "CREATE INDEX IF NOT EXISTS idx_tickets_category ON tickets (category, closedAt)",
+            "CREATE INDEX IF NOT EXISTS idx_tickets_status ON tickets (isOpen, isWaiting)"
+    };
+
     private final JDA jda;
     private final Jdbi jdbi;
     @Getter private final TranscriptData transcriptData;
+    @Getter private final ChangeJournal journal;
+    @Getter private final ArchiveData archiveData;
+    @Getter private final SearchIndex searchIndex;
+    @Getter private final TicketEventData eventData;
+    @Getter private final SlaData slaData;
 
-    public TicketData(JDA jda, Jdbi jdbi) {
+    public TicketData(JDA jda, Jdbi jdbi, ChangeJournal journal) {
         this.jda = jda;
         this.jdbi = jdbi;
-        this.transcriptData = new TranscriptData(jdbi);
+        this.journal = journal;
+        this.transcriptData = new TranscriptData(jdbi, journal);
+        this.archiveData = new ArchiveData(jdbi);
+        this.searchIndex = new SearchIndex(jdbi, archiveData);
+        this.eventData = new TicketEventData(jdbi, journal);
+        this.slaData = new SlaData(jdbi);
+    }
+
+    /**
+     * Upgrades the tickets table of older databases.
+     * <ol>
+     *     <li>User and channel ids were strings with {@code ""} for none, {@code waitingSince} and
+     *     {@code pendingRatingSince} ISO strings. Now they are integers and {@code NULL}, so range filters on them can
+     *     use the indexes.</li>
+     *     <li>The involved users were a comma separated column, rewritten with the whole ticket on every change. Now
+     *     they are rows of {@code ticket_members}.</li>
+     *     <li>Ticket events were unique by ticket, time and type, which dropped a repeated event in the same second.
+     *     Now only their id is unique, and {@code ticket_state} is seeded for the tickets from before the events.</li>
+     * </ol>
+     */
+    public static void upgradeSchema(Jdbi jdbi) {
+        jdbi.useHandle(handle -> {
+            int version = handle.createQuery("PRAGMA user_version").mapTo(Integer.class).one();
+            if (version >= SCHEMA_VERSION) return;
+            if (version < 1) {
+                typeColumns(handle);
+            }
+            if (version < 2) {
+                moveInvolved(handle);
+            }
+            if (version < 3) {
+                handle.execute("DROP INDEX IF EXISTS idx_ticket_events_ticket");
+                TicketEventData.seedStates(handle);
+            }
+            handle.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+        });
+    }
+
+    private static void typeColumns(Handle handle) {
+        String ownerType = handle.createQuery("SELECT type FROM pragma_table_info('tickets') WHERE name = 'owner'").mapTo(String.class).one();
+        if (!ownerType.equalsIgnoreCase("BIGINT")) {
+            long start = System.nanoTime();
+            int tickets = handle.inTransaction(h -> {
+                h.execute("""
+                        CREATE TABLE tickets_typed (
+                            ticketID INTEGER PRIMARY KEY NOT NULL,
+                            channelID BIGINT DEFAULT NULL NULL,
+                            threadID BIGINT DEFAULT NULL NULL,
+                            isWaiting BOOL DEFAULT 0 NOT NULL,
+                            waitingSince BIGINT DEFAULT NULL NULL,
+                            remindersSent INTEGER DEFAULT 0 NOT NULL,
+                            closeMessage VARCHAR DEFAULT NULL NULL,
+                            category VARCHAR DEFAULT '' NOT NULL,
+                            info VARCHAR DEFAULT '{}' NOT NULL,
+                            owner BIGINT DEFAULT NULL NULL,
+                            supporter BIGINT DEFAULT NULL NULL,
+                            involved VARCHAR DEFAULT '' NOT NULL,
+                            baseMessage VARCHAR DEFAULT '' NOT NULL,
+                            isOpen BOOL DEFAULT 1,
+                            closer BIGINT DEFAULT NULL NULL,
+                            closedAt BIGINT DEFAULT NULL,
+                            pendingRatingSince BIGINT DEFAULT NULL NULL,
+                            ratingRemindersSent INTEGER DEFAULT 0 NOT NULL,
+                            pendingCloser BIGINT DEFAULT NULL NULL,
+                            lastSupporterMessageAt BIGINT DEFAULT NULL,
+                            participants VARCHAR DEFAULT NULL NULL,
+                            transcriptVersion INTEGER DEFAULT 0 NOT NULL,
+                            archivedIn VARCHAR DEFAULT NULL NULL,
+                            transcriptPurgedAt BIGINT DEFAULT NULL NULL
+                        )""");
+                int count = h.createUpdate("""
+                        INSERT INTO tickets_typed (ticketID, channelID, threadID, isWaiting, waitingSince, remindersSent, closeMessage, category, info, owner,
+                            supporter, involved, baseMessage, isOpen, closer, closedAt, pendingRatingSince, ratingRemindersSent, pendingCloser,
+                            lastSupporterMessageAt, participants, transcriptVersion, archivedIn, transcriptPurgedAt)
+                        SELECT ticketID, %s, %s, isWaiting, %s, remindersSent, closeMessage, category, info, %s,
+                            %s, involved, baseMessage, isOpen, %s, closedAt, %s, ratingRemindersSent, %s,
+                            lastSupporterMessageAt, participants, transcriptVersion, archivedIn, transcriptPurgedAt
+                        FROM tickets""".formatted(typedId("channelID"), typedId("threadID"), typedTime("waitingSince"), typedId("owner"),
+                                typedId("supporter"), typedId("closer"), typedTime("pendingRatingSince"), typedId("pendingCloser")))
+                        .execute();
+                h.execute("DROP TABLE tickets");
+                h.execute("ALTER TABLE tickets_typed RENAME TO tickets");
+                return count;
+            });
+            log.info("Rebuilt the tickets table with typed columns, {} tickets in {}ms", tickets, (System.nanoTime() - start) / 1_000_000);
+        }
+        for (String index : TICKET_INDEXES) {
+            handle.execute(index);
+        }
+    }
+
+    // users added before they were tracked get 0 as addedAt, the time isn't known
+    private static void moveInvolved(Handle handle) {
+        boolean hasColumn = handle.createQuery("SELECT COUNT(*) FROM pragma_table_info('tickets') WHERE name = 'involved'").mapTo(Integer.class).one() > 0;
+        if (!hasColumn) return;
+
+        long start = System.nanoTime();
+        int members = handle.inTransaction(h -> {
+            PreparedBatch batch = h.prepareBatch(INSERT_MEMBER);
+            h.createQuery("SELECT ticketID, involved FROM tickets WHERE involved != ''")
+                    .map((r, columnNumber, ctx) -> Map.entry(r.getInt("ticketID"), r.getString("involved")))
+                    .forEach(row -> {
+                        for (long userId : parseInvolved(row.getValue())) {
+                            batch.bind(0, row.getKey()).bind(1, userId).bind(2, MemberRole.INVOLVED.name()).bind(3, 0L).add();
+                        }
+                    });
+            int count = batch.size() > 0 ? Arrays.stream(batch.execute()).sum() : 0;
+            h.execute("ALTER TABLE tickets DROP COLUMN involved");
+            return count;
+        });
+        log.info("Moved {} involved users into ticket_members in {}ms", members, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static List<Long> parseInvolved(String involved) {
+        List<Long> userIds = new ArrayList<>();
+        for (String id : involved.split(",")) {
+            if (!id.isBlank()) {
+                userIds.add(Long.parseLong(id.strip()));
+            }
+        }
+        return userIds;
+    }
+
+    private static String typedId(String column) {
+        return "NULLIF(CAST(NULLIF(%1$s, '') AS INTEGER), 0)".formatted(column);
+    }
+
+    // digits only are already epoch seconds, SQLite would read them as julian days
+    private static String typedTime(String column) {
+        return "CASE WHEN %1$s IS NULL OR %1$s = '' THEN NULL WHEN %1$s NOT GLOB '*[^0-9]*' THEN CAST(%1$s AS INTEGER) ELSE CAST(strftime('%%s', %1$s) AS INTEGER) END".formatted(column);
     }
 
     protected Ticket loadTicket(int ticketID) {
         Ticket.TicketBuilder builder = jdbi.withHandle(handle -> handle.createQuery("SELECT * FROM tickets WHERE ticketID = ?")
                 .bind(0, ticketID)
                 .map((resultSet, index, ctx) -> {
-                    if (resultSet.getString("owner").equals(Strings.EMPTY) || resultSet.getString("channelID").equals(Strings.EMPTY)) {
+                    long ownerId = resultSet.getLong("owner");
+                    long channelId = resultSet.getLong("channelID");
+                    if (ownerId == 0 || channelId == 0) {
                         return null;
                     }
+                    long threadId = resultSet.getLong("threadID");
 
                     String category = resultSet.getString("category");
 
@@ -49,30 +214,30 @@ public class TicketData {
                         ticketBuilder = Ticket.builder()
                                 .ticketData(this)
                                 .id(ticketID)
-                                .textChannel(jda.getTextChannelById(resultSet.getString("channelID")))
-                                .threadChannel(!resultSet.getString("threadID").equals(Strings.EMPTY)
-                                        ? jda.getThreadChannelById(resultSet.getString("threadID")) : null)
-                                .owner(jda.retrieveUserById(resultSet.getString("owner")).complete())
+                                .textChannel(jda.getTextChannelById(channelId))
+                                .threadChannel(threadId != 0 ? jda.getThreadChannelById(threadId) : null)
+                                .owner(jda.retrieveUserById(ownerId).complete())
                                 .category(Main.CATEGORIES.stream().filter(c -> c.getId().equals(category)).findFirst().orElse(null))
                                 .info(mapper.readValue(resultSet.getString("info"), new TypeReference<>() {}))
                                 .isOpen(resultSet.getBoolean("isOpen"))
                                 .isWaiting(resultSet.getBoolean("isWaiting"))
                                 .remindersSent(resultSet.getInt("remindersSent"))
                                 .closeMessage(resultSet.getString("closeMessage"))
-                                .waitingSince(resultSet.getString("waitingSince") != null ? Instant.parse(resultSet.getString("waitingSince")) : null)
+                                .waitingSince(instant(resultSet, "waitingSince"))
                                 .baseMessage(resultSet.getString("baseMessage"))
-                                .lastSupporterMessageAt(lastSupporterMessageAtWasNull ? null : lastSupporterMessageAt)
-                                .involved(new ArrayList<>(List.of(resultSet.getString("involved").split(", "))));
+                                .lastSupporterMessageAt(lastSupporterMessageAtWasNull ? null : lastSupporterMessageAt);
                     } catch (JsonProcessingException e) {
                         throw new RuntimeException(e);
                     }
 
-                    if (!resultSet.getString("closer").equals(Strings.EMPTY)) {
-                        ticketBuilder.closer(jda.retrieveUserById(resultSet.getString("closer")).complete());
+                    long closerId = resultSet.getLong("closer");
+                    if (closerId != 0) {
+                        ticketBuilder.closer(jda.retrieveUserById(closerId).complete());
                     }
 
-                    if (!resultSet.getString("supporter").equals(Strings.EMPTY)) {
-                        ticketBuilder.supporter(jda.retrieveUserById(resultSet.getString("supporter")).complete());
+                    long supporterId = resultSet.getLong("supporter");
+                    if (supporterId != 0) {
+                        ticketBuilder.supporter(jda.retrieveUserById(supporterId).complete());
                     }
 
                     // Load closedAt if present
@@ -83,15 +248,23 @@ public class TicketData {
 
                     // Load pending rating fields
                     ticketBuilder.ratingRemindersSent(resultSet.getInt("ratingRemindersSent"));
-                    String pendingRatingSince = resultSet.getString("pendingRatingSince");
-                    if (pendingRatingSince != null) {
-                        ticketBuilder.pendingRatingSince(Instant.parse(pendingRatingSince));
-                    }
-                    String pendingCloserId = resultSet.getString("pendingCloser");
-                    if (pendingCloserId != null && !pendingCloserId.equals(Strings.EMPTY)) {
+                    ticketBuilder.pendingRatingSince(instant(resultSet, "pendingRatingSince"));
+                    long pendingCloserId = resultSet.getLong("pendingCloser");
+                    if (pendingCloserId != 0) {
                         ticketBuilder.pendingCloser(jda.retrieveUserById(pendingCloserId).complete());
                     }
 
+                    ticketBuilder.archivedIn(resultSet.getString("archivedIn"));
+
+                    String participants = resultSet.getString("participants");
+                    if (participants != null) {
+                        try {
+                            ticketBuilder.participants(mapper.readValue(participants, Participants.class));
+                        } catch (JsonProcessingException e) {
+                            // unreadable, rebuilt from the transcript below
+                        }
+                    }
+
                     return ticketBuilder;
                 })
                 .findFirst()).orElse(null);
@@ -100,14 +273,149 @@ public class TicketData {
             return null;
         }
 
-        return builder.transcript(transcriptData.loadTranscript(ticketID)).build();
+        Ticket ticket = builder.involved(loadInvolved(ticketID)).build();
+        if (ticket.getArchivedIn() != null) {
+            AuthorNames authorNames = new AuthorNames();
+            ticket.setTranscript(transcriptData.newTranscript(archiveData.loadMessages(ticket.getArchivedIn(), ticketID, authorNames), authorNames));
+        } else {
+            ticket.setTranscript(transcriptData.loadTranscript(ticketID));
+        }
+        if (ticket.getParticipants().getAuthorIds().isEmpty()) {
+            seedParticipants(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Rebuilds the participants of tickets created before they were tracked from the stored transcript.
+     * The roles of other authors aren't known there, so they are counted as {@link Participants.Role#OTHER}.
+     */
+    private void seedParticipants(Ticket ticket) {
+        long ownerId = ticket.getOwner().getIdLong();
+        String ownerName = ticket.getOwner().getName();
+        Participants participants = ticket.getParticipants();
+        Transcript transcript = ticket.getTranscript();
+        for (Message message : transcript.getMessages()) {
+            if (message.getId() == 0 || message.isBot()) continue;
+
+            boolean isOwner = message.getAuthorId() > 0 ? message.getAuthorId() == ownerId : transcript.getAuthorName(message).equals(ownerName);
+            // messages without author id can't be told apart, they share the id 0
+            participants.record(isOwner ? ownerId : Math.max(0, message.getAuthorId()), isOwner ? Participants.Role.OWNER : Participants.Role.OTHER, message.getTimestamp());
+        }
+    }
+
+    /**
+     * Saves only the participants, which change with every message.
+     */
+    public void saveParticipants(Ticket ticket) {
+        ticket.getParticipants().setDirty(false);
+        try {
+            String json = participantsJson(new ObjectMapper(), ticket);
+            jdbi.useHandle(handle -> updateParticipants(handle, ticket.getId(), json));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Journals the participants of an existing ticket, see {@link ChangeJournal#release(long)}.
+     *
+     * @return the journal segment or {@code -1} for new tickets
+     */
+    public long journalParticipants(Ticket ticket) {
+        if (ticket.getId() == 0) {
+            return -1;
+        }
+        try {
+            return journal.appendTicketWrite(ChangeJournal.Entry.participants(ticket.getId(), participantsJson(new ObjectMapper(), ticket)));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void updateParticipants(Handle handle, int ticketId, String json) {
+        handle.createUpdate("UPDATE tickets SET participants=? WHERE ticketID=?")
+                .bind(0, json)
+                .bind(1, ticketId)
+                .execute();
+    }
+
+    private static String participantsJson(ObjectMapper mapper, Ticket ticket) throws JsonProcessingException {
+        Participants participants = ticket.getParticipants();
+        // record() mutates under the same lock
+        synchronized (participants) {
+            return mapper.writeValueAsString(participants);
+        }
+    }
+
+    private ArrayList<String> loadInvolved(int ticketID) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT userID FROM ticket_members WHERE ticketID = ? AND role = ? ORDER BY addedAt")
+                .bind(0, ticketID)
+                .bind(1, MemberRole.INVOLVED.name())
+                .mapTo(String.class)
+                .collect(Collectors.toCollection(ArrayList::new)));
+    }
+
+    /**
+     * Adds a member to the ticket, without rewriting the ticket.
+     */
+    public void addMember(int ticketId, long userId, MemberRole role) {
+        jdbi.useHandle(handle -> insertMember(handle, ticketId, userId, role.name(), Instant.now().getEpochSecond()));
+    }
+
+    public void removeMember(int ticketId, long userId) {
+        jdbi.useHandle(handle -> deleteMember(handle, ticketId, userId));
+    }
+
+    /**
+     * Journals that a user was added to or removed from an existing ticket, see {@link ChangeJournal#release(long)}.
+     *
+     * @param role the role of an added user, {@code null} if the user was removed
+     * @return the journal segment or {@code -1} for new tickets
+     */
+    public long journalMember(int ticketId, long userId, MemberRole role) {
+        if (ticketId == 0) {
+            return -1;
+        }
+        return journal.appendTicketWrite(role != null
+                ? ChangeJournal.Entry.memberAdded(ticketId, userId, role.name(), Instant.now().getEpochSecond())
+                : ChangeJournal.Entry.memberRemoved(ticketId, userId));
+    }
+
+    static void replayMember(Handle handle, ChangeJournal.Entry entry) {
+        if (entry.type() == ChangeJournal.Type.MEMBER_ADDED) {
+            insertMember(handle, entry.ticketId(), entry.authorId(), entry.content(), entry.timestamp());
+        } else {
+            deleteMember(handle, entry.ticketId(), entry.authorId());
+        }
+    }
+
+    private static void insertMember(Handle handle, int ticketId, long userId, String role, long addedAt) {
+        handle.createUpdate(INSERT_MEMBER)
+                .bind(0, ticketId)
+                .bind(1, userId)
+                .bind(2, role)
+                .bind(3, addedAt)
+                .execute();
+    }
+
+    private static void deleteMember(Handle handle, int ticketId, long userId) {
+        handle.createUpdate("DELETE FROM ticket_members WHERE ticketID = ? AND userID = ?")
+                .bind(0, ticketId)
+                .bind(1, userId)
+                .execute();
+    }
+
+    private static Instant instant(ResultSet resultSet, String column) throws SQLException {
+        long epochSecond = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : Instant.ofEpochSecond(epochSecond);
     }
 
     protected Ticket loadTicket(long ticketChannelID) {
         return this.loadTicket(getTicketIdByChannelId(ticketChannelID));
     }
 
-    protected List<Integer> getTicketIdsByUser(String user) {
+    protected List<Integer> getTicketIdsByUser(long user) {
         return jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID FROM tickets WHERE owner=?")
                 .bind(0, user)
                 .mapTo(Integer.class)
@@ -120,7 +428,7 @@ public class TicketData {
                 .list());
     }
 
-    public List<Integer> getOpenTicketsOfUser(String user) {
+    public List<Integer> getOpenTicketsOfUser(long user) {
         return jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID FROM tickets WHERE owner=? AND isOpen=true")
                 .bind(0, user)
                 .mapTo(Integer.class)
@@ -143,65 +451,110 @@ public class TicketData {
     }
 
     public int saveTicket(Ticket ticket) {
+        List<Object> columns = ticketColumns(ticket);
+        return jdbi.withHandle(handle -> {
+            // If no ticketID (0), INSERT and return generated key; otherwise UPDATE and return existing id
+            if (ticket.getId() == 0) {
+                Update update = bindColumns(handle.createUpdate(INSERT_TICKET), columns);
+                return update.executeAndReturnGeneratedKeys("ticketID").mapTo(Integer.class).one();
+            } else {
+                bindColumns(handle.createUpdate(UPDATE_TICKET), columns)
+                        .bind(columns.size(), ticket.getId())
+                        .execute();
+                return ticket.getId();
+            }
+        });
+    }
+
+    /**
+     * Journals the current state of an existing ticket, see {@link ChangeJournal#release(long)}.
+     *
+     * @return the journal segment or {@code -1} for new tickets, which are inserted right away
+     */
+    public long journalTicket(Ticket ticket) {
+        if (ticket.getId() == 0) {
+            return -1;
+        }
+        return journal.appendTicketWrite(ChangeJournal.Entry.ticket(ticket.getId(), ticketColumns(ticket)));
+    }
+
+    /**
+     * @return the values of the ticket columns in the order of {@link #INSERT_TICKET} and {@link #UPDATE_TICKET}
+     */
+    private List<Object> ticketColumns(Ticket ticket) {
         ObjectMapper mapper = new ObjectMapper();
         try {
-            return jdbi.withHandle(handle -> {
-                // If no ticketID (0), INSERT and return generated key; otherwise UPDATE and return existing id
-                if (ticket.getId() == 0) {
-                    Update update = handle.createUpdate("INSERT INTO tickets (channelID, threadID, category, info, isWaiting, owner, supporter, involved, baseMessage, isOpen, waitingSince, remindersSent, closeMessage, closer, closedAt, pendingRatingSince, ratingRemindersSent, pendingCloser, lastSupporterMessageAt) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                    update
-                            .bind(0, ticket.getTextChannel() != null ? ticket.getTextChannel().getId() : "")
-                            .bind(1, ticket.getThreadChannel() != null ? ticket.getThreadChannel().getId() : "")
-                            .bind(2, ticket.getCategory().getId())
-                            .bind(3, mapper.writeValueAsString(ticket.getInfo()))
-                            .bind(4, ticket.isWaiting())
-                            .bind(5, ticket.getOwner().getId())
-                            .bind(6, ticket.getSupporter() != null ? ticket.getSupporter().getId() : "")
-                            .bind(7, ticket.getInvolved() == null || ticket.getInvolved().isEmpty() ? "" : ticket.getInvolved().toString().replace("[", "").replace("]", ""))
-                            .bind(8, ticket.getBaseMessage() == null ? "" : ticket.getBaseMessage())
-                            .bind(9, ticket.isOpen())
-                            .bind(10, ticket.getWaitingSince() == null ? null : ticket.getWaitingSince().toString())
-                            .bind(11, ticket.getRemindersSent())
-                            .bind(12, ticket.getCloseMessage())
-                            .bind(13, ticket.getCloser() != null ? ticket.getCloser().getId() : "")
-                            .bind(14, ticket.getClosedAt())
-                            .bind(15, ticket.getPendingRatingSince() == null ? null : ticket.getPendingRatingSince().toString())
-                            .bind(16, ticket.getRatingRemindersSent())
-                            .bind(17, ticket.getPendingCloser() != null ? ticket.getPendingCloser().getId() : "")
-                            .bind(18, ticket.getLastSupporterMessageAt());
-                    return update.executeAndReturnGeneratedKeys("ticketID").mapTo(Integer.class).one();
-                } else {
-                    handle.createUpdate("UPDATE tickets SET channelID=?, threadID=?, category=?, info=?, isWaiting=?, owner=?, supporter=?, involved=?, baseMessage=?, isOpen=?, waitingSince=?, remindersSent=?, closeMessage=?, closer=?, closedAt=?, pendingRatingSince=?, ratingRemindersSent=?, pendingCloser=?, lastSupporterMessageAt=? WHERE ticketID =?")
-                            .bind(0, ticket.getTextChannel() != null ? ticket.getTextChannel().getId() : "")
-                            .bind(1, ticket.getThreadChannel() != null ? ticket.getThreadChannel().getId() : "")
-                            .bind(2, ticket.getCategory().getId())
-                            .bind(3, mapper.writeValueAsString(ticket.getInfo()))
-                            .bind(4, ticket.isWaiting())
-                            .bind(5, ticket.getOwner().getId())
-                            .bind(6, ticket.getSupporter() != null ? ticket.getSupporter().getId() : "")
-                            .bind(7, ticket.getInvolved() == null || ticket.getInvolved().isEmpty() ? "" : ticket.getInvolved().toString().replace("[", "").replace("]", ""))
-                            .bind(8, ticket.getBaseMessage() == null ? "" : ticket.getBaseMessage())
-                            .bind(9, ticket.isOpen())
-                            .bind(10, ticket.getWaitingSince() == null ? null : ticket.getWaitingSince().toString())
-                            .bind(11, ticket.getRemindersSent())
-                            .bind(12, ticket.getCloseMessage())
-                            .bind(13, ticket.getCloser() != null ? ticket.getCloser().getId() : "")
-                            .bind(14, ticket.getClosedAt())
-                            .bind(15, ticket.getPendingRatingSince() == null ? null : ticket.getPendingRatingSince().toString())
-                            .bind(16, ticket.getRatingRemindersSent())
-                            .bind(17, ticket.getPendingCloser() != null ? ticket.getPendingCloser().getId() : "")
-                            .bind(18, ticket.getLastSupporterMessageAt())
-                            .bind(19, ticket.getId())
-                            .execute();
-                    return ticket.getId();
-                }
-            });
+            return Arrays.asList(
+                    ticket.getTextChannel() != null ? ticket.getTextChannel().getIdLong() : null,
+                    ticket.getThreadChannel() != null ? ticket.getThreadChannel().getIdLong() : null,
+                    ticket.getCategory().getId(),
+                    mapper.writeValueAsString(ticket.getInfo()),
+                    ticket.isWaiting(),
+                    ticket.getOwner().getIdLong(),
+                    ticket.getSupporter() != null ? ticket.getSupporter().getIdLong() : null,
+                    ticket.getBaseMessage() == null ? "" : ticket.getBaseMessage(),
+                    ticket.isOpen(),
+                    ticket.getWaitingSince() == null ? null : ticket.getWaitingSince().getEpochSecond(),
+                    ticket.getRemindersSent(),
+                    ticket.getCloseMessage(),
+                    ticket.getCloser() != null ? ticket.getCloser().getIdLong() : null,
+                    ticket.getClosedAt(),
+                    ticket.getPendingRatingSince() == null ? null : ticket.getPendingRatingSince().getEpochSecond(),
+                    ticket.getRatingRemindersSent(),
+                    ticket.getPendingCloser() != null ? ticket.getPendingCloser().getIdLong() : null,
+                    ticket.getLastSupporterMessageAt(),
+                    participantsJson(mapper, ticket));
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    // Stats queries
+    /**
+     * Writes a journaled ticket. Columns journaled before the involved users moved to {@code ticket_members} still
+     * have them as a list and may be from before the table was typed, when ids were strings with {@code ""} for none
+     * and timestamps ISO strings. Their involved users are added as members, users removed in that write stay.
+     */
+    static void replayTicket(Handle handle, int ticketId, List<Object> columns) {
+        if (columns.size() == LEGACY_COLUMN_COUNT) {
+            columns = typedColumns(columns);
+            if (columns.remove(LEGACY_INVOLVED_COLUMN) instanceof String involved) {
+                PreparedBatch batch = handle.prepareBatch(INSERT_MEMBER);
+                for (long userId : parseInvolved(involved)) {
+                    batch.bind(0, ticketId).bind(1, userId).bind(2, MemberRole.INVOLVED.name()).bind(3, Instant.now().getEpochSecond()).add();
+                }
+                if (batch.size() > 0) {
+                    batch.execute();
+                }
+            }
+        }
+        bindColumns(handle.createUpdate(UPDATE_TICKET), columns)
+                .bind(columns.size(), ticketId)
+                .execute();
+    }
+
+    private static List<Object> typedColumns(List<Object> columns) {
+        List<Object> typed = new ArrayList<>(columns);
+        for (int column : LEGACY_ID_COLUMNS) {
+            if (typed.get(column) instanceof String id) {
+                typed.set(column, id.isEmpty() ? null : Long.parseLong(id));
+            }
+        }
+        for (int column : LEGACY_TIME_COLUMNS) {
+            if (typed.get(column) instanceof String time) {
+                typed.set(column, time.isEmpty() ? null : Instant.parse(time).getEpochSecond());
+            }
+        }
+        return typed;
+    }
+
+    static Update bindColumns(Update update, List<Object> columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            update.bind(i, columns.get(i));
+        }
+        return update;
+    }
+
+    // Stats queries, the state counts are projected from the ticket events and as of the last flush
     public int countTotalTickets() {
         return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM tickets")
                 .mapTo(Integer.class)
@@ -210,21 +563,21 @@ public class TicketData {
     }
 
     public int countOpenTickets() {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM tickets WHERE isOpen = true")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM ticket_state WHERE status != 'CLOSED'")
                 .mapTo(Integer.class)
                 .findOne()
                 .orElse(0));
     }
 
     public int countWaitingTickets() {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM tickets WHERE isWaiting = true AND isOpen = true")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM ticket_state WHERE status = 'WAITING'")
                 .mapTo(Integer.class)
                 .findOne()
                 .orElse(0));
     }
 
     public Map<String, Integer> topClosers(int limit) {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT closer, COUNT(*) as c FROM tickets WHERE isOpen = false AND closer != '' GROUP BY closer ORDER BY c DESC LIMIT :limit")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT closer, COUNT(*) as c FROM ticket_state WHERE status = 'CLOSED' AND closer IS NOT NULL GROUP BY closer ORDER BY c DESC LIMIT :limit")
                 .bind("limit", limit)
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
                     map.put(row.getColumn("closer", String.class), row.getColumn("c", Integer.class));
@@ -233,7 +586,7 @@ public class TicketData {
     }
 
     public Map<String, Integer> topSupporters(int limit) {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT supporter, COUNT(*) as c FROM tickets WHERE isOpen = true AND supporter != '' GROUP BY supporter ORDER BY c DESC LIMIT :limit")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT supporter, COUNT(*) as c FROM ticket_state WHERE status != 'CLOSED' AND supporter IS NOT NULL GROUP BY supporter ORDER BY c DESC LIMIT :limit")
                 .bind("limit", limit)
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
                     map.put(row.getColumn("supporter", String.class), row.getColumn("c", Integer.class));
@@ -242,7 +595,7 @@ public class TicketData {
     }
 
     public Map<String, String> nextTicketsForClosing(int limit) {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT channelID, waitingSince FROM tickets WHERE isOpen = true AND waitingSince != '' ORDER BY waitingSince ASC LIMIT :limit")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT channelID, waitingSince FROM tickets WHERE isOpen = true AND waitingSince IS NOT NULL ORDER BY waitingSince ASC LIMIT :limit")
                 .bind("limit", limit)
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
                     map.put(row.getColumn("channelID", String.class), row.getColumn("waitingSince", String.class));
@@ -252,7 +605,7 @@ public class TicketData {
 
     public Map<String, Map<String, String>> longestSinceLastSupporterMessage(int limit) {
         long now = Instant.now().getEpochSecond();
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT supporter, channelID, lastSupporterMessageAt FROM tickets WHERE isOpen = true AND supporter != '' AND :now - 43200 > lastSupporterMessageAt AND isWaiting = false AND pendingRatingSince IS NULL ORDER BY lastSupporterMessageAt ASC LIMIT :limit")
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT supporter, channelID, lastSupporterMessageAt FROM tickets WHERE isOpen = true AND supporter IS NOT NULL AND :now - 43200 > lastSupporterMessageAt AND isWaiting = false AND pendingRatingSince IS NULL ORDER BY lastSupporterMessageAt ASC LIMIT :limit")
                 .bind("limit", limit)
                 .bind("now", now)
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
@@ -280,7 +633,7 @@ public class TicketData {
     public Map<String, Integer> countClosedTicketsPerSupporterLastDays(int days) {
         long since = Instant.now().minus(days, ChronoUnit.DAYS).getEpochSecond();
         return jdbi.withHandle(handle -> handle.createQuery(
-                        "SELECT supporter, COUNT(*) as c FROM tickets WHERE isOpen = false AND supporter != '' AND closedAt >= ? GROUP BY supporter ORDER BY c DESC")
+                        "SELECT supporter, COUNT(*) as c FROM tickets WHERE isOpen = false AND supporter IS NOT NULL AND closedAt >= ? GROUP BY supporter ORDER BY c DESC")
                 .bind(0, since)
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
                     map.put(row.getColumn("supporter", String.class), row.getColumn("c", Integer.class));
@@ -297,7 +650,7 @@ public class TicketData {
 
     public Map<String, Integer> countClosedTicketsPerSupporterAllTime() {
         return jdbi.withHandle(handle -> handle.createQuery(
-                        "SELECT supporter, COUNT(*) as c FROM tickets WHERE isOpen = false AND supporter != '' GROUP BY supporter ORDER BY c DESC")
+                        "SELECT supporter, COUNT(*) as c FROM tickets WHERE isOpen = false AND supporter IS NOT NULL GROUP BY supporter ORDER BY c DESC")
                 .reduceRows(new LinkedHashMap<>(), (map, row) -> {
                     map.put(row.getColumn("supporter", String.class), row.getColumn("c", Integer.class));
                     return map;
@@ -316,4 +669,111 @@ public class TicketData {
                 .bind(1, ticketId)
                 .execute());
     }
-}
\ No newline at end of file
+
+    /**
+     * Lists the tickets matching the filter, newest first, one page after the other without an offset: every page
+     * continues after the cursor of the last ticket of the page before. Tickets filtered by their close time are
+     * ordered by it, all others by id, so the composite indexes also provide the order.
+     *
+     * @param after the cursor of the last ticket of the previous page, {@code null} for the first page
+     */
+    public List<TicketSummary> findTickets(TicketFilter filter, Cursor after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT ticketID, category, owner, supporter, isOpen, isWaiting, closedAt, closeMessage FROM tickets WHERE true");
+        List<Object> args = new ArrayList<>();
+        if (filter.supporter() != null) {
+            sql.append(" AND supporter = ?");
+            args.add(filter.supporter());
+        }
+        if (filter.category() != null) {
+            sql.append(" AND category = ?");
+            args.add(filter.category());
+        }
+        if (filter.status() != null) {
+            sql.append(switch (filter.status()) {
+                case OPEN -> " AND isOpen = true";
+                case WAITING -> " AND isOpen = true AND isWaiting = true";
+                case CLOSED -> " AND isOpen = false";
+            });
+        }
+        if (filter.closedFrom() != null) {
+            sql.append(" AND closedAt >= ?");
+            args.add(filter.closedFrom());
+        }
+        if (filter.closedTo() != null) {
+            sql.append(" AND closedAt < ?");
+            args.add(filter.closedTo());
+        }
+        if (filter.closeReason() != null) {
+            sql.append(" AND closeMessage LIKE ? ESCAPE '\\'");
+            args.add("%" + filter.closeReason().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (filter.byClosedAt()) {
+            if (after != null) {
+                sql.append(" AND (closedAt, ticketID) < (?, ?)");
+                args.add(after.key());
+                args.add(after.ticketId());
+            }
+            sql.append(" ORDER BY closedAt DESC, ticketID DESC");
+        } else {
+            if (after != null) {
+                sql.append(" AND ticketID < ?");
+                args.add(after.ticketId());
+            }
+            sql.append(" ORDER BY ticketID DESC");
+        }
+        sql.append(" LIMIT ?");
+        args.add(limit);
+
+        return jdbi.withHandle(handle -> {
+            var query = handle.createQuery(sql.toString());
+            for (int i = 0; i < args.size(); i++) {
+                query.bind(i, args.get(i));
+            }
+            return query.map((r, columnNumber, ctx) -> {
+                long supporter = r.getLong("supporter");
+                long closedAt = r.getLong("closedAt");
+                boolean notClosed = r.wasNull();
+                return new TicketSummary(r.getInt("ticketID"), r.getString("category"), r.getLong("owner"), supporter == 0 ? null : supporter,
+                        r.getBoolean("isOpen"), r.getBoolean("isWaiting"), notClosed ? null : closedAt, r.getString("closeMessage"));
+            }).list();
+        });
+    }
+
+    /**
+     * Why a user is a member of a ticket, so far only users added with {@code /ticket add}.
+     */
+    public enum MemberRole {
+        INVOLVED
+    }
+
+    public enum Status {
+        OPEN,
+        WAITING,
+        CLOSED
+    }
+
+    /**
+     * Filters of {@link #findTickets}, {@code null} doesn't filter.
+     *
+     * @param closedFrom  epoch seconds, inclusive
+     * @param closedTo    epoch seconds, exclusive
+     * @param closeReason part of the close message
+     */
+    public record TicketFilter(Long supporter, String category, Status status, Long closedFrom, Long closedTo, String closeReason) {
+        public boolean byClosedAt() {
+            return closedFrom != null || closedTo != null;
+        }
+    }
+
+    /**
+     * Where the next page starts, {@code key} is the close time if the tickets are ordered by it, otherwise the id.
+     */
+    public record Cursor(long key, int ticketId) {
+        public static Cursor of(TicketFilter filter, TicketSummary last) {
+            return new Cursor(filter.byClosedAt() ? last.closedAt() : last.ticketId(), last.ticketId());
+        }
+    }
+
+    public record TicketSummary(int ticketId, String category, long owner, Long supporter, boolean isOpen, boolean isWaiting,
+                                Long closedAt, String closeMessage) {}
+}
@@ -0,0 +1,262 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
+import eu.greev.dcbot.ticketsystem.entities.TicketState;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Append-only history of ticket state changes and the current state projected from it.
+ * <p>
+ * Events are journaled when they happen and written in one batch with every flush of the transcript changes, see
+ * {@link TicketService#flushChanges()}. The same transaction folds them into {@code ticket_state}, so the state there
+ * is as of the last flush. The tickets row keeps everything a single ticket is loaded with, the state answers the
+ * counts over all tickets and the events how long tickets spent in each state.
+ * <p>
+ * Every event gets its id when it is recorded. Replayed events may already be in the database and are ignored by it,
+ * a ticket's state skips events up to the last one applied.
+ */
+@Slf4j
+public class TicketEventData {
+    // events of tickets deleted in the meantime, like accidental ones, are dropped
+    private static final String INSERT_EVENT = "INSERT OR IGNORE INTO ticket_events (eventID, ticketID, type, userID, time) SELECT ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM tickets WHERE ticketID = ?)";
+    private static final String UPSERT_STATE = "INSERT OR REPLACE INTO ticket_state (ticketID, status, owner, supporter, closer, pendingRating, since, lastEventID) SELECT ?, ?, ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM tickets WHERE ticketID = ?)";
+
+    private final Jdbi jdbi;
+    private final ChangeJournal journal;
+    private final AtomicLong nextEventId;
+    private final Queue<Recorded> pending = new ConcurrentLinkedQueue<>();
+    private final List<Consumer<TicketEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    protected TicketEventData(Jdbi jdbi, ChangeJournal journal) {
+        this.jdbi = jdbi;
+        this.journal = journal;
+        // the journal is replayed before, so every event of the last run is counted
+        this.nextEventId = new AtomicLong(jdbi.withHandle(handle -> handle.createQuery("SELECT COALESCE(MAX(eventID), 0) FROM ticket_events")
+                .mapTo(Long.class)
+                .one()));
+    }
+
+    /**
+     * Fills {@code ticket_state} from the tickets rows, for the tickets from before the events.
+     */
+    static void seedStates(Handle handle) {
+        int seeded = handle.createUpdate("""
+                INSERT OR IGNORE INTO ticket_state (ticketID, status, owner, supporter, closer, pendingRating, since, lastEventID)
+                SELECT ticketID, CASE WHEN isOpen = false THEN 'CLOSED' WHEN isWaiting = true THEN 'WAITING' ELSE 'OPEN' END,
+                    owner, supporter, CASE WHEN isOpen = false THEN closer END, pendingRatingSince IS NOT NULL,
+                    CASE WHEN isOpen = false THEN closedAt WHEN isWaiting = true THEN waitingSince END,
+                    COALESCE((SELECT MAX(eventID) FROM ticket_events e WHERE e.ticketID = tickets.ticketID), 0)
+                FROM tickets""").execute();
+        log.info("Projected the state of {} tickets", seeded);
+    }
+
+    public void record(TicketEvent event) {
+        synchronized (this) {
+            // ids are handed out, queued and journaled in the same order, so states fold the events in order. Queued
+            // before it is journaled, a flush in between writes it and the replayed entry is ignored by its id
+            long eventId = nextEventId.incrementAndGet();
+            pending.add(new Recorded(eventId, event));
+            journal.append(ChangeJournal.Entry.event(eventId, event));
+        }
+        listeners.forEach(listener -> listener.accept(event));
+    }
+
+    /**
+     * Calls the listener with every recorded event, on the thread recording it.
+     */
+    public void addListener(Consumer<TicketEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Writes the recorded events and their states in one transaction. If that fails they are kept for the next flush,
+     * which writes them in id order together with the events recorded in the meantime.
+     */
+    public void flush() {
+        List<Recorded> events = new ArrayList<>();
+        Recorded event;
+        while ((event = pending.poll()) != null) {
+            events.add(event);
+        }
+        if (events.isEmpty()) return;
+        // events put back by a failed flush are queued behind newer ones, the states skip events older than the last
+        events.sort(Comparator.comparingLong(Recorded::eventId));
+
+        try {
+            jdbi.useTransaction(handle -> write(handle, events));
+        } catch (RuntimeException e) {
+            pending.addAll(events);
+            throw e;
+        }
+    }
+
+    void replay(Handle handle, ChangeJournal.Entry entry) {
+        TicketEvent event = new TicketEvent(entry.ticketId(), TicketEvent.Type.valueOf(entry.content()),
+                entry.authorId() == 0 ? null : entry.authorId(), entry.timestamp());
+        long eventId = entry.messageId();
+        if (eventId == 0) {
+            // journaled before events had ids, these were told apart by ticket, time and type
+            boolean written = handle.createQuery("SELECT COUNT(*) FROM ticket_events WHERE ticketID = ? AND time = ? AND type = ?")
+                    .bind(0, event.ticketId())
+                    .bind(1, event.time())
+                    .bind(2, event.type().name())
+                    .mapTo(Integer.class)
+                    .one() > 0;
+            if (written) return;
+            eventId = nextEventId.incrementAndGet();
+        }
+        write(handle, List.of(new Recorded(eventId, event)));
+    }
+
+    private static void write(Handle handle, List<Recorded> events) {
+        PreparedBatch batch = handle.prepareBatch(INSERT_EVENT);
+        for (Recorded recorded : events) {
+            TicketEvent event = recorded.event();
+            batch.bind(0, recorded.eventId())
+                    .bind(1, event.ticketId())
+                    .bind(2, event.type().name())
+                    .bind(3, event.userId())
+                    .bind(4, event.time())
+                    .bind(5, event.ticketId())
+                    .add();
+        }
+        batch.execute();
+        project(handle, events);
+    }
+
+    private static void project(Handle handle, List<Recorded> events) {
+        Map<Integer, TicketState> states = new LinkedHashMap<>();
+        for (Recorded recorded : events) {
+            int ticketId = recorded.event().ticketId();
+            TicketState state = states.containsKey(ticketId) ? states.get(ticketId) : loadState(handle, ticketId);
+            if (recorded.eventId() > state.lastEventId()) {
+                states.put(ticketId, state.apply(recorded.eventId(), recorded.event()));
+            }
+        }
+        if (states.isEmpty()) return;
+
+        PreparedBatch batch = handle.prepareBatch(UPSERT_STATE);
+        for (TicketState state : states.values()) {
+            batch.bind(0, state.ticketId())
+                    .bind(1, state.status().name())
+                    .bind(2, state.owner())
+                    .bind(3, state.supporter())
+                    .bind(4, state.closer())
+                    .bind(5, state.pendingRating())
+                    .bind(6, state.since())
+                    .bind(7, state.lastEventId())
+                    .bind(8, state.ticketId())
+                    .add();
+        }
+        batch.execute();
+    }
+
+    private static TicketState loadState(Handle handle, int ticketId) {
+        return handle.createQuery("SELECT status, owner, supporter, closer, pendingRating, since, lastEventID FROM ticket_state WHERE ticketID = ?")
+                .bind(0, ticketId)
+                .map((r, columnNumber, ctx) -> new TicketState(ticketId, TicketData.Status.valueOf(r.getString("status")),
+                        nullableLong(r, "owner"), nullableLong(r, "supporter"), nullableLong(r, "closer"),
+                        r.getBoolean("pendingRating"), nullableLong(r, "since"), r.getLong("lastEventID")))
+                .findOne()
+                .orElseGet(() -> TicketState.initial(ticketId));
+    }
+
+    private static Long nullableLong(ResultSet resultSet, String column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    /**
+     * Sums up how long tickets spent unclaimed, waiting and pending a rating, in one pass over the events of the
+     * tickets with an event since then, ticket by ticket in the order they were written.
+     *
+     * @param since epoch seconds, only spans ending after it are counted
+     */
+    public TimeInState timeInState(long since) {
+        return jdbi.withHandle(handle -> {
+            Span toClaim = new Span();
+            Span waiting = new Span();
+            Span pendingRating = new Span();
+            // start times of the unclaimed, waiting and pending rating spans of the current ticket, 0 while not in
+            // that state
+            long[] starts = new long[3];
+            int[] ticket = {0};
+            handle.createQuery("SELECT ticketID, type, time FROM ticket_events WHERE ticketID IN (SELECT ticketID FROM ticket_events WHERE time >= ?) ORDER BY ticketID, eventID")
+                    .bind(0, since)
+                    .map((r, columnNumber, ctx) -> new TicketEvent(r.getInt("ticketID"), TicketEvent.Type.valueOf(r.getString("type")), null, r.getLong("time")))
+                    .forEach(event -> {
+                        if (event.ticketId() != ticket[0]) {
+                            ticket[0] = event.ticketId();
+                            Arrays.fill(starts, 0);
+                        }
+                        switch (event.type()) {
+                            case CREATED -> starts[0] = event.time();
+                            case CLAIMED -> starts[0] = end(toClaim, starts[0], event.time(), since);
+                            case WAITING -> starts[1] = starts[1] == 0 ? event.time() : starts[1];
+                            case RESUMED -> starts[1] = end(waiting, starts[1], event.time(), since);
+                            case PENDING_RATING -> starts[2] = starts[2] == 0 ? event.time() : starts[2];
+                            case RATING_ENDED -> starts[2] = end(pendingRating, starts[2], event.time(), since);
+                            case CLOSED -> {
+                                starts[0] = 0;
+                                end(waiting, starts[1], event.time(), since);
+                                starts[1] = 0;
+                            }
+                            default -> {
+                                // transfers and owner changes don't change a time in state
+                            }
+                        }
+                    });
+            return new TimeInState(toClaim, waiting, pendingRating);
+        });
+    }
+
+    private static long end(Span span, long start, long end, long since) {
+        if (start != 0 && end >= since) {
+            span.add(end - start);
+        }
+        return 0;
+    }
+
+    /**
+     * @param waiting       from waiting to resumed or closed
+     * @param pendingRating from asking for the rating until it was given or given up on
+     */
+    public record TimeInState(Span toClaim, Span waiting, Span pendingRating) {}
+
+    private record Recorded(long eventId, TicketEvent event) {}
+
+    public static class Span {
+        private int count;
+        private long totalSeconds;
+
+        private void add(long seconds) {
+            count++;
+            totalSeconds += Math.max(0, seconds);
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public long averageSeconds() {
+            return count == 0 ? 0 : totalSeconds / count;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
+import eu.greev.dcbot.utils.FenwickTree;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position in line and expected wait of unclaimed tickets, shown on their greeting embed.
+ * <p>
+ * Ticket ids grow with the creation time, so every category counts its unclaimed tickets in a {@link FenwickTree}
+ * by id and the position of a ticket is the prefix sum up to its id, in O(log n) without touching the database.
+ * The expected wait divides the position by the claims per second of the category over its last claims.
+ * <p>
+ * A claim moves every later ticket of the category up, so the greeting embeds are edited together every
+ * {@value #EDIT_INTERVAL_SECONDS} seconds and only if their text changed.
+ */
+@Slf4j
+public class TicketQueue {
+    private static final String FIELD_NAME = "⏳ **Queue**";
+    private static final long EDIT_INTERVAL_SECONDS = 30;
+    private static final int CLAIM_SAMPLES = 20;
+    private static final int MIN_CLAIM_SAMPLES = 3;
+    private static final long ETA_STEP_MINUTES = 5;
+
+    private final JDA jda;
+    private final Jdbi jdbi;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, FenwickTree> queues = new HashMap<>();
+    private final Map<Integer, Queued> queued = new HashMap<>();
+    private final Map<String, Deque<Long>> claimTimes = new HashMap<>();
+    // the text shown on each greeting embed, tickets which left the line still need it removed
+    private final Map<Integer, String> shown = new HashMap<>();
+    private final Map<Integer, Queued> leftQueue = new HashMap<>();
+    private int baseId;
+
+    public TicketQueue(JDA jda, Jdbi jdbi) {
+        this.jda = jda;
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Loads the open unclaimed tickets and starts updating their greeting embeds.
+     */
+    public void start() {
+        List<Queued> tickets = jdbi.withHandle(handle -> handle.createQuery("SELECT ticketID, category, channelID, baseMessage FROM tickets WHERE isOpen = true AND supporter IS NULL AND pendingRatingSince IS NULL AND channelID IS NOT NULL ORDER BY ticketID")
+                .map((r, columnNumber, ctx) -> new Queued(r.getInt("ticketID"), r.getString("category"), r.getLong("channelID"), r.getString("baseMessage")))
+                .list());
+        int lastId = jdbi.withHandle(handle -> handle.createQuery("SELECT COALESCE(MAX(ticketID), 0) FROM tickets").mapTo(Integer.class).one());
+        synchronized (this) {
+            baseId = tickets.isEmpty() ? lastId + 1 : tickets.get(0).ticketId();
+            tickets.forEach(this::add);
+        }
+        log.info("Loaded {} unclaimed tickets into the queue", tickets.size());
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                editGreetings();
+            } catch (Exception e) {
+                log.error("Could not update the queue positions", e);
+            }
+        }, EDIT_INTERVAL_SECONDS, EDIT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Puts a new ticket at the end of the line of its category, once its greeting was sent.
+     */
+    public synchronized void enqueue(Ticket ticket) {
+        if (ticket.getTextChannel() == null) return;
+        add(new Queued(ticket.getId(), ticket.getCategory().getId(), ticket.getTextChannel().getIdLong(), ticket.getBaseMessage()));
+    }
+
+    private void add(Queued ticket) {
+        if (ticket.ticketId() < baseId || ticket.baseMessage() == null || ticket.baseMessage().isBlank() || queued.containsKey(ticket.ticketId())) return;
+        queued.put(ticket.ticketId(), ticket);
+        queues.computeIfAbsent(ticket.category(), k -> new FenwickTree()).add(ticket.ticketId() - baseId, 1);
+    }
+
+    /**
+     * Takes claimed and closed tickets out of the line, claims also count for the expected wait.
+     */
+    public synchronized void onEvent(TicketEvent event) {
+        if (event.type() != TicketEvent.Type.CLAIMED && event.type() != TicketEvent.Type.CLOSED) return;
+        Queued ticket = queued.remove(event.ticketId());
+        if (ticket == null) return;
+
+        queues.get(ticket.category()).add(ticket.ticketId() - baseId, -1);
+        if (shown.containsKey(ticket.ticketId())) {
+            leftQueue.put(ticket.ticketId(), ticket);
+        }
+        if (event.type() == TicketEvent.Type.CLAIMED) {
+            Deque<Long> times = claimTimes.computeIfAbsent(ticket.category(), k -> new ArrayDeque<>());
+            times.addLast(event.time());
+            if (times.size() > CLAIM_SAMPLES) {
+                times.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * @return the position of the ticket in the line of its category starting at 1, 0 if it isn't in line
+     */
+    public synchronized int position(int ticketId) {
+        Queued ticket = queued.get(ticketId);
+        if (ticket == null) return 0;
+        return queues.get(ticket.category()).prefixSum(ticketId - baseId);
+    }
+
+    /**
+     * @return the position and, once enough tickets of the category were claimed, the expected wait, {@code null}
+     * if the ticket isn't in line
+     */
+    public synchronized String describe(int ticketId) {
+        int position = position(ticketId);
+        if (position == 0) return null;
+        String text = "You are **#%d** in line".formatted(position);
+
+        Deque<Long> times = claimTimes.get(queued.get(ticketId).category());
+        if (times != null && times.size() >= MIN_CLAIM_SAMPLES) {
+            long window = Math.max(1, Instant.now().getEpochSecond() - times.getFirst());
+            long minutes = position * window / times.size() / 60;
+            long rounded = (minutes / ETA_STEP_MINUTES + 1) * ETA_STEP_MINUTES;
+            text += rounded <= ETA_STEP_MINUTES ? ", it should take less than %d minutes".formatted(ETA_STEP_MINUTES)
+                    : ", it should take about %d minutes".formatted(rounded);
+        }
+        return text;
+    }
+
+    private void editGreetings() {
+        List<Edit> edits = new ArrayList<>();
+        synchronized (this) {
+            for (Queued ticket : queued.values()) {
+                String text = describe(ticket.ticketId());
+                if (!text.equals(shown.get(ticket.ticketId()))) {
+                    shown.put(ticket.ticketId(), text);
+                    edits.add(new Edit(ticket, text));
+                }
+            }
+            for (Queued ticket : leftQueue.values()) {
+                shown.remove(ticket.ticketId());
+                edits.add(new Edit(ticket, null));
+            }
+            leftQueue.clear();
+        }
+        for (Edit edit : edits) {
+            editGreeting(edit.ticket(), edit.text());
+        }
+    }
+
+    /**
+     * @param text the queue field, {@code null} to remove it
+     */
+    private void editGreeting(Queued ticket, String text) {
+        TextChannel channel = jda.getTextChannelById(ticket.channelId());
+        if (channel == null) return;
+        channel.retrieveMessageById(ticket.baseMessage()).queue(message -> {
+            if (message.getEmbeds().isEmpty()) return;
+            EmbedBuilder builder = new EmbedBuilder(message.getEmbeds().get(0));
+            List<MessageEmbed.Field> fields = new ArrayList<>(builder.getFields());
+            builder.clearFields();
+            fields.stream().filter(field -> !FIELD_NAME.equals(field.getName())).forEach(builder::addField);
+            if (text != null) {
+                builder.addField(FIELD_NAME, text, false);
+            }
+            message.editMessageEmbeds(builder.build()).queue();
+        }, error -> log.debug("Could not load the greeting of ticket #{}: {}", ticket.ticketId(), error.getMessage()));
+    }
+
+    private record Queued(int ticketId, String category, long channelId, String baseMessage) {}
+
+    private record Edit(Queued ticket, String text) {}
+}
@@ -1,13 +1,15 @@
 package eu.greev.dcbot.ticketsystem.service;
 
 import lombok.Getter;
-import me.ryzeon.transcripts.DiscordHtmlTranscripts;
+import lombok.Setter;
 import eu.greev.dcbot.Main;
 import eu.greev.dcbot.ticketsystem.categories.ICategory;
-import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.CloseJob;
 import eu.greev.dcbot.ticketsystem.entities.Message;
+import eu.greev.dcbot.ticketsystem.entities.OutboxEntry;
+import eu.greev.dcbot.ticketsystem.entities.Participants;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
-import eu.greev.dcbot.ticketsystem.entities.TranscriptEntity;
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
 import eu.greev.dcbot.utils.Config;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -21,15 +23,19 @@ import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
 import net.dv8tion.jda.api.exceptions.ErrorResponseException;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.managers.channel.concrete.TextChannelManager;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 import net.dv8tion.jda.api.requests.restaction.ChannelAction;
 import net.dv8tion.jda.api.utils.FileUpload;
-import org.apache.logging.log4j.util.Strings;
 import org.jdbi.v3.core.Jdbi;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -40,26 +46,88 @@ public class TicketService {
     @Getter
     private final TicketData ticketData;
     private final Set<Ticket> allCurrentTickets = new HashSet<>();
+    private final HtmlTranscriptRenderer transcriptRenderer;
+    private final TranscriptExporter transcriptExporter;
+    @Getter
+    private final ClosePipeline closePipeline;
+    @Setter
+    private AutoAssigner autoAssigner;
+    @Getter
+    private final TicketQueue ticketQueue;
+    @Getter
+    private final DuplicateIndex duplicateIndex;
     public static final String WAITING_EMOTE = "\uD83D\uDD50";
+    /** Newest messages of the log channel searched for an earlier upload of a transcript. */
+    private static final int TRANSCRIPT_LOOKBACK = 50;
 
-    public TicketService(JDA jda, Config config, Jdbi jdbi, TicketData ticketData) {
+    public TicketService(JDA jda, Config config, Jdbi jdbi, TicketData ticketData, XpService xpService, SupporterSettingsData supporterSettingsData, OutboxDispatcher outboxDispatcher) {
         this.jda = jda;
         this.config = config;
         this.jdbi = jdbi;
         this.ticketData = ticketData;
+        File transcripts = new File("./Tickets/transcripts");
+        this.transcriptRenderer = new HtmlTranscriptRenderer(config, jdbi, ticketData.getArchiveData(), transcripts);
+        this.transcriptExporter = new TranscriptExporter(jdbi, ticketData.getArchiveData(), transcripts);
+        this.ticketQueue = new TicketQueue(jda, jdbi);
+        ticketData.getEventData().addListener(ticketQueue::onEvent);
+        this.duplicateIndex = new DuplicateIndex(config, jdbi);
+        ticketData.getEventData().addListener(duplicateIndex::onEvent);
+        this.closePipeline = new ClosePipeline(this, jdbi, new CloseJobData(jdbi), outboxDispatcher, xpService, supporterSettingsData, config, jda);
 
         new Timer().schedule(new TimerTask() {
             @Override
             public void run() {
-                getOpenCachedTickets().stream()
-                        .map(Ticket::getTranscript)
-                        .map(Transcript::getRecentChanges)
-                        .filter(changes -> !changes.isEmpty())
-                        .forEach(TicketService.this::saveTranscriptChanges);
+                flushChanges();
             }
         }, 0, TimeUnit.MINUTES.toMillis(3));
     }
 
+    /**
+     * Saves the recorded transcript changes of all open tickets and the ticket events, then drops the journal
+     * segments covering them.
+     */
+    public synchronized void flushChanges() {
+        ChangeJournal journal = ticketData.getJournal();
+        long sealed = journal.rotate();
+        boolean flushed = true;
+        for (Ticket ticket : getOpenCachedTickets()) {
+            try {
+                saveTranscriptChanges(ticket);
+            } catch (Exception e) {
+                // the unsaved changes are queued again and keep their journal segment until they are saved
+                flushed = false;
+                log.error("Could not save transcript changes of ticket #{}", ticket.getId(), e);
+            }
+        }
+        try {
+            ticketData.getEventData().flush();
+        } catch (Exception e) {
+            flushed = false;
+            log.error("Could not save ticket events", e);
+        }
+        if (flushed) {
+            journal.transcriptsFlushed(sealed);
+        }
+        getOpenCachedTickets().stream()
+                .filter(ticket -> ticket.getParticipants().isDirty())
+                .forEach(Ticket::saveParticipants);
+        try {
+            ticketData.getSlaData().flush();
+        } catch (Exception e) {
+            log.error("Could not save SLA metrics", e);
+        }
+    }
+
+    /**
+     * Flushes everything recorded in memory before the bot stops.
+     */
+    public void shutdown() {
+        log.info("Saving pending changes before shutdown");
+        flushChanges();
+        Ticket.awaitPendingSaves(10, TimeUnit.SECONDS);
+        ticketData.getJournal().close();
+    }
+
     public Optional<String> createNewTicket(Map<String, String> info, ICategory category, User owner) {
         Guild guild = jda.getGuildById(config.getServerId());
         int openTickets = 0;
@@ -76,7 +144,7 @@ public class TicketService {
 
         Ticket ticket = Ticket.builder()
                 .ticketData(ticketData)
-                .transcript(new Transcript(new ArrayList<>()))
+                .transcript(ticketData.getTranscriptData().newTranscript())
                 .owner(owner)
                 .isOpen(true)
                 .category(category)
@@ -86,6 +154,7 @@ public class TicketService {
         // Create DB record and get generated ticket ID before creating channels
         int newId = ticketData.saveTicket(ticket);
         ticket = ticket.toBuilder().id(newId).build();
+        ticketData.getEventData().record(TicketEvent.now(newId, TicketEvent.Type.CREATED, owner.getIdLong()));
 
         Category defaultCategory = guild.getCategoryById(config.getUnclaimedCategory());
         List<Category> dynamicCategories = Main.OVERFLOW_UNCLAIMED_CHANNEL_CATEGORIES;
@@ -159,6 +228,7 @@ public class TicketService {
                 .setThreadChannel(thread)
                 .setBaseMessage(msgId);
         allCurrentTickets.add(ticket);
+        ticketQueue.enqueue(ticket);
 
         ticketChannel.pinMessageById(msgId).queue();
 
@@ -190,48 +260,86 @@ public class TicketService {
                 thread.addThreadMember(member).queue();
             }
         });
+
+        duplicateIndex.ticketCreated(ticket);
+        if (autoAssigner != null) {
+            autoAssigner.ticketCreated(ticket);
+        }
         return Optional.empty();
     }
 
     public void closeTicket(Ticket ticket, boolean wasAccident, Member closer, String message) {
-        closeTicket(ticket, wasAccident, closer, message, null);
+        closeTicket(ticket, wasAccident, closer, message, CloseJob.builder());
     }
 
-    public void closeTicket(Ticket ticket, boolean wasAccident, Member closer, String message, String existingTranscriptUrl) {
-        Transcript transcript = ticket.getTranscript();
+    /**
+     * Closes the ticket. Apart from accidental tickets, this only records the close and hands the remaining work
+     * (transcript, notifications, XP and channel deletion) to the {@link ClosePipeline}.
+     *
+     * @param options XP and rating details of the close, the remaining job fields are filled in here
+     */
+    public void closeTicket(Ticket ticket, boolean wasAccident, Member closer, String message, CloseJob.CloseJobBuilder options) {
         int ticketId = ticket.getId();
         ticket.setCloser(closer.getUser()).setOpen(false).setCloseMessage(message).setClosedAt(Instant.now().getEpochSecond());
+        if (autoAssigner != null && ticket.getSupporter() != null) {
+            autoAssigner.released(ticket.getSupporter().getIdLong());
+        }
         if (wasAccident) {
             ticket.getTextChannel().delete().queue();
-            jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM tickets WHERE ticketID=?").bind(0, ticketId).execute());
+            jdbi.useTransaction(handle -> {
+                handle.createUpdate("DELETE FROM ticket_members WHERE ticketID=?").bind(0, ticketId).execute();
+                handle.createUpdate("DELETE FROM ticket_events WHERE ticketID=?").bind(0, ticketId).execute();
+                handle.createUpdate("DELETE FROM ticket_state WHERE ticketID=?").bind(0, ticketId).execute();
+                handle.createUpdate("DELETE FROM tickets WHERE ticketID=?").bind(0, ticketId).execute();
+            });
             allCurrentTickets.remove(ticket);
+            duplicateIndex.remove(ticketId);
 
             ticketData.getTranscriptData().deleteTranscript(ticket);
             return;
         }
 
-        jdbi.withHandle(handle -> handle.createUpdate("UPDATE tickets SET closer=? WHERE ticketID=?")
-                .bind(0, closer.getId())
-                .bind(1, ticketId)
-                .execute());
-
-        transcript.addLogMessage("[%s] closed the ticket%s".formatted(closer.getUser().getName(), message == null ? "." : " with following message: " + message), Instant.now().getEpochSecond(), ticketId);
+        recordSla(ticket, SlaData.Metric.RESOLUTION, ticket.getSupporter() != null ? ticket.getSupporter().getIdLong() : null, ticket.getClosedAt());
+        closePipeline.submit(options
+                .ticketId(ticketId)
+                .closerId(closer.getId())
+                .message(message)
+                .createdAt(ticket.getClosedAt())
+                .build());
+    }
 
-        boolean isSensitive = ticket.getCategory() != null && ticket.getCategory().isSensitive();
+    /**
+     * First close stage: persists the closed ticket and flushes its transcript including the close log entry. The
+     * entry carries the time of the close, so a retried or resumed stage doesn't add it twice.
+     */
+    void finalizeClosedState(Ticket ticket, CloseJob job, User closer) {
+        if (ticket.isOpen()) {
+            // the in-memory close didn't make it to the database before a restart
+            ticket.setCloser(closer).setOpen(false).setCloseMessage(job.getMessage()).setClosedAt(job.getCreatedAt());
+        }
+        ticket.saveNow();
 
-        // For sensitive categories, transcripts are never generated and never linked.
-        String transcriptUrl;
-        if(isSensitive) {
-            transcriptUrl = null;
-        } else {
-            transcriptUrl = (existingTranscriptUrl == null) ? sendTranscript(ticket) : existingTranscriptUrl;
+        String closeLog = "[%s] closed the ticket%s".formatted(closer.getName(), job.getMessage() == null ? "." : " with following message: " + job.getMessage());
+        if (!ticket.getTranscript().hasLogMessage(closeLog, job.getCreatedAt())) {
+            ticket.getTranscript().addLogMessage(closeLog, job.getCreatedAt(), ticket.getId());
         }
+        saveTranscriptChanges(ticket);
+    }
 
-        log.debug("Closing ticket #{} (category={}, sensitive={}) existingTranscriptUrlPresent={} transcriptUrlPresent={} ",
+    /**
+     * Builds the close embeds for the owner and the log channel. They are delivered through the outbox.
+     */
+    List<OutboxEntry> closeNotifications(Ticket ticket, CloseJob job, User closer) {
+        List<OutboxEntry> notifications = new ArrayList<>(2);
+        int ticketId = ticket.getId();
+        String message = job.getMessage();
+        boolean isSensitive = ticket.getCategory() != null && ticket.getCategory().isSensitive();
+        String transcriptUrl = isSensitive ? null : job.getTranscriptUrl();
+
+        log.debug("Closing ticket #{} (category={}, sensitive={}) transcriptUrlPresent={} ",
                 ticketId,
                 ticket.getCategory() == null ? "null" : ticket.getCategory().getId(),
                 isSensitive,
-                existingTranscriptUrl != null,
                 transcriptUrl != null);
 
         EmbedBuilder builder = new EmbedBuilder().setTitle("Ticket " + ticketId)
@@ -241,7 +349,7 @@ public class TicketService {
             builder.addField("Message", message, true);
         }
 
-        if (!isSensitive && transcriptUrl != null) {
+        if (transcriptUrl != null) {
             builder.addField("📝 Transcript", "[Hier klicken](" + transcriptUrl + ")", false);
         }
 
@@ -251,29 +359,20 @@ public class TicketService {
         // DM the owner (best-effort)
         Guild guild = jda.getGuildById(config.getServerId());
         if (guild != null && ticket.getOwner().getMutualGuilds().contains(guild)) {
-            try {
-                ticket.getOwner().openPrivateChannel()
-                        .flatMap(channel -> channel.sendMessageEmbeds(builder.build()))
-                        .complete();
-            } catch (ErrorResponseException e) {
-                log.warn("Couldn't DM [{}] the ticket close embed: Meaning:{} | Message:{} | Response:{}", ticket.getOwner().getName(), e.getMeaning(), e.getMessage(), e.getErrorResponse());
-            }
+            notifications.add(OutboxDispatcher.dm("close-dm:%d:%d".formatted(ticketId, job.getCreatedAt()), ticket.getOwner(), builder.build()));
         }
 
         // Always send the close embed to the configured log channel (if configured)
         if (config.getLogChannel() != 0) {
-            TextChannel logChannel = guild == null ? null : guild.getTextChannelById(config.getLogChannel());
-            if (logChannel != null) {
-                logChannel.sendMessageEmbeds(builder.build()).queue(
-                        success -> log.debug("Sent close embed for ticket #{} to log channel {} (sensitive={})", ticketId, config.getLogChannel(), isSensitive),
-                        error -> log.error("Failed to send close embed for ticket #{} to log channel {}: {}", ticketId, config.getLogChannel(), error.getMessage())
-                );
-            } else {
-                log.warn("Log channel {} not found; cannot send close embed for ticket #{}", config.getLogChannel(), ticketId);
-            }
+            notifications.add(OutboxDispatcher.channelEmbed("close-log:%d:%d".formatted(ticketId, job.getCreatedAt()), config.getLogChannel(), builder.build()));
         }
+        return notifications;
+    }
 
-        saveTranscriptChanges(ticket.getTranscript().getRecentChanges());
+    void deleteTicketChannel(Ticket ticket) {
+        if (ticket.getTextChannel() == null) {
+            return;
+        }
 
         Category parentCategory = ticket.getTextChannel().getParentCategory();
         if (parentCategory != null && parentCategory.getChannels().size() <= 1) {
@@ -304,23 +403,54 @@ public class TicketService {
             }
         }
 
-
-        ticket.getTextChannel().delete().queue();
+        try {
+            ticket.getTextChannel().delete().complete();
+        } catch (ErrorResponseException e) {
+            if (e.getErrorResponse() != ErrorResponse.UNKNOWN_CHANNEL) {
+                throw e;
+            }
+        }
     }
 
     public boolean claim(Ticket ticket, User supporter) {
+        User previous = ticket.getSupporter();
+        if (!claim(ticket, supporter, true)) return false;
+        if (autoAssigner != null) {
+            autoAssigner.claimed(previous != null ? previous.getIdLong() : null, supporter.getIdLong());
+        }
+        return true;
+    }
+
+    /**
+     * @param waitForRename whether to wait until the channel got its new name, which the rate limit on channel renames
+     *                      can delay by minutes
+     */
+    boolean claim(Ticket ticket, User supporter, boolean waitForRename) {
         if (!config.isDevMode() && supporter == ticket.getOwner()) return false;
 
+        if (ticket.getSupporter() == null) {
+            recordSla(ticket, SlaData.Metric.TIME_TO_CLAIM, supporter.getIdLong(), Instant.now().getEpochSecond());
+        }
         ticket.setSupporter(supporter);
 
-        try {
-            ticket.getTextChannel().getManager().setName(generateChannelName(ticket, false)).complete();
-        } catch (ErrorResponseException e) {
-            if (e.getMessage().contains("INVALID_COMMUNITY_PROPERTY_NAME")) {
-                ticket.getTextChannel().getManager().setName(generateChannelName(ticket, true)).complete();
-            } else {
-                log.error("Couldn't rename ticket channel for ticket {}!", ticket.getId(), e);
+        if (waitForRename) {
+            try {
+                ticket.getTextChannel().getManager().setName(generateChannelName(ticket, false)).complete();
+            } catch (ErrorResponseException e) {
+                if (e.getMessage().contains("INVALID_COMMUNITY_PROPERTY_NAME")) {
+                    ticket.getTextChannel().getManager().setName(generateChannelName(ticket, true)).complete();
+                } else {
+                    log.error("Couldn't rename ticket channel for ticket {}!", ticket.getId(), e);
+                }
             }
+        } else {
+            ticket.getTextChannel().getManager().setName(generateChannelName(ticket, false)).queue(null, error -> {
+                if (error.getMessage().contains("INVALID_COMMUNITY_PROPERTY_NAME")) {
+                    ticket.getTextChannel().getManager().setName(generateChannelName(ticket, true)).queue();
+                } else {
+                    log.error("Couldn't rename ticket channel for ticket {}!", ticket.getId(), error);
+                }
+            });
         }
 
         ticket.getThreadChannel().addThreadMember(supporter).queue();
@@ -606,37 +736,78 @@ public class TicketService {
     }
 
     public List<Integer> getTicketIdsByOwner(long owner) {
-        return ticketData.getTicketIdsByUser(String.valueOf(owner));
+        return ticketData.getTicketIdsByUser(owner);
     }
 
     public List<Ticket> getOpenTickets(User owner) {
-        return ticketData.getOpenTicketsOfUser(owner.getId())
+        return ticketData.getOpenTicketsOfUser(owner.getIdLong())
                 .stream()
                 .map(this::getTicketByTicketId)
                 .toList();
     }
 
-    private void saveTranscriptChanges(List<TranscriptEntity> changes) {
-        TranscriptData transcriptData = ticketData.getTranscriptData();
-        for (TranscriptEntity entity : changes) {
-            if (entity instanceof Edit edit) {
-                transcriptData.addEditToMessage(edit);
-                continue;
+    /**
+     * Records a message of a ticket channel in the transcript and the participants of the ticket.
+     *
+     * @return {@code false} if the message was recorded before
+     */
+    public boolean recordMessage(Ticket ticket, net.dv8tion.jda.api.entities.Message message, boolean isStaff) {
+        if (!ticket.getTranscript().addMessage(message, ticket.getId())) {
+            return false;
+        }
+        User author = message.getAuthor();
+        if (!author.isBot()) {
+            Participants.Role role = author.getIdLong() == ticket.getOwner().getIdLong() ? Participants.Role.OWNER
+                    : isStaff ? Participants.Role.STAFF : Participants.Role.OTHER;
+            if (role == Participants.Role.STAFF && ticket.getParticipants().getFirstStaffReplyAt() == null) {
+                recordSla(ticket, SlaData.Metric.FIRST_RESPONSE, author.getIdLong(), message.getTimeCreated().toEpochSecond());
             }
-            Message message = (Message) entity;
-
-            if (message.getId() == 0 && message.getAuthor().equals(Strings.EMPTY)) {
-                transcriptData.addLogMessage(message);
-                continue;
+            if (ticket.getParticipants().record(author.getIdLong(), role, message.getTimeCreated().toEpochSecond())) {
+                // new authors decide whether the owner may close, the counts follow with the next flush
+                ticket.saveParticipants();
             }
+        }
+        return true;
+    }
 
-            if (message.isDeleted()) {
-                transcriptData.deleteMessage(message.getId());
-            } else {
-                transcriptData.addNewMessage(message);
-            }
+    /**
+     * Records the time since the ticket was created, which is when its channel was created.
+     */
+    private void recordSla(Ticket ticket, SlaData.Metric metric, Long supporter, long at) {
+        if (ticket.getTextChannel() == null) return;
+        long createdAt = ticket.getTextChannel().getTimeCreated().toEpochSecond();
+        // the category of a ticket is gone if it was removed from the config
+        String category = ticket.getCategory() != null ? ticket.getCategory().getId() : null;
+        ticketData.getSlaData().record(metric, category, supporter, at - createdAt, at);
+    }
+
+    /**
+     * Moves the transcripts of tickets closed more than {@code archiveAfterDays} ago into the archives.
+     */
+    public void archiveClosedTickets() {
+        if (config.getArchiveAfterDays() <= 0) return;
+        long closedBefore = Instant.now().minus(config.getArchiveAfterDays(), ChronoUnit.DAYS).getEpochSecond();
+        int archived = 0;
+        int batch;
+        do {
+            batch = ticketData.getArchiveData().archiveClosedBefore(closedBefore, 200);
+            archived += batch;
+        } while (batch > 0);
+        if (archived > 0) {
+            log.info("Archived the transcripts of {} closed tickets", archived);
         }
-        changes.clear();
+    }
+
+    /**
+     * Flushes the recorded changes and exports the text transcript of the ticket.
+     */
+    public File exportTranscript(Ticket ticket) throws IOException {
+        flushChanges();
+        return transcriptExporter.export(ticket.getId(), config.isTranscriptExportGzip());
+    }
+
+    void saveTranscriptChanges(Ticket ticket) {
+        ticketData.getTranscriptData().saveChanges(ticket.getTranscript(), ticket.getId());
     }
 
     public String generateChannelName(Ticket ticket, boolean excludeUsername) {
@@ -805,39 +976,61 @@ public class TicketService {
         }
     }
 
-    public String sendTranscript(Ticket ticket) {
+    /**
+     * Looks for a transcript of the ticket the bot already uploaded to the log channel, among its newest messages.
+     *
+     * @return the jump url of the upload or {@code null} if there is none
+     */
+    public CompletableFuture<String> findTranscriptUpload(Ticket ticket) {
+        if (ticket.getCategory() != null && ticket.getCategory().isSensitive()) return CompletableFuture.completedFuture(null);
+        if (config.getLogChannel() == 0) return CompletableFuture.completedFuture(null);
+        TextChannel logChannel = jda.getGuildById(config.getServerId()).getTextChannelById(config.getLogChannel());
+        if (logChannel == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String fileName = "transcript-" + ticket.getId() + ".html";
+        return logChannel.getHistory().retrievePast(TRANSCRIPT_LOOKBACK).submit()
+                .thenApply(messages -> messages.stream()
+                        .filter(message -> message.getAuthor().getIdLong() == jda.getSelfUser().getIdLong())
+                        .filter(message -> message.getAttachments().stream().anyMatch(attachment -> attachment.getFileName().equals(fileName)))
+                        .map(net.dv8tion.jda.api.entities.Message::getJumpUrl)
+                        .findFirst()
+                        .orElse(null));
+    }
+
+    /**
+     * Renders the HTML transcript and uploads it to the log channel without waiting for the upload.
+     *
+     * @return the jump url of the upload or {@code null} if no transcript was created
+     */
+    public CompletableFuture<String> sendTranscript(Ticket ticket) throws IOException {
         // Sensitive categories must not generate/upload transcripts.
-        if (ticket.getCategory() != null && ticket.getCategory().isSensitive()) return null;
-        String transcriptUrl = null;
-        int ticketId = ticket.getId();
-        try {
-            if (ticket.getTextChannel() != null && config.getLogChannel() != 0) {
-                // Fetch messages first to avoid NPE in library when handling message references
-                List<net.dv8tion.jda.api.entities.Message> messages = ticket.getTextChannel().getIterableHistory()
-                        .takeAsync(1000)
-                        .get();
-
-                if (messages != null && !messages.isEmpty()) {
-                    FileUpload htmlTranscriptUpload = DiscordHtmlTranscripts.getInstance()
-                            .createTranscript(ticket.getTextChannel(), "transcript-" + ticketId + ".html");
-
-                    TextChannel logChannel = jda.getGuildById(config.getServerId()).getTextChannelById(config.getLogChannel());
-                    if (logChannel != null) {
-                        net.dv8tion.jda.api.entities.Message uploadMessage = logChannel.sendFiles(htmlTranscriptUpload).complete();
-                        transcriptUrl = uploadMessage.getJumpUrl();
-                    }
-                } else {
-                    log.warn("No messages found in ticket #{} channel, skipping transcript generation", ticketId);
-                }
-            }
-        } catch (Exception e) {
-            log.error("Failed to generate/upload HTML transcript for ticket #{}: {}", ticketId, e.getMessage());
-            // Continue without transcript - don't let this block ticket closure
+        if (ticket.getCategory() != null && ticket.getCategory().isSensitive()) return CompletableFuture.completedFuture(null);
+        if (config.getLogChannel() == 0) return CompletableFuture.completedFuture(null);
+
+        TextChannel logChannel = jda.getGuildById(config.getServerId()).getTextChannelById(config.getLogChannel());
+        if (logChannel == null) {
+            return CompletableFuture.completedFuture(null);
         }
-        return transcriptUrl;
+        File transcript = transcriptRenderer.render(ticket);
+        if (transcript == null) {
+            log.warn("No messages stored for ticket #{}, skipping transcript generation", ticket.getId());
+            return CompletableFuture.completedFuture(null);
+        }
+        return logChannel.sendFiles(FileUpload.fromData(transcript, "transcript-" + ticket.getId() + ".html"))
+                .submit()
+                .thenApply(net.dv8tion.jda.api.entities.Message::getJumpUrl)
+                .whenComplete((url, error) -> {
+                    if (!transcript.delete()) {
+                        log.warn("Could not delete rendered transcript {}", transcript.getName());
+                    }
+                });
     }
 
-    public void appendTranscriptLinkAndSendCloseEmbed(String transcriptUrl, Ticket ticket, EmbedBuilder notification) {
+    /**
+     * Adds the transcript link to the rating notification and builds one outbox entry per rating notification channel.
+     */
+    public List<OutboxEntry> ratingNotifications(String transcriptUrl, Ticket ticket, CloseJob job, EmbedBuilder notification) {
         boolean isSensitive = ticket.getCategory() != null && ticket.getCategory().isSensitive();
 
         // Only add transcript link for non-sensitive categories
@@ -847,20 +1040,15 @@ public class TicketService {
 
         List<Long> channels = config.getRatingNotificationChannels();
         if (channels == null || channels.isEmpty()) {
-            return;
+            return List.of();
         }
 
+        MessageEmbed embed = notification.build();
+        List<OutboxEntry> notifications = new ArrayList<>(channels.size());
         for (Long channelId : channels) {
-            TextChannel channel = jda.getTextChannelById(channelId);
-            if (channel != null) {
-                channel.sendMessageEmbeds(notification.build()).queue(
-                        success -> log.info("Close embed send successfully to {}", channelId),
-                        error -> log.error("Failed to send close embed {}: {}", channelId, error.getMessage())
-                );
-            } else {
-                log.warn("Rating notification channel not found: {}", channelId);
-            }
+            notifications.add(OutboxDispatcher.channelEmbed("rating-notification:%d:%d:%d".formatted(ticket.getId(), job.getCreatedAt(), channelId), channelId, embed));
         }
+        return notifications;
     }
 
     public boolean isUserPrivilegedSupporter(Member member) {
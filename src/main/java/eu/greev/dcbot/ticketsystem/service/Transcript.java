@@ -3,118 +3,184 @@ package eu.greev.dcbot.ticketsystem.service;
 import eu.greev.dcbot.ticketsystem.entities.Edit;
 import eu.greev.dcbot.ticketsystem.entities.Message;
 import eu.greev.dcbot.ticketsystem.entities.TranscriptEntity;
+import eu.greev.dcbot.utils.LongObjectMap;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.logging.log4j.util.Strings;
-
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
+
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-@Slf4j
 @Getter
-@RequiredArgsConstructor
 public class Transcript {
-    private final List<TranscriptEntity> recentChanges = new ArrayList<>();
+    /** Unsaved changes, queued by event and command threads and drained by the flush. */
+    @Getter(AccessLevel.NONE)
+    private final Queue<TranscriptEntity> recentChanges = new ConcurrentLinkedQueue<>();
+    @Getter(AccessLevel.NONE)
     private final List<Message> messages;
+    @Getter(AccessLevel.NONE)
+    private final ChangeJournal journal;
+    /** Discord messages by id, log and info entries share the id 0 and aren't indexed. */
+    @Getter(AccessLevel.NONE)
+    private final LongObjectMap<Message> index;
+    @Getter(AccessLevel.NONE)
+    private final AuthorNames authorNames;
+
+    public Transcript(List<Message> messages, ChangeJournal journal) {
+        this(messages, new AuthorNames(), journal);
+    }
 
-    public void addMessage(net.dv8tion.jda.api.entities.Message message, int ticketId) {
-        Message msg = new Message(message.getIdLong(), message.getContentDisplay(), message.getAuthor().getName(), message.getTimeCreated().toEpochSecond(), ticketId);
-        messages.add(msg);
-        recentChanges.add(msg);
+    /**
+     * @param authorNames the names of the authors of the messages
+     */
+    Transcript(List<Message> messages, AuthorNames authorNames, ChangeJournal journal) {
+        this.messages = messages;
+        this.authorNames = authorNames;
+        this.journal = journal;
+        this.index = new LongObjectMap<>(messages.size());
+        for (Message message : messages) {
+            if (message.getId() != 0) {
+                index.put(message.getId(), message);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the messages, the transcript keeps growing while it is read
+     */
+    public synchronized List<Message> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Takes the changes which aren't saved yet. A change is queued before it is journaled, so all changes journaled
+     * before the call are part of the result. Changes queued while draining are taken now or with the next drain.
+     */
+    public List<TranscriptEntity> drainChanges() {
+        List<TranscriptEntity> changes = new ArrayList<>();
+        TranscriptEntity change;
+        while ((change = recentChanges.poll()) != null) {
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    /**
+     * Puts changes which couldn't be saved back in front of the changes recorded since, the next drain takes them
+     * first.
+     */
+    public synchronized void requeue(List<TranscriptEntity> changes) {
+        List<TranscriptEntity> newer = drainChanges();
+        recentChanges.addAll(changes);
+        recentChanges.addAll(newer);
+    }
+
+    /**
+     * @return the name the message is written out with, empty for log entries
+     */
+    public synchronized String getAuthorName(Message message) {
+        return authorNames.get(message.getAuthorId());
+    }
+
+    public synchronized boolean hasMessage(long messageId) {
+        return index.containsKey(messageId);
+    }
+
+    /**
+     * @return {@code false} if the message is already part of the transcript
+     */
+    public boolean addMessage(net.dv8tion.jda.api.entities.Message message, int ticketId) {
+        String author = message.getAuthor().getName();
+        Message msg = new Message(message.getIdLong(), message.getContentDisplay(), message.getAuthor().getIdLong(), message.getTimeCreated().toEpochSecond());
+        msg.setBot(message.getAuthor().isBot());
+        synchronized (this) {
+            if (index.containsKey(msg.getId())) {
+                return false;
+            }
+            authorNames.add(msg.getAuthorId(), author);
+            messages.add(msg);
+            index.put(msg.getId(), msg);
+            recentChanges.add(msg);
+        }
+        journal(ChangeJournal.Entry.message(msg, author, ticketId));
+        return true;
+    }
+
+    /**
+     * @return whether the transcript already has this log entry, saved or not
+     */
+    public synchronized boolean hasLogMessage(String log, long timestamp) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message.isLog() && message.getTimestamp() == timestamp && log.equals(message.getOriginalContent())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void addLogMessage(String log, long timestamp, int ticketId) {
-        Message message = new Message(0, log, "", timestamp, ticketId);
-        messages.add(message);
-        recentChanges.add(message);
+        addEntry("", log, timestamp, ticketId);
     }
 
     public void addInfoMessage(String key, String info, int ticketId) {
-        Message message = new Message(0, info, "Info-"+key, Instant.now().getEpochSecond(), ticketId);
-        messages.add(message);
-        recentChanges.add(message);
+        addEntry("Info-"+key, info, Instant.now().getEpochSecond(), ticketId);
+    }
+
+    /**
+     * @param author empty for a log entry, the info key for an info entry
+     */
+    private void addEntry(String author, String content, long timestamp, int ticketId) {
+        Message message;
+        synchronized (this) {
+            message = new Message(0, content, authorNames.add(0, author), timestamp);
+            messages.add(message);
+            recentChanges.add(message);
+        }
+        journal(ChangeJournal.Entry.message(message, author, ticketId));
     }
 
     public void editMessage(long messageId, String content, long timeEdited) {
         Edit edit = new Edit(content, timeEdited, messageId);
 
-        messages.stream()
-                .filter(m -> m.getId() == messageId)
-                .findFirst().ifPresent(m -> m.getEdits().add(edit));
-        recentChanges.add(edit);
+        synchronized (this) {
+            Message message = index.get(messageId);
+            if (message != null) {
+                message.addEdit(edit);
+            }
+            recentChanges.add(edit);
+        }
+        journal(ChangeJournal.Entry.edit(edit));
     }
 
+    /**
+     * Marks the message as deleted. A message which isn't stored yet is saved together with its deletion,
+     * a stored one is queued again to update it.
+     */
     public void deleteMessage(long messageId) {
-        messages.stream()
-                .filter(m -> m.getId() == messageId)
-                .findFirst().ifPresent(m -> m.setDeleted(true));
-        recentChanges.stream()
-                .filter(Message.class::isInstance)
-                .filter(m -> (((Message) m).getId()) == messageId)
-                .findFirst().ifPresentOrElse(m -> ((Message) m).setDeleted(true), () -> {
-                    Message message = new Message(messageId, "", "", 0, 0);
-                    message.setDeleted(true);
-                    recentChanges.add(message);
-                });
-    }
-
-    public File toFile(int ticketId) {
-        new File("./Tickets/transcripts").mkdirs();
-        File transcript = new File("./Tickets/transcripts/" + ticketId + ".txt");
-        try {
-            if (!transcript.createNewFile()) {
-                return transcript;
-            }
-        } catch (IOException e) {
-            log.error("Could not create transcript file", e);
-        }
-        messages.add(0, new Message(0, "Transcript of ticket #" + ticketId, "", Instant.now().getEpochSecond(), ticketId));
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(transcript, true))) {
-            for (Message message : messages) {
-                StringBuilder builder = new StringBuilder(formatTimestamp(message.getTimestamp()));
-
-                if (message.getId() == 0 && message.getAuthor().equals(Strings.EMPTY)) {
-                    writer.write(builder.append(message.getOriginalContent()).toString());
-                    writer.newLine();
-                    continue;
-                }
-
-                builder.append("[").append(message.getAuthor()).append("] ").append(message.getOriginalContent());
-                List<Edit> edits = message.getEdits();
-                if (!edits.isEmpty()) {
-                    builder.append(" | Edits:");
-
-                    for (int i = 0; i < edits.size(); i++) {
-                        builder.append(" ").append(edits.get(i).edit());
-
-                        if (edits.size() - 1 != i) {
-                            builder.append(" ->");
-                        }
-                    }
-                }
-
-                if (message.isDeleted() && message.getId() != 0) {
-                    builder.append("~~").append(message.getOriginalContent()).append("~~");
-                }
-                writer.write(builder.toString());
-                writer.newLine();
+        synchronized (this) {
+            Message message = index.get(messageId);
+            if (message != null) {
+                message.setDeleted(true);
+            } else {
+                // sent before the bot recorded the channel, only the stored row can be updated
+                message = new Message(messageId, "", 0, 0);
+                message.setDeleted(true);
+                message.setStored(true);
             }
-        } catch (IOException e) {
-            log.error("Could not clean transcript of ticket #{}", ticketId, e);
+            recentChanges.add(message);
         }
-        return transcript;
+        journal(ChangeJournal.Entry.delete(messageId));
     }
 
-    private static String formatTimestamp(long timestamp) {
-        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ ").format(Date.from(Instant.ofEpochSecond(timestamp)));
+    /**
+     * Journals a change after it was queued, outside the lock so the journal write doesn't hold back other threads.
+     */
+    private void journal(ChangeJournal.Entry entry) {
+        if (journal != null) {
+            journal.append(entry);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageHistory;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catches up on messages sent in open tickets while the bot was offline.
+ * <p>
+ * For every open ticket only the history after the newest stored message is fetched, several tickets at once
+ * but limited to {@code backfillRequestsPerSecond} history requests overall, so the live bot keeps enough of the
+ * REST rate limit. Fetched messages are recorded like live messages, messages which the listener recorded in the
+ * meantime are skipped.
+ */
+@Slf4j
+public class TranscriptBackfill {
+    private static final int PAGE_SIZE = 100;
+    private static final int PROGRESS_INTERVAL = 10;
+
+    private final TicketService ticketService;
+    private final TicketData ticketData;
+    private final Config config;
+    private final JDA jda;
+
+    private final AtomicInteger ticketsDone = new AtomicInteger();
+    private final AtomicLong messagesRecorded = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private long nextRequestAt = System.nanoTime();
+
+    public TranscriptBackfill(TicketService ticketService, TicketData ticketData, Config config, JDA jda) {
+        this.ticketService = ticketService;
+        this.ticketData = ticketData;
+        this.config = config;
+        this.jda = jda;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "transcript-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        List<Integer> ticketIds = ticketData.getOpenTicketsIds();
+        Map<Integer, Long> newestMessageIds = ticketData.getTranscriptData().getNewestMessageIds();
+        log.info("Backfilling transcripts of {} open tickets", ticketIds.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, config.getBackfillParallelTickets()));
+        for (int ticketId : ticketIds) {
+            pool.execute(() -> {
+                try {
+                    backfill(ticketId, newestMessageIds.get(ticketId));
+                } catch (Exception e) {
+                    log.warn("Could not backfill transcript of ticket #{}: {}", ticketId, e.getMessage());
+                }
+                int done = ticketsDone.incrementAndGet();
+                if (done % PROGRESS_INTERVAL == 0 && done < ticketIds.size()) {
+                    log.info("Backfilled {}/{} tickets, {} messages so far", done, ticketIds.size(), messagesRecorded.get());
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        log.info("Backfilled {} messages in {} tickets with {} requests in {}ms", messagesRecorded.get(), ticketsDone.get(), requests.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void backfill(int ticketId, Long newestMessageId) {
+        Ticket ticket = ticketService.getTicketByTicketId(ticketId);
+        if (ticket == null || ticket.getTextChannel() == null) {
+            return;
+        }
+        TextChannel channel = ticket.getTextChannel();
+        // snowflakes grow with time, so the channel id is older than every message in it
+        long after = newestMessageId != null ? newestMessageId : channel.getIdLong();
+
+        for (int page = 0; page < Math.max(1, config.getBackfillMaxPages()); page++) {
+            awaitRequestSlot();
+            List<Message> messages = new ArrayList<>(MessageHistory.getHistoryAfter(channel, Long.toUnsignedString(after))
+                    .limit(PAGE_SIZE)
+                    .complete()
+                    .getRetrievedHistory());
+            if (messages.isEmpty()) {
+                return;
+            }
+            messages.sort(Comparator.comparingLong(Message::getIdLong));
+
+            for (Message message : messages) {
+                record(ticket, message);
+            }
+            after = messages.get(messages.size() - 1).getIdLong();
+            if (messages.size() < PAGE_SIZE) {
+                return;
+            }
+        }
+        log.warn("Stopped backfilling ticket #{} after {} pages, later messages are missing in the transcript", ticketId, config.getBackfillMaxPages());
+    }
+
+    private void record(Ticket ticket, Message message) {
+        if (message.getAuthor().getIdLong() == jda.getSelfUser().getIdLong()) {
+            return;
+        }
+        Member member = message.getMember();
+        boolean isStaff = member != null && member.getRoles().stream().map(Role::getIdLong).toList().contains(config.getStaffId());
+
+        // the listener may have recorded it in the meantime
+        if (!ticketService.recordMessage(ticket, message, isStaff)) {
+            return;
+        }
+        messagesRecorded.incrementAndGet();
+
+        long sentAt = message.getTimeCreated().toEpochSecond();
+        if (isStaff && (ticket.getLastSupporterMessageAt() == null || ticket.getLastSupporterMessageAt() < sentAt)) {
+            ticket.setLastSupporterMessageAt(sentAt);
+        }
+    }
+
+    /**
+     * Spaces the history requests of all tickets evenly within the configured budget.
+     */
+    private void awaitRequestSlot() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.getBackfillRequestsPerSecond());
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextRequestAt);
+            nextRequestAt = slot + interval;
+            waitNanos = slot - now;
+        }
+        requests.incrementAndGet();
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -3,28 +3,179 @@ package eu.greev.dcbot.ticketsystem.service;
 import eu.greev.dcbot.ticketsystem.entities.Edit;
 import eu.greev.dcbot.ticketsystem.entities.Message;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.ticketsystem.entities.TranscriptEntity;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.StatementContext;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class TranscriptData {
+    /**
+     * Messages and logs of a ticket in the order they happened, every edit of a message in its own row right after it.
+     */
+    static final String SELECT_ORDERED = """
+            SELECT * FROM (
+                SELECT 0 AS isLog, m.messageID AS id, m.author, m.authorID, m.isBot, m.content, m.timeCreated AS ts, m.isDeleted, e.content AS edit, e.timeEdited
+                FROM messages m LEFT JOIN edits e ON e.messageID = m.messageID
+                WHERE m.ticketID = ?
+                UNION ALL
+                SELECT 1, 0, '', 0, 0, log, CAST(timeCreated AS INTEGER), 0, NULL, NULL FROM logs WHERE ticketID = ?
+            ) ORDER BY ts, isLog, id, timeEdited""";
+
+    /**
+     * A row of {@link #SELECT_ORDERED}, {@code edit} is {@code null} for logs and messages without edits.
+     */
+    record OrderedRow(boolean isLog, long id, String author, long authorId, boolean isBot, String content, long timestamp,
+                      boolean isDeleted, String edit, long timeEdited) {
+
+        static OrderedRow map(ResultSet r, StatementContext ctx) throws SQLException {
+            return new OrderedRow(r.getBoolean("isLog"), r.getLong("id"), r.getString("author"), r.getLong("authorID"), r.getBoolean("isBot"),
+                    r.getString("content"), r.getLong("ts"), r.getBoolean("isDeleted"), r.getString("edit"), r.getLong("timeEdited"));
+        }
+    }
+
     private final Jdbi jdbi;
+    private final ChangeJournal journal;
 
-    protected TranscriptData(Jdbi jdbi) {
+    protected TranscriptData(Jdbi jdbi, ChangeJournal journal) {
         this.jdbi = jdbi;
+        this.journal = journal;
     }
 
     public Transcript loadTranscript(int ticketId) {
-        return new Transcript(loadMessages(ticketId));
+        AuthorNames authorNames = new AuthorNames();
+        return new Transcript(loadMessages(ticketId, authorNames), authorNames, journal);
+    }
+
+    public Transcript newTranscript() {
+        return new Transcript(new ArrayList<>(), journal);
+    }
+
+    Transcript newTranscript(List<Message> messages, AuthorNames authorNames) {
+        return new Transcript(messages, authorNames, journal);
+    }
+
+    /**
+     * Applies a journaled change. The changes of the last segment may already be in the database,
+     * so everything is written in a way that applying it twice doesn't change the result.
+     */
+    void replay(Handle handle, ChangeJournal.Entry entry) {
+        switch (entry.type()) {
+            case MESSAGE -> handle.createUpdate("INSERT OR IGNORE INTO messages(messageID, content, author, timeCreated, ticketID, authorID, isBot) VALUES(?, ?, ?, ?, ?, ?, ?)")
+                    .bind(0, entry.messageId())
+                    .bind(1, entry.content())
+                    .bind(2, entry.author())
+                    .bind(3, entry.timestamp())
+                    .bind(4, entry.ticketId())
+                    .bind(5, entry.authorId())
+                    .bind(6, entry.bot())
+                    .execute();
+            case LOG -> handle.createUpdate("INSERT INTO logs(log, timeCreated, ticketID) SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM logs WHERE log=? AND timeCreated=? AND ticketID=?)")
+                    .bind(0, entry.content())
+                    .bind(1, entry.timestamp())
+                    .bind(2, entry.ticketId())
+                    .bind(3, entry.content())
+                    .bind(4, entry.timestamp())
+                    .bind(5, entry.ticketId())
+                    .execute();
+            case EDIT -> {
+                handle.createUpdate("INSERT INTO edits(messageID, content, timeEdited) SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM edits WHERE messageID=? AND content=? AND timeEdited=?)")
+                        .bind(0, entry.messageId())
+                        .bind(1, entry.content())
+                        .bind(2, entry.timestamp())
+                        .bind(3, entry.messageId())
+                        .bind(4, entry.content())
+                        .bind(5, entry.timestamp())
+                        .execute();
+                handle.createUpdate("UPDATE messages SET isEdited = true WHERE messageID = ?")
+                        .bind(0, entry.messageId())
+                        .execute();
+            }
+            case DELETE -> handle.createUpdate("UPDATE messages SET isDeleted=true WHERE messageID=?")
+                    .bind(0, entry.messageId())
+                    .execute();
+            case TICKET, PARTICIPANTS, MEMBER_ADDED, MEMBER_REMOVED -> throw new IllegalArgumentException("Ticket writes aren't transcript changes");
+        }
+        // edits and deletions don't carry the ticket
+        handle.createUpdate("UPDATE tickets SET transcriptVersion = transcriptVersion + 1 WHERE ticketID = ? OR ticketID = (SELECT ticketID FROM messages WHERE messageID = ?)")
+                .bind(0, entry.ticketId())
+                .bind(1, entry.messageId())
+                .execute();
     }
 
-    public void addNewMessage(Message message) {
-        jdbi.withHandle(handle -> handle.createUpdate("INSERT INTO messages(messageID, content, author, timeCreated, ticketID) VALUES(?, ?, ?, ?, ?) ON CONFLICT(messageId) DO UPDATE SET isEdited=true")
+    /**
+     * Advances the version of the stored transcript, cached exports of older versions are written again.
+     */
+    public void bumpVersion(int ticketId) {
+        jdbi.withHandle(handle -> handle.createUpdate("UPDATE tickets SET transcriptVersion = transcriptVersion + 1 WHERE ticketID = ?")
+                .bind(0, ticketId)
+                .execute());
+    }
+
+    /**
+     * @return the newest stored message id of every open ticket with stored messages
+     */
+    public Map<Integer, Long> getNewestMessageIds() {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT m.ticketID, MAX(m.messageID) AS newest FROM messages m JOIN tickets t ON t.ticketID = m.ticketID WHERE t.isOpen = true GROUP BY m.ticketID")
+                .map((r, columnNumber, ctx) -> Map.entry(r.getInt("ticketID"), r.getLong("newest")))
+                .list()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+    }
+
+    /**
+     * Saves the changes recorded in the transcript. If one can't be saved, it and the changes after it are queued
+     * again in front of the changes recorded since, so the next flush saves them before their journal segment is
+     * deleted.
+     */
+    public void saveChanges(Transcript transcript, int ticketId) {
+        List<TranscriptEntity> changes = transcript.drainChanges();
+        if (changes.isEmpty()) return;
+        int saved = 0;
+        try {
+            for (; saved < changes.size(); saved++) {
+                TranscriptEntity entity = changes.get(saved);
+                if (entity instanceof Edit edit) {
+                    addEditToMessage(edit);
+                    continue;
+                }
+                Message message = (Message) entity;
+
+                if (message.isLog()) {
+                    addLogMessage(message, ticketId);
+                    continue;
+                }
+
+                if (!message.isStored()) {
+                    addNewMessage(message, transcript.getAuthorName(message), ticketId);
+                    message.setStored(true);
+                } else if (message.isDeleted()) {
+                    deleteMessage(message.getId());
+                }
+            }
+            bumpVersion(ticketId);
+        } catch (RuntimeException e) {
+            transcript.requeue(changes.subList(saved, changes.size()));
+            throw e;
+        }
+    }
+
+    public void addNewMessage(Message message, String author, int ticketId) {
+        jdbi.withHandle(handle -> handle.createUpdate("INSERT INTO messages(messageID, content, author, timeCreated, ticketID, authorID, isBot, isDeleted) VALUES(?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(messageId) DO UPDATE SET isEdited=true")
                 .bind(0, message.getId())
                 .bind(1, message.getOriginalContent())
-                .bind(2, message.getAuthor())
+                .bind(2, author)
                 .bind(3, message.getTimestamp())
-                .bind(4, message.getTicketId())
+                .bind(4, ticketId)
+                .bind(5, Math.max(0, message.getAuthorId()))
+                .bind(6, message.isBot())
+                .bind(7, message.isDeleted())
                 .execute());
     }
 
@@ -46,28 +197,29 @@ public class TranscriptData {
                 .execute());
     }
 
-    public void addLogMessage(Message log) {
+    public void addLogMessage(Message log, int ticketId) {
         jdbi.withHandle(handle -> handle.createUpdate("INSERT INTO logs(log, timeCreated, ticketID) VALUES(?, ?, ?)")
                 .bind(0, log.getOriginalContent())
                 .bind(1, log.getTimestamp())
-                .bind(2, log.getTicketId())
+                .bind(2, ticketId)
                 .execute());
     }
 
-    private List<Message> loadMessages(int ticketId) {
+    private List<Message> loadMessages(int ticketId, AuthorNames authorNames) {
         List<Message> messages = jdbi.withHandle(handle -> handle.createQuery("SELECT * FROM messages WHERE ticketID = ?")
                 .bind(0, ticketId)
                 .map((r, columnNumber, ctx) -> {
                     Message message = new Message(
                             r.getLong("messageID"),
                             r.getString("content"),
-                            r.getString("author"),
-                            r.getLong("timeCreated"),
-                            ticketId);
+                            authorNames.add(r.getLong("authorID"), r.getString("author")),
+                            r.getLong("timeCreated"));
                     boolean isDeleted = r.getBoolean("isDeleted");
                     boolean isEdited = r.getBoolean("isEdited");
 
                     message.setDeleted(isDeleted);
+                    message.setStored(true);
+                    message.setBot(r.getBoolean("isBot"));
 
                     if (isEdited) {
                         message.setEdits(loadEdits(message.getId()));
@@ -78,7 +230,7 @@ public class TranscriptData {
 
         messages.addAll(jdbi.withHandle(handle -> handle.createQuery("SELECT * FROM logs WHERE ticketID=?")
                 .bind(0, ticketId)
-                .map((r, columnNumber, ctx) -> new Message(0, r.getString("log"), "", r.getLong("timeCreated"), ticketId))
+                .map((r, columnNumber, ctx) -> new Message(0, r.getString("log"), 0, r.getLong("timeCreated")))
                 .list()));
 
         return messages;
@@ -92,25 +244,19 @@ public class TranscriptData {
     }
 
     public void deleteTranscript(Ticket ticket) {
-        Transcript transcript = ticket.getTranscript();
-        transcript.getRecentChanges().clear();
-        List<Message> messages = transcript.getMessages();
-        List<Message> messagesWithEdits = messages.stream().filter(m -> !m.getEdits().isEmpty()).toList();
-
-        if (!messagesWithEdits.isEmpty()) {
-            for (Message message : messagesWithEdits) {
-                jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM edits WHERE messageID=?")
-                        .bind(0, message.getId())
-                        .execute());
-            }
-        }
-
-        jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM messages WHERE ticketID=?")
-                .bind(0, ticket.getId())
-                .execute());
-
-        jdbi.withHandle(handle -> handle.createUpdate("DELETE FROM logs WHERE ticketID=?")
-                .bind(0, ticket.getId())
-                .execute());
+        ticket.getTranscript().drainChanges();
+        jdbi.useTransaction(handle -> {
+            handle.createUpdate("DELETE FROM edits WHERE messageID IN (SELECT messageID FROM messages WHERE ticketID = ?)")
+                    .bind(0, ticket.getId())
+                    .execute();
+            handle.createUpdate("DELETE FROM messages WHERE ticketID=?")
+                    .bind(0, ticket.getId())
+                    .execute();
+            handle.createUpdate("DELETE FROM logs WHERE ticketID=?")
+                    .bind(0, ticket.getId())
+                    .execute();
+            SearchIndex.removeTranscript(handle, ticket.getId());
+        });
+        bumpVersion(ticket.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the plain text transcript of a ticket straight from the database.
+ * <p>
+ * Messages, logs and edits are read with one ordered query and written line by line, so the export needs the same
+ * memory for every transcript size. The file is cached per transcript version and only written again once the
+ * version advanced, which happens with every flush that changed the transcript. Archived transcripts are read from
+ * their {@link ArchiveData archive}.
+ */
+@Slf4j
+public class TranscriptExporter {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ssZ ").withZone(ZoneId.systemDefault());
+
+    private final Jdbi jdbi;
+    private final ArchiveData archiveData;
+    private final File directory;
+
+    public TranscriptExporter(Jdbi jdbi, ArchiveData archiveData, File directory) {
+        this.jdbi = jdbi;
+        this.archiveData = archiveData;
+        this.directory = directory;
+    }
+
+    /**
+     * @return the text transcript, written again only if the transcript changed since the cached file
+     */
+    public File export(int ticketId, boolean gzip) throws IOException {
+        // read before the rows, a flush in between makes the next export write the file again
+        Stored stored = jdbi.withHandle(handle -> handle.createQuery("SELECT transcriptVersion, archivedIn FROM tickets WHERE ticketID = ?")
+                .bind(0, ticketId)
+                .map((r, columnNumber, ctx) -> new Stored(r.getLong("transcriptVersion"), r.getString("archivedIn")))
+                .findOne()
+                .orElse(new Stored(0, null)));
+        File file = new File(directory, "%d-%d.txt%s".formatted(ticketId, stored.version(), gzip ? ".gz" : ""));
+        if (file.exists()) {
+            return file;
+        }
+
+        directory.mkdirs();
+        Path temp = Files.createTempFile(directory.toPath(), ticketId + "-", ".tmp");
+        try {
+            try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024) : Files.newOutputStream(temp);
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024)) {
+                write(ticketId, stored.archivedIn(), writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        deleteOutdated(ticketId, file);
+        return file;
+    }
+
+    private void write(int ticketId, String archivedIn, Writer writer) throws IOException {
+        writer.write(TIME_FORMAT.format(Instant.now()));
+        writer.write("Transcript of ticket #" + ticketId);
+        writer.write('\n');
+
+        LineWriter lines = new LineWriter(writer);
+        if (archivedIn != null) {
+            archiveData.forEachEntry(archivedIn, ticketId, entry -> {
+                if (entry.edits().isEmpty()) {
+                    lines.row(new TranscriptData.OrderedRow(entry.log(), entry.id(), entry.author(), entry.authorId(), entry.bot(), entry.content(),
+                            entry.timestamp(), entry.deleted(), null, 0));
+                }
+                for (ArchiveData.ArchivedEdit edit : entry.edits()) {
+                    lines.row(new TranscriptData.OrderedRow(entry.log(), entry.id(), entry.author(), entry.authorId(), entry.bot(), entry.content(),
+                            entry.timestamp(), entry.deleted(), edit.content(), edit.timestamp()));
+                }
+            });
+        } else {
+            jdbi.useHandle(handle -> handle.createQuery(TranscriptData.SELECT_ORDERED)
+                    .bind(0, ticketId)
+                    .bind(1, ticketId)
+                    .setFetchSize(500)
+                    .map(TranscriptData.OrderedRow::map)
+                    .forEach(lines::row));
+        }
+        lines.finish();
+    }
+
+    private void deleteOutdated(int ticketId, File current) {
+        File[] files = directory.listFiles((dir, name) -> name.equals(ticketId + ".txt") || name.startsWith(ticketId + "-") && name.contains(".txt"));
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.equals(current) && !file.delete()) {
+                log.warn("Could not delete outdated transcript {}", file.getName());
+            }
+        }
+    }
+
+    /**
+     * Joins the edit rows of a message into its line, only the message currently written is kept.
+     */
+    private static class LineWriter {
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder(256);
+        private long messageId;
+        private String content;
+        private boolean deleted;
+        private boolean hasEdits;
+
+        LineWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        void row(TranscriptData.OrderedRow row) {
+            if (!row.isLog() && row.id() == messageId && row.edit() != null) {
+                line.append(hasEdits ? " -> " : " | Edits: ").append(row.edit());
+                hasEdits = true;
+                return;
+            }
+            finish();
+            line.append(TIME_FORMAT.format(Instant.ofEpochSecond(row.timestamp())));
+            if (row.isLog()) {
+                line.append(row.content());
+                return;
+            }
+            line.append('[').append(row.author()).append("] ").append(row.content());
+            messageId = row.id();
+            content = row.content();
+            deleted = row.isDeleted();
+            if (row.edit() != null) {
+                line.append(" | Edits: ").append(row.edit());
+                hasEdits = true;
+            }
+        }
+
+        void finish() {
+            if (line.isEmpty()) return;
+            if (deleted) {
+                line.append("~~").append(content).append("~~");
+            }
+            try {
+                writer.append(line).write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            line.setLength(0);
+            messageId = 0;
+            content = null;
+            deleted = false;
+            hasEdits = false;
+        }
+    }
+
+    private record Stored(long version, String archivedIn) {}
+}
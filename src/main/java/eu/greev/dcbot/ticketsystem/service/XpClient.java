@@ -0,0 +1,240 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.greev.dcbot.utils.Config;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends XP award requests to the XP API.
+ * <p>
+ * Requests are collected in a bounded queue and sent by a few sender threads, either one by one to
+ * {@code /tickets/award-xp} or, with a batch size above one, as a JSON array to {@code /tickets/award-xp/batch}.
+ * All senders share one HTTP/2 client, so concurrent requests are multiplexed over the same connection. Failed
+ * requests are retried with a jittered exponential backoff and after several failed requests in a row a circuit
+ * breaker rejects new requests until the API had time to recover.
+ */
+@Slf4j
+public class XpClient {
+    private static final String AWARD_PATH = "/tickets/award-xp";
+    private static final String BATCH_PATH = "/tickets/award-xp/batch";
+    private static final long LINGER_MILLIS = 50;
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final int BREAKER_THRESHOLD = 5;
+    private static final long BREAKER_COOLDOWN_MILLIS = 30_000;
+
+    private final Config config;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<PendingAward> queue;
+
+    private int consecutiveFailures;
+    private volatile long breakerOpenUntil;
+
+    public XpClient(Config config) {
+        this(config, HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build());
+    }
+
+    XpClient(Config config, HttpClient httpClient) {
+        this.config = config;
+        this.httpClient = httpClient;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getXpQueueCapacity()));
+        for (int i = 0; i < Math.max(1, config.getXpParallelRequests()); i++) {
+            Thread sender = new Thread(this::runSender, "xp-client-sender-" + i);
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Queues an award request.
+     *
+     * @return the HTTP status for this request, failing if the queue is full, the circuit breaker is open
+     * or all retries failed
+     */
+    public CompletableFuture<Integer> submit(String idempotencyKey, String requestBody) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (isBreakerOpen()) {
+            result.completeExceptionally(new IllegalStateException("XP API circuit breaker is open"));
+            return result;
+        }
+        if (!queue.offer(new PendingAward(idempotencyKey, requestBody, result))) {
+            result.completeExceptionally(new IllegalStateException("XP request queue is full"));
+        }
+        return result;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public boolean isBreakerOpen() {
+        return System.currentTimeMillis() < breakerOpenUntil;
+    }
+
+    private void runSender() {
+        List<PendingAward> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                int batchSize = Math.max(1, config.getXpBatchSize());
+                if (batchSize > 1) {
+                    // give concurrent closes a moment to join the batch
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_MILLIS);
+                    while (batch.size() < batchSize) {
+                        PendingAward next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("[XP] Unexpected error while sending {} XP requests", batch.size(), e);
+                batch.forEach(award -> award.result().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<PendingAward> batch) throws InterruptedException {
+        if (isBreakerOpen()) {
+            IllegalStateException open = new IllegalStateException("XP API circuit breaker is open");
+            batch.forEach(award -> award.result().completeExceptionally(open));
+            return;
+        }
+        int maxRetries = Math.max(0, config.getXpMaxRetries());
+        for (int attempt = 0; ; attempt++) {
+            Exception failure;
+            try {
+                HttpResponse<String> response = batch.size() == 1 ? sendSingle(batch.get(0)) : sendBatch(batch);
+                int status = response.statusCode();
+                if (status / 100 != 5 && status != 429) {
+                    recordSuccess();
+                    complete(batch, response);
+                    return;
+                }
+                failure = new IOException("XP API responded with " + status);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            recordFailure();
+            if (attempt >= maxRetries || isBreakerOpen()) {
+                log.warn("[XP] Giving up on {} XP requests after {} attempts: {}", batch.size(), attempt + 1, failure.getMessage());
+                for (PendingAward award : batch) {
+                    award.result().completeExceptionally(failure);
+                }
+                return;
+            }
+            // full jitter: somewhere between 0 and the exponential backoff
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+        }
+    }
+
+    private HttpResponse<String> sendSingle(PendingAward award) throws IOException, InterruptedException {
+        return httpClient.send(request(AWARD_PATH, award.body(), award.idempotencyKey()), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> sendBatch(List<PendingAward> batch) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("{\"awards\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) body.append(',');
+            PendingAward award = batch.get(i);
+            // the award bodies are already serialized, so they are embedded as is
+            body.append("{\"idempotencyKey\":").append(objectMapper.writeValueAsString(award.idempotencyKey()))
+                    .append(",\"award\":").append(award.body()).append('}');
+        }
+        body.append("]}");
+        return httpClient.send(request(BATCH_PATH, body.toString(), null), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(String path, String body, String idempotencyKey) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(config.getXpApiUrl() + path))
+                .header("Content-Type", "application/json")
+                .header("X-API-Key", config.getXpApiKey())
+                .timeout(Duration.ofSeconds(30));
+        if (idempotencyKey != null) {
+            builder.header("Idempotency-Key", idempotencyKey);
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (config.isXpGzip()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder.POST(HttpRequest.BodyPublishers.ofByteArray(bytes)).build();
+    }
+
+    /**
+     * A batch response may contain {@code {"results":[{"idempotencyKey":...,"status":...}]}} with the outcome of every
+     * award. Awards missing in there, and all awards if the response has no results, get the status of the response.
+     */
+    private void complete(List<PendingAward> batch, HttpResponse<String> response) {
+        Map<String, Integer> results = new HashMap<>();
+        if (batch.size() > 1 && response.statusCode() / 100 == 2) {
+            try {
+                JsonNode node = objectMapper.readTree(response.body()).path("results");
+                if (node instanceof ArrayNode array) {
+                    for (JsonNode result : array) {
+                        if (result instanceof ObjectNode object && object.hasNonNull("idempotencyKey")) {
+                            results.put(object.get("idempotencyKey").asText(), object.path("status").asInt(response.statusCode()));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("[XP] Batch response has no per award results: {}", e.getMessage());
+            }
+        }
+        for (PendingAward award : batch) {
+            award.result().complete(results.getOrDefault(award.idempotencyKey(), response.statusCode()));
+        }
+    }
+
+    private synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        breakerOpenUntil = 0;
+    }
+
+    private synchronized void recordFailure() {
+        if (++consecutiveFailures >= BREAKER_THRESHOLD && !isBreakerOpen()) {
+            breakerOpenUntil = System.currentTimeMillis() + BREAKER_COOLDOWN_MILLIS;
+            log.warn("[XP] {} XP requests failed in a row, pausing requests for {}s", consecutiveFailures, BREAKER_COOLDOWN_MILLIS / 1000);
+        }
+    }
+
+    private record PendingAward(String idempotencyKey, String body, CompletableFuture<Integer> result) {}
+}
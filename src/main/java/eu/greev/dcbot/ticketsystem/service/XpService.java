@@ -1,78 +1,74 @@
 package eu.greev.dcbot.ticketsystem.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.Message;
 import eu.greev.dcbot.ticketsystem.entities.Ticket;
 import eu.greev.dcbot.utils.Config;
 import lombok.extern.slf4j.Slf4j;
-import net.dv8tion.jda.api.entities.Message;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class XpService {
     private final Config config;
-    private final HttpClient httpClient;
+    private final XpClient xpClient;
     private final ObjectMapper objectMapper;
     private final SupporterSettingsData supporterSettingsData;
 
     public XpService(Config config, SupporterSettingsData supporterSettingsData) {
         this.config = config;
         this.supporterSettingsData = supporterSettingsData;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this.xpClient = new XpClient(config);
         this.objectMapper = new ObjectMapper();
     }
 
     /**
-     * Award XP to a helper for resolving a ticket.
-     * This method collects ticket data and sends it to the API asynchronously.
-     * No need to wait since we send the data directly (no channel fetch needed on backend).
+     * Builds the XP award request for a helper resolving a ticket.
+     * The request contains all ticket data, so the backend doesn't need to fetch the channel.
+     * Messages are taken from the stored transcript, so this works after the channel got deleted.
      * The backend API will send the XP notification in Discord.
      *
      * @param ticket        The ticket being closed
      * @param rating        The star rating given by the ticket owner (1-5), can be null if skipped
      * @param transcriptUrl URL to the transcript in the log channel (for linking in notifications)
+     * @return the JSON request body or {@code null} if no XP should be awarded
      */
-    public void awardTicketXp(Ticket ticket, Integer rating, String transcriptUrl) {
+    public String buildAwardRequest(Ticket ticket, Integer rating, String transcriptUrl) {
         if (config.getXpApiUrl() == null || config.getXpApiUrl().isBlank()) {
             log.debug("[XP] XP API not configured, skipping");
-            return;
+            return null;
         }
 
         if (ticket == null) {
             log.debug("[XP] No ticket provided, skipping XP award");
-            return;
+            return null;
         }
 
         if (ticket.getSupporter() == null) {
             log.debug("[XP] No supporter for ticket #{}, skipping XP award", ticket.getId());
-            return;
+            return null;
         }
 
         String supporterId = ticket.getSupporter().getId();
         if (supporterId == null || supporterId.isBlank() || !supporterId.matches("\\d{17,20}")) {
             log.warn("[XP] Invalid supporter ID '{}' for ticket #{}, skipping XP award", supporterId, ticket.getId());
-            return;
+            return null;
         }
 
-        if (ticket.getTextChannel() == null) {
-            log.debug("[XP] No text channel for ticket #{}, skipping XP award", ticket.getId());
-            return;
+        if (ticket.getTranscript() == null) {
+            log.debug("[XP] No transcript for ticket #{}, skipping XP award", ticket.getId());
+            return null;
         }
 
         try {
-            // Collect ticket data
-            String ticketId = String.valueOf(ticket.getId());
-            String category = ticket.getCategory() != null ? ticket.getCategory().getLabel() : "Unknown";
             String ownerId = ticket.getOwner() != null ? ticket.getOwner().getId() : null;
-            // supporterId already validated above
-            String channelId = ticket.getTextChannel().getId();
 
             // Get initial reason from info map
             String initialReason = null;
@@ -83,147 +79,122 @@ public class XpService {
                                 ticket.getInfo().getOrDefault("info", null)));
             }
 
-            // Collect messages from channel
-            List<Map<String, String>> messages = collectMessages(ticket);
-            if (messages.isEmpty()) {
-                log.warn("[XP] No messages found in ticket #{}, skipping XP award", ticket.getId());
-                return;
-            }
-
             // Collect helper IDs (users who sent messages, excluding owner and bots)
-            Set<String> helperIdSet = new HashSet<>();
-            helperIdSet.add(supporterId); // Always include the claimer
-            for (Map<String, String> msg : messages) {
-                if ("helper".equals(msg.get("author"))) {
-                    // We don't have the ID in the message map, but the claimer is covered
-                }
-            }
+            Set<String> helperIds = new LinkedHashSet<>();
+            helperIds.add(supporterId); // Always include the claimer
             // Add involved users (these are helpers who were added to the ticket)
             if (ticket.getInvolved() != null) {
                 for (String involved : ticket.getInvolved()) {
-                    if (!involved.equals(ownerId)) {
-                        helperIdSet.add(involved);
+                    if (!involved.isBlank() && !involved.equals(ownerId)) {
+                        helperIds.add(involved);
                     }
                 }
             }
-            List<String> helperIds = new ArrayList<>(helperIdSet);
 
             // Check privacy setting for supporter
             boolean hideStats = supporterSettingsData.isHideStats(supporterId);
 
-            // Build request body with all data
-            Map<String, Object> body = new HashMap<>();
-            body.put("channelId", channelId);
-            body.put("supporterId", supporterId);
-            body.put("ticketId", ticketId);
-            body.put("category", category);
-            body.put("ownerId", ownerId);
-            body.put("initialReason", initialReason);
-            body.put("messages", messages);
-            body.put("helperIds", helperIds);
-            body.put("hideStats", hideStats);
-            if (rating != null) {
-                body.put("rating", rating);
-            }
-            if (transcriptUrl != null && !transcriptUrl.isBlank()) {
-                body.put("transcriptUrl", transcriptUrl);
-            }
+            StringWriter body = new StringWriter(4096);
+            int messageCount;
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(body)) {
+                json.writeStartObject();
+                json.writeStringField("channelId", ticket.getTextChannel() != null ? ticket.getTextChannel().getId() : null);
+                json.writeStringField("supporterId", supporterId);
+                json.writeStringField("ticketId", String.valueOf(ticket.getId()));
+                json.writeStringField("category", ticket.getCategory() != null ? ticket.getCategory().getLabel() : "Unknown");
+                json.writeStringField("ownerId", ownerId);
+                json.writeStringField("initialReason", initialReason);
+                json.writeBooleanField("hideStats", hideStats);
+                if (rating != null) {
+                    json.writeNumberField("rating", rating);
+                }
+                if (transcriptUrl != null && !transcriptUrl.isBlank()) {
+                    json.writeStringField("transcriptUrl", transcriptUrl);
+                }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(config.getXpApiUrl() + "/tickets/award-xp"))
-                    .header("Content-Type", "application/json")
-                    .header("X-API-Key", config.getXpApiKey())
-                    .timeout(Duration.ofSeconds(30))
-                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
-                    .build();
-
-            // ASYNC call - no need to wait since backend has all data it needs
-            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenAccept(response -> {
-                        if (response.statusCode() == 200) {
-                            log.info("[XP] Successfully awarded XP for ticket #{}", ticket.getId());
-                        } else {
-                            log.warn("[XP] Failed to award XP for ticket #{}: {} - {}",
-                                    ticket.getId(), response.statusCode(), response.body());
-                        }
-                    })
-                    .exceptionally(e -> {
-                        log.error("[XP] Error calling XP API for ticket #{}: {}", ticket.getId(), e.getMessage());
-                        return null;
-                    });
-
-            log.info("[XP] Sent XP request for ticket #{} (async)", ticket.getId());
+                json.writeArrayFieldStart("messages");
+                messageCount = writeMessages(json, ticket, helperIds);
+                json.writeEndArray();
 
+                json.writeArrayFieldStart("helperIds");
+                for (String helperId : helperIds) {
+                    json.writeString(helperId);
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+
+            if (messageCount == 0) {
+                log.warn("[XP] No messages found in ticket #{}, skipping XP award", ticket.getId());
+                return null;
+            }
+            return body.toString();
         } catch (Exception e) {
             log.error("[XP] Error preparing XP request for ticket #{}: {}", ticket.getId(), e.getMessage());
+            return null;
         }
     }
 
     /**
-     * Award XP to a helper for resolving a ticket (without transcript URL).
-     * This is a convenience overload for cases where no transcript is available.
+     * Queues a prepared XP award request at the {@link XpClient}. The idempotency key lets the backend drop
+     * requests which are delivered again after a retry.
      *
-     * @param ticket  The ticket being closed
-     * @param rating  The star rating given by the ticket owner (1-5), can be null if skipped
+     * @return the HTTP status code of the response
      */
-    public void awardTicketXp(Ticket ticket, Integer rating) {
-        awardTicketXp(ticket, rating, null);
+    public CompletableFuture<Integer> sendAwardRequest(String requestBody, String idempotencyKey) {
+        if (config.getXpApiUrl() == null || config.getXpApiUrl().isBlank()) {
+            log.debug("[XP] XP API not configured, dropping request {}", idempotencyKey);
+            return CompletableFuture.completedFuture(200);
+        }
+
+        return xpClient.submit(idempotencyKey, requestBody)
+                .thenApply(status -> {
+                    if (status / 100 == 2) {
+                        log.info("[XP] Successfully sent XP request {}", idempotencyKey);
+                    } else {
+                        log.warn("[XP] Failed to send XP request {}: {}", idempotencyKey, status);
+                    }
+                    return status;
+                });
     }
 
     /**
-     * Collect messages from the ticket channel and convert to API format.
+     * Writes the messages of the stored transcript in API format and adds their authors to the helper IDs.
+     * Log and info entries, bot messages and deleted messages are skipped, edited messages are sent with their latest
+     * content.
+     *
+     * @return the number of written messages
      */
-    private List<Map<String, String>> collectMessages(Ticket ticket) {
-        List<Map<String, String>> result = new ArrayList<>();
-
-        try {
-            String ownerId = ticket.getOwner() != null ? ticket.getOwner().getId() : null;
-            String baseMessageId = ticket.getBaseMessage();
-
-            // Fetch last 100 messages from channel
-            List<Message> rawMessages = ticket.getTextChannel().getHistory()
-                    .retrievePast(100)
-                    .complete();
-
-            // Reverse to get chronological order and process
-            Collections.reverse(rawMessages);
-
-            for (Message msg : rawMessages) {
-                // Skip the base message (pinned ticket info)
-                if (msg.getId().equals(baseMessageId)) {
-                    continue;
-                }
-
-                // Skip bot messages (except system messages in embeds)
-                if (msg.getAuthor().isBot()) {
-                    continue;
-                }
-
-                // Skip empty messages
-                String content = msg.getContentDisplay();
-                if (content == null || content.isBlank()) {
-                    continue;
-                }
+    private int writeMessages(JsonGenerator json, Ticket ticket, Set<String> helperIds) throws IOException {
+        long ownerId = ticket.getOwner() != null ? ticket.getOwner().getIdLong() : 0;
+        String ownerName = ticket.getOwner() != null ? ticket.getOwner().getName() : null;
+        int count = 0;
+
+        for (Message message : ticket.getTranscript().getMessages()) {
+            if (message.getId() == 0 || message.isBot() || message.isDeleted()) {
+                continue;
+            }
 
-                // Determine author role
-                String authorRole;
-                if (ownerId != null && msg.getAuthor().getId().equals(ownerId)) {
-                    authorRole = "owner";
-                } else {
-                    authorRole = "helper";
-                }
+            List<Edit> edits = message.getEdits();
+            String content = edits.isEmpty() ? message.getOriginalContent() : edits.get(edits.size() - 1).edit();
+            if (content == null || content.isBlank()) {
+                continue;
+            }
 
-                Map<String, String> msgMap = new HashMap<>();
-                msgMap.put("author", authorRole);
-                msgMap.put("content", content);
-                result.add(msgMap);
+            // messages stored before the author id was recorded only have the name
+            boolean isOwner = message.getAuthorId() > 0
+                    ? message.getAuthorId() == ownerId
+                    : ticket.getTranscript().getAuthorName(message).equals(ownerName);
+            if (!isOwner && message.getAuthorId() > 0) {
+                helperIds.add(String.valueOf(message.getAuthorId()));
             }
 
-        } catch (Exception e) {
-            log.error("[XP] Error collecting messages for ticket #{}: {}", ticket.getId(), e.getMessage());
+            json.writeStartObject();
+            json.writeStringField("author", isOwner ? "owner" : "helper");
+            json.writeStringField("content", content);
+            json.writeEndObject();
+            count++;
         }
-
-        return result;
+        return count;
     }
-
 }
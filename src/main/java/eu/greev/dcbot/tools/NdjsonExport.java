@@ -0,0 +1,51 @@
+package eu.greev.dcbot.tools;
+
+import eu.greev.dcbot.Main;
+import eu.greev.dcbot.ticketsystem.service.AnalyticsExport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exports closed tickets as gzipped NDJSON without starting the bot, see {@link AnalyticsExport}.
+ * <p>
+ * Run with
+ * {@code java -jar discord-ticketbot.jar export-ndjson from=yyyy-MM-dd to=yyyy-MM-dd [out=file] [after=ticketId]}
+ * next to the {@code Tickets} directory, it can run while the bot is online. With {@code after} it writes a new file,
+ * by default named after the ticket id it continues from.
+ */
+@Slf4j
+public class NdjsonExport {
+
+    private NdjsonExport() {}
+
+    public static void run(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length == 2) {
+                options.put(pair[0], pair[1]);
+            }
+        }
+        if (!options.containsKey("from") || !options.containsKey("to")) {
+            log.error("Usage: export-ndjson from=yyyy-MM-dd to=yyyy-MM-dd [out=file] [after=ticketId]");
+            return;
+        }
+        long from = AnalyticsExport.parseDate(options.get("from"));
+        long to = AnalyticsExport.parseDate(options.get("to"));
+        int after = Integer.parseInt(options.getOrDefault("after", "0"));
+        // a continued export goes to a new file, the interrupted one stays as it is
+        String defaultName = after > 0 ? "tickets-%s-%s-after-%d.ndjson.gz".formatted(options.get("from"), options.get("to"), after)
+                : "tickets-%s-%s.ndjson.gz".formatted(options.get("from"), options.get("to"));
+        File out = new File(options.getOrDefault("out", defaultName));
+
+        long start = System.nanoTime();
+        AnalyticsExport.Result result = new AnalyticsExport(AnalyticsExport.readOnly(Main.DATABASE_URL)).export(out, from, to, after);
+        log.info("Exported {} tickets, {} messages, {} edits, {} logs and {} ratings to {} in {}s, last ticket #{}",
+                result.tickets(), result.messages(), result.edits(), result.logs(), result.ratings(), out.getPath(),
+                "%.1f".formatted((System.nanoTime() - start) / 1e9), result.lastTicketId());
+    }
+}
@@ -39,10 +39,28 @@ public class Config {
     private Map<Long, String> claimEmojis = new HashMap<>();
     private Map<String, Long> categories = new HashMap<>();
     private Map<String, List<Long>> categoryRoles = new HashMap<>();
+    private int backfillParallelTickets = 4;
+    private int backfillRequestsPerSecond = 5;
+    private int backfillMaxPages = 20;
+    private boolean transcriptExportGzip = false;
+    private int archiveAfterDays = 0;
+    private Map<String, Integer> retentionDays = new HashMap<>();
+    private boolean vacuumOnStartup = false;
+    private int backupIntervalHours = 24;
+    private int backupKeep = 7;
+
+    // Auto-assignment of new tickets: off, offer (ping in the thread) or assign (claim right away)
+    private String autoAssignMode = "off";
+    private int autoAssignMaxOpen = 5;
 
     // XP System Integration
     private String xpApiUrl = "";
     private String xpApiKey = "";
+    private int xpBatchSize = 1;
+    private int xpParallelRequests = 4;
+    private int xpQueueCapacity = 1000;
+    private int xpMaxRetries = 3;
+    private boolean xpGzip = false;
 
 
     public void dumpConfig(String path) {
@@ -0,0 +1,48 @@
+package eu.greev.dcbot.utils;
+
+import java.util.Arrays;
+
+/**
+ * Counts per non-negative index with prefix sums in O(log n), also known as a binary indexed tree.
+ * <p>
+ * Grows to the next power of two when an index beyond the capacity is added. For a power of two the last node
+ * covers the whole range, so growing only copies the array and carries that total over. Not thread-safe.
+ */
+public class FenwickTree {
+    // 1-based, tree[i] sums the counts of (i - lowestOneBit(i), i]
+    private int[] tree;
+
+    public FenwickTree() {
+        this(64);
+    }
+
+    public FenwickTree(int capacity) {
+        tree = new int[Integer.highestOneBit(Math.max(2, capacity) - 1) * 2 + 1];
+    }
+
+    public void add(int index, int delta) {
+        while (index + 1 >= tree.length) {
+            grow();
+        }
+        for (int i = index + 1; i < tree.length; i += Integer.lowestOneBit(i)) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the sum of the counts of all indexes up to and including {@code index}
+     */
+    public int prefixSum(int index) {
+        int sum = 0;
+        for (int i = Math.min(index + 1, tree.length - 1); i > 0; i -= Integer.lowestOneBit(i)) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private void grow() {
+        int size = tree.length - 1;
+        tree = Arrays.copyOf(tree, size * 2 + 1);
+        tree[size * 2] = tree[size];
+    }
+}
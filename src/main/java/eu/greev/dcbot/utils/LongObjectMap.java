@@ -0,0 +1,119 @@
+package eu.greev.dcbot.utils;
+
+/**
+ * Hash map from primitive {@code long} keys to objects, without boxing the keys or allocating an entry per mapping.
+ * <p>
+ * Uses open addressing with linear probing. The key {@code 0} marks a free slot and is kept separately.
+ * Not thread-safe, {@code null} values aren't supported and mappings can't be removed, which is all the transcript
+ * index needs.
+ */
+public class LongObjectMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeAt;
+    private V zeroValue;
+    private boolean hasZero;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) {
+                return (V) values[slot];
+            }
+            if (current == 0) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZero;
+        }
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value of the key or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == 0) {
+            V previous = zeroValue;
+            zeroValue = value;
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0) continue;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Snowflakes share their high bits and grow in the low bits, so the bits are mixed before masking.
+     */
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
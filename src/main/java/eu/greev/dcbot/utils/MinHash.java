@@ -0,0 +1,85 @@
+package eu.greev.dcbot.utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * MinHash signatures of texts, the share of equal slots of two signatures estimates the Jaccard similarity of their
+ * shingles.
+ * <p>
+ * A text is lower-cased, links and everything but letters and digits are dropped and the remaining words are cut into
+ * shingles of {@value #SHINGLE_LENGTH} characters, which also matches reports with typos or reordered sentences.
+ * Every slot of the signature is the smallest hash of all shingles under its own seed.
+ */
+public final class MinHash {
+    public static final int SIZE = 64;
+    private static final int SHINGLE_LENGTH = 5;
+    private static final Pattern LINK = Pattern.compile("https?://\\S+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < SIZE; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private MinHash() {}
+
+    /**
+     * @param minShingles texts with fewer shingles are too short to compare
+     * @return the signature, {@code null} if the text is too short
+     */
+    public static int[] signature(String text, int minShingles) {
+        Set<Long> shingles = shingles(text);
+        if (shingles.size() < minShingles) return null;
+
+        int[] signature = new int[SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < SIZE; i++) {
+                int hash = (int) (mix(shingle ^ SEEDS[i]) >>> 33);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @return the estimated Jaccard similarity, between 0 and 1
+     */
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / SIZE;
+    }
+
+    private static Set<Long> shingles(String text) {
+        String normalized = NON_WORD.matcher(LINK.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ")).replaceAll(" ").trim();
+        Set<Long> shingles = new HashSet<>();
+        for (int i = 0; i + SHINGLE_LENGTH <= normalized.length(); i++) {
+            long hash = 0xCBF29CE484222325L;
+            for (int j = i; j < i + SHINGLE_LENGTH; j++) {
+                hash = (hash ^ normalized.charAt(j)) * 0x100000001B3L;
+            }
+            shingles.add(hash);
+        }
+        return shingles;
+    }
+
+    /** The finalizer of SplitMix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
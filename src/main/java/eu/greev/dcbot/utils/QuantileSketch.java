@@ -0,0 +1,124 @@
+package eu.greev.dcbot.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Mergeable histogram of non-negative values for approximate quantiles, in the manner of an HDR histogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} get a bucket each, above that every power of two is split into
+ * {@value #SUB_BUCKETS} buckets of equal width. A quantile is the middle of its bucket, so it is off by at most
+ * 1/256 of the value. Merging adds the counts, which makes sketches of single days add up to any window.
+ * <p>
+ * Serialized as pairs of varints, the distance to the previous non-empty bucket and its count, so a sketch takes
+ * at most a few kilobytes however many values it holds. Not thread-safe.
+ */
+public class QuantileSketch {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private long[] counts = new long[SUB_BUCKETS];
+    private long count;
+
+    public void add(long value) {
+        int bucket = bucketOf(Math.max(0, value));
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(bucket + 1, counts.length * 2));
+        }
+        counts[bucket]++;
+        count++;
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, like 0.9 for the 90th percentile
+     * @return the approximate value, 0 if the sketch is empty
+     */
+    public long quantile(double quantile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return lowerBound(i) + (width(i) - 1) / 2;
+            }
+        }
+        return lowerBound(counts.length - 1);
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int previous = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            writeVarint(out, i - previous);
+            writeVarint(out, counts[i]);
+            previous = i;
+        }
+        return out.toByteArray();
+    }
+
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        QuantileSketch sketch = new QuantileSketch();
+        int[] position = {0};
+        int bucket = -1;
+        while (position[0] < bytes.length) {
+            bucket += (int) readVarint(bytes, position);
+            long bucketCount = readVarint(bytes, position);
+            if (bucket >= sketch.counts.length) {
+                sketch.counts = Arrays.copyOf(sketch.counts, Math.max(bucket + 1, sketch.counts.length * 2));
+            }
+            sketch.counts[bucket] += bucketCount;
+            sketch.count += bucketCount;
+        }
+        return sketch;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    private static long width(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
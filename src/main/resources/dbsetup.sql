@@ -2,13 +2,13 @@ CREATE TABLE IF NOT EXISTS tickets
 (
     ticketID               INTEGER PRIMARY KEY  NOT NULL,
 
-    channelID              VARCHAR DEFAULT ""   NOT NULL,
+    channelID              BIGINT  DEFAULT NULL NULL,
 
-    threadID               VARCHAR DEFAULT ""   NOT NULL,
+    threadID               BIGINT  DEFAULT NULL NULL,
 
     isWaiting              BOOL    DEFAULT 0    NOT NULL,
 
-    waitingSince           VARCHAR DEFAULT NULL NULL,
+    waitingSince           BIGINT  DEFAULT NULL NULL,
 
     remindersSent          INTEGER DEFAULT 0    NOT NULL,
 
@@ -18,28 +18,95 @@ CREATE TABLE IF NOT EXISTS tickets
 
     info                   VARCHAR DEFAULT "{}" NOT NULL,
 
-    owner                  VARCHAR DEFAULT ""   NOT NULL,
+    owner                  BIGINT  DEFAULT NULL NULL,
 
-    supporter              VARCHAR DEFAULT ""   NOT NULL,
-
-    involved               VARCHAR DEFAULT ""   NOT NULL,
+    supporter              BIGINT  DEFAULT NULL NULL,
 
     baseMessage            VARCHAR DEFAULT ""   NOT NULL,
 
     isOpen                 BOOL    DEFAULT 1,
 
-    closer                 VARCHAR DEFAULT "",
+    closer                 BIGINT  DEFAULT NULL NULL,
 
     closedAt               BIGINT  DEFAULT NULL,
 
-    pendingRatingSince     VARCHAR DEFAULT NULL NULL,
+    pendingRatingSince     BIGINT  DEFAULT NULL NULL,
 
     ratingRemindersSent    INTEGER DEFAULT 0    NOT NULL,
 
-    pendingCloser          VARCHAR DEFAULT ""   NOT NULL,
+    pendingCloser          BIGINT  DEFAULT NULL NULL,
+
+    lastSupporterMessageAt BIGINT DEFAULT NULL,
+
+    participants           VARCHAR DEFAULT NULL NULL,
+
+    transcriptVersion      INTEGER DEFAULT 0    NOT NULL,
+
+    archivedIn             VARCHAR DEFAULT NULL NULL,
 
-    lastSupporterMessageAt BIGINT DEFAULT NULL
+    transcriptPurgedAt     BIGINT  DEFAULT NULL NULL
 );
+CREATE TABLE IF NOT EXISTS ticket_members
+(
+    ticketID INTEGER NOT NULL,
+
+    userID   BIGINT  NOT NULL,
+
+    role     VARCHAR NOT NULL,
+
+    addedAt  BIGINT  NOT NULL,
+
+    PRIMARY KEY (ticketID, userID),
+    FOREIGN KEY (ticketID) REFERENCES tickets (ticketID)
+) WITHOUT ROWID;
+CREATE TABLE IF NOT EXISTS ticket_events
+(
+    eventID  INTEGER PRIMARY KEY NOT NULL,
+
+    ticketID INTEGER NOT NULL,
+
+    type     VARCHAR NOT NULL,
+
+    userID   BIGINT  DEFAULT NULL NULL,
+
+    time     BIGINT  NOT NULL,
+
+    FOREIGN KEY (ticketID) REFERENCES tickets (ticketID)
+);
+CREATE TABLE IF NOT EXISTS ticket_state
+(
+    ticketID      INTEGER PRIMARY KEY NOT NULL,
+
+    status        VARCHAR NOT NULL,
+
+    owner         BIGINT  DEFAULT NULL NULL,
+
+    supporter     BIGINT  DEFAULT NULL NULL,
+
+    closer        BIGINT  DEFAULT NULL NULL,
+
+    pendingRating BOOL    DEFAULT 0    NOT NULL,
+
+    since         BIGINT  DEFAULT NULL NULL,
+
+    lastEventID   INTEGER DEFAULT 0    NOT NULL,
+
+    FOREIGN KEY (ticketID) REFERENCES tickets (ticketID)
+);
+CREATE TABLE IF NOT EXISTS sla_sketches
+(
+    metric    VARCHAR NOT NULL,
+
+    dimension VARCHAR NOT NULL,
+
+    day       INTEGER NOT NULL,
+
+    subject   VARCHAR NOT NULL,
+
+    sketch    BLOB    NOT NULL,
+
+    PRIMARY KEY (metric, dimension, day, subject)
+) WITHOUT ROWID;
 CREATE TABLE IF NOT EXISTS messages
 (
     messageID   BIGINT PRIMARY KEY NOT NULL,
@@ -54,6 +121,10 @@ CREATE TABLE IF NOT EXISTS messages
 
     isEdited    BOOL    DEFAULT 0  NOT NULL,
 
+    authorID    BIGINT  DEFAULT 0  NOT NULL,
+
+    isBot       BOOL    DEFAULT 0  NOT NULL,
+
     ticketID    INTEGER,
     FOREIGN KEY (ticketID) REFERENCES tickets (ticketID)
 );
@@ -108,4 +179,65 @@ CREATE TABLE IF NOT EXISTS supporter_settings
     createdAt BIGINT              NOT NULL,
 
     updatedAt BIGINT              NOT NULL
-);
\ No newline at end of file
+);
+CREATE TABLE IF NOT EXISTS close_jobs
+(
+    ticketID      INTEGER PRIMARY KEY  NOT NULL,
+
+    stage         VARCHAR              NOT NULL,
+
+    closerID      VARCHAR DEFAULT ""   NOT NULL,
+
+    message       VARCHAR DEFAULT NULL NULL,
+
+    awardXp       BOOL    DEFAULT 0    NOT NULL,
+
+    ratingOutcome VARCHAR DEFAULT "NONE" NOT NULL,
+
+    rating        INTEGER DEFAULT NULL NULL,
+
+    ratingMessage VARCHAR DEFAULT NULL NULL,
+
+    transcriptUrl VARCHAR DEFAULT NULL NULL,
+
+    attempts      INTEGER DEFAULT 0    NOT NULL,
+
+    lastError     VARCHAR DEFAULT NULL NULL,
+
+    createdAt     BIGINT               NOT NULL,
+
+    updatedAt     BIGINT               NOT NULL
+);
+CREATE TABLE IF NOT EXISTS outbox
+(
+    id             INTEGER PRIMARY KEY    NOT NULL,
+
+    idempotencyKey VARCHAR UNIQUE         NOT NULL,
+
+    kind           VARCHAR                NOT NULL,
+
+    target         VARCHAR DEFAULT ""     NOT NULL,
+
+    payload        VARCHAR                NOT NULL,
+
+    status         VARCHAR DEFAULT "PENDING" NOT NULL,
+
+    attempts       INTEGER DEFAULT 0      NOT NULL,
+
+    nextAttemptAt  BIGINT  DEFAULT 0      NOT NULL,
+
+    lastError      VARCHAR DEFAULT NULL   NULL,
+
+    createdAt      BIGINT                 NOT NULL,
+
+    updatedAt      BIGINT                 NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_outbox_due ON outbox (status, nextAttemptAt);
+CREATE INDEX IF NOT EXISTS idx_messages_ticket ON messages (ticketID, messageID);
+CREATE INDEX IF NOT EXISTS idx_edits_message ON edits (messageID);
+CREATE INDEX IF NOT EXISTS idx_logs_ticket ON logs (ticketID);
+CREATE INDEX IF NOT EXISTS idx_ratings_ticket ON ratings (ticketID);
+CREATE INDEX IF NOT EXISTS idx_ticket_members_user ON ticket_members (userID, ticketID);
+CREATE INDEX IF NOT EXISTS idx_ticket_events_ticket_id ON ticket_events (ticketID);
+CREATE INDEX IF NOT EXISTS idx_ticket_events_time ON ticket_events (time);
+CREATE INDEX IF NOT EXISTS idx_ticket_state_status ON ticket_state (status, supporter);
\ No newline at end of file
@@ -0,0 +1,64 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AnalyticsExportTest {
+    @TempDir
+    Path directory;
+
+    private AnalyticsExport export;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        for (int ticketId = 1; ticketId <= 3; ticketId++) {
+            TestDatabase.insertTicket(jdbi, ticketId);
+        }
+        jdbi.useHandle(h -> h.execute("UPDATE tickets SET isOpen = false, closedAt = 1000"));
+        export = new AnalyticsExport(jdbi);
+    }
+
+    @Test
+    void continuedExportWritesOnlyLaterTickets() throws IOException {
+        File file = directory.resolve("continued.ndjson.gz").toFile();
+
+        AnalyticsExport.Result result = export.export(file, 0, 2000, 1);
+
+        assertEquals(2, result.tickets());
+        assertEquals(3, result.lastTicketId());
+        assertEquals(2, lines(file));
+        assertEquals("3", Files.readString(Path.of(file.getPath() + ".checkpoint")));
+    }
+
+    @Test
+    void continuedExportDoesNotOverwriteTheInterruptedOne() throws IOException {
+        File file = directory.resolve("export.ndjson.gz").toFile();
+        export.export(file, 0, 2000, 0);
+        long length = file.length();
+
+        assertThrows(FileAlreadyExistsException.class, () -> export.export(file, 0, 2000, 1));
+        assertEquals(length, file.length());
+        assertEquals(3, lines(file));
+    }
+
+    private static long lines(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().count();
+        }
+    }
+}
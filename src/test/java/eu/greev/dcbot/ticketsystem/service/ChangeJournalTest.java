@@ -0,0 +1,129 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeJournalTest {
+    @TempDir
+    Path directory;
+
+    private Jdbi jdbi;
+    private File journalDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        journalDirectory = directory.resolve("journal").toFile();
+    }
+
+    @Test
+    void replayAppliesOnlyTheNewestSnapshotAndLaterParticipants() throws IOException {
+        ChangeJournal journal = openJournal();
+        journal.appendTicketWrite(ChangeJournal.Entry.ticket(1, columns("first", "{\"ownerMessages\":1}")));
+        journal.appendTicketWrite(ChangeJournal.Entry.participants(1, "{\"ownerMessages\":2}"));
+        journal.appendTicketWrite(ChangeJournal.Entry.ticket(1, columns("second", "{\"ownerMessages\":3}")));
+        journal.appendTicketWrite(ChangeJournal.Entry.participants(1, "{\"ownerMessages\":4}"));
+        journal.close();
+
+        openJournal().close();
+
+        assertEquals("second", column("closeMessage"));
+        assertEquals("{\"ownerMessages\":4}", column("participants"));
+    }
+
+    @Test
+    void snapshotCarriesTheParticipantsJournaledBeforeIt() throws IOException {
+        ChangeJournal journal = openJournal();
+        journal.appendTicketWrite(ChangeJournal.Entry.participants(1, "{\"ownerMessages\":1}"));
+        journal.appendTicketWrite(ChangeJournal.Entry.ticket(1, columns("closed", "{\"ownerMessages\":2}")));
+        journal.close();
+
+        openJournal().close();
+
+        assertEquals("{\"ownerMessages\":2}", column("participants"));
+    }
+
+    @Test
+    void replaysMembersInOrder() throws IOException {
+        ChangeJournal journal = openJournal();
+        journal.appendTicketWrite(ChangeJournal.Entry.memberAdded(1, 10, "INVOLVED", 100));
+        journal.appendTicketWrite(ChangeJournal.Entry.memberAdded(1, 11, "INVOLVED", 101));
+        journal.appendTicketWrite(ChangeJournal.Entry.memberRemoved(1, 10));
+        journal.close();
+
+        openJournal().close();
+
+        List<Long> members = jdbi.withHandle(h -> h.createQuery("SELECT userID FROM ticket_members WHERE ticketID = 1").mapTo(Long.class).list());
+        assertEquals(List.of(11L), members);
+    }
+
+    @Test
+    void tornRecordEndsTheReplayOfItsSegment() throws IOException {
+        ChangeJournal journal = openJournal();
+        journal.appendTicketWrite(ChangeJournal.Entry.ticket(1, columns("kept", null)));
+        journal.close();
+        try (var files = Files.list(journalDirectory.toPath())) {
+            Path segment = files.findFirst().orElseThrow();
+            Files.write(segment, new byte[]{0, 0, 1, 0, 7, 7, 7, 7, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        openJournal().close();
+
+        assertEquals("kept", column("closeMessage"));
+        try (var files = Files.list(journalDirectory.toPath())) {
+            assertEquals(1, files.count(), "replayed segments should be deleted");
+        }
+    }
+
+    @Test
+    void failedTranscriptFlushKeepsItsChangesForTheNextFlush() throws IOException {
+        ChangeJournal journal = openJournal();
+        TranscriptData transcriptData = new TranscriptData(jdbi, journal);
+        Transcript transcript = transcriptData.newTranscript();
+
+        transcript.addLogMessage("first", 1, 1);
+        journal.rotate();
+        jdbi.useHandle(h -> h.execute("ALTER TABLE logs RENAME TO logs_offline"));
+        assertThrows(RuntimeException.class, () -> transcriptData.saveChanges(transcript, 1));
+        jdbi.useHandle(h -> h.execute("ALTER TABLE logs_offline RENAME TO logs"));
+
+        transcript.addLogMessage("second", 2, 1);
+        long sealed = journal.rotate();
+        transcriptData.saveChanges(transcript, 1);
+        journal.transcriptsFlushed(sealed);
+        journal.close();
+
+        List<String> logs = jdbi.withHandle(h -> h.createQuery("SELECT log FROM logs WHERE ticketID = 1 ORDER BY rowid").mapTo(String.class).list());
+        assertEquals(List.of("first", "second"), logs);
+        assertTrue(transcript.drainChanges().isEmpty());
+    }
+
+    private ChangeJournal openJournal() throws IOException {
+        ChangeJournal journal = new ChangeJournal(journalDirectory);
+        journal.replay(jdbi);
+        return journal;
+    }
+
+    private String column(String name) {
+        return jdbi.withHandle(h -> h.createQuery("SELECT " + name + " FROM tickets WHERE ticketID = 1").mapTo(String.class).one());
+    }
+
+    private static List<Object> columns(String closeMessage, String participants) {
+        return Arrays.asList(null, null, "general", "{}", false, 1L, null, "", true, null, 0, closeMessage, null, null, null, 0, null, null, participants);
+    }
+}
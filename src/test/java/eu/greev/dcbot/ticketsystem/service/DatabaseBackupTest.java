@@ -0,0 +1,51 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseBackupTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void backsUpTheArchivesAndKeepsOnlyTheNewestBackups() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        File archives = directory.resolve("archive").toFile();
+        archives.mkdirs();
+        SQLiteDataSource archive = new SQLiteDataSource();
+        archive.setUrl("jdbc:sqlite:" + new File(archives, "2024-01.db"));
+        Jdbi.create(archive).useHandle(h -> {
+            h.execute("CREATE TABLE transcripts (ticketID INTEGER PRIMARY KEY NOT NULL, entries INTEGER NOT NULL, transcript BLOB NOT NULL, archivedAt BIGINT NOT NULL)");
+            h.execute("INSERT INTO transcripts VALUES (1, 0, x'00', 0)");
+        });
+        File backups = directory.resolve("backups").toFile();
+        backups.mkdirs();
+        Files.writeString(new File(backups, "tickets-20000101-000000.db.gz").toPath(), "old");
+        Files.writeString(new File(backups, "tickets-20000101-000000-archive-1999-12.db.gz").toPath(), "old");
+
+        DatabaseBackup backup = new DatabaseBackup(jdbi, backups, archives);
+        List<File> files = backup.backup(1);
+
+        assertEquals(2, files.size());
+        assertTrue(files.get(1).getName().endsWith("-archive-2024-01.db.gz"));
+        for (File file : files) {
+            assertTrue(DatabaseBackup.verify(file), file.getName());
+        }
+        assertEquals(files.stream().map(File::getName).sorted().toList(), Arrays.stream(backups.list()).sorted().toList());
+        assertNotNull(backup.newestBackup());
+    }
+}
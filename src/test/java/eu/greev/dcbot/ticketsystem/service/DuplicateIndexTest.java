@@ -0,0 +1,59 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.utils.MinHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicateIndexTest {
+    private static final int TRIALS = 2000;
+
+    @Test
+    void findsNearDuplicatesThroughTheBands() {
+        DuplicateIndex index = new DuplicateIndex(null, null);
+        index.add(new DuplicateIndex.Indexed(1, 10, 100, MinHash.signature("My rank is gone after I bought the VIP package in the store yesterday", 10)), true);
+        index.add(new DuplicateIndex.Indexed(2, 20, 200, MinHash.signature("Someone griefed my base on the survival server last night", 10)), false);
+
+        List<DuplicateIndex.Match> matches = index.find(3, MinHash.signature("my rank is gone after i bought the vip package in the store", 10));
+
+        assertEquals(1, matches.size());
+        assertEquals(1, matches.get(0).ticketId());
+        assertTrue(matches.get(0).open());
+
+        index.remove(1);
+        assertTrue(index.find(3, MinHash.signature("my rank is gone after i bought the vip package in the store", 10)).isEmpty());
+    }
+
+    @Test
+    void signaturesAtTheThresholdAlmostAlwaysShareABand() {
+        Random random = new Random(7);
+        int found = 0;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            int[] signature = random.ints(MinHash.SIZE).toArray();
+            int[] similar = signature.clone();
+            // exactly half of the slots differ, a similarity of 0.5
+            List<Integer> slots = new ArrayList<>();
+            for (int i = 0; i < MinHash.SIZE; i++) {
+                slots.add(i);
+            }
+            Collections.shuffle(slots, random);
+            for (int slot : slots.subList(0, MinHash.SIZE / 2)) {
+                similar[slot] = ~signature[slot];
+            }
+
+            DuplicateIndex index = new DuplicateIndex(null, null);
+            index.add(new DuplicateIndex.Indexed(1, 10, 100, signature), true);
+            if (!index.find(2, similar).isEmpty()) {
+                found++;
+            }
+        }
+
+        assertTrue(found >= TRIALS * 0.995, found + " of " + TRIALS + " found");
+    }
+}
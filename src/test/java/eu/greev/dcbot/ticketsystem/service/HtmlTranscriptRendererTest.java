@@ -0,0 +1,55 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HtmlTranscriptRendererTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rendersTheStoredRowsInOrder() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        jdbi.useHandle(h -> {
+            h.execute("INSERT INTO messages(messageID, content, author, timeCreated, ticketID) VALUES(10, 'my <b>game</b> crashes', 'owner', 100, 1)");
+            h.execute("INSERT INTO edits(messageID, content, timeEdited) VALUES(10, 'my game crashes on start', 110)");
+            h.execute("INSERT INTO messages(messageID, content, author, timeCreated, ticketID, isDeleted) VALUES(11, 'oops', 'owner', 120, 1, true)");
+            h.execute("INSERT INTO logs(log, timeCreated, ticketID) VALUES('[helper] claimed the ticket', 105, 1)");
+        });
+        HtmlTranscriptRenderer renderer = new HtmlTranscriptRenderer(new Config(), jdbi, new ArchiveData(jdbi), directory.resolve("transcripts").toFile());
+
+        File file = renderer.render(Ticket.builder().id(1).build());
+        String html = Files.readString(file.toPath());
+
+        assertTrue(html.contains("<div class=\"msg\" id=\"m10\"><span class=\"author\">owner</span><span class=\"time\">1970-01-01 00:01:40 UTC</span>" +
+                "<div class=\"content\">my &lt;b&gt;game&lt;/b&gt; crashes</div><div class=\"edits\">edited 1970-01-01 00:01:50 UTC: my game crashes on start</div></div>\n"), html);
+        assertTrue(html.indexOf("id=\"m10\"") < html.indexOf("claimed the ticket"));
+        assertTrue(html.indexOf("claimed the ticket") < html.indexOf("<div class=\"msg deleted\" id=\"m11\">"));
+        assertTrue(html.endsWith("</body></html>\n"));
+        assertTrue(html.contains("<footer>3 entries"));
+    }
+
+    @Test
+    void emptyTranscriptsLeaveNoFile() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        File transcripts = directory.resolve("transcripts").toFile();
+        HtmlTranscriptRenderer renderer = new HtmlTranscriptRenderer(new Config(), jdbi, new ArchiveData(jdbi), transcripts);
+
+        assertNull(renderer.render(Ticket.builder().id(1).build()));
+        assertEquals(0, transcripts.list().length);
+    }
+}
@@ -0,0 +1,52 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the {@link AutoAssigner.LoadHeap} against a brute-force search for the least loaded supporter after every
+ * one of many random updates and removals.
+ */
+class LoadHeapTest {
+    private static final int UPDATES = 200_000;
+    private static final int SUPPORTERS = 300;
+
+    @Test
+    void alwaysPeeksTheLeastLoadedSupporter() {
+        Random random = new Random(42);
+        AutoAssigner.LoadHeap heap = new AutoAssigner.LoadHeap();
+        Map<Long, long[]> expected = new HashMap<>();
+
+        for (int i = 0; i < UPDATES; i++) {
+            long id = random.nextInt(SUPPORTERS);
+            if (random.nextInt(4) == 0) {
+                heap.remove(id);
+                expected.remove(id);
+            } else {
+                int load = random.nextInt(10);
+                // distinct pick times, so the least loaded supporter is unambiguous
+                long pickedAt = i;
+                heap.upsert(id, load, pickedAt);
+                expected.put(id, new long[]{load, pickedAt});
+            }
+
+            assertEquals(expected.size(), heap.size());
+            assertEquals(expected.containsKey(id), heap.contains(id));
+            if (expected.isEmpty()) continue;
+            Map.Entry<Long, long[]> least = null;
+            for (Map.Entry<Long, long[]> entry : expected.entrySet()) {
+                long[] value = entry.getValue();
+                if (least == null || value[0] < least.getValue()[0] || value[0] == least.getValue()[0] && value[1] < least.getValue()[1]) {
+                    least = entry;
+                }
+            }
+            assertEquals(least.getKey(), heap.peek(), "after update " + i);
+            assertEquals(least.getValue()[0], heap.peekLoad());
+        }
+    }
+}
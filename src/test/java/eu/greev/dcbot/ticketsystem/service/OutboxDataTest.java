@@ -0,0 +1,37 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.OutboxEntry;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OutboxDataTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesInFlightAreNotDueAgain() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        OutboxData outboxData = new OutboxData(jdbi);
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(OutboxDispatcher.xpAward("award:" + i, "{}"));
+        }
+        jdbi.useTransaction(handle -> outboxData.enqueue(handle, entries));
+
+        List<OutboxEntry> first = outboxData.getDueEntries(3, Set.of());
+        Set<Long> inFlight = Set.of(first.get(0).getId(), first.get(1).getId(), first.get(2).getId());
+        List<OutboxEntry> second = outboxData.getDueEntries(3, inFlight);
+
+        assertEquals(3, first.size());
+        assertEquals(List.of("award:3", "award:4"), second.stream().map(OutboxEntry::getIdempotencyKey).toList());
+    }
+}
@@ -0,0 +1,101 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void ranksEveryMatchOfSelectiveWords() throws IOException {
+        Jdbi jdbi = setup();
+        insertMessage(jdbi, 1, 2, "printer printer");
+        insertFiller(jdbi, 500);
+
+        List<SearchIndex.Hit> hits = new SearchIndex(jdbi, null).search("printer", 0, List.of());
+
+        assertEquals(SearchIndex.PAGE_SIZE + 1, hits.size());
+        assertEquals(2, hits.get(0).ticketId());
+        assertEquals("**printer** **printer**", hits.get(0).snippet());
+    }
+
+    @Test
+    void commonWordsRankTheirNewestMatches() throws IOException {
+        Jdbi jdbi = setup();
+        insertMessage(jdbi, 1, 2, "printer printer");
+        insertFiller(jdbi, 2500);
+        insertMessage(jdbi, 5000, 2, "printer printer printer");
+
+        List<SearchIndex.Hit> hits = new SearchIndex(jdbi, null).search("printer", 0, List.of());
+
+        assertEquals(SearchIndex.PAGE_SIZE + 1, hits.size());
+        assertEquals("**printer** **printer** **printer**", hits.get(0).snippet());
+        assertTrue(hits.stream().noneMatch(hit -> hit.snippet().equals("**printer** **printer**")));
+    }
+
+    @Test
+    void deletedMessagesLeaveTheIndex() throws IOException {
+        Jdbi jdbi = setup();
+        SearchIndex index = new SearchIndex(jdbi, null);
+        insertMessage(jdbi, 10, 1, "the quokka is missing");
+        jdbi.useHandle(h -> h.execute("INSERT INTO edits(messageID, content, timeEdited) VALUES(10, 'the quokka is found', 5)"));
+        jdbi.useHandle(h -> h.execute("INSERT INTO messages(messageID, content, ticketID, isDeleted) VALUES(11, 'a deleted quokka', 1, true)"));
+        assertEquals(2, index.search("quokka", 0, List.of()).size());
+
+        jdbi.useHandle(h -> h.execute("UPDATE messages SET isDeleted=true WHERE messageID=10"));
+
+        assertTrue(index.search("quokka", 0, List.of()).isEmpty());
+    }
+
+    @Test
+    void excludedCategoriesDontTakeUpThePage() throws IOException {
+        Jdbi jdbi = setup();
+        jdbi.useHandle(h -> h.execute("UPDATE tickets SET category = 'staff' WHERE ticketID = 1"));
+        for (int i = 0; i < 20; i++) {
+            insertMessage(jdbi, 100 + i, 1, "refund refund");
+        }
+        insertMessage(jdbi, 200, 2, "a refund for my last order");
+
+        List<SearchIndex.Hit> hits = new SearchIndex(jdbi, null).search("refund", 0, List.of("staff"));
+
+        assertEquals(1, hits.size());
+        assertEquals(2, hits.get(0).ticketId());
+    }
+
+    private Jdbi setup() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        SearchIndex.setup(jdbi);
+        jdbi.useHandle(h -> h.execute("DELETE FROM search_backfill"));
+        TestDatabase.insertTicket(jdbi, 1);
+        TestDatabase.insertTicket(jdbi, 2);
+        return jdbi;
+    }
+
+    private static void insertFiller(Jdbi jdbi, int count) {
+        jdbi.useHandle(h -> {
+            PreparedBatch batch = h.prepareBatch("INSERT INTO messages(messageID, content, ticketID) VALUES(?, ?, 1)");
+            for (int i = 0; i < count; i++) {
+                batch.bind(0, 100 + i).bind(1, "the printer on the second floor of the office is broken again, message " + i).add();
+            }
+            batch.execute();
+        });
+    }
+
+    private static void insertMessage(Jdbi jdbi, long messageId, int ticketId, String content) {
+        jdbi.useHandle(h -> h.createUpdate("INSERT INTO messages(messageID, content, ticketID) VALUES(?, ?, ?)")
+                .bind(0, messageId)
+                .bind(1, content)
+                .bind(2, ticketId)
+                .execute());
+    }
+}
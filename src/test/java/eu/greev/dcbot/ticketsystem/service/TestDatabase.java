@@ -0,0 +1,39 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import org.jdbi.v3.core.Jdbi;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * A database in a file of the test's temp directory, set up from {@code dbsetup.sql} like the bot does.
+ */
+final class TestDatabase {
+    private TestDatabase() {}
+
+    static Jdbi create(Path directory) throws IOException {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + directory.resolve("tickets.db"));
+        Jdbi jdbi = Jdbi.create(ds);
+
+        String setup;
+        try (InputStream in = TestDatabase.class.getClassLoader().getResourceAsStream("dbsetup.sql")) {
+            setup = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (String query : setup.split(";")) {
+            if (!query.isBlank()) {
+                jdbi.useHandle(h -> h.createUpdate(query).execute());
+            }
+        }
+        return jdbi;
+    }
+
+    static void insertTicket(Jdbi jdbi, int ticketId) {
+        jdbi.useHandle(h -> h.createUpdate("INSERT INTO tickets(ticketID, category, owner) VALUES(?, 'general', 1)")
+                .bind(0, ticketId)
+                .execute());
+    }
+}
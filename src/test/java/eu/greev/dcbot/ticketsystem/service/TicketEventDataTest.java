@@ -0,0 +1,146 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.TicketEvent;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.SqlStatements;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.core.statement.StatementCustomizer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TicketEventDataTest {
+    @TempDir
+    Path directory;
+
+    private Jdbi jdbi;
+    private File journalDirectory;
+    private ChangeJournal journal;
+    private TicketEventData events;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        TestDatabase.insertTicket(jdbi, 2);
+        journalDirectory = directory.resolve("journal").toFile();
+        journal = new ChangeJournal(journalDirectory);
+        journal.replay(jdbi);
+        events = new TicketEventData(jdbi, journal);
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    void keepsRepeatedEventsInTheSameSecond() {
+        events.record(new TicketEvent(1, TicketEvent.Type.WAITING, null, 100));
+        events.record(new TicketEvent(1, TicketEvent.Type.RESUMED, null, 100));
+        events.record(new TicketEvent(1, TicketEvent.Type.WAITING, null, 100));
+        events.flush();
+
+        assertEquals(List.of("WAITING", "RESUMED", "WAITING"), types());
+    }
+
+    @Test
+    void replayedEventsAreWrittenOnce() throws IOException {
+        events.record(new TicketEvent(1, TicketEvent.Type.CREATED, 5L, 100));
+        events.record(new TicketEvent(1, TicketEvent.Type.CLAIMED, 6L, 160));
+        events.flush();
+        journal.close();
+
+        journal = new ChangeJournal(journalDirectory);
+        journal.replay(jdbi);
+
+        assertEquals(List.of("CREATED", "CLAIMED"), types());
+    }
+
+    @Test
+    void projectsTheStateFromTheEvents() throws IOException {
+        events.record(new TicketEvent(1, TicketEvent.Type.CREATED, 5L, 100));
+        events.record(new TicketEvent(1, TicketEvent.Type.CLAIMED, 6L, 160));
+        events.record(new TicketEvent(1, TicketEvent.Type.WAITING, null, 200));
+        events.flush();
+        assertEquals("WAITING", state("status"));
+
+        events.record(new TicketEvent(1, TicketEvent.Type.TRANSFERRED, 7L, 300));
+        events.record(new TicketEvent(1, TicketEvent.Type.CLOSED, 7L, 400));
+        events.flush();
+        journal.close();
+        // replaying the journal doesn't apply the events again
+        journal = new ChangeJournal(journalDirectory);
+        journal.replay(jdbi);
+
+        assertEquals(Map.of("status", "CLOSED", "owner", 5L, "supporter", 7L, "closer", 7L, "since", 400L), Map.of(
+                "status", state("status"), "owner", stateLong("owner"), "supporter", stateLong("supporter"),
+                "closer", stateLong("closer"), "since", stateLong("since")));
+    }
+
+    @Test
+    void eventsOfAFailedFlushAreWrittenBeforeTheNewerOnes() {
+        boolean[] failing = {true};
+        jdbi.getConfig(SqlStatements.class).addCustomizer(new StatementCustomizer() {
+            @Override
+            public void beforeExecution(PreparedStatement statement, StatementContext ctx) throws SQLException {
+                if (!failing[0] || !ctx.getRawSql().contains("INTO ticket_events")) return;
+                failing[0] = false;
+                // recorded while the flush is writing, so it is queued before the failed events are put back
+                events.record(new TicketEvent(1, TicketEvent.Type.WAITING, null, 200));
+                throw new SQLException("database is locked");
+            }
+        });
+        events.record(new TicketEvent(1, TicketEvent.Type.CLAIMED, 6L, 160));
+        assertThrows(RuntimeException.class, events::flush);
+
+        events.flush();
+
+        assertEquals(List.of("CLAIMED", "WAITING"), types());
+        assertEquals("WAITING", state("status"));
+        assertEquals(6L, stateLong("supporter"));
+    }
+
+    @Test
+    void timeInStateOnlyCountsSpansEndingSinceThen() {
+        // ticket 1 is claimed after 60s and waits 30s, ticket 2 was claimed before the window
+        events.record(new TicketEvent(2, TicketEvent.Type.CREATED, 5L, 10));
+        events.record(new TicketEvent(2, TicketEvent.Type.CLAIMED, 6L, 20));
+        events.record(new TicketEvent(1, TicketEvent.Type.CREATED, 5L, 1000));
+        events.record(new TicketEvent(1, TicketEvent.Type.CLAIMED, 6L, 1060));
+        events.record(new TicketEvent(1, TicketEvent.Type.WAITING, null, 1100));
+        events.record(new TicketEvent(1, TicketEvent.Type.CLOSED, 6L, 1130));
+        events.flush();
+
+        TicketEventData.TimeInState timeInState = events.timeInState(500);
+
+        assertEquals(1, timeInState.toClaim().count());
+        assertEquals(60, timeInState.toClaim().averageSeconds());
+        assertEquals(1, timeInState.waiting().count());
+        assertEquals(30, timeInState.waiting().averageSeconds());
+    }
+
+    private List<String> types() {
+        return jdbi.withHandle(h -> h.createQuery("SELECT type FROM ticket_events WHERE ticketID = 1 ORDER BY eventID").mapTo(String.class).list());
+    }
+
+    private String state(String column) {
+        return jdbi.withHandle(h -> h.createQuery("SELECT " + column + " FROM ticket_state WHERE ticketID = 1").mapTo(String.class).one());
+    }
+
+    private long stateLong(String column) {
+        return jdbi.withHandle(h -> h.createQuery("SELECT " + column + " FROM ticket_state WHERE ticketID = 1").mapTo(Long.class).one());
+    }
+}
@@ -0,0 +1,83 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.Message;
+import eu.greev.dcbot.ticketsystem.entities.TranscriptEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that no transcript change is lost or reordered while it is drained concurrently. Every producer adds log
+ * entries and edits to one transcript while the test keeps draining it, like the flush timer does.
+ */
+class TranscriptConcurrencyTest {
+    private static final int PRODUCERS = 8;
+    // odd, so the producers add one more log entry than edits
+    private static final int CHANGES = 20_001;
+
+    @Test
+    void drainsEveryChangeInOrder() throws Exception {
+        Transcript transcript = new Transcript(new ArrayList<>(), null);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        List<Future<?>> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < CHANGES; i++) {
+                    // the change number travels in the timestamp, the producer in the content
+                    if (i % 2 == 0) {
+                        transcript.addLogMessage(String.valueOf(producer), i, 1);
+                    } else {
+                        transcript.editMessage(producer + 1, String.valueOf(producer), i);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        List<TranscriptEntity> drained = new ArrayList<>();
+        start.countDown();
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+            drained.addAll(transcript.drainChanges());
+        }
+        for (Future<?> producer : producers) {
+            producer.get();
+        }
+        drained.addAll(transcript.drainChanges());
+
+        long[] next = new long[PRODUCERS];
+        int outOfOrder = 0;
+        for (TranscriptEntity entity : drained) {
+            int producer;
+            long number;
+            if (entity instanceof Edit edit) {
+                producer = Integer.parseInt(edit.edit());
+                number = edit.timeEdited();
+            } else {
+                Message message = (Message) entity;
+                producer = Integer.parseInt(message.getOriginalContent());
+                number = message.getTimestamp();
+            }
+            if (number != next[producer]) {
+                outOfOrder++;
+            }
+            next[producer] = number + 1;
+        }
+
+        assertEquals(PRODUCERS * CHANGES, drained.size());
+        assertEquals(0, outOfOrder);
+        assertEquals(PRODUCERS * ((CHANGES + 1) / 2), transcript.getMessages().size());
+    }
+}
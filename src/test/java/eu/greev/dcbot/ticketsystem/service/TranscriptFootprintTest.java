@@ -0,0 +1,132 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.ticketsystem.entities.Edit;
+import eu.greev.dcbot.ticketsystem.entities.Message;
+import eu.greev.dcbot.ticketsystem.entities.Ticket;
+import eu.greev.dcbot.utils.Config;
+import eu.greev.dcbot.utils.LongObjectMap;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the heap used by an in-memory transcript with JOL, loaded from the database like the bot does, against
+ * the layout from before messages only kept the author id. The ticket has three authors and every twentieth message
+ * is edited once.
+ */
+class TranscriptFootprintTest {
+    private static final int MESSAGES = 10_000;
+    private static final String[] AUTHORS = {"ticket-owner", "supporter", "second-supporter"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void messagesKeepOnlyTheAuthorId() throws IOException {
+        Jdbi jdbi = TestDatabase.create(directory);
+        TestDatabase.insertTicket(jdbi, 1);
+        insertMessages(jdbi);
+
+        Transcript transcript = new TranscriptData(jdbi, null).loadTranscript(1);
+        List<Message> messages = transcript.getMessages();
+        // written out and rendered with the names of the authors
+        for (Message message : messages) {
+            assertEquals(AUTHORS[(int) (message.getId() % AUTHORS.length)], transcript.getAuthorName(message));
+        }
+        File html = new HtmlTranscriptRenderer(new Config(), jdbi, new ArchiveData(jdbi), directory.resolve("transcripts").toFile())
+                .render(Ticket.builder().id(1).build());
+        assertTrue(Files.readString(html.toPath()).contains("<span class=\"author\">second-supporter</span>"));
+
+        long after = perMessage(transcript, messages.stream().flatMap(TranscriptFootprintTest::content));
+        long before = perMessage(baseline(messages, transcript), messages.stream().flatMap(TranscriptFootprintTest::content));
+
+        assertEquals(MESSAGES, messages.size());
+        assertTrue(after <= before - 8, "expected at least 8 bytes less per message than the " + before + " bytes before, was " + after);
+        // the message itself, its share of the index and list and the few edits
+        assertTrue(after < 110, "expected less than 110 bytes per message without the content, was " + after);
+    }
+
+    private static void insertMessages(Jdbi jdbi) {
+        jdbi.useTransaction(h -> {
+            PreparedBatch messages = h.prepareBatch("INSERT INTO messages(messageID, content, author, authorID, timeCreated, ticketID, isEdited) VALUES(?, ?, ?, ?, ?, 1, ?)");
+            PreparedBatch edits = h.prepareBatch("INSERT INTO edits(messageID, content, timeEdited) VALUES(?, ?, ?)");
+            for (int i = 0; i < MESSAGES; i++) {
+                long id = 1_200_000_000_000_000_000L + i;
+                messages.bind(0, id)
+                        .bind(1, "Message number " + i + " of the measured ticket")
+                        .bind(2, AUTHORS[(int) (id % AUTHORS.length)])
+                        .bind(3, 100_000_000_000_000_000L + id % AUTHORS.length)
+                        .bind(4, 1_700_000_000L + i)
+                        .bind(5, i % 20 == 0)
+                        .add();
+                if (i % 20 == 0) {
+                    edits.bind(0, id).bind(1, "Edited message number " + i).bind(2, 1_700_000_100L + i).add();
+                }
+            }
+            messages.execute();
+            edits.execute();
+        });
+    }
+
+    /**
+     * The same messages in the layout from before, each with its interned author name and ticket id.
+     */
+    private static List<Object> baseline(List<Message> messages, Transcript transcript) {
+        // grown while reading the rows, like the list of the loaded transcript
+        List<BaselineMessage> list = new ArrayList<>();
+        LongObjectMap<BaselineMessage> index = new LongObjectMap<>(messages.size());
+        for (Message message : messages) {
+            BaselineMessage old = new BaselineMessage(message.getId(), message.getOriginalContent(),
+                    new String(transcript.getAuthorName(message)).intern(), message.getTimestamp(), 1);
+            old.authorId = message.getAuthorId();
+            // the edits are loaded the same way
+            old.edits = message.getEdits().isEmpty() ? null : message.getEdits();
+            list.add(old);
+            index.put(old.id, old);
+        }
+        return List.of(list, index);
+    }
+
+    private static long perMessage(Object transcript, Stream<String> content) {
+        return (GraphLayout.parseInstance(transcript).totalSize() - GraphLayout.parseInstance(content.toArray()).totalSize()) / MESSAGES;
+    }
+
+    private static Stream<String> content(Message message) {
+        return Stream.concat(Stream.of(message.getOriginalContent()), message.getEdits().stream().map(Edit::edit));
+    }
+
+    @SuppressWarnings("unused")
+    private static final class BaselineMessage {
+        private final long id;
+        private final String originalContent;
+        private final String author;
+        private final long timestamp;
+        private final int ticketId;
+        private long authorId;
+        private boolean isBot;
+        private boolean isDeleted;
+        private List<Edit> edits;
+        private volatile boolean stored;
+
+        BaselineMessage(long id, String originalContent, String author, long timestamp, int ticketId) {
+            this.id = id;
+            this.originalContent = originalContent;
+            this.author = author;
+            this.timestamp = timestamp;
+            this.ticketId = ticketId;
+        }
+    }
+}
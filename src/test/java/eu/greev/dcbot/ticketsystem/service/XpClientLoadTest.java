@@ -0,0 +1,109 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import eu.greev.dcbot.utils.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends a few thousand awards through the {@link XpClient} to the {@link XpStubServer} over one multiplexed HTTP/2
+ * connection and checks that every award arrives exactly once.
+ */
+class XpClientLoadTest {
+    private static final int AWARDS = 2000;
+
+    private XpStubServer stub;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = new XpStubServer(5, 0);
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() throws Exception {
+        stub.close();
+    }
+
+    @Test
+    void singleAwardsUseHttp2() throws Exception {
+        Result result = run(1, false);
+
+        assertEquals(0, result.failures());
+        assertEquals(AWARDS, stub.getAwards().get());
+        assertEquals(0, stub.getDuplicates().get());
+        assertEquals(stub.getRequests().get(), stub.getHttp2Requests().get(), "all award requests should use HTTP/2");
+    }
+
+    @Test
+    void batchedGzipAwardsUseHttp2() throws Exception {
+        Result result = run(25, true);
+
+        assertEquals(0, result.failures());
+        assertEquals(AWARDS, stub.getAwards().get());
+        assertEquals(0, stub.getDuplicates().get());
+        assertTrue(stub.getRequests().get() < AWARDS, "awards should be batched");
+        assertEquals(stub.getRequests().get(), stub.getHttp2Requests().get(), "all award requests should use HTTP/2");
+    }
+
+    private Result run(int batchSize, boolean gzip) throws Exception {
+        Config config = new Config();
+        config.setXpApiUrl(stub.getUrl());
+        config.setXpApiKey("load-test");
+        config.setXpBatchSize(batchSize);
+        config.setXpParallelRequests(8);
+        config.setXpGzip(gzip);
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        // cleartext connections are upgraded to HTTP/2 by a request without a body, over TLS ALPN does it right away
+        HttpResponse<Void> upgrade = httpClient.send(HttpRequest.newBuilder(URI.create(stub.getUrl() + "/")).GET().build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(HttpClient.Version.HTTP_2, upgrade.version());
+        XpClient client = new XpClient(config, httpClient);
+
+        String body = sampleAward();
+        AtomicLong failures = new AtomicLong();
+        // keep the client's queue from overflowing, the bot retries rejected awards through the outbox
+        Semaphore inFlight = new Semaphore(config.getXpQueueCapacity());
+        CompletableFuture<?>[] results = new CompletableFuture<?>[AWARDS];
+        for (int i = 0; i < AWARDS; i++) {
+            inFlight.acquire();
+            results[i] = client.submit("load-test:" + i, body).whenComplete((status, error) -> {
+                if (error != null || status / 100 != 2) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+        CompletableFuture.allOf(results).exceptionally(e -> null).join();
+        return new Result(failures.get());
+    }
+
+    private static String sampleAward() {
+        StringBuilder messages = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) messages.append(',');
+            messages.append("{\"author\":\"").append(i % 2 == 0 ? "owner" : "helper")
+                    .append("\",\"content\":\"Sample message number ").append(i).append(" of the load test ticket\"}");
+        }
+        return "{\"channelId\":\"1\",\"supporterId\":\"123456789012345678\",\"ticketId\":\"1\",\"category\":\"General\"," +
+                "\"ownerId\":\"123456789012345679\",\"initialReason\":\"load test\",\"helperIds\":[\"123456789012345678\"]," +
+                "\"hideStats\":false,\"rating\":5,\"messages\":[" + messages + "]}";
+    }
+
+    private record Result(long failures) {}
+}
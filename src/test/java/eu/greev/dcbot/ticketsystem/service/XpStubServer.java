@@ -0,0 +1,151 @@
+package eu.greev.dcbot.ticketsystem.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the XP API which speaks HTTP/2 in cleartext (h2c).
+ * <p>
+ * It accepts {@code /tickets/award-xp} and {@code /tickets/award-xp/batch}, understands gzip bodies, remembers
+ * idempotency keys to count duplicates, counts the requests which came in over HTTP/2 and can simulate latency and
+ * failing requests. Any other path answers 204, a GET to it lets a client upgrade its connection, which the JDK
+ * client only does for requests without a body.
+ */
+class XpStubServer implements AutoCloseable {
+    private final Server server;
+    private final ServerConnector connector;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final long latencyMillis;
+    private final double failureRate;
+    private final Set<String> seenKeys = ConcurrentHashMap.newKeySet();
+
+    @Getter private final AtomicLong requests = new AtomicLong();
+    @Getter private final AtomicLong http2Requests = new AtomicLong();
+    @Getter private final AtomicLong awards = new AtomicLong();
+    @Getter private final AtomicLong duplicates = new AtomicLong();
+    @Getter private final AtomicLong failedRequests = new AtomicLong();
+    @Getter private final AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * @param latencyMillis time every award request takes
+     * @param failureRate   share of award requests answered with 503, between 0 and 1
+     */
+    XpStubServer(long latencyMillis, double failureRate) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.server = new Server();
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        this.connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig), new HTTP2CServerConnectionFactory(httpConfig));
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new Handler.Abstract() {
+            @Override
+            public boolean handle(Request request, Response response, Callback callback) throws Exception {
+                XpStubServer.this.handle(request, response, callback);
+                return true;
+            }
+        });
+    }
+
+    void start() throws Exception {
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + connector.getLocalPort();
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stop();
+    }
+
+    private void handle(Request request, Response response, Callback callback) throws Exception {
+        String path = request.getHttpURI().getPath();
+        boolean batch = path.equals("/tickets/award-xp/batch");
+        if (!batch && !path.equals("/tickets/award-xp")) {
+            response.setStatus(204);
+            callback.succeeded();
+            return;
+        }
+
+        requests.incrementAndGet();
+        if (request.getConnectionMetaData().getHttpVersion() == HttpVersion.HTTP_2) {
+            http2Requests.incrementAndGet();
+        }
+        byte[] body;
+        try (InputStream in = Content.Source.asInputStream(request)) {
+            body = in.readAllBytes();
+        }
+        receivedBytes.addAndGet(body.length);
+        if ("gzip".equalsIgnoreCase(request.getHeaders().get(HttpHeader.CONTENT_ENCODING))) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            }
+        }
+
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failedRequests.incrementAndGet();
+            respond(response, callback, 503, "{\"error\":\"stub failure\"}");
+            return;
+        }
+
+        if (!batch) {
+            record(request.getHeaders().get("Idempotency-Key"));
+            respond(response, callback, 200, "{\"success\":true}");
+            return;
+        }
+
+        JsonNode awardRequest = objectMapper.readTree(new String(body, StandardCharsets.UTF_8));
+        ObjectNode result = objectMapper.createObjectNode();
+        ArrayNode results = result.putArray("results");
+        for (JsonNode award : awardRequest.path("awards")) {
+            String key = award.path("idempotencyKey").asText(null);
+            record(key);
+            results.addObject().put("idempotencyKey", key).put("status", 200);
+        }
+        respond(response, callback, 200, objectMapper.writeValueAsString(result));
+    }
+
+    private void record(String idempotencyKey) {
+        awards.incrementAndGet();
+        if (idempotencyKey != null && !seenKeys.add(idempotencyKey)) {
+            duplicates.incrementAndGet();
+        }
+    }
+
+    private static void respond(Response response, Callback callback, int status, String body) {
+        response.setStatus(status);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, "application/json");
+        response.write(true, ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)), callback);
+    }
+}
@@ -0,0 +1,45 @@
+package eu.greev.dcbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinHashTest {
+    private static final String REPORT = "I can't join the survival server since the update, it says my connection timed out. " +
+            "I already restarted my game and my router.";
+
+    @Test
+    void ignoresCaseLinksAndPunctuation() {
+        int[] signature = MinHash.signature(REPORT, 10);
+        int[] other = MinHash.signature(REPORT.toUpperCase().replace(",", " ;") + " https://example.com/screenshot.png", 10);
+
+        assertEquals(MinHash.SIZE, signature.length);
+        assertArrayEquals(signature, other);
+        assertEquals(1.0, MinHash.similarity(signature, other));
+    }
+
+    @Test
+    void typosAndReorderedSentencesStaySimilar() {
+        int[] signature = MinHash.signature(REPORT, 10);
+        int[] other = MinHash.signature("I already restarted my game and my ruter. I cant join the survival server since the update, " +
+                "it says my conection timed out.", 10);
+
+        assertTrue(MinHash.similarity(signature, other) >= 0.5, "similarity " + MinHash.similarity(signature, other));
+    }
+
+    @Test
+    void unrelatedTextsDiffer() {
+        int[] signature = MinHash.signature(REPORT, 10);
+        int[] other = MinHash.signature("Someone scammed me out of my diamond sword at spawn yesterday evening, here is his name.", 10);
+
+        assertTrue(MinHash.similarity(signature, other) < 0.2, "similarity " + MinHash.similarity(signature, other));
+    }
+
+    @Test
+    void shortTextsHaveNoSignature() {
+        assertNull(MinHash.signature("help!!", 10));
+    }
+}
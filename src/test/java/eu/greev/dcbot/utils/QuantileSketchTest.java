@@ -0,0 +1,87 @@
+package eu.greev.dcbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantileSketchTest {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    @Test
+    void percentilesOfManySamplesStayWithinHalfAPercent() {
+        long[] samples = responseTimes(200_000, 1);
+        QuantileSketch sketch = new QuantileSketch();
+        for (long sample : samples) {
+            sketch.add(sample);
+        }
+
+        assertEquals(samples.length, sketch.count());
+        assertWithinHalfAPercent(samples, sketch);
+    }
+
+    @Test
+    void mergedDailySketchesMatchOneSketchOfTheWindow() {
+        long[] samples = responseTimes(200_000, 2);
+        QuantileSketch[] days = new QuantileSketch[30];
+        QuantileSketch whole = new QuantileSketch();
+        for (int i = 0; i < samples.length; i++) {
+            if (days[i % days.length] == null) days[i % days.length] = new QuantileSketch();
+            days[i % days.length].add(samples[i]);
+            whole.add(samples[i]);
+        }
+
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch day : days) {
+            merged.merge(day);
+        }
+
+        assertEquals(whole.count(), merged.count());
+        assertEquals(Arrays.toString(whole.toBytes()), Arrays.toString(merged.toBytes()));
+        assertWithinHalfAPercent(samples, merged);
+    }
+
+    @Test
+    void survivesSerialization() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (long sample : responseTimes(200_000, 3)) {
+            sketch.add(sample);
+        }
+        sketch.add(0);
+        sketch.add(Long.MAX_VALUE);
+
+        byte[] bytes = sketch.toBytes();
+        QuantileSketch read = QuantileSketch.fromBytes(bytes);
+
+        assertTrue(bytes.length < 8 * 1024, bytes.length + " bytes");
+        assertEquals(sketch.count(), read.count());
+        for (double quantile : new double[]{0, 0.5, 0.9, 0.99, 1}) {
+            assertEquals(sketch.quantile(quantile), read.quantile(quantile));
+        }
+        assertEquals(0, QuantileSketch.fromBytes(new QuantileSketch().toBytes()).count());
+    }
+
+    /** Log-normal durations in seconds around a median of 15 minutes, some tickets taking days. */
+    private static long[] responseTimes(int count, long seed) {
+        Random random = new Random(seed);
+        long[] samples = new long[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = Math.round(Math.exp(Math.log(900) + 1.5 * random.nextGaussian()));
+        }
+        return samples;
+    }
+
+    private static void assertWithinHalfAPercent(long[] samples, QuantileSketch sketch) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            long exact = sorted[(int) Math.ceil(quantile * sorted.length) - 1];
+            long approximate = sketch.quantile(quantile);
+            assertTrue(Math.abs(approximate - exact) <= exact * 0.005,
+                    "p" + Math.round(quantile * 100) + " " + approximate + " instead of " + exact);
+        }
+    }
+}